@@ -0,0 +1,305 @@
+package com.nextlabs.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.nextlabs.provider.ResourceAttributeProvider;
+import com.nextlabs.provider.UserAttributeProvider;
+
+/**
+ * Embedded H2 database in SQL Server mode holding the DSF referential tables, and the plugin properties pointing at
+ * it. Identifiers are case insensitive like on SQL Server, the queries of the providers name the configured columns
+ * in lower case.
+ *
+ * The database is in memory, or in a file named after the shape of the data which is reused by the next runs, so
+ * millions of rows are generated once.
+ */
+public class BenchmarkDatabase implements AutoCloseable {
+
+	private static final Log LOG = LogFactory.getLog(BenchmarkDatabase.class);
+	private static final String DRIVER = "org.h2.Driver";
+	private static final String URL = "jdbc:h2:%s;MODE=MSSQLServer;CASE_INSENSITIVE_IDENTIFIERS=TRUE;DB_CLOSE_DELAY=-1";
+	private static final String USERNAME = "sa";
+	private static final String PASSWORD = "benchmark";
+	private static final String SCHEMA = "SCH_DSF";
+	private static final String SCHEMA_EXISTS_SQL_QUERY = "SELECT COUNT(*) FROM INFORMATION_SCHEMA.SCHEMATA WHERE SCHEMA_NAME = ?";
+	private static final AtomicInteger SEQUENCE = new AtomicInteger();
+
+	private final String url;
+	private final DataGenerator generator;
+	private final File directory;
+
+	private BenchmarkDatabase(String url, DataGenerator generator, File directory) {
+		this.url = url;
+		this.generator = generator;
+		this.directory = directory;
+	}
+
+	/**
+	 * Create an in memory database with one program, one EXCC2T and one MAEX row per item and one program per user
+	 * @param items Number of DARIT items
+	 * @param programs Number of PROGHD programs, at least 1
+	 * @param users Number of USRPD users
+	 * @return Seeded database
+	 * @throws Exception Error creating the database
+	 */
+	public static BenchmarkDatabase create(int items, int programs, int users) throws Exception {
+		return create(new DataGenerator(items, programs, users), null);
+	}
+
+	/**
+	 * Open the database of the generator, generating it if it doesn't exist yet
+	 * @param generator Generator of the tables
+	 * @param databaseDirectory Directory of the database files, null for an in memory database
+	 * @return Seeded database
+	 * @throws Exception Error creating the database
+	 */
+	public static BenchmarkDatabase create(DataGenerator generator, File databaseDirectory) throws Exception {
+
+		Class.forName(DRIVER);
+
+		String name = generator.getName() + "-" + SEQUENCE.incrementAndGet();
+		File directory = new File(System.getProperty("java.io.tmpdir"), "ReferentialBenchmark-" + name);
+		directory.mkdirs();
+
+		String location = (databaseDirectory == null) ? "mem:" + name
+				: "file:" + new File(databaseDirectory, generator.getName()).getAbsolutePath();
+
+		BenchmarkDatabase database = new BenchmarkDatabase(String.format(URL, location), generator, directory);
+		database.seed();
+
+		return database;
+	}
+
+	private void seed() throws SQLException {
+
+		try (Connection con = DriverManager.getConnection(url, USERNAME, PASSWORD)) {
+
+			boolean exists;
+
+			try (PreparedStatement pst = con.prepareStatement(SCHEMA_EXISTS_SQL_QUERY)) {
+				pst.setString(1, SCHEMA);
+				try (ResultSet rs = pst.executeQuery()) {
+					exists = rs.next() && rs.getInt(1) > 0;
+				}
+			}
+
+			if (exists) {
+				LOG.info(String.format("Reusing database [%s]", url));
+				return;
+			}
+
+			try (Statement st = con.createStatement()) {
+				st.execute("CREATE SCHEMA " + SCHEMA);
+				st.execute("SET SCHEMA " + SCHEMA);
+			}
+
+			generator.generate(con);
+		}
+	}
+
+	/**
+	 * @return Generator of the tables, knowing the expected attributes of every object
+	 */
+	public DataGenerator getGenerator() {
+		return generator;
+	}
+
+	/**
+	 * @param n Number of the item, from 1 to the number of items
+	 * @return OBID of the item
+	 */
+	public static String itemId(int n) {
+		return DataGenerator.itemId(n);
+	}
+
+	/**
+	 * @param n Number of the program, from 1 to the number of programs
+	 * @return ID_HD of the program
+	 */
+	public static String programId(int n) {
+		return DataGenerator.programId(n);
+	}
+
+	/**
+	 * @param n Number of the user, from 1 to the number of users
+	 * @return LogonID of the user
+	 */
+	public static String userId(int n) {
+		return DataGenerator.userId(n);
+	}
+
+	/**
+	 * @param n Number of the user, from 1 to the number of users
+	 * @return APLO LogID of the user
+	 */
+	public static String loginId(int n) {
+		return DataGenerator.loginId(n);
+	}
+
+	/**
+	 * Properties of the resource plugin, as etc/ResourceReferentialPlugin.properties but without the purge timer
+	 * and the snapshot, so a benchmark decides when the cache is refreshed
+	 * @param refreshParallelism Number of key ranges loaded concurrently by a full refresh
+	 * @param poolSize Size of the connection pool
+	 * @return Properties of the resource plugin
+	 */
+	public Properties resourceProperties(int refreshParallelism, int poolSize) {
+
+		Properties props = commonProperties(refreshParallelism, poolSize);
+		props.setProperty("time_to_live", "1_DAYS");
+		props.setProperty("negative_cache_time_to_live", "1_MINS");
+		props.setProperty("program_index", "true");
+		props.setProperty("miss_batch_window_ms", "2");
+		props.setProperty("miss_batch_max_keys", "50");
+		props.setProperty("DB_1_key_attributes", "ci:id:obid");
+		props.setProperty("DB_1_attributes_to_pull", "single:excc1:id_excc1t,single:indcl:id_indct,single:milcl:id_milct");
+		props.setProperty("DB_1_proghd_attributes_to_pull", "multi:hcp:progk,multi:hcpversion:provs");
+		props.setProperty("DB_1_progit_attributes_to_pull",
+				"multi:hcp_indct:id_indct,multi:hcp_milct:id_milct,multi:hcp_excc:id_excc1t");
+		props.setProperty("DB_1_excc2t_attributes_to_pull", "multi:excc2:excc2");
+		props.setProperty("DB_1_maex_attributes_to_pull", "multi:excc2_1:embgr");
+		props.setProperty("DB_1_prog_key_attributes", "ci:id:id_hd");
+		props.setProperty("DB_1_prog_attributes_to_pull",
+				"multi:hcp_indct:id_indct,multi:hcp_milct:id_milct,multi:hcp_excc:id_excc1t");
+		return props;
+	}
+
+	/**
+	 * Properties of the user plugin, as etc/UserReferentialPlugin.properties but without the purge timer and the
+	 * snapshot, so a benchmark decides when the cache is refreshed
+	 * @param refreshParallelism Number of key ranges loaded concurrently by a full refresh
+	 * @param poolSize Size of the connection pool
+	 * @return Properties of the user plugin
+	 */
+	public Properties userProperties(int refreshParallelism, int poolSize) {
+
+		Properties props = commonProperties(refreshParallelism, poolSize);
+		props.setProperty("time_to_live", "1_DAYS");
+		props.setProperty("negative_cache_time_to_live", "5_MINS");
+		props.setProperty("DB_1_key_attributes", "ci:logonid:logonid,ci:logid:logid");
+		props.setProperty("DB_1_attributes_to_pull",
+				"single:service:department,single:company:company,single:country:CountryCode,single:userid:LogonID,"
+						+ "single:nationality:Nationality,single:countrybirth:CountryBirth,"
+						+ "single:companycountry:employmentlocation");
+		props.setProperty("DB_1_link_attributes_to_pull", "multi:userhcp:progk,multi:userversion:provs");
+		return props;
+	}
+
+	private Properties commonProperties(int refreshParallelism, int poolSize) {
+
+		Properties props = new Properties();
+		// the trace of the requests is written at debug, only the slow requests are logged
+		props.setProperty("request_log_level", "debug");
+		props.setProperty("access_log_sample_rate", "0");
+		props.setProperty("access_log_slow_threshold_ms", "100");
+		props.setProperty("cache_heap_in_mb", "512");
+		props.setProperty("cache_max_object", "50000");
+		props.setProperty("cache_offheap_in_mb", "0");
+		props.setProperty("cache_disk_in_mb", "0");
+		props.setProperty("cache_snapshot", "false");
+		props.setProperty("number_of_retries", "0");
+		props.setProperty("interval_between_retries", "1");
+		props.setProperty("negative_cache_max_entries", "10000");
+		props.setProperty("expired_mode", "none");
+		props.setProperty("refresh", "true");
+		props.setProperty("refresh_parallelism", String.valueOf(refreshParallelism));
+		props.setProperty("preload", "false");
+		props.setProperty("delta_refresh_mode", "none");
+		props.setProperty("null_string", "NO_DATA");
+		props.setProperty("fetch_size", "1000");
+		props.setProperty("DB_1_database_url", url);
+		props.setProperty("DB_1_database_driver_name", DRIVER);
+		props.setProperty("DB_1_database_username", USERNAME);
+		props.setProperty("DB_1_database_password", PASSWORD);
+		props.setProperty("DB_1_database_password_encrypted", "false");
+		props.setProperty("DB_1_database_schema_name", SCHEMA);
+		props.setProperty("DB_1_database_pool_size", String.valueOf(poolSize));
+		props.setProperty("DB_1_database_connection_timeout_ms", "30000");
+		props.setProperty("DB_1_database_leak_detection_threshold_ms", "0");
+		return props;
+	}
+
+	/**
+	 * Write the properties to the file the profile reads its password from
+	 * @param props Properties of a plugin
+	 * @param fileName Name of the properties file
+	 * @return Path of the properties file
+	 * @throws IOException Error writing the file
+	 */
+	public String store(Properties props, String fileName) throws IOException {
+
+		File file = new File(directory, fileName);
+
+		try (OutputStream out = new FileOutputStream(file)) {
+			props.store(out, "Referential plugin benchmark");
+		}
+
+		return file.getAbsolutePath();
+	}
+
+	/**
+	 * Initialize the resource plugin on this database, the cache is empty until it is refreshed
+	 * @param refreshParallelism Number of key ranges loaded concurrently by a full refresh
+	 * @param poolSize Size of the connection pool
+	 * @return Initialized plugin
+	 * @throws IOException Error writing the properties file
+	 */
+	public ResourceAttributeProvider startResourceProvider(int refreshParallelism, int poolSize) throws IOException {
+
+		Properties props = resourceProperties(refreshParallelism, poolSize);
+
+		ResourceAttributeProvider provider = new ResourceAttributeProvider();
+		provider.init(props, store(props, "ResourceReferentialPlugin.properties"));
+
+		return provider;
+	}
+
+	/**
+	 * Initialize the user plugin on this database, the cache is empty until it is refreshed
+	 * @param refreshParallelism Number of key ranges loaded concurrently by a full refresh
+	 * @param poolSize Size of the connection pool
+	 * @return Initialized plugin
+	 * @throws IOException Error writing the properties file
+	 */
+	public UserAttributeProvider startUserProvider(int refreshParallelism, int poolSize) throws IOException {
+
+		Properties props = userProperties(refreshParallelism, poolSize);
+
+		UserAttributeProvider provider = new UserAttributeProvider();
+		provider.init(props, store(props, "UserReferentialPlugin.properties"));
+
+		return provider;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.AutoCloseable#close()
+	 */
+	@Override
+	public void close() throws SQLException {
+
+		// an in memory database is dropped, a file database is kept for the next runs
+		try (Connection con = DriverManager.getConnection(url, USERNAME, PASSWORD);
+				Statement st = con.createStatement()) {
+			st.execute("SHUTDOWN");
+		}
+
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+}
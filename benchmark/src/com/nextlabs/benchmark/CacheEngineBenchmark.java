@@ -0,0 +1,169 @@
+package com.nextlabs.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.nextlabs.cache.ResourceCacheEngine;
+import com.nextlabs.cache.UserCacheEngine;
+import com.nextlabs.common.ResourceObject;
+import com.nextlabs.common.UserObject;
+import com.nextlabs.db.DBResouceProvider;
+import com.nextlabs.db.DBUserProvider;
+
+/**
+ * ResourceCacheEngine and UserCacheEngine get and put under contention, on the cache regions loaded by a full
+ * refresh. The get benchmarks run on every core, the readWrite groups run three readers against a writer putting the
+ * objects back the way a miss or a delta refresh does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Dorg.apache.commons.logging.Log=org.apache.commons.logging.impl.SimpleLog",
+		"-Dorg.apache.commons.logging.simplelog.defaultlog=warn" })
+@State(Scope.Benchmark)
+public class CacheEngineBenchmark {
+
+	@Param("20000")
+	public int items;
+
+	@Param("2000")
+	public int programs;
+
+	@Param("20000")
+	public int users;
+
+	private BenchmarkDatabase database;
+	private ResourceCacheEngine resourceCache;
+	private UserCacheEngine userCache;
+	private String[] itemIds;
+	private String[] programIds;
+	private String[] userIds;
+	private ResourceObject[] itemObjects;
+	private UserObject[] userObjects;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+
+		database = BenchmarkDatabase.create(items, programs, users);
+		database.startResourceProvider(1, 10);
+		database.startUserProvider(1, 10);
+
+		DBResouceProvider.getInstance().refreshCache();
+		DBUserProvider.getInstance().refreshCache();
+
+		resourceCache = ResourceCacheEngine.getInstance();
+		userCache = UserCacheEngine.getInstance();
+
+		itemIds = new String[items];
+		itemObjects = new ResourceObject[items];
+		for (int i = 0; i < items; i++) {
+			// the PEP sends the OBID as stored, the lookup lower cases it
+			itemIds[i] = BenchmarkDatabase.itemId(i + 1);
+			itemObjects[i] = loaded(resourceCache.getItemObjectFromCache(itemIds[i]), itemIds[i]);
+		}
+
+		programIds = new String[programs];
+		for (int i = 0; i < programs; i++) {
+			programIds[i] = BenchmarkDatabase.programId(i + 1);
+		}
+
+		userIds = new String[users];
+		userObjects = new UserObject[users];
+		for (int i = 0; i < users; i++) {
+			userIds[i] = BenchmarkDatabase.userId(i + 1);
+			userObjects[i] = loaded(userCache.getUserObjectFromCache(userIds[i]), userIds[i]);
+		}
+	}
+
+	private static <T> T loaded(T obj, String id) {
+		if (obj == null) {
+			throw new IllegalStateException(String.format("[%s] was not loaded by the refresh", id));
+		}
+		return obj;
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		database.close();
+	}
+
+	/**
+	 * Position of a benchmark thread in the ids, the threads start apart so they don't read the same entries
+	 */
+	@State(Scope.Thread)
+	public static class Cursor {
+
+		private int next = -1;
+
+		int next(int bound) {
+			if (next < 0) {
+				next = (int) ((Thread.currentThread().getId() * 7919) % bound);
+			}
+			next = (next + 1) % bound;
+			return next;
+		}
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public ResourceObject getItem(Cursor cursor) {
+		return resourceCache.getItemObjectFromCache(itemIds[cursor.next(items)]);
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public ResourceObject getProgram(Cursor cursor) {
+		return resourceCache.getProgObjectFromCache(programIds[cursor.next(programs)]);
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public UserObject getUser(Cursor cursor) {
+		return userCache.getUserObjectFromCache(userIds[cursor.next(users)]);
+	}
+
+	@Benchmark
+	@Group("itemReadWrite")
+	@GroupThreads(3)
+	public ResourceObject itemReader(Cursor cursor) {
+		return resourceCache.getItemObjectFromCache(itemIds[cursor.next(items)]);
+	}
+
+	@Benchmark
+	@Group("itemReadWrite")
+	@GroupThreads(1)
+	public void itemWriter(Cursor cursor) {
+		resourceCache.writeObjectToItemCache(itemObjects[cursor.next(items)]);
+	}
+
+	@Benchmark
+	@Group("userReadWrite")
+	@GroupThreads(3)
+	public UserObject userReader(Cursor cursor) {
+		return userCache.getUserObjectFromCache(userIds[cursor.next(users)]);
+	}
+
+	@Benchmark
+	@Group("userReadWrite")
+	@GroupThreads(1)
+	public void userWriter(Cursor cursor) {
+		userCache.writeObjectToUserCache(userObjects[cursor.next(users)]);
+	}
+}
@@ -0,0 +1,68 @@
+package com.nextlabs.benchmark;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.nextlabs.db.DBResouceProvider;
+import com.nextlabs.db.ResourceDBProfile;
+
+/**
+ * 64 threads borrowing and returning a connection of the resource pool, as concurrent cache misses do. The pool is
+ * smaller than the number of threads by default, so the time includes waiting for a connection.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Dorg.apache.commons.logging.Log=org.apache.commons.logging.impl.SimpleLog",
+		"-Dorg.apache.commons.logging.simplelog.defaultlog=warn" })
+@State(Scope.Benchmark)
+public class ConnectionPoolBenchmark {
+
+	@Param({ "10", "64" })
+	public int poolSize;
+
+	private BenchmarkDatabase database;
+	private DBResouceProvider provider;
+	private ResourceDBProfile profile;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+
+		database = BenchmarkDatabase.create(1, 1, 0);
+		database.startResourceProvider(1, poolSize);
+
+		provider = DBResouceProvider.getInstance();
+		profile = provider.getProfiles().get(0);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		database.close();
+	}
+
+	@Benchmark
+	@Threads(64)
+	public void borrowConnection(Blackhole blackhole) throws SQLException {
+		try (Connection con = provider.getConnectionFromPool(profile)) {
+			blackhole.consume(con);
+		}
+	}
+}
@@ -0,0 +1,443 @@
+package com.nextlabs.benchmark;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Generate the DSF referential tables: DARIT with DAR_PROGT, PROGHD, PROGIT, EXCC2T and MAEX for the resource plugin,
+ * USRPD with USRAT_APLO and USRAT_PROGT for the user plugin.
+ *
+ * The values are computed from the number of the object, so the expected attributes of any object are known without
+ * reading the tables back. An item has 1 to programs_per_item programs and 1 to rows_per_item EXCC2T and MAEX rows,
+ * a user 1 to programs_per_user programs, and every users_without_login th user has no APLO login. Rows are inserted
+ * in batches committed as they go and the indexes are created once the tables are filled, so the generator scales
+ * to millions of rows.
+ */
+public class DataGenerator {
+
+	private static final Log LOG = LogFactory.getLog(DataGenerator.class);
+	private static final int BATCH_SIZE = 1000;
+	private static final int PROGRESS_INTERVAL = 100000;
+
+	private static final String[] TABLES = {
+			"CREATE TABLE DARIT (ID BIGINT PRIMARY KEY, OBID VARCHAR(40) NOT NULL, ID_EXCC1T VARCHAR(20), ID_INDCT VARCHAR(20), ID_MILCT VARCHAR(20))",
+			"CREATE TABLE PROGHD (ID_HD INT PRIMARY KEY, PROGK VARCHAR(20), PROGN VARCHAR(80), PROVS VARCHAR(20))",
+			"CREATE TABLE PROGIT (ID_HD INT NOT NULL, ID_INDCT VARCHAR(20), ID_MILCT VARCHAR(20), ID_EXCC1T VARCHAR(20))",
+			"CREATE TABLE DAR_PROGT (ID_DARIT BIGINT NOT NULL, ID_HD INT NOT NULL)",
+			"CREATE TABLE EXCC2T (ID_DARIT BIGINT NOT NULL, EXCC2 VARCHAR(20))",
+			"CREATE TABLE MAEX (MATNR VARCHAR(40) NOT NULL, EMBGR VARCHAR(20))",
+			"CREATE TABLE USRPD (ID BIGINT PRIMARY KEY, LOGONID VARCHAR(40), DEPARTMENT VARCHAR(40), COMPANY VARCHAR(40), COUNTRYCODE VARCHAR(4), NATIONALITY VARCHAR(4), COUNTRYBIRTH VARCHAR(4), EMPLOYMENTLOCATION VARCHAR(4))",
+			"CREATE TABLE USRAT_APLO (ID_USRPD BIGINT NOT NULL, LOGID VARCHAR(40))",
+			"CREATE TABLE USRAT_PROGT (ID BIGINT NOT NULL, ID_HD INT NOT NULL)" };
+
+	// the columns the plugins look up, join and order on
+	private static final String[] INDEXES = {
+			"CREATE INDEX DARIT_OBID ON DARIT (OBID)",
+			"CREATE INDEX PROGIT_ID_HD ON PROGIT (ID_HD)",
+			"CREATE INDEX DAR_PROGT_ID_DARIT ON DAR_PROGT (ID_DARIT)",
+			"CREATE INDEX EXCC2T_ID_DARIT ON EXCC2T (ID_DARIT)",
+			"CREATE INDEX MAEX_MATNR ON MAEX (MATNR)",
+			"CREATE INDEX USRPD_LOGONID ON USRPD (LOGONID)",
+			"CREATE INDEX USRAT_APLO_ID_USRPD ON USRAT_APLO (ID_USRPD)",
+			"CREATE INDEX USRAT_APLO_LOGID ON USRAT_APLO (LOGID)",
+			"CREATE INDEX USRAT_PROGT_ID ON USRAT_PROGT (ID)" };
+
+	private static final String[] COUNTRIES = { "FR", "DE", "ES", "GB", "US" };
+
+	private final int items;
+	private final int programs;
+	private final int users;
+	private int programsPerItem = 1;
+	private int rowsPerItem = 1;
+	private int programsPerUser = 1;
+	private int usersWithoutLogin = 0;
+
+	/**
+	 * @param items Number of DARIT items
+	 * @param programs Number of PROGHD programs, at least 1
+	 * @param users Number of USRPD users
+	 */
+	public DataGenerator(int items, int programs, int users) {
+		this.items = Math.max(0, items);
+		this.programs = Math.max(1, programs);
+		this.users = Math.max(0, users);
+	}
+
+	/**
+	 * @param programsPerItem Maximum number of programs of an item, DAR_PROGT rows
+	 */
+	public void setProgramsPerItem(int programsPerItem) {
+		this.programsPerItem = Math.max(1, Math.min(programs, programsPerItem));
+	}
+
+	/**
+	 * @param rowsPerItem Maximum number of EXCC2T and of MAEX rows of an item
+	 */
+	public void setRowsPerItem(int rowsPerItem) {
+		this.rowsPerItem = Math.max(1, rowsPerItem);
+	}
+
+	/**
+	 * @param programsPerUser Maximum number of programs of a user, USRAT_PROGT rows
+	 */
+	public void setProgramsPerUser(int programsPerUser) {
+		this.programsPerUser = Math.max(1, Math.min(programs, programsPerUser));
+	}
+
+	/**
+	 * @param usersWithoutLogin Every usersWithoutLogin th user has no APLO login, 0 if every user has one
+	 */
+	public void setUsersWithoutLogin(int usersWithoutLogin) {
+		this.usersWithoutLogin = Math.max(0, usersWithoutLogin);
+	}
+
+	/**
+	 * @return Name identifying the volume and the shape of the generated data
+	 */
+	public String getName() {
+		return String.format("dsf-%d-%d-%d-%d-%d-%d-%d", items, programs, users, programsPerItem, rowsPerItem,
+				programsPerUser, usersWithoutLogin);
+	}
+
+	/**
+	 * Create the tables in the current schema of the connection and fill them
+	 * @param con Database connection, left in auto commit
+	 * @return Number of rows inserted
+	 * @throws SQLException Database Exception
+	 */
+	public long generate(Connection con) throws SQLException {
+
+		long startTime = System.currentTimeMillis();
+		long rows = 0;
+
+		try (Statement st = con.createStatement()) {
+			for (String ddl : TABLES) {
+				st.execute(ddl);
+			}
+		}
+
+		con.setAutoCommit(false);
+
+		try {
+			rows += generatePrograms(con);
+			rows += generateItems(con);
+			rows += generateUsers(con);
+		} finally {
+			con.setAutoCommit(true);
+		}
+
+		long indexStartTime = System.currentTimeMillis();
+
+		try (Statement st = con.createStatement()) {
+			for (String ddl : INDEXES) {
+				st.execute(ddl);
+			}
+		}
+
+		long duration = Math.max(1, System.currentTimeMillis() - startTime);
+
+		LOG.info(String.format("Generated [%d] rows in %dms, indexes in %dms, [%d] rows per second", rows, duration,
+				System.currentTimeMillis() - indexStartTime, rows * 1000 / duration));
+
+		return rows;
+	}
+
+	private long generatePrograms(Connection con) throws SQLException {
+
+		long rows = 0;
+
+		try (PreparedStatement progHD = con.prepareStatement("INSERT INTO PROGHD VALUES (?, ?, ?, ?)");
+				PreparedStatement progIT = con.prepareStatement("INSERT INTO PROGIT VALUES (?, ?, ?, ?)")) {
+			for (int p = 1; p <= programs; p++) {
+				progHD.setInt(1, p);
+				progHD.setString(2, programKey(p));
+				progHD.setString(3, "Program " + p);
+				progHD.setString(4, programVersion(p));
+				progHD.addBatch();
+
+				progIT.setInt(1, p);
+				progIT.setString(2, indClass(p));
+				progIT.setString(3, milClass(p));
+				progIT.setString(4, excClass(p));
+				progIT.addBatch();
+				rows += 2;
+
+				flush(con, p, "programs", progHD, progIT);
+			}
+			flush(con, 0, "programs", progHD, progIT);
+		}
+
+		return rows;
+	}
+
+	private long generateItems(Connection con) throws SQLException {
+
+		long rows = 0;
+
+		try (PreparedStatement darit = con.prepareStatement("INSERT INTO DARIT VALUES (?, ?, ?, ?, ?)");
+				PreparedStatement darProgt = con.prepareStatement("INSERT INTO DAR_PROGT VALUES (?, ?)");
+				PreparedStatement excc2t = con.prepareStatement("INSERT INTO EXCC2T VALUES (?, ?)");
+				PreparedStatement maex = con.prepareStatement("INSERT INTO MAEX VALUES (?, ?)")) {
+			for (int i = 1; i <= items; i++) {
+				darit.setLong(1, i);
+				darit.setString(2, itemId(i));
+				darit.setString(3, excClass(i));
+				darit.setString(4, indClass(i));
+				darit.setString(5, milClass(i));
+				darit.addBatch();
+				rows++;
+
+				for (int p : getItemPrograms(i)) {
+					darProgt.setLong(1, i);
+					darProgt.setInt(2, p);
+					darProgt.addBatch();
+					rows++;
+				}
+
+				for (String excc2 : getItemExcc2(i)) {
+					excc2t.setLong(1, i);
+					excc2t.setString(2, excc2);
+					excc2t.addBatch();
+					rows++;
+				}
+
+				for (String embgr : getItemEmbgr(i)) {
+					maex.setString(1, itemId(i));
+					maex.setString(2, embgr);
+					maex.addBatch();
+					rows++;
+				}
+
+				flush(con, i, "items", darit, darProgt, excc2t, maex);
+			}
+			flush(con, 0, "items", darit, darProgt, excc2t, maex);
+		}
+
+		return rows;
+	}
+
+	private long generateUsers(Connection con) throws SQLException {
+
+		long rows = 0;
+
+		try (PreparedStatement usrpd = con.prepareStatement("INSERT INTO USRPD VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+				PreparedStatement aplo = con.prepareStatement("INSERT INTO USRAT_APLO VALUES (?, ?)");
+				PreparedStatement usrProgt = con.prepareStatement("INSERT INTO USRAT_PROGT VALUES (?, ?)")) {
+			for (int u = 1; u <= users; u++) {
+				usrpd.setLong(1, u);
+				usrpd.setString(2, userId(u));
+				usrpd.setString(3, department(u));
+				usrpd.setString(4, "COMPANY" + (u % 4));
+				usrpd.setString(5, country(u));
+				usrpd.setString(6, country(u));
+				usrpd.setString(7, COUNTRIES[(u / 7) % COUNTRIES.length]);
+				usrpd.setString(8, country(u));
+				usrpd.addBatch();
+				rows++;
+
+				if (hasLogin(u)) {
+					aplo.setLong(1, u);
+					aplo.setString(2, loginId(u));
+					aplo.addBatch();
+					rows++;
+				}
+
+				for (int p : getUserPrograms(u)) {
+					usrProgt.setLong(1, u);
+					usrProgt.setInt(2, p);
+					usrProgt.addBatch();
+					rows++;
+				}
+
+				flush(con, u, "users", usrpd, aplo, usrProgt);
+			}
+			flush(con, 0, "users", usrpd, aplo, usrProgt);
+		}
+
+		return rows;
+	}
+
+	/**
+	 * Execute the batches every BATCH_SIZE objects, and the remaining rows when n is 0
+	 */
+	private static void flush(Connection con, int n, String objects, PreparedStatement... statements)
+			throws SQLException {
+
+		if (n % BATCH_SIZE != 0) {
+			return;
+		}
+
+		for (PreparedStatement pst : statements) {
+			pst.executeBatch();
+		}
+		con.commit();
+
+		if (n > 0 && n % PROGRESS_INTERVAL == 0) {
+			LOG.info(String.format("Generated [%d] %s", n, objects));
+		}
+	}
+
+	public int getItemCount() {
+		return items;
+	}
+
+	public int getProgramCount() {
+		return programs;
+	}
+
+	public int getUserCount() {
+		return users;
+	}
+
+	/**
+	 * @param n Number of the item, from 1 to the number of items
+	 * @return OBID of the item
+	 */
+	public static String itemId(int n) {
+		return String.format("OB%08d", n);
+	}
+
+	/**
+	 * @param n Number of the program, from 1 to the number of programs
+	 * @return ID_HD of the program
+	 */
+	public static String programId(int n) {
+		return Integer.toString(n);
+	}
+
+	/**
+	 * @param n Number of the user, from 1 to the number of users
+	 * @return LogonID of the user
+	 */
+	public static String userId(int n) {
+		return String.format("user%07d", n);
+	}
+
+	/**
+	 * @param n Number of the user, from 1 to the number of users
+	 * @return APLO LogID of the user
+	 */
+	public static String loginId(int n) {
+		return String.format("log%07d", n);
+	}
+
+	/**
+	 * @param n Number of the user
+	 * @return true if the user has an APLO login
+	 */
+	public boolean hasLogin(int n) {
+		return usersWithoutLogin == 0 || n % usersWithoutLogin != 0;
+	}
+
+	/**
+	 * @param n Number of the item
+	 * @return Numbers of the programs of the item, DAR_PROGT rows
+	 */
+	public int[] getItemPrograms(int n) {
+		return spread(n, 31, fanOut(n, programsPerItem));
+	}
+
+	/**
+	 * @param n Number of the user
+	 * @return Numbers of the programs of the user, USRAT_PROGT rows
+	 */
+	public int[] getUserPrograms(int n) {
+		return spread(n, 7, fanOut(n, programsPerUser));
+	}
+
+	/**
+	 * @param n Number of the item
+	 * @return EXCC2 of the EXCC2T rows of the item
+	 */
+	public String[] getItemExcc2(int n) {
+		String[] values = new String[fanOut(n, rowsPerItem)];
+		for (int j = 0; j < values.length; j++) {
+			values[j] = "EX2." + (n % 13) + "." + j;
+		}
+		return values;
+	}
+
+	/**
+	 * @param n Number of the item
+	 * @return EMBGR of the MAEX rows of the item
+	 */
+	public String[] getItemEmbgr(int n) {
+		String[] values = new String[fanOut(n, rowsPerItem)];
+		for (int j = 0; j < values.length; j++) {
+			values[j] = "EMB." + (n % 17) + "." + j;
+		}
+		return values;
+	}
+
+	/**
+	 * @param p Number of the program
+	 * @return PROGK of the program
+	 */
+	public static String programKey(int p) {
+		return "HCP" + p;
+	}
+
+	/**
+	 * @param p Number of the program
+	 * @return PROVS of the program
+	 */
+	public static String programVersion(int p) {
+		return "V" + (p % 5);
+	}
+
+	/**
+	 * @param n Number of the item or of the program
+	 * @return ID_INDCT of the DARIT or PROGIT row
+	 */
+	public static String indClass(int n) {
+		return "IND" + (n % 7);
+	}
+
+	/**
+	 * @param n Number of the item or of the program
+	 * @return ID_MILCT of the DARIT or PROGIT row
+	 */
+	public static String milClass(int n) {
+		return "MIL" + (n % 3);
+	}
+
+	/**
+	 * @param n Number of the item or of the program
+	 * @return ID_EXCC1T of the DARIT or PROGIT row
+	 */
+	public static String excClass(int n) {
+		return "EXC" + (n % 11);
+	}
+
+	/**
+	 * @param n Number of the user
+	 * @return Department of the user
+	 */
+	public static String department(int n) {
+		return "DEP" + (n % 50);
+	}
+
+	private static String country(int n) {
+		return COUNTRIES[n % COUNTRIES.length];
+	}
+
+	private static int fanOut(int n, int max) {
+		return 1 + (n % max);
+	}
+
+	/**
+	 * Distinct program numbers for an object, consecutive from a start depending on the object
+	 */
+	private int[] spread(int n, int stride, int count) {
+		int[] values = new int[count];
+		for (int j = 0; j < count; j++) {
+			values[j] = (int) (((long) n * stride + j) % programs) + 1;
+		}
+		return values;
+	}
+}
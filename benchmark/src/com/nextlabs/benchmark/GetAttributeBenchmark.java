@@ -0,0 +1,170 @@
+package com.nextlabs.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.bluejungle.framework.expressions.IEvalValue;
+import com.bluejungle.pf.domain.destiny.serviceprovider.ServiceProviderException;
+import com.bluejungle.pf.domain.destiny.subject.IDSubject;
+import com.bluejungle.pf.domain.epicenter.resource.IResource;
+import com.nextlabs.cache.ResourceCacheEngine;
+import com.nextlabs.cache.UserCacheEngine;
+import com.nextlabs.db.DBResouceProvider;
+import com.nextlabs.db.DBUserProvider;
+import com.nextlabs.provider.ResourceAttributeProvider;
+import com.nextlabs.provider.UserAttributeProvider;
+
+/**
+ * getAttribute of both plugins as called by the PDP.
+ *
+ * The hit benchmarks read a cache loaded by a full refresh. The miss benchmarks start each iteration on an empty
+ * cache generation and request each item, program or user once, so every call goes through the miss batcher and
+ * the database until the iteration has requested more ids than were seeded. Run with -prof gc for the allocation of
+ * a request.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Dorg.apache.commons.logging.Log=org.apache.commons.logging.impl.SimpleLog",
+		"-Dorg.apache.commons.logging.simplelog.defaultlog=warn" })
+public class GetAttributeBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class Plugins {
+
+		@Param("20000")
+		public int items;
+
+		@Param("2000")
+		public int programs;
+
+		@Param("20000")
+		public int users;
+
+		BenchmarkDatabase database;
+		ResourceAttributeProvider resources;
+		UserAttributeProvider subjects;
+		IResource[] itemRequests;
+		IResource[] programRequests;
+		IDSubject[] subjectRequests;
+
+		void start() throws Exception {
+
+			database = BenchmarkDatabase.create(items, programs, users);
+			resources = database.startResourceProvider(1, 10);
+			subjects = database.startUserProvider(1, 10);
+
+			itemRequests = new IResource[items];
+			for (int i = 0; i < items; i++) {
+				itemRequests[i] = Requests.item(BenchmarkDatabase.itemId(i + 1));
+			}
+
+			programRequests = new IResource[programs];
+			for (int i = 0; i < programs; i++) {
+				programRequests[i] = Requests.program(BenchmarkDatabase.programId(i + 1));
+			}
+
+			subjectRequests = new IDSubject[users];
+			for (int i = 0; i < users; i++) {
+				// every other request by the APLO login, the second key attribute
+				subjectRequests[i] = Requests.subject(
+						(i % 2 == 0) ? BenchmarkDatabase.userId(i + 1) : BenchmarkDatabase.loginId(i + 1));
+			}
+		}
+
+		@TearDown(Level.Trial)
+		public void stop() throws Exception {
+			database.close();
+		}
+	}
+
+	/**
+	 * Plugins serving a cache loaded by a full refresh
+	 */
+	public static class Warm extends Plugins {
+
+		@Setup(Level.Trial)
+		public void setUp() throws Exception {
+			start();
+			DBResouceProvider.getInstance().refreshCache();
+			DBUserProvider.getInstance().refreshCache();
+		}
+	}
+
+	/**
+	 * Plugins serving an empty cache at the start of each iteration
+	 */
+	public static class Cold extends Plugins {
+
+		@Setup(Level.Trial)
+		public void setUp() throws Exception {
+			start();
+		}
+
+		@Setup(Level.Iteration)
+		public void emptyCache() {
+			ResourceCacheEngine.getInstance().publishGeneration(ResourceCacheEngine.getInstance().newGeneration());
+			UserCacheEngine.getInstance().publishGeneration(UserCacheEngine.getInstance().newGeneration());
+		}
+	}
+
+	/**
+	 * Position of a benchmark thread in the requests
+	 */
+	@State(Scope.Thread)
+	public static class Cursor {
+
+		private int next;
+
+		int next(int bound) {
+			if (next >= bound) {
+				next = 0;
+			}
+			return next++;
+		}
+	}
+
+	@Benchmark
+	public IEvalValue itemHit(Warm plugins, Cursor cursor) throws ServiceProviderException {
+		return plugins.resources.getAttribute(plugins.itemRequests[cursor.next(plugins.items)], "hcp");
+	}
+
+	@Benchmark
+	public IEvalValue programHit(Warm plugins, Cursor cursor) throws ServiceProviderException {
+		return plugins.resources.getAttribute(plugins.programRequests[cursor.next(plugins.programs)], "hcp_indct");
+	}
+
+	@Benchmark
+	public IEvalValue userHit(Warm plugins, Cursor cursor) throws ServiceProviderException {
+		return plugins.subjects.getAttribute(plugins.subjectRequests[cursor.next(plugins.users)], "userhcp");
+	}
+
+	@Benchmark
+	public IEvalValue itemMiss(Cold plugins, Cursor cursor) throws ServiceProviderException {
+		return plugins.resources.getAttribute(plugins.itemRequests[cursor.next(plugins.items)], "hcp");
+	}
+
+	@Benchmark
+	public IEvalValue programMiss(Cold plugins, Cursor cursor) throws ServiceProviderException {
+		return plugins.resources.getAttribute(plugins.programRequests[cursor.next(plugins.programs)], "hcp_indct");
+	}
+
+	@Benchmark
+	public IEvalValue userMiss(Cold plugins, Cursor cursor) throws ServiceProviderException {
+		return plugins.subjects.getAttribute(plugins.subjectRequests[cursor.next(plugins.users)], "userhcp");
+	}
+}
@@ -0,0 +1,477 @@
+package com.nextlabs.benchmark;
+
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.bluejungle.framework.expressions.EvalValue;
+import com.bluejungle.framework.expressions.IEvalValue;
+import com.bluejungle.framework.expressions.IMultivalue;
+import com.bluejungle.framework.expressions.Multivalue;
+import com.nextlabs.cache.ResourceCacheEngine;
+import com.nextlabs.cache.ResourceCacheGeneration;
+import com.nextlabs.cache.UserCacheEngine;
+import com.nextlabs.common.ResourceObject;
+import com.nextlabs.common.Util;
+import com.nextlabs.db.DBResouceProvider;
+import com.nextlabs.db.DBUserProvider;
+import com.nextlabs.metrics.CacheRegionMetrics;
+import com.nextlabs.metrics.LatencyHistogram;
+import com.nextlabs.provider.ResourceAttributeProvider;
+import com.nextlabs.provider.UserAttributeProvider;
+
+/**
+ * End to end run of both plugins on a generated database, from the full refresh to the requests of the PDP.
+ *
+ * The run refreshes both caches and checks a sample of the objects against the generator. It then checks that a
+ * refresh which fails halfway doesn't leak into the published cache nor block the updates written after it, and
+ * times getAttribute on the warm cache and again on an empty cache, where the requests go through the miss path. It
+ * exits with 1 if an object doesn't match.
+ *
+ * The heap used by each full refresh is measured from the heap memory pools: the peak reached during the refresh and
+ * what is still used once the refresh is done and collected. The peak of each pool is summed, so it is an upper bound
+ * when the pools peak at different times. The footprint target of build_compile.xml runs the harness at two table
+ * sizes, the difference between the two runs is the footprint of the extra objects without the fixed overhead.
+ *
+ * Options are given as --name=value:
+ * items, programs, users: volume of the tables, 100000, 5000 and 100000 by default
+ * programs_per_item, rows_per_item, programs_per_user, users_without_login: shape of the data, see DataGenerator
+ * database: directory of the database files, kept for the next runs, in memory if not set
+ * refresh_parallelism, pool_size: as in the plugin properties
+ * requests, threads: getAttribute calls of each phase and number of threads making them
+ * unknown_percent: share of the requests for ids which are not in the tables
+ * verify: number of objects of each kind checked after the refresh
+ */
+public class ReferentialHarness {
+
+	private static final String LOG_PHASE = "%n== %s%n";
+	private static final String LOG_REFRESH = "%-10s refreshed [%d] objects in %dms, [%.0f] objects per second%n";
+	private static final String LOG_LATENCY = "%-10s %10d %10.3f %10.3f %10.3f %10.3f %10.3f%n";
+	private static final String LOG_REGION = "%-10s hits [%d] misses [%d] known missing [%d] entries [%d]%n";
+	private static final String LOG_FOOTPRINT = "%-10s heap before [%d] MB, peak [%d] MB, retained [%d] MB, [%d] bytes per object, [%d] GC(s) taking %dms%n";
+	private static final long BYTES_PER_MB = 1024 * 1024;
+
+	private final Properties options;
+	private final DataGenerator generator;
+	private ResourceAttributeProvider resources;
+	private UserAttributeProvider subjects;
+	private int mismatches;
+
+	/**
+	 * @param options Options of the run
+	 */
+	public ReferentialHarness(Properties options) {
+
+		this.options = options;
+
+		generator = new DataGenerator(getInt("items", 100000), getInt("programs", 5000), getInt("users", 100000));
+		generator.setProgramsPerItem(getInt("programs_per_item", 3));
+		generator.setRowsPerItem(getInt("rows_per_item", 2));
+		generator.setProgramsPerUser(getInt("programs_per_user", 2));
+		generator.setUsersWithoutLogin(getInt("users_without_login", 10));
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		Properties options = new Properties();
+
+		for (String arg : args) {
+			int separator = arg.indexOf('=');
+			if (!arg.startsWith("--") || separator < 0) {
+				System.err.println(String.format("Options are given as --name=value, ignoring [%s]", arg));
+				continue;
+			}
+			options.setProperty(arg.substring(2, separator), arg.substring(separator + 1));
+		}
+
+		// the cache managers and the pools don't stop on their own
+		System.exit(new ReferentialHarness(options).run());
+	}
+
+	/**
+	 * Run the refresh, the check and the request phases
+	 * @return 0 if every checked object matched, 1 otherwise
+	 * @throws Exception Error of the database or of a plugin
+	 */
+	public int run() throws Exception {
+
+		String databaseDirectory = options.getProperty("database");
+		int refreshParallelism = getInt("refresh_parallelism", 4);
+		int poolSize = getInt("pool_size", refreshParallelism * 5 + 1);
+
+		System.out.printf(LOG_PHASE, "Database " + generator.getName());
+
+		long startTime = System.currentTimeMillis();
+
+		try (BenchmarkDatabase database = BenchmarkDatabase.create(generator,
+				(databaseDirectory == null) ? null : new File(databaseDirectory))) {
+
+			System.out.printf("Ready in %dms%n", System.currentTimeMillis() - startTime);
+
+			resources = database.startResourceProvider(refreshParallelism, poolSize);
+			subjects = database.startUserProvider(refreshParallelism, poolSize);
+
+			System.out.printf(LOG_PHASE, "Full refresh");
+
+			HeapFootprint footprint = HeapFootprint.start();
+			startTime = System.currentTimeMillis();
+			DBResouceProvider.getInstance().refreshCache();
+			printRefresh("Resource", DBResouceProvider.getInstance().getRefreshedObjectCount(), startTime);
+			footprint.print("Resource", DBResouceProvider.getInstance().getRefreshedObjectCount());
+			System.out.println(DBResouceProvider.getInstance().getLastRefreshReport());
+
+			footprint = HeapFootprint.start();
+			startTime = System.currentTimeMillis();
+			DBUserProvider.getInstance().refreshCache();
+			printRefresh("User", DBUserProvider.getInstance().getRefreshedObjectCount(), startTime);
+			footprint.print("User", DBUserProvider.getInstance().getRefreshedObjectCount());
+			System.out.println(DBUserProvider.getInstance().getLastRefreshReport());
+
+			System.out.printf(LOG_PHASE, "Check");
+			verify(getInt("verify", 1000));
+			verifyFailedRefresh();
+			System.out.printf("[%d] mismatch(es)%n", mismatches);
+
+			System.out.printf(LOG_PHASE, "Requests on the refreshed cache");
+			runRequests();
+
+			System.out.printf(LOG_PHASE, "Requests on an empty cache");
+			ResourceCacheEngine.getInstance().publishGeneration(ResourceCacheEngine.getInstance().newGeneration());
+			UserCacheEngine.getInstance().publishGeneration(UserCacheEngine.getInstance().newGeneration());
+			runRequests();
+		}
+
+		return (mismatches == 0) ? 0 : 1;
+	}
+
+	/**
+	 * Heap used across a full refresh, from a collected heap before the refresh to a collected heap after it
+	 */
+	private static final class HeapFootprint {
+
+		private final long usedBefore;
+		private final long collections;
+		private final long collectionMillis;
+
+		private HeapFootprint() {
+			System.gc();
+			usedBefore = heapUsed(false);
+			collections = collectionCount();
+			collectionMillis = collectionMillis();
+			for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+				if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+					pool.resetPeakUsage();
+				}
+			}
+		}
+
+		static HeapFootprint start() {
+			return new HeapFootprint();
+		}
+
+		/**
+		 * Print the footprint of the refresh once it is done
+		 * @param name Name of the refreshed cache
+		 * @param objects Number of objects loaded by the refresh
+		 */
+		void print(String name, long objects) {
+
+			long peak = heapUsed(true);
+			long gcCount = collectionCount() - collections;
+			long gcMillis = collectionMillis() - collectionMillis;
+
+			System.gc();
+			long retained = Math.max(0, heapUsed(false) - usedBefore);
+
+			System.out.printf(LOG_FOOTPRINT, name, usedBefore / BYTES_PER_MB, peak / BYTES_PER_MB,
+					retained / BYTES_PER_MB, (objects == 0) ? 0 : retained / objects, gcCount, gcMillis);
+		}
+
+		private static long heapUsed(boolean peak) {
+			long used = 0;
+			for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+				if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+					used += peak ? pool.getPeakUsage().getUsed() : pool.getUsage().getUsed();
+				}
+			}
+			return used;
+		}
+
+		private static long collectionCount() {
+			long count = 0;
+			for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+				count += Math.max(0, gc.getCollectionCount());
+			}
+			return count;
+		}
+
+		private static long collectionMillis() {
+			long millis = 0;
+			for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+				millis += Math.max(0, gc.getCollectionTime());
+			}
+			return millis;
+		}
+	}
+
+	private static void printRefresh(String name, long count, long startTime) {
+		long duration = Math.max(1, System.currentTimeMillis() - startTime);
+		System.out.printf(LOG_REFRESH, name, count, duration, count * 1000.0 / duration);
+	}
+
+	/**
+	 * Check the attributes of a sample of the items, programs and users against the generator
+	 * @param samples Number of objects of each kind
+	 * @throws Exception Error of a plugin
+	 */
+	private void verify(int samples) throws Exception {
+
+		for (int i : sample(generator.getItemCount(), samples)) {
+
+			String id = DataGenerator.itemId(i);
+
+			check(id, "indcl", values(DataGenerator.indClass(i)),
+					resources.getAttribute(Requests.item(id), "indcl"));
+			check(id, "hcp", programKeys(generator.getItemPrograms(i)),
+					resources.getAttribute(Requests.item(id), "hcp"));
+			check(id, "excc2", values(generator.getItemExcc2(i)),
+					resources.getAttribute(Requests.item(id), "excc2"));
+		}
+
+		for (int p : sample(generator.getProgramCount(), samples)) {
+
+			String id = DataGenerator.programId(p);
+
+			check(id, "hcp_indct", values(DataGenerator.indClass(p)),
+					resources.getAttribute(Requests.program(id), "hcp_indct"));
+		}
+
+		for (int u : sample(generator.getUserCount(), samples)) {
+
+			String id = DataGenerator.userId(u);
+
+			check(id, "service", values(DataGenerator.department(u)),
+					subjects.getAttribute(Requests.subject(id), "service"));
+			check(id, "userhcp", programKeys(generator.getUserPrograms(u)),
+					subjects.getAttribute(Requests.subject(id), "userhcp"));
+
+			if (generator.hasLogin(u)) {
+				String login = DataGenerator.loginId(u);
+				check(login, "service", values(DataGenerator.department(u)),
+						subjects.getAttribute(Requests.subject(login), "service"));
+			}
+		}
+	}
+
+	/**
+	 * Write a program into a generation which is then discarded, as a failed refresh does, then update it in the
+	 * published generation, as the delta refresh and the cache misses do
+	 * @throws Exception Error of a plugin
+	 */
+	private void verifyFailedRefresh() throws Exception {
+
+		ResourceCacheEngine engine = ResourceCacheEngine.getInstance();
+		String id = DataGenerator.programId(1);
+
+		ResourceCacheGeneration failed = engine.newGeneration();
+		failed.writeObjectToProgramCache(program(id, "FAILED"));
+
+		check(id, "hcp_indct", values(DataGenerator.indClass(1)),
+				resources.getAttribute(Requests.program(id), "hcp_indct"));
+
+		engine.discardGeneration(failed);
+		engine.writeObjectToProgramCache(program(id, "UPDATED"));
+
+		check(id, "hcp_indct", values("UPDATED"), resources.getAttribute(Requests.program(id), "hcp_indct"));
+
+		// back to the database value for the request phases
+		engine.writeObjectToProgramCache(program(id, DataGenerator.indClass(1)));
+	}
+
+	/**
+	 * Build a program object the way the refresh does, with a single hcp_indct value
+	 */
+	private static ResourceObject program(String id, String indClass) {
+
+		String domain = DBResouceProvider.getInstance().getProfiles().get(0).getName();
+
+		ResourceObject prog = new ResourceObject(DBResouceProvider.getInstance().getAttributeSchema(), domain,
+				Util.makeCombinedID(domain, new String[] { id }), "res");
+		prog.addAttribute("hcp_indct", EvalValue.build(Multivalue.create(new TreeSet<String>(values(indClass)))));
+		prog.addAttribute("id", EvalValue.build(id));
+
+		return prog;
+	}
+
+	private void check(String id, String attribute, Set<String> expected, IEvalValue actual) {
+
+		Set<String> values = new HashSet<String>();
+
+		if (actual != null && actual.getValue() instanceof IMultivalue) {
+			for (IEvalValue value : (IMultivalue) actual.getValue()) {
+				values.add(String.valueOf(value.getValue()));
+			}
+		} else if (actual != null && actual.getValue() != null) {
+			values.add(actual.getValue().toString());
+		}
+
+		if (!values.equals(expected)) {
+			if (mismatches++ < 10) {
+				System.out.printf("[%s] attribute [%s] is %s instead of %s%n", id, attribute, values, expected);
+			}
+		}
+	}
+
+	/**
+	 * Numbers of the objects to check, spread over the whole table
+	 */
+	private static List<Integer> sample(int count, int samples) {
+
+		List<Integer> numbers = new ArrayList<Integer>();
+		int step = Math.max(1, count / Math.max(1, samples));
+
+		for (int n = 1; n <= count && numbers.size() < samples; n += step) {
+			numbers.add(n);
+		}
+
+		return numbers;
+	}
+
+	private static Set<String> values(String... values) {
+		return new HashSet<String>(Arrays.asList(values));
+	}
+
+	private static Set<String> programKeys(int[] programs) {
+		Set<String> keys = new HashSet<String>();
+		for (int p : programs) {
+			keys.add(DataGenerator.programKey(p));
+		}
+		return keys;
+	}
+
+	/**
+	 * Make the requests from concurrent threads, a third each for items, programs and users, and print their latency
+	 * @throws Exception Error of a plugin
+	 */
+	private void runRequests() throws Exception {
+
+		int threads = getInt("threads", 16);
+		final int requestsPerThread = Math.max(1, getInt("requests", 60000) / threads);
+		final int unknownPercent = getInt("unknown_percent", 5);
+
+		final LatencyHistogram itemLatency = new LatencyHistogram();
+		final LatencyHistogram programLatency = new LatencyHistogram();
+		final LatencyHistogram userLatency = new LatencyHistogram();
+
+		final CacheRegionMetrics itemMetrics = ResourceCacheEngine.getInstance().getItemMetrics();
+		final CacheRegionMetrics progMetrics = ResourceCacheEngine.getInstance().getProgMetrics();
+		final CacheRegionMetrics userMetrics = UserCacheEngine.getInstance().getUserMetrics();
+		itemMetrics.reset();
+		progMetrics.reset();
+		userMetrics.reset();
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		long startTime = System.nanoTime();
+
+		try {
+			List<Future<Void>> results = new ArrayList<Future<Void>>();
+
+			for (int t = 0; t < threads; t++) {
+				results.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						ThreadLocalRandom random = ThreadLocalRandom.current();
+
+						for (int k = 0; k < requestsPerThread; k++) {
+							boolean unknown = random.nextInt(100) < unknownPercent;
+							long requestStart = System.nanoTime();
+
+							switch (k % 3) {
+							case 0:
+								resources.getAttribute(Requests.item(DataGenerator
+										.itemId(pick(random, generator.getItemCount(), unknown))), "hcp");
+								itemLatency.record(System.nanoTime() - requestStart);
+								break;
+							case 1:
+								resources.getAttribute(Requests.program(DataGenerator
+										.programId(pick(random, generator.getProgramCount(), unknown))), "hcp_indct");
+								programLatency.record(System.nanoTime() - requestStart);
+								break;
+							default:
+								subjects.getAttribute(Requests.subject(DataGenerator
+										.userId(pick(random, generator.getUserCount(), unknown))), "userhcp");
+								userLatency.record(System.nanoTime() - requestStart);
+							}
+						}
+						return null;
+					}
+				}));
+			}
+
+			for (Future<Void> result : results) {
+				result.get();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		long duration = Math.max(1, (System.nanoTime() - startTime) / 1000000);
+		long count = itemLatency.getCount() + programLatency.getCount() + userLatency.getCount();
+
+		System.out.printf("[%d] requests from [%d] threads in %dms, [%.0f] requests per second%n", count, threads,
+				duration, count * 1000.0 / duration);
+		System.out.printf("%-10s %10s %10s %10s %10s %10s %10s%n", "", "requests", "mean ms", "p50 ms", "p95 ms",
+				"p99 ms", "max ms");
+		printLatency("Item", itemLatency);
+		printLatency("Program", programLatency);
+		printLatency("User", userLatency);
+		printRegion("Item", itemMetrics);
+		printRegion("Program", progMetrics);
+		printRegion("User", userMetrics);
+	}
+
+	/**
+	 * Number of a random object, past the end of the table for an unknown id
+	 */
+	private static int pick(ThreadLocalRandom random, int count, boolean unknown) {
+		return (unknown || count == 0) ? count + 1 + random.nextInt(Math.max(1, count))
+				: 1 + random.nextInt(count);
+	}
+
+	private static void printLatency(String name, LatencyHistogram latency) {
+		System.out.printf(LOG_LATENCY, name, latency.getCount(), latency.getMeanMillis(),
+				latency.get50thPercentileMillis(), latency.get95thPercentileMillis(),
+				latency.get99thPercentileMillis(), latency.getMaxMillis());
+	}
+
+	private static void printRegion(String name, CacheRegionMetrics metrics) {
+		System.out.printf(LOG_REGION, name, metrics.getHits(), metrics.getMisses(), metrics.getNegativeHits(),
+				metrics.getEntries());
+	}
+
+	private int getInt(String name, int defaultValue) {
+
+		String value = options.getProperty(name);
+
+		try {
+			return (value == null) ? defaultValue : Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			System.err.println(String.format("Not able to read %s, hard set to %d", name, defaultValue));
+			return defaultValue;
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package com.nextlabs.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.nextlabs.db.DBResouceProvider;
+import com.nextlabs.db.DBUserProvider;
+
+/**
+ * Full refresh of both plugins, from the queries to the publication of the new cache generation. Each refresh is
+ * timed on its own, as the nightly reload runs.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Dorg.apache.commons.logging.Log=org.apache.commons.logging.impl.SimpleLog",
+		"-Dorg.apache.commons.logging.simplelog.defaultlog=warn" })
+@State(Scope.Benchmark)
+public class RefreshBenchmark {
+
+	@Param("100000")
+	public int items;
+
+	@Param("5000")
+	public int programs;
+
+	@Param("100000")
+	public int users;
+
+	@Param({ "1", "4" })
+	public int refreshParallelism;
+
+	private BenchmarkDatabase database;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+
+		database = BenchmarkDatabase.create(items, programs, users);
+
+		// an item range streams 5 queries on their own connections, the refresh holds one more to sample the ranges
+		int poolSize = refreshParallelism * 5 + 1;
+		database.startResourceProvider(refreshParallelism, poolSize);
+		database.startUserProvider(refreshParallelism, poolSize);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		database.close();
+	}
+
+	@Benchmark
+	public long refreshResources() {
+		DBResouceProvider.getInstance().refreshCache();
+		return DBResouceProvider.getInstance().getRefreshedObjectCount();
+	}
+
+	@Benchmark
+	public long refreshUsers() {
+		DBUserProvider.getInstance().refreshCache();
+		return DBUserProvider.getInstance().getRefreshedObjectCount();
+	}
+}
@@ -0,0 +1,129 @@
+package com.nextlabs.benchmark;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.bluejungle.framework.expressions.EvalValue;
+import com.bluejungle.framework.expressions.IEvalValue;
+import com.bluejungle.pf.domain.destiny.subject.IDSubject;
+import com.bluejungle.pf.domain.epicenter.resource.IResource;
+import com.nextlabs.common.Constants;
+
+/**
+ * Resources and subjects of the PDP requests, stubbed with a proxy since only their id and attributes are read by
+ * the plugins. Other methods return null, false or 0.
+ */
+public final class Requests {
+
+	private Requests() {
+	}
+
+	/**
+	 * @param obid OBID of the item
+	 * @return Resource requesting an item
+	 */
+	public static IResource item(String obid) {
+		return resource(obid, null);
+	}
+
+	/**
+	 * @param idHD ID_HD of the program
+	 * @return Resource requesting a program
+	 */
+	public static IResource program(String idHD) {
+		return resource(idHD, Constants.RTYPE_PROGRAM);
+	}
+
+	/**
+	 * @param uid LogonID or LogID of the user
+	 * @return Subject requesting a user
+	 */
+	public static IDSubject subject(String uid) {
+		return (IDSubject) Proxy.newProxyInstance(Requests.class.getClassLoader(), new Class<?>[] { IDSubject.class },
+				new Stub(uid, new HashMap<String, IEvalValue>()));
+	}
+
+	private static IResource resource(String id, String rType) {
+
+		Map<String, IEvalValue> attributes = new HashMap<String, IEvalValue>();
+		attributes.put(Constants.RESOURCE_ID, EvalValue.build(id));
+		if (rType != null) {
+			attributes.put(Constants.RTYPE, EvalValue.build(rType));
+		}
+
+		return (IResource) Proxy.newProxyInstance(Requests.class.getClassLoader(), new Class<?>[] { IResource.class },
+				new Stub(id, attributes));
+	}
+
+	private static final class Stub implements InvocationHandler {
+
+		private final String id;
+		private final Map<String, IEvalValue> attributes;
+
+		Stub(String id, Map<String, IEvalValue> attributes) {
+			this.id = id;
+			this.attributes = attributes;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.reflect.InvocationHandler#invoke(java.lang.Object, java.lang.reflect.Method, java.lang.Object[])
+		 */
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+
+			String name = method.getName();
+
+			if (name.equals("getAttribute") && args != null && args.length == 1) {
+				IEvalValue value = attributes.get(args[0]);
+				return (value == null) ? IEvalValue.NULL : value;
+			}
+
+			if (name.equals("getUid") || name.equals("getId") || name.equals("toString")) {
+				return method.getReturnType() == String.class ? id : null;
+			}
+
+			if (name.equals("equals")) {
+				return proxy == args[0];
+			}
+
+			if (name.equals("hashCode")) {
+				return System.identityHashCode(proxy);
+			}
+
+			Class<?> type = method.getReturnType();
+
+			if (type == boolean.class) {
+				return Boolean.FALSE;
+			}
+
+			if (type.isPrimitive() && type != void.class) {
+				// the proxy unboxes the wrapper of the return type
+				return type == char.class ? Character.valueOf('\0') : defaultNumber(type);
+			}
+
+			return null;
+		}
+
+		private static Object defaultNumber(Class<?> type) {
+			if (type == long.class) {
+				return Long.valueOf(0);
+			}
+			if (type == double.class) {
+				return Double.valueOf(0);
+			}
+			if (type == float.class) {
+				return Float.valueOf(0);
+			}
+			if (type == short.class) {
+				return Short.valueOf((short) 0);
+			}
+			if (type == byte.class) {
+				return Byte.valueOf((byte) 0);
+			}
+			return Integer.valueOf(0);
+		}
+	}
+}
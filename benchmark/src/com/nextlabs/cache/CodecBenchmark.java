@@ -0,0 +1,242 @@
+package com.nextlabs.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.bluejungle.framework.expressions.EvalValue;
+import com.bluejungle.framework.expressions.IEvalValue;
+import com.bluejungle.framework.expressions.IMultivalue;
+import com.bluejungle.framework.expressions.Multivalue;
+import com.bluejungle.framework.expressions.ValueType;
+import com.nextlabs.benchmark.BenchmarkDatabase;
+import com.nextlabs.common.AttributeSchema;
+import com.nextlabs.common.AttributeValues;
+import com.nextlabs.common.ResourceObject;
+import com.nextlabs.common.UserObject;
+import com.nextlabs.db.DBResouceProvider;
+import com.nextlabs.db.DBUserProvider;
+
+/**
+ * ResourceObjectSerializer and UserObjectSerializer, the EvalValueCodec layout of the off-heap and disk tiers, against
+ * ObjectOutputStream writing the same content: domain, id, type and a HashMap of the attribute values. The objects are
+ * the ones loaded by a full refresh of the generated database. The average encoded size of both encodings is printed
+ * once per trial.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Dorg.apache.commons.logging.Log=org.apache.commons.logging.impl.SimpleLog",
+		"-Dorg.apache.commons.logging.simplelog.defaultlog=warn" })
+@State(Scope.Benchmark)
+public class CodecBenchmark {
+
+	@Param("2000")
+	public int objects;
+
+	private ResourceObjectSerializer resourceSerializer;
+	private UserObjectSerializer userSerializer;
+	private AttributeSchema resourceSchema;
+	private AttributeSchema userSchema;
+	private ResourceObject[] items;
+	private UserObject[] users;
+	private ByteBuffer[] encodedItems;
+	private ByteBuffer[] encodedUsers;
+	private byte[][] serializedItems;
+	private byte[][] serializedUsers;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+
+		try (BenchmarkDatabase database = BenchmarkDatabase.create(objects, Math.max(1, objects / 10), objects)) {
+
+			database.startResourceProvider(1, 10);
+			database.startUserProvider(1, 10);
+
+			DBResouceProvider.getInstance().refreshCache();
+			DBUserProvider.getInstance().refreshCache();
+
+			resourceSchema = DBResouceProvider.getInstance().getAttributeSchema();
+			userSchema = DBUserProvider.getInstance().getAttributeSchema();
+
+			items = new ResourceObject[objects];
+			users = new UserObject[objects];
+			for (int i = 0; i < objects; i++) {
+				items[i] = loaded(
+						ResourceCacheEngine.getInstance().getItemObjectFromCache(BenchmarkDatabase.itemId(i + 1)),
+						BenchmarkDatabase.itemId(i + 1));
+				users[i] = loaded(UserCacheEngine.getInstance().getUserObjectFromCache(BenchmarkDatabase.userId(i + 1)),
+						BenchmarkDatabase.userId(i + 1));
+			}
+		}
+
+		resourceSerializer = new ResourceObjectSerializer();
+		resourceSerializer.setSchema(resourceSchema);
+		userSerializer = new UserObjectSerializer();
+		userSerializer.setSchema(userSchema);
+
+		encodedItems = new ByteBuffer[objects];
+		encodedUsers = new ByteBuffer[objects];
+		serializedItems = new byte[objects][];
+		serializedUsers = new byte[objects][];
+
+		long itemBytes = 0, userBytes = 0, serializedItemBytes = 0, serializedUserBytes = 0;
+
+		for (int i = 0; i < objects; i++) {
+			encodedItems[i] = resourceSerializer.serialize(items[i]);
+			encodedUsers[i] = userSerializer.serialize(users[i]);
+			serializedItems[i] = serialize(items[i].getDomain(), items[i].getId(), items[i].getType(),
+					items[i].getAttributeValues());
+			serializedUsers[i] = serialize(users[i].getDomain(), users[i].getId(), users[i].getType(),
+					users[i].getAttributeValues());
+
+			itemBytes += encodedItems[i].remaining();
+			userBytes += encodedUsers[i].remaining();
+			serializedItemBytes += serializedItems[i].length;
+			serializedUserBytes += serializedUsers[i].length;
+		}
+
+		System.out.printf("%nEncoded size per object, EvalValueCodec / ObjectOutputStream: item %d / %d bytes, user %d / %d bytes%n",
+				itemBytes / objects, serializedItemBytes / objects, userBytes / objects, serializedUserBytes / objects);
+	}
+
+	private static <T> T loaded(T obj, String id) {
+		if (obj == null) {
+			throw new IllegalStateException(String.format("[%s] was not loaded by the refresh", id));
+		}
+		return obj;
+	}
+
+	private int next() {
+		next = (next + 1) % objects;
+		return next;
+	}
+
+	@Benchmark
+	public ByteBuffer encodeItem() {
+		return resourceSerializer.serialize(items[next()]);
+	}
+
+	@Benchmark
+	public ResourceObject decodeItem() {
+		return resourceSerializer.read(encodedItems[next()]);
+	}
+
+	@Benchmark
+	public byte[] serializeItem() throws IOException {
+		ResourceObject item = items[next()];
+		return serialize(item.getDomain(), item.getId(), item.getType(), item.getAttributeValues());
+	}
+
+	@Benchmark
+	public ResourceObject deserializeItem() throws Exception {
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serializedItems[next()]))) {
+			ResourceObject item = new ResourceObject(resourceSchema, (String) in.readObject(), (String) in.readObject(),
+					(String) in.readObject());
+			readAttributes(in, item.getAttributeValues());
+			return item;
+		}
+	}
+
+	@Benchmark
+	public ByteBuffer encodeUser() {
+		return userSerializer.serialize(users[next()]);
+	}
+
+	@Benchmark
+	public UserObject decodeUser() {
+		return userSerializer.read(encodedUsers[next()]);
+	}
+
+	@Benchmark
+	public byte[] serializeUser() throws IOException {
+		UserObject user = users[next()];
+		return serialize(user.getDomain(), user.getId(), user.getType(), user.getAttributeValues());
+	}
+
+	@Benchmark
+	public UserObject deserializeUser() throws Exception {
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serializedUsers[next()]))) {
+			UserObject user = new UserObject(userSchema, (String) in.readObject(), (String) in.readObject(),
+					(String) in.readObject());
+			readAttributes(in, user.getAttributeValues());
+			return user;
+		}
+	}
+
+	/**
+	 * Java serialization of an object, a single value is written as a String, a multi value as an ArrayList of String
+	 * and NULL as null
+	 */
+	private static byte[] serialize(String domain, String id, String type, AttributeValues values) throws IOException {
+
+		HashMap<String, Object> attributes = new HashMap<String, Object>();
+
+		for (Map.Entry<String, IEvalValue> entry : values.toMap().entrySet()) {
+			IEvalValue value = entry.getValue();
+			if (value == null || value.getType() == ValueType.NULL || value.getValue() == null) {
+				attributes.put(entry.getKey(), null);
+			} else if (value.getType() == ValueType.MULTIVAL) {
+				ArrayList<String> elements = new ArrayList<String>();
+				for (IEvalValue element : (IMultivalue) value.getValue()) {
+					elements.add(String.valueOf(element.getValue()));
+				}
+				attributes.put(entry.getKey(), elements);
+			} else {
+				attributes.put(entry.getKey(), String.valueOf(value.getValue()));
+			}
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(domain);
+			out.writeObject(id);
+			out.writeObject(type);
+			out.writeObject(attributes);
+		}
+
+		return bytes.toByteArray();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void readAttributes(ObjectInputStream in, AttributeValues values) throws Exception {
+
+		Map<String, Object> attributes = (Map<String, Object>) in.readObject();
+
+		for (Map.Entry<String, Object> entry : attributes.entrySet()) {
+			Object value = entry.getValue();
+			if (value == null) {
+				values.put(entry.getKey(), EvalValue.NULL);
+			} else if (value instanceof List) {
+				List<String> elements = (List<String>) value;
+				values.put(entry.getKey(),
+						EvalValue.build(elements.isEmpty() ? Multivalue.EMPTY : Multivalue.create(elements)));
+			} else {
+				values.put(entry.getKey(), EvalValue.build((String) value));
+			}
+		}
+	}
+}
@@ -0,0 +1,143 @@
+package com.nextlabs.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.nextlabs.benchmark.BenchmarkDatabase;
+import com.nextlabs.common.ResourceObject;
+
+/**
+ * Materialization of the cached objects from the result sets, without the cache writes. Items are produced by batches
+ * of 50, the default miss_batch_max_keys, with their secondary tables queried once per batch as on a miss. produceUser
+ * runs its secondary queries per object. The bulk loader merge joins the secondary tables as the full refresh does.
+ * An operation materializes every seeded object.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Dorg.apache.commons.logging.Log=org.apache.commons.logging.impl.SimpleLog",
+		"-Dorg.apache.commons.logging.simplelog.defaultlog=warn" })
+@State(Scope.Benchmark)
+public class MaterializationBenchmark {
+
+	private static final String ITEM_SQL_QUERY = "SELECT [ID], [OBID], ## FROM DARIT";
+	private static final int BATCH_KEYS = 50;
+	private static final String USER_SQL_QUERY = "SELECT A.ID, B.LOGID, ## FROM USRPD A LEFT join USRAT_APLO B ON A.ID = B.ID_USRPD";
+
+	@Param("2000")
+	public int items;
+
+	@Param("200")
+	public int programs;
+
+	@Param("2000")
+	public int users;
+
+	private BenchmarkDatabase database;
+	private DBResouceProvider resourceProvider;
+	private DBUserProvider userProvider;
+	private ResourceDBProfile resourceProfile;
+	private UserDBProfile userProfile;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+
+		database = BenchmarkDatabase.create(items, programs, users);
+		database.startResourceProvider(1, 10);
+		database.startUserProvider(1, 10);
+
+		resourceProvider = DBResouceProvider.getInstance();
+		resourceProfile = resourceProvider.getProfiles().get(0);
+		userProvider = DBUserProvider.getInstance();
+		userProfile = userProvider.getProfiles().get(0);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		database.close();
+	}
+
+	@Benchmark
+	public int produceItems(Blackhole blackhole) throws Exception {
+
+		int count = 0;
+
+		// the DARIT rows stream on one connection, the secondary tables of each batch are queried on another
+		try (Connection con = resourceProvider.getConnectionFromPool(resourceProfile);
+				Connection linkCon = resourceProvider.getConnectionFromPool(resourceProfile);
+				PreparedStatement pst = HikariCPDataSource.prepareStreamingStatement(con,
+						ITEM_SQL_QUERY.replaceAll("##", resourceProvider.getQueryColumn(resourceProfile))
+								+ GroupedResultSetReader.orderBy(resourceProfile.getKeyColumns()), resourceProvider.getFetchSize());
+				ResultSet rs = pst.executeQuery()) {
+			GroupedResultSetReader reader = new GroupedResultSetReader(rs, resourceProfile.getKeyColumns());
+			Map<String, ResourceObject> batch = new LinkedHashMap<String, ResourceObject>();
+			while (reader.hasGroup()) {
+				String darid = reader.getString("ID");
+				batch.put(darid, resourceProvider.produceItem(reader, resourceProfile));
+				if (batch.size() == BATCH_KEYS || !reader.hasGroup()) {
+					ItemBulkLoader.addLinkedAttributes(linkCon, resourceProfile, batch, BATCH_KEYS,
+							resourceProvider.getFetchSize());
+					for (ResourceObject item : batch.values()) {
+						blackhole.consume(item);
+					}
+					count += batch.size();
+					batch.clear();
+				}
+			}
+		}
+
+		return count;
+	}
+
+	@Benchmark
+	public int bulkLoadItems(Blackhole blackhole) throws Exception {
+
+		try (ItemBulkLoader loader = new ItemBulkLoader(resourceProvider, resourceProfile, "res", KeyRange.all())) {
+			Object item;
+			while ((item = loader.nextItem()) != null) {
+				blackhole.consume(item);
+			}
+			return loader.getCount();
+		}
+	}
+
+	@Benchmark
+	public int produceUsers(Blackhole blackhole) throws Exception {
+
+		int count = 0;
+
+		try (Connection con = userProvider.getConnectionFromPool(userProfile);
+				PreparedStatement pst = HikariCPDataSource.prepareStreamingStatement(con,
+						USER_SQL_QUERY.replaceAll("##", userProvider.getQueryColumn(userProfile))
+								+ GroupedResultSetReader.orderBy(userProfile.getKeyColumns()), userProvider.getFetchSize());
+				ResultSet rs = pst.executeQuery()) {
+			GroupedResultSetReader reader = new GroupedResultSetReader(rs, userProfile.getKeyColumns());
+			while (reader.hasGroup()) {
+				blackhole.consume(userProvider.produceUser(reader, userProfile));
+				count++;
+			}
+		}
+
+		return count;
+	}
+}
@@ -0,0 +1,234 @@
+package com.nextlabs.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.ehcache.Cache;
+import org.ehcache.Cache.Entry;
+
+/**
+ * Cache region of one generation storing each object once, under its first key attribute value. The other key values
+ * of the object are stored in an alias region next to it, mapping to the first one, so the off-heap tier, the disk
+ * tier and the snapshot hold a single copy of each object and a key value never resolves to a stale copy.
+ *
+ * Case insensitive key values are stored in lower case.
+ *
+ * @param <T> Type of the cached object
+ */
+class AliasedRegion<T> {
+
+	private final String name;
+	private final Cache<String, T> objects;
+	private final String aliasName;
+	private final Cache<String, String> aliases;
+	// key attribute values of an object, set once the profiles are loaded
+	private final AtomicReference<IdentifierExtractor<T>> identifiers;
+
+	/**
+	 * @param name Name of the object region in its cache manager
+	 * @param objects Object region, by first key value
+	 * @param aliasName Name of the alias region in the same cache manager
+	 * @param aliases Alias region, other key values to the first one
+	 * @param identifiers Key attribute values of an object
+	 */
+	AliasedRegion(String name, Cache<String, T> objects, String aliasName, Cache<String, String> aliases,
+			AtomicReference<IdentifierExtractor<T>> identifiers) {
+		this.name = name;
+		this.objects = objects;
+		this.aliasName = aliasName;
+		this.aliases = aliases;
+		this.identifiers = identifiers;
+	}
+
+	/**
+	 * Store the object under its first key value and alias its other key values to it
+	 * @param obj Object to store
+	 * @return Key attribute values the object is stored under
+	 */
+	List<String> write(T obj) {
+
+		List<String> ids = getIdentifierExtractor().getIdentifiers(obj);
+
+		if (!ids.isEmpty()) {
+			String canonicalKey = ids.get(0);
+			objects.put(canonicalKey, obj);
+			for (int i = 1; i < ids.size(); i++) {
+				aliases.put(ids.get(i), canonicalKey);
+			}
+		}
+
+		return ids;
+	}
+
+	/**
+	 * Remove the key values of the objects stored under the key values of obj which obj doesn't have, and the
+	 * previous copies obj is about to replace
+	 * @param obj Object about to be written
+	 * @return Key values removed which obj doesn't have
+	 */
+	List<String> removePrevious(T obj) {
+
+		IdentifierExtractor<T> extractor = getIdentifierExtractor();
+		List<String> ids = extractor.getIdentifiers(obj);
+		String canonicalKey = ids.isEmpty() ? null : ids.get(0);
+		List<String> removed = new ArrayList<String>();
+
+		for (String id : ids) {
+			T previous = lookup(id);
+			if (previous != null && previous != obj) {
+				for (String previousId : extractor.getIdentifiers(previous)) {
+					// a previous first key value can become an alias, the write overwrites the first key value
+					if (!previousId.equals(canonicalKey)) {
+						objects.remove(previousId);
+						aliases.remove(previousId);
+					}
+					if (!ids.contains(previousId) && !removed.contains(previousId)) {
+						removed.add(previousId);
+					}
+				}
+			}
+		}
+
+		return removed;
+	}
+
+	/**
+	 * Remove the object stored under the id from every key value it is stored under
+	 * @param id Key attribute value of the object, in any case if the key is case insensitive
+	 * @return Key values removed
+	 */
+	List<String> remove(String id) {
+
+		IdentifierExtractor<T> extractor = identifiers.get();
+		T obj = read(id);
+		List<String> ids = new ArrayList<String>();
+
+		if (obj != null && extractor != null) {
+			ids.addAll(extractor.getIdentifiers(obj));
+		}
+
+		// stored before the profiles were loaded, or already gone
+		if (ids.isEmpty()) {
+			ids.add((extractor != null && !extractor.isCaseSensitive()) ? id.toLowerCase() : id);
+		}
+
+		for (String key : ids) {
+			objects.remove(key);
+			aliases.remove(key);
+		}
+
+		return ids;
+	}
+
+	/**
+	 * Retrieve the object stored under a key value
+	 * @param id Key attribute value of the object, in any case if the key is case insensitive
+	 * @return Object, null if not found
+	 */
+	T read(String id) {
+
+		IdentifierExtractor<T> extractor = identifiers.get();
+
+		// every key value was stored in lower case, a single lookup is enough
+		if (extractor != null && !extractor.isCaseSensitive()) {
+			return lookup(id.toLowerCase());
+		}
+
+		T obj = lookup(id);
+
+		// a case insensitive key value may still match, toLowerCase returns the same string if there is no upper case
+		if (obj == null) {
+			String lowerCaseId = id.toLowerCase();
+			if (lowerCaseId != id) {
+				obj = lookup(lowerCaseId);
+			}
+		}
+
+		return obj;
+	}
+
+	/**
+	 * Map a key which is not a key attribute value, such as a row id, to the key value an object is stored under
+	 * @param alias Key of the alias, not a key attribute value of any object
+	 * @param canonicalKey First key value of the object
+	 */
+	void putAlias(String alias, String canonicalKey) {
+		aliases.put(alias, canonicalKey);
+	}
+
+	/**
+	 * Retrieve the key value an alias maps to
+	 * @param alias Key of the alias
+	 * @return First key value of the object, null if the alias was removed, expired or evicted
+	 */
+	String getCanonicalKey(String alias) {
+		return aliases.get(alias);
+	}
+
+	/**
+	 * Remove an alias which is not a key attribute value
+	 * @param alias Key of the alias
+	 */
+	void removeAlias(String alias) {
+		aliases.remove(alias);
+	}
+
+	/**
+	 * Alias the other key values of the objects loaded into the object region, after a snapshot was read into it
+	 * @return Number of aliases written
+	 */
+	int writeAliases() {
+
+		IdentifierExtractor<T> extractor = getIdentifierExtractor();
+		int count = 0;
+
+		for (Entry<String, T> entry : objects) {
+			List<String> ids = extractor.getIdentifiers(entry.getValue());
+			for (int i = 1; i < ids.size(); i++) {
+				aliases.put(ids.get(i), entry.getKey());
+				count++;
+			}
+		}
+
+		return count;
+	}
+
+	private T lookup(String key) {
+
+		T obj = objects.get(key);
+
+		if (obj == null) {
+			String canonicalKey = aliases.get(key);
+			if (canonicalKey != null) {
+				obj = objects.get(canonicalKey);
+			}
+		}
+
+		return obj;
+	}
+
+	private IdentifierExtractor<T> getIdentifierExtractor() {
+
+		IdentifierExtractor<T> extractor = identifiers.get();
+
+		if (extractor == null) {
+			throw new IllegalStateException(
+					String.format("Key attributes of cache region [%s] have not been registered", name));
+		}
+
+		return extractor;
+	}
+
+	String getName() {
+		return name;
+	}
+
+	Cache<String, T> getObjectCache() {
+		return objects;
+	}
+
+	String getAliasName() {
+		return aliasName;
+	}
+}
@@ -0,0 +1,215 @@
+package com.nextlabs.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Properties;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.ehcache.Cache;
+import org.ehcache.Cache.Entry;
+import org.ehcache.spi.serialization.Serializer;
+
+/**
+ * Snapshot of the cache regions of a generation, written after each successful refresh so a
+ * restarted PDP serves from warm data instead of querying every request until the next refresh.
+ *
+ * The file holds a header with the format version and the fingerprint of the attribute schema the objects are encoded
+ * with, then each region as records ended by a zero byte, and a CRC32 of everything before it. The regions hold each
+ * object once under its first key value, the aliases of its other key values are rebuilt after the load. It
+ * is read as a stream, the checksum is only known once every object was loaded so the caller drops the generation
+ * when the read fails.
+ */
+class CacheSnapshot<T> {
+
+	private static final Log LOG = LogFactory.getLog(CacheSnapshot.class);
+	private static final int MAGIC = 0x4E4C4353;
+	private static final int FORMAT_VERSION = 3;
+	private static final byte RECORD = 1;
+	private static final byte END_OF_SECTION = 0;
+	private final File file;
+	private final Serializer<T> serializer;
+
+	/**
+	 * @param file Snapshot file
+	 * @param serializer Serializer of the cached objects
+	 */
+	private CacheSnapshot(File file, Serializer<T> serializer) {
+		this.file = file;
+		this.serializer = serializer;
+	}
+
+	/**
+	 * Read cache_snapshot and cache_snapshot_path
+	 * @param props Properties contain parameter for cache setting
+	 * @param defaultDirectory Directory under java.io.tmpdir used when cache_snapshot_path is not set
+	 * @param fileName Name of the snapshot file
+	 * @param serializer Serializer of the cached objects
+	 * @return Snapshot, null if cache_snapshot is not enabled
+	 */
+	static <T> CacheSnapshot<T> create(Properties props, String defaultDirectory, String fileName,
+			Serializer<T> serializer) {
+
+		boolean enabled = Boolean.parseBoolean(props.getProperty("cache_snapshot", "false").trim());
+
+		LOG.info(String.format("cache_snapshot will be set to [%s]", enabled));
+
+		if (!enabled) {
+			return null;
+		}
+
+		String path = props.getProperty("cache_snapshot_path");
+		File directory = (path == null || path.trim().length() == 0)
+				? new File(System.getProperty("java.io.tmpdir"), defaultDirectory) : new File(path.trim());
+
+		File file = new File(directory, fileName);
+		LOG.info(String.format("Cache snapshot file will be set to [%s]", file.getAbsolutePath()));
+
+		return new CacheSnapshot<T>(file, serializer);
+	}
+
+	/**
+	 * Write the snapshot to a temporary file and move it over the previous snapshot
+	 * @param fingerprint Fingerprint of the attribute schema the objects are encoded with
+	 * @param caches Cache regions of the generation
+	 * @return Number of objects written
+	 * @throws IOException Error writing the file
+	 */
+	int write(long fingerprint, List<Cache<String, T>> caches) throws IOException {
+
+		File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+		file.getParentFile().mkdirs();
+
+		int count = 0;
+		CRC32 crc = new CRC32();
+
+		try (FileOutputStream fileOut = new FileOutputStream(tempFile);
+				DataOutputStream out = new DataOutputStream(
+						new CheckedOutputStream(new BufferedOutputStream(fileOut, 1 << 16), crc))) {
+
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeLong(fingerprint);
+			out.writeInt(caches.size());
+
+			for (Cache<String, T> cache : caches) {
+				for (Entry<String, T> entry : cache) {
+					ByteBuffer value = serializer.serialize(entry.getValue());
+					byte[] bytes = new byte[value.remaining()];
+					value.get(bytes);
+					out.writeByte(RECORD);
+					writeString(out, entry.getKey());
+					out.writeInt(bytes.length);
+					out.write(bytes);
+					count++;
+				}
+				out.writeByte(END_OF_SECTION);
+			}
+
+			// the checksum itself is not part of the checked bytes
+			out.flush();
+			new DataOutputStream(fileOut).writeLong(crc.getValue());
+		}
+
+		Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+
+		return count;
+	}
+
+	/**
+	 * Load the snapshot into the regions of a generation
+	 * @param fingerprint Fingerprint of the current attribute schema
+	 * @param caches Cache regions to fill, in the order they were written
+	 * @return Number of objects loaded, -1 if there is no usable snapshot, the regions may be partly filled
+	 */
+	int read(long fingerprint, List<Cache<String, T>> caches) {
+
+		if (!file.isFile()) {
+			LOG.info(String.format("No cache snapshot found at [%s]", file.getAbsolutePath()));
+			return -1;
+		}
+
+		CRC32 crc = new CRC32();
+
+		try (DataInputStream in = new DataInputStream(
+				new CheckedInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16), crc))) {
+
+			if (!isValid(in, fingerprint, caches.size())) {
+				return -1;
+			}
+
+			int count = 0;
+
+			for (Cache<String, T> cache : caches) {
+				while (in.readByte() == RECORD) {
+					String key = readString(in);
+					byte[] bytes = new byte[in.readInt()];
+					in.readFully(bytes);
+
+					cache.put(key, serializer.read(ByteBuffer.wrap(bytes)));
+					count++;
+				}
+			}
+
+			// the checksum itself is not part of the checked bytes
+			long checksum = crc.getValue();
+
+			if (in.readLong() != checksum) {
+				LOG.warn(String.format("Cache snapshot [%s] is corrupted", file.getAbsolutePath()));
+				return -1;
+			}
+
+			return count;
+
+		} catch (Exception e) {
+			LOG.warn(String.format("Unable to read cache snapshot [%s]", file.getAbsolutePath()), e);
+			return -1;
+		}
+	}
+
+	/**
+	 * Check the header of the snapshot, the stream is left after the header
+	 */
+	private boolean isValid(DataInputStream in, long fingerprint, int cacheCount) throws IOException {
+
+		if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+			LOG.warn(String.format("Cache snapshot [%s] has an unknown format", file.getAbsolutePath()));
+			return false;
+		}
+
+		if (in.readLong() != fingerprint) {
+			LOG.warn(String.format("Attribute configuration has changed, ignoring cache snapshot [%s]",
+					file.getAbsolutePath()));
+			return false;
+		}
+
+		return in.readInt() == cacheCount;
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
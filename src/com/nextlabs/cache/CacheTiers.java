@@ -0,0 +1,207 @@
+package com.nextlabs.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.ehcache.CacheManager;
+import org.ehcache.CachePersistenceException;
+import org.ehcache.PersistentCacheManager;
+import org.ehcache.config.builders.CacheManagerBuilder;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
+import org.ehcache.config.units.MemoryUnit;
+
+/**
+ * Off-heap and disk tiers added under the heap tier of a cache engine. With a disk tier the cache regions are
+ * persistent, the active generation is recorded next to them so a restarted PDP can reopen it.
+ */
+class CacheTiers {
+
+	private static final Log LOG = LogFactory.getLog(CacheTiers.class);
+	private static final String ACTIVE_GENERATION_FILE = "active_generation";
+	private static final String SCHEMA_FINGERPRINT_FILE = "schema_fingerprint";
+	private final long offHeapInMb;
+	private final long diskInMb;
+	private final File diskPath;
+
+	/**
+	 * Read cache_offheap_in_mb, cache_disk_in_mb and cache_disk_path
+	 * @param props Properties contain parameter for cache setting
+	 * @param defaultDiskDirectory Directory under java.io.tmpdir used when cache_disk_path is not set
+	 */
+	CacheTiers(Properties props, String defaultDiskDirectory) {
+
+		offHeapInMb = readSize(props, "cache_offheap_in_mb");
+		diskInMb = readSize(props, "cache_disk_in_mb");
+
+		String path = props.getProperty("cache_disk_path");
+		diskPath = (path == null || path.trim().length() == 0)
+				? new File(System.getProperty("java.io.tmpdir"), defaultDiskDirectory) : new File(path.trim());
+
+		LOG.info(String.format("cache_offheap_in_mb will be set to [%d] MB", offHeapInMb));
+		LOG.info(String.format("cache_disk_in_mb will be set to [%d] MB", diskInMb));
+		if (isPersistent()) {
+			LOG.info(String.format("cache_disk_path will be set to [%s]", diskPath.getAbsolutePath()));
+		}
+	}
+
+	/**
+	 * Check if the cache regions are persisted on disk
+	 * @return true if a disk tier is configured
+	 */
+	boolean isPersistent() {
+		return diskInMb > 0;
+	}
+
+	/**
+	 * Add the configured off-heap and disk tiers under the heap tier
+	 * @param resourceBuilder Resource pools with the heap tier
+	 * @return Resource pools with all the tiers
+	 */
+	ResourcePoolsBuilder addTiers(ResourcePoolsBuilder resourceBuilder) {
+		if (offHeapInMb > 0) {
+			resourceBuilder = resourceBuilder.offheap(offHeapInMb, MemoryUnit.MB);
+		}
+		if (diskInMb > 0) {
+			resourceBuilder = resourceBuilder.disk(diskInMb, MemoryUnit.MB, true);
+		}
+		return resourceBuilder;
+	}
+
+	/**
+	 * Build a cache manager, persistent under its own directory if a disk tier is configured
+	 * @param name Name of the directory of the cache manager
+	 * @return Initialized cache manager
+	 */
+	CacheManager newCacheManager(String name) {
+		if (!isPersistent()) {
+			return CacheManagerBuilder.newCacheManagerBuilder().build(true);
+		}
+		return CacheManagerBuilder.newCacheManagerBuilder()
+				.with(CacheManagerBuilder.persistence(new File(diskPath, name).getAbsolutePath())).build(true);
+	}
+
+	/**
+	 * Release a cache region and delete its persisted data
+	 * @param manager Cache manager owning the region
+	 * @param alias Name of the region
+	 */
+	void destroyCache(CacheManager manager, String alias) {
+
+		manager.removeCache(alias);
+
+		if (manager instanceof PersistentCacheManager) {
+			try {
+				((PersistentCacheManager) manager).destroyCache(alias);
+			} catch (CachePersistenceException e) {
+				LOG.warn(String.format("Unable to delete persisted cache [%s]", alias), e);
+			}
+		}
+	}
+
+	/**
+	 * Retrieve the generation which was active when the cache was last persisted
+	 * @return Number of the generation, null if there is none
+	 */
+	Long readActiveGeneration() {
+		return readNumber(ACTIVE_GENERATION_FILE);
+	}
+
+	/**
+	 * Record the generation now active so it is reopened after a restart
+	 * @param number Number of the generation
+	 */
+	void writeActiveGeneration(long number) {
+		writeNumber(ACTIVE_GENERATION_FILE, number);
+	}
+
+	/**
+	 * Retrieve the fingerprint of the attribute schema the persisted objects were encoded with
+	 * @return Fingerprint of the schema, null if there is none
+	 */
+	Long readSchemaFingerprint() {
+		return readNumber(SCHEMA_FINGERPRINT_FILE);
+	}
+
+	/**
+	 * Record the fingerprint of the attribute schema the objects are encoded with
+	 * @param fingerprint Fingerprint of the schema
+	 */
+	void writeSchemaFingerprint(long fingerprint) {
+		writeNumber(SCHEMA_FINGERPRINT_FILE, fingerprint);
+	}
+
+	private Long readNumber(String fileName) {
+
+		File file = new File(diskPath, fileName);
+
+		if (!isPersistent() || !file.isFile()) {
+			return null;
+		}
+
+		try {
+			return Long.valueOf(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim());
+		} catch (IOException | NumberFormatException e) {
+			LOG.warn(String.format("Unable to read %s, the persisted cache will not be reopened", file), e);
+			return null;
+		}
+	}
+
+	private void writeNumber(String fileName, long number) {
+
+		if (!isPersistent()) {
+			return;
+		}
+
+		File file = new File(diskPath, fileName);
+		File tempFile = new File(diskPath, fileName + ".tmp");
+
+		try {
+			diskPath.mkdirs();
+			Files.write(tempFile.toPath(), String.valueOf(number).getBytes(StandardCharsets.UTF_8));
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			LOG.warn(String.format("Unable to write %s, the persisted cache will not be reopened", file), e);
+		}
+	}
+
+	/**
+	 * Close the cache managers when the JVM stops so the persisted regions can be reopened
+	 * @param managers Cache managers to close
+	 */
+	void closeOnShutdown(final CacheManager... managers) {
+
+		if (!isPersistent()) {
+			return;
+		}
+
+		Runtime.getRuntime().addShutdownHook(new Thread("CacheTiersShutdown") {
+			@Override
+			public void run() {
+				for (CacheManager manager : managers) {
+					try {
+						manager.close();
+					} catch (Exception e) {
+						LOG.warn("Unable to close cache manager", e);
+					}
+				}
+			}
+		});
+	}
+
+	private static long readSize(Properties props, String name) {
+		String value = props.getProperty(name, "0");
+		try {
+			return Math.max(0, Long.parseLong(value.trim()));
+		} catch (NumberFormatException ex) {
+			LOG.error(String.format("Not able to read %s, tier is disabled", name));
+			return 0;
+		}
+	}
+}
@@ -0,0 +1,263 @@
+package com.nextlabs.cache;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.ehcache.spi.serialization.SerializerException;
+
+import com.bluejungle.framework.expressions.EvalValue;
+import com.bluejungle.framework.expressions.IEvalValue;
+import com.bluejungle.framework.expressions.IMultivalue;
+import com.bluejungle.framework.expressions.Multivalue;
+import com.bluejungle.framework.expressions.ValueType;
+import com.nextlabs.common.AttributeSchema;
+import com.nextlabs.common.AttributeValues;
+
+/**
+ * Compact encoding of the cached objects for the off-heap and disk tiers. Attribute names are written as their id in
+ * the AttributeSchema of the profiles, names outside of the schema are written in full. Integers are variable length,
+ * strings are length prefixed UTF-8 and a single value is written without any collection overhead.
+ *
+ * The providers only build NULL, string and multi value of strings, any other value is kept as its string form.
+ */
+final class EvalValueCodec {
+
+	private static final byte NULL_VALUE = 0;
+	private static final byte SINGLE_VALUE = 1;
+	private static final byte MULTI_VALUE = 2;
+	private static final byte EMPTY_MULTI_VALUE = 3;
+
+	private EvalValueCodec() {
+	}
+
+	/**
+	 * Growable buffer the object is encoded into
+	 */
+	static final class Writer {
+
+		private byte[] buffer = new byte[128];
+		private int size;
+
+		/**
+		 * Write a string which may be null
+		 * @param value String to write
+		 */
+		void writeString(String value) {
+			if (value == null) {
+				writeVarInt(0);
+				return;
+			}
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			writeVarInt(bytes.length + 1);
+			writeBytes(bytes);
+		}
+
+		/**
+		 * Write the attributes of an object
+		 * @param schema Attribute schema of the profiles, null to write every name in full
+		 * @param values Attribute values of the object
+		 */
+		void writeAttributes(AttributeSchema schema, AttributeValues values) {
+
+			if (schema == null || values.getSchema() != schema) {
+				// object built with another schema, write it by name
+				writeAttributes(schema, values.toMap());
+				return;
+			}
+
+			Map<String, IEvalValue> extraValues = values.getExtraValues();
+			int count = (extraValues == null) ? 0 : extraValues.size();
+
+			for (int id = 0; id < values.slotCount(); id++) {
+				if (values.get(id) != null) {
+					count++;
+				}
+			}
+
+			writeVarInt(count);
+
+			for (int id = 0; id < values.slotCount(); id++) {
+				if (values.get(id) != null) {
+					writeVarInt(id + 1);
+					writeValue(values.get(id));
+				}
+			}
+
+			if (extraValues != null) {
+				for (Map.Entry<String, IEvalValue> entry : extraValues.entrySet()) {
+					writeVarInt(0);
+					writeString(entry.getKey());
+					writeValue(entry.getValue());
+				}
+			}
+		}
+
+		private void writeAttributes(AttributeSchema schema, Map<String, IEvalValue> attributes) {
+
+			writeVarInt(attributes.size());
+
+			for (Map.Entry<String, IEvalValue> entry : attributes.entrySet()) {
+
+				int id = (schema == null) ? -1 : schema.getId(entry.getKey());
+
+				// 0 is followed by the name in full, otherwise id + 1
+				writeVarInt(id + 1);
+				if (id < 0) {
+					writeString(entry.getKey());
+				}
+
+				writeValue(entry.getValue());
+			}
+		}
+
+		/**
+		 * Retrieve the encoded bytes
+		 * @return Buffer holding the encoded object
+		 */
+		ByteBuffer toByteBuffer() {
+			return ByteBuffer.wrap(buffer, 0, size);
+		}
+
+		private void writeValue(IEvalValue value) {
+
+			if (value == null || value.getType() == ValueType.NULL || value.getValue() == null) {
+				writeByte(NULL_VALUE);
+			} else if (value.getType() == ValueType.MULTIVAL) {
+				IMultivalue values = (IMultivalue) value.getValue();
+				if (values.isEmpty()) {
+					writeByte(EMPTY_MULTI_VALUE);
+				} else {
+					writeByte(MULTI_VALUE);
+					writeVarInt(values.size());
+					for (IEvalValue element : values) {
+						writeString(String.valueOf(element.getValue()));
+					}
+				}
+			} else {
+				writeByte(SINGLE_VALUE);
+				writeString(String.valueOf(value.getValue()));
+			}
+		}
+
+		private void writeVarInt(int value) {
+			while ((value & ~0x7F) != 0) {
+				writeByte((byte) ((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+			writeByte((byte) value);
+		}
+
+		private void writeByte(byte value) {
+			ensureCapacity(1);
+			buffer[size++] = value;
+		}
+
+		private void writeBytes(byte[] bytes) {
+			ensureCapacity(bytes.length);
+			System.arraycopy(bytes, 0, buffer, size, bytes.length);
+			size += bytes.length;
+		}
+
+		private void ensureCapacity(int extra) {
+			if (size + extra > buffer.length) {
+				buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+			}
+		}
+	}
+
+	/**
+	 * Decode an object encoded by Writer
+	 */
+	static final class Reader {
+
+		private final ByteBuffer buffer;
+
+		/**
+		 * @param buffer Buffer holding the encoded object, read from its position
+		 */
+		Reader(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		/**
+		 * Read a string written by Writer.writeString
+		 * @return String read, may be null
+		 */
+		String readString() {
+			int length = readVarInt();
+			if (length == 0) {
+				return null;
+			}
+			byte[] bytes = new byte[length - 1];
+			buffer.get(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		/**
+		 * Read the attributes written by Writer.writeAttributes
+		 * @param schema Attribute schema the object was written with
+		 * @param values Attribute values of the object to fill
+		 * @throws SerializerException The object refers to an attribute id unknown to the schema
+		 */
+		void readAttributes(AttributeSchema schema, AttributeValues values) throws SerializerException {
+
+			int count = readVarInt();
+			boolean sameSchema = (schema != null && values.getSchema() == schema);
+
+			for (int i = 0; i < count; i++) {
+
+				int id = readVarInt() - 1;
+
+				if (id < 0) {
+					String name = readString();
+					values.put(name, readValue());
+				} else if (schema == null || id >= schema.size()) {
+					throw new SerializerException(String.format("Attribute id [%d] is not part of the schema", id));
+				} else if (sameSchema) {
+					values.put(id, readValue());
+				} else {
+					values.put(schema.getName(id), readValue());
+				}
+			}
+		}
+
+		private IEvalValue readValue() throws SerializerException {
+
+			byte type = buffer.get();
+
+			switch (type) {
+			case NULL_VALUE:
+				return EvalValue.NULL;
+			case SINGLE_VALUE:
+				return EvalValue.build(readString());
+			case EMPTY_MULTI_VALUE:
+				return EvalValue.build(Multivalue.EMPTY);
+			case MULTI_VALUE:
+				int count = readVarInt();
+				List<String> values = new ArrayList<String>(count);
+				for (int i = 0; i < count; i++) {
+					values.add(readString());
+				}
+				return EvalValue.build(Multivalue.create(values));
+			default:
+				throw new SerializerException(String.format("Unknown value type [%d]", type));
+			}
+		}
+
+		private int readVarInt() {
+			int value = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = buffer.get();
+				value |= (b & 0x7F) << shift;
+				shift += 7;
+			} while ((b & 0x80) != 0);
+			return value;
+		}
+	}
+}
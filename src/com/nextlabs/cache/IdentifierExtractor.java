@@ -0,0 +1,24 @@
+package com.nextlabs.cache;
+
+import java.util.List;
+
+/**
+ * Retrieve the key attribute values an object is stored and looked up under in its cache region.
+ *
+ * @param <T> Type of the cached object
+ */
+public interface IdentifierExtractor<T> {
+
+	/**
+	 * Retrieve the identifiers of the object
+	 * @param obj Cached object
+	 * @return Key attribute values of the object, case insensitive ones in lower case
+	 */
+	List<String> getIdentifiers(T obj);
+
+	/**
+	 * Check if a lookup has to try the identifier as given before its lower case
+	 * @return true if any key attribute is case sensitive
+	 */
+	boolean isCaseSensitive();
+}
@@ -0,0 +1,141 @@
+package com.nextlabs.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class gather the cache misses of concurrent callers into batches resolved by one query. The first caller of a
+ * batch waits up to the batch window for other keys to join, or until the batch is full, then runs the query for the
+ * whole batch and hands each caller the result of its own key.
+ *
+ * @param <V> Type of the object returned by the query
+ */
+public class MissBatcher<V> {
+
+	/**
+	 * Query resolving a batch of keys
+	 *
+	 * @param <V> Type of the object returned by the query
+	 */
+	public interface BatchQuery<V> {
+
+		/**
+		 * Query the objects of the given keys
+		 * @param keys Keys of the objects to query, without duplicate
+		 * @return Key to object, keys which are not found can be left out
+		 * @throws Exception Exception thrown by the query
+		 */
+		Map<String, V> query(List<String> keys) throws Exception;
+	}
+
+	private final BatchQuery<V> batchQuery;
+	private final long windowNanos;
+	private final int maxKeys;
+
+	// batch still accepting keys, guarded by this
+	private Batch<V> openBatch;
+
+	/**
+	 * @param batchQuery Query resolving a batch of keys
+	 * @param windowMillis Time the first caller of a batch waits for other keys, 0 to query every miss on its own
+	 * @param maxKeys Maximum number of keys in one batch
+	 */
+	public MissBatcher(BatchQuery<V> batchQuery, long windowMillis, int maxKeys) {
+		this.batchQuery = batchQuery;
+		this.windowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, windowMillis));
+		this.maxKeys = Math.max(1, maxKeys);
+	}
+
+	/**
+	 * Resolve the given key together with the keys of the concurrent callers
+	 * @param key Key of the object to query
+	 * @return Object of the key, null if not found
+	 * @throws Exception Exception thrown by the query
+	 */
+	public V get(String key) throws Exception {
+
+		if (windowNanos == 0 || maxKeys == 1) {
+			return batchQuery.query(Collections.singletonList(key)).get(key);
+		}
+
+		Batch<V> batch;
+		boolean leader = false;
+
+		synchronized (this) {
+			if (openBatch == null) {
+				openBatch = new Batch<V>();
+				leader = true;
+			}
+
+			batch = openBatch;
+			batch.keys.add(key);
+
+			if (batch.keys.size() >= maxKeys) {
+				// batch is full, wake up its leader
+				openBatch = null;
+				notifyAll();
+			}
+		}
+
+		if (leader) {
+			synchronized (this) {
+				long deadline = System.nanoTime() + windowNanos;
+				while (openBatch == batch) {
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0) {
+						openBatch = null;
+						break;
+					}
+					try {
+						TimeUnit.NANOSECONDS.timedWait(this, remaining);
+					} catch (InterruptedException e) {
+						// the other callers of the batch still need their result, run it now
+						Thread.currentThread().interrupt();
+						if (openBatch == batch) {
+							openBatch = null;
+						}
+					}
+				}
+			}
+
+			batch.run(batchQuery);
+		}
+
+		return batch.get(key);
+	}
+
+	/**
+	 * Keys of one batch and their results
+	 */
+	private static class Batch<V> {
+
+		private final Set<String> keys = new LinkedHashSet<String>();
+		private final CountDownLatch done = new CountDownLatch(1);
+		private Map<String, V> results;
+		private Exception error;
+
+		private void run(BatchQuery<V> batchQuery) {
+			try {
+				results = batchQuery.query(new ArrayList<String>(keys));
+			} catch (Exception e) {
+				error = e;
+			} finally {
+				done.countDown();
+			}
+		}
+
+		private V get(String key) throws Exception {
+			done.await();
+			if (error != null) {
+				throw error;
+			}
+			return results.get(key);
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package com.nextlabs.cache;
+
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.ehcache.Cache;
+import org.ehcache.CacheManager;
+import org.ehcache.config.builders.CacheConfigurationBuilder;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
+import org.ehcache.config.units.EntryUnit;
+import org.ehcache.expiry.Duration;
+import org.ehcache.expiry.Expirations;
+
+/**
+ * Bounded cache of the identifiers which were not found in the database, so repeated requests for an unknown
+ * identifier do not go back to the database until the entry expires or the identifier is loaded.
+ *
+ * Identifiers are remembered the way the cache region stores them, in lower case if every key attribute is case
+ * insensitive, so loading the object forgets them under the key values it is stored under.
+ */
+class MissCache {
+
+	private static final Log LOG = LogFactory.getLog(MissCache.class);
+	private final Cache<String, Boolean> misses;
+	// key attribute values of the objects of the cache region, set once the profiles are loaded
+	private final AtomicReference<? extends IdentifierExtractor<?>> identifiers;
+
+	/**
+	 * Read negative_cache_max_entries, entries expire after the given time to live
+	 * @param props Properties contain parameter for cache setting
+	 * @param cacheManager Cache manager of the cache region the identifiers are looked up in
+	 * @param alias Name of the region of the identifiers not found
+	 * @param timeToLive Time an identifier is remembered as not found
+	 * @param identifiers Key attribute values of the objects of the cache region
+	 */
+	MissCache(Properties props, CacheManager cacheManager, String alias, Duration timeToLive,
+			AtomicReference<? extends IdentifierExtractor<?>> identifiers) {
+
+		this.identifiers = identifiers;
+
+		long maxEntries = 10000;
+		try {
+			maxEntries = Long.parseLong(props.getProperty("negative_cache_max_entries", "10000").trim());
+		} catch (NumberFormatException ex) {
+			LOG.error("Not able to read negative_cache_max_entries, hard set to 10000");
+		}
+
+		LOG.info(String.format("negative_cache_max_entries will be set to [%d]", maxEntries));
+
+		if (maxEntries <= 0) {
+			misses = null;
+			return;
+		}
+
+		misses = cacheManager.createCache(alias,
+				CacheConfigurationBuilder
+						.newCacheConfigurationBuilder(String.class, Boolean.class,
+								ResourcePoolsBuilder.newResourcePoolsBuilder().heap(maxEntries, EntryUnit.ENTRIES))
+						.withExpiry(Expirations.timeToLiveExpiration(timeToLive)));
+	}
+
+	/**
+	 * Check if the identifier was recently not found
+	 * @param id Identifier of the object
+	 * @return true if the identifier is remembered as not found
+	 */
+	boolean contains(String id) {
+		return misses != null && misses.containsKey(normalize(id));
+	}
+
+	/**
+	 * Remember the identifier as not found
+	 * @param id Identifier of the object
+	 */
+	void add(String id) {
+		if (misses != null) {
+			misses.put(normalize(id), Boolean.TRUE);
+		}
+	}
+
+	/**
+	 * Forget the identifier, it has been loaded
+	 * @param id Key attribute value the object is stored under
+	 */
+	void remove(String id) {
+		if (misses != null) {
+			misses.remove(id);
+		}
+	}
+
+	private String normalize(String id) {
+		IdentifierExtractor<?> extractor = identifiers.get();
+		return (extractor != null && !extractor.isCaseSensitive()) ? id.toLowerCase() : id;
+	}
+
+	/**
+	 * Forget all the identifiers, a refresh has loaded the whole table
+	 */
+	void clear() {
+		if (misses != null) {
+			misses.clear();
+		}
+	}
+}
@@ -0,0 +1,228 @@
+package com.nextlabs.cache;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.ehcache.Cache;
+import org.ehcache.event.CacheEvent;
+import org.ehcache.event.CacheEventListener;
+import org.ehcache.event.EventFiring;
+import org.ehcache.event.EventOrdering;
+import org.ehcache.event.EventType;
+import org.ehcache.expiry.Duration;
+
+import com.nextlabs.common.ResourceObject;
+import com.nextlabs.common.Util;
+
+/**
+ * Index of the programs by their numeric ID_HD, in front of the program cache region.
+ *
+ * Open addressing on a primitive long key with linear probing, so a lookup neither boxes the id nor hashes a string.
+ * Each generation has its own index, filled along with its program region, so the index of a generation being
+ * refreshed is not visible before the generation is published and is dropped with it when the refresh fails. The
+ * programs evicted or expired from the region are removed from the index, the expired ones still in a slot are
+ * skipped by the readers and dropped by the next resize.
+ *
+ * Writers hold the lock, readers don't. A slot holds an immutable entry written with a single reference store, a
+ * removed program leaves an entry without object so its key keeps probing until the table is resized, and a resized
+ * table is published as a whole, so a reader sees either the object of its key or a miss and falls back on the cache
+ * region.
+ */
+class ProgramIndex {
+
+	private static final int MIN_CAPACITY = 16;
+
+	private final long timeToLive;
+	private volatile Table table;
+
+	/**
+	 * @param timeToLive Time an object stays in the index since it was written, as time_to_live of the cache region
+	 */
+	ProgramIndex(Duration timeToLive) {
+		this.timeToLive = (timeToLive == null || timeToLive.isInfinite()) ? Long.MAX_VALUE
+				: TimeUnit.MILLISECONDS.convert(timeToLive.getLength(), timeToLive.getTimeUnit());
+		table = new Table(MIN_CAPACITY);
+	}
+
+	/**
+	 * Remove the programs evicted to make room or expired from the program region of the generation
+	 * @param cache Program cache region of the generation
+	 * @param identifiers Key attribute values of a program object
+	 */
+	void register(Cache<String, ResourceObject> cache,
+			final AtomicReference<IdentifierExtractor<ResourceObject>> identifiers) {
+
+		cache.getRuntimeConfiguration().registerCacheEventListener(new CacheEventListener<String, ResourceObject>() {
+			@Override
+			public void onEvent(CacheEvent<String, ResourceObject> event) {
+
+				IdentifierExtractor<ResourceObject> extractor = identifiers.get();
+				ResourceObject obj = event.getOldValue();
+				List<String> ids = (extractor == null || obj == null) ? Collections.singletonList(event.getKey())
+						: extractor.getIdentifiers(obj);
+
+				for (String id : ids) {
+					long progId = Util.parseInteger(id);
+					if (progId != Util.NOT_AN_INTEGER) {
+						remove(progId);
+					}
+				}
+			}
+		}, EventOrdering.UNORDERED, EventFiring.ASYNCHRONOUS, EnumSet.of(EventType.EVICTED, EventType.EXPIRED));
+	}
+
+	/**
+	 * Retrieve a program from the index
+	 * @param id ID_HD of the program
+	 * @return Object of ResourceObject, null if not indexed or expired
+	 */
+	ResourceObject get(long id) {
+
+		Table t = table;
+
+		for (int i = t.slot(id);; i = (i + 1) & t.mask) {
+			Entry entry = t.entries[i];
+			if (entry == null) {
+				return null;
+			}
+			if (entry.key == id) {
+				return (entry.value == null || entry.isExpired(System.currentTimeMillis())) ? null : entry.value;
+			}
+		}
+	}
+
+	/**
+	 * Index a program
+	 * @param id ID_HD of the program
+	 * @param obj Program object
+	 */
+	synchronized void put(long id, ResourceObject obj) {
+
+		Entry entry = new Entry(id, obj,
+				(timeToLive == Long.MAX_VALUE) ? Long.MAX_VALUE : System.currentTimeMillis() + timeToLive);
+
+		Table t = table;
+		int i = t.slot(id);
+
+		for (; t.entries[i] != null; i = (i + 1) & t.mask) {
+			if (t.entries[i].key == id) {
+				publish(t, i, entry);
+				return;
+			}
+		}
+
+		// removed keys keep their slot, resize on the used slots to keep the probes short
+		if ((t.occupied + 1) * 2 > t.entries.length) {
+			t = resize();
+			i = t.slot(id);
+			while (t.entries[i] != null) {
+				i = (i + 1) & t.mask;
+			}
+		}
+
+		t.occupied++;
+		publish(t, i, entry);
+	}
+
+	/**
+	 * Remove a program from the index
+	 * @param id ID_HD of the program
+	 */
+	synchronized void remove(long id) {
+
+		Table t = table;
+
+		for (int i = t.slot(id); t.entries[i] != null; i = (i + 1) & t.mask) {
+			if (t.entries[i].key == id) {
+				if (t.entries[i].value != null) {
+					publish(t, i, new Entry(id, null, 0));
+				}
+				return;
+			}
+		}
+	}
+
+	private void publish(Table t, int i, Entry entry) {
+		t.entries[i] = entry;
+		// the volatile write publishes the slot to the readers
+		table = t;
+	}
+
+	/**
+	 * Copy the live programs into a new table, at most a quarter full, the removed and expired ones are dropped
+	 */
+	private Table resize() {
+
+		Table t = table;
+		long now = System.currentTimeMillis();
+
+		int live = 0;
+		for (Entry entry : t.entries) {
+			if (entry != null && entry.value != null && !entry.isExpired(now)) {
+				live++;
+			}
+		}
+
+		int capacity = MIN_CAPACITY;
+		while (capacity < (live + 1) * 4) {
+			capacity <<= 1;
+		}
+
+		Table resized = new Table(capacity);
+
+		for (Entry entry : t.entries) {
+			if (entry != null && entry.value != null && !entry.isExpired(now)) {
+				int j = resized.slot(entry.key);
+				while (resized.entries[j] != null) {
+					j = (j + 1) & resized.mask;
+				}
+				resized.entries[j] = entry;
+				resized.occupied++;
+			}
+		}
+
+		table = resized;
+		return resized;
+	}
+
+	/**
+	 * Program of a slot, never modified once stored
+	 */
+	private static final class Entry {
+
+		final long key;
+		// null once the program was removed
+		final ResourceObject value;
+		final long expiry;
+
+		Entry(long key, ResourceObject value, long expiry) {
+			this.key = key;
+			this.value = value;
+			this.expiry = expiry;
+		}
+
+		boolean isExpired(long now) {
+			return expiry < now;
+		}
+	}
+
+	private static final class Table {
+
+		final Entry[] entries;
+		final int mask;
+		int occupied;
+
+		Table(int capacity) {
+			entries = new Entry[capacity];
+			mask = capacity - 1;
+		}
+
+		int slot(long id) {
+			long hash = id * 0x9E3779B97F4A7C15L;
+			return (int) (hash ^ (hash >>> 32)) & mask;
+		}
+	}
+}
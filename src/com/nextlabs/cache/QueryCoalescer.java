@@ -0,0 +1,61 @@
+package com.nextlabs.cache;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * This class coalesce concurrent cache miss for the same key into one query. The first caller run the query,
+ * the other callers asking for the same key wait for its result. Callers asking for different keys never wait on each other.
+ *
+ * @param <V> Type of the object returned by the query
+ */
+public class QueryCoalescer<V> {
+
+	private final ConcurrentMap<String, FutureTask<V>> inFlightQueries;
+
+	public QueryCoalescer() {
+		inFlightQueries = new ConcurrentHashMap<String, FutureTask<V>>();
+	}
+
+	/**
+	 * Run the query for the given key, or wait for the query already running for the same key
+	 * @param key Key of the object to query
+	 * @param query Query to run if no other caller is querying the same key
+	 * @return Result of the query, shared by all callers of the same key
+	 * @throws Exception Exception thrown by the query
+	 */
+	public V query(String key, Callable<V> query) throws Exception {
+
+		FutureTask<V> task = new FutureTask<V>(query);
+		FutureTask<V> inFlight = inFlightQueries.putIfAbsent(key, task);
+
+		if (inFlight == null) {
+			inFlight = task;
+			try {
+				task.run();
+			} finally {
+				inFlightQueries.remove(key, task);
+			}
+		}
+
+		try {
+			return inFlight.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Number of queries currently running
+	 * @return Number of keys being queried
+	 */
+	public int getInFlightCount() {
+		return inFlightQueries.size();
+	}
+}
@@ -0,0 +1,53 @@
+package com.nextlabs.cache;
+
+import java.util.EnumSet;
+
+import org.ehcache.Cache;
+import org.ehcache.event.CacheEvent;
+import org.ehcache.event.CacheEventListener;
+import org.ehcache.event.EventFiring;
+import org.ehcache.event.EventOrdering;
+import org.ehcache.event.EventType;
+
+import com.nextlabs.metrics.CacheRegionMetrics;
+
+/**
+ * Count the objects evicted from a cache region to make room and the objects expired after time_to_live
+ *
+ * @param <T> Type of the cached object
+ */
+class RegionMetricsListener<T> implements CacheEventListener<String, T> {
+
+	private final CacheRegionMetrics metrics;
+
+	/**
+	 * @param metrics Metrics of the region
+	 */
+	private RegionMetricsListener(CacheRegionMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Count the evictions and expirations of the cache region of a generation
+	 * @param cache Cache region of the generation
+	 * @param metrics Metrics of the region
+	 */
+	static <T> void register(Cache<String, T> cache, CacheRegionMetrics metrics) {
+
+		// counting doesn't need to hold up the thread evicting the entry
+		cache.getRuntimeConfiguration().registerCacheEventListener(new RegionMetricsListener<T>(metrics),
+				EventOrdering.UNORDERED, EventFiring.ASYNCHRONOUS, EnumSet.of(EventType.EVICTED, EventType.EXPIRED));
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ehcache.event.CacheEventListener#onEvent(org.ehcache.event.CacheEvent)
+	 */
+	@Override
+	public void onEvent(CacheEvent<String, T> event) {
+		if (event.getType() == EventType.EVICTED) {
+			metrics.evicted();
+		} else {
+			metrics.expired();
+		}
+	}
+}
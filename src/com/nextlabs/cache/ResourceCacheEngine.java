@@ -1,10 +1,12 @@
 package com.nextlabs.cache;
 
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.Map;
 import java.util.Properties;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -12,13 +14,16 @@ import org.ehcache.Cache;
 import org.ehcache.Cache.Entry;
 import org.ehcache.CacheManager;
 import org.ehcache.config.builders.CacheConfigurationBuilder;
-import org.ehcache.config.builders.CacheManagerBuilder;
 import org.ehcache.config.builders.ResourcePoolsBuilder;
 import org.ehcache.config.units.MemoryUnit;
 import org.ehcache.expiry.Duration;
 import org.ehcache.expiry.Expirations;
 
+import com.nextlabs.common.AttributeSchema;
 import com.nextlabs.common.ResourceObject;
+import com.nextlabs.common.Util;
+import com.nextlabs.metrics.CacheRegionMetrics;
+import com.nextlabs.metrics.MetricsRegistry;
 
 
 /**
@@ -35,13 +40,33 @@ public class ResourceCacheEngine {
 	private static ResourceCacheEngine engine;
 	private CacheManager itemCacheManager;
 	private CacheManager progCacheManager;
-	private Cache<String, ResourceObject> itemObjectCache;
-	private Cache<String, ResourceObject> progObjectCache;
-
-	private Map<String, String> itemIdentifierMap;
-	private Map<String, String> progIdentifierMap;
+	private CacheConfigurationBuilder<String, ResourceObject> itemCacheConfigurationBuilder;
+	private CacheConfigurationBuilder<String, ResourceObject> progCacheConfigurationBuilder;
+	private CacheConfigurationBuilder<String, String> aliasCacheConfigurationBuilder;
+	private CacheTiers tiers;
+	private ResourceObjectSerializer serializer;
+	private boolean reopened;
+	private CacheSnapshot<ResourceObject> snapshot;
+	private AttributeSchema schema;
+	private MissCache itemMisses;
+	private MissCache progMisses;
+	private boolean indexPrograms;
+	private Duration progIndexTimeToLive;
+	private CacheRegionMetrics itemMetrics;
+	private CacheRegionMetrics progMetrics;
+
+	// readers always go through the current generation, refresh publishes a new one in a single swap
+	private final AtomicReference<ResourceCacheGeneration> currentGeneration;
+	private final AtomicLong generationSequence;
+	// key attribute values an object is stored under, shared by every generation
+	private final AtomicReference<IdentifierExtractor<ResourceObject>> itemIdentifierExtractor;
+	private final AtomicReference<IdentifierExtractor<ResourceObject>> progIdentifierExtractor;
 
 	public ResourceCacheEngine() {
+		currentGeneration = new AtomicReference<ResourceCacheGeneration>();
+		generationSequence = new AtomicLong();
+		itemIdentifierExtractor = new AtomicReference<IdentifierExtractor<ResourceObject>>();
+		progIdentifierExtractor = new AtomicReference<IdentifierExtractor<ResourceObject>>();
 	}
 	
 	/**
@@ -56,28 +81,60 @@ public class ResourceCacheEngine {
 	}
 	
 	/**
-	 * Storing ResourceObject into Item Cache region
+	 * Storing ResourceObject into Item Cache region, under each of its key attribute values. The key values of the
+	 * previous object which are not key values of the new one stop resolving
 	 * @param obj ResourceObject to put into cache
 	 */
 	public void writeObjectToItemCache(ResourceObject obj) {
-		if (itemObjectCache == null) {
-			LOG.error("Item Cache has not been initialized");
-			return;
+		while (true) {
+			ResourceCacheGeneration generation = currentGeneration.get();
+			if (generation == null) {
+				LOG.error("Item Cache has not been initialized");
+				return;
+			}
+
+			try {
+				for (String id : generation.replaceObjectInItemCache(obj)) {
+					// the object was just found in the database
+					itemMisses.remove(id);
+				}
+				return;
+			} catch (IllegalStateException e) {
+				// generation was discarded by a refresh while we were writing, retry on the new one
+				if (generation == currentGeneration.get()) {
+					throw e;
+				}
+			}
 		}
-		itemObjectCache.put(obj.getId(), obj);
 	}
 	
 
 	/**
-	 * Storing ResourceObject into Program cache region
+	 * Storing ResourceObject into Program cache region, under each of its key attribute values. The key values of the
+	 * previous object which are not key values of the new one stop resolving
 	 * @param obj ResourceObject to put into cache
 	 */
 	public void writeObjectToProgramCache(ResourceObject obj) {
-		if (progObjectCache == null) {
-			LOG.error("Program Cache has not been initialized");
-			return;
+		while (true) {
+			ResourceCacheGeneration generation = currentGeneration.get();
+			if (generation == null) {
+				LOG.error("Program Cache has not been initialized");
+				return;
+			}
+
+			try {
+				for (String id : generation.replaceObjectInProgramCache(obj)) {
+					// the object was just found in the database
+					progMisses.remove(id);
+				}
+				return;
+			} catch (IllegalStateException e) {
+				// generation was discarded by a refresh while we were writing, retry on the new one
+				if (generation == currentGeneration.get()) {
+					throw e;
+				}
+			}
 		}
-		progObjectCache.put(obj.getId(), obj);
 	}
 	
 	
@@ -101,6 +158,12 @@ public class ResourceCacheEngine {
 		resourceBuilder = resourceBuilder.heap(iHeapMem, MemoryUnit.MB);
 		LOG.info(String.format("cache_heap_in_mb will be set to [%s] MB", iHeapMem));
 		
+		// hot entries stay on heap, the bulk can go off-heap and to disk
+		tiers = new CacheTiers(props, "ResourceReferentialPluginCache");
+		resourceBuilder = tiers.addTiers(resourceBuilder);
+		serializer = new ResourceObjectSerializer();
+		snapshot = CacheSnapshot.create(props, "ResourceReferentialPluginCache", "resource_cache.snapshot", serializer);
+		
 		
 		String cache_max_object = props.getProperty("cache_max_object","5000");
 		long lCache_max_object = 5000;
@@ -117,33 +180,304 @@ public class ResourceCacheEngine {
 		Duration duration = getTimeToLive(timeToLive);
 		
 		//Item Cache region
-		CacheConfigurationBuilder<String, ResourceObject> itemCacheConfigurationBuilder = CacheConfigurationBuilder
+		itemCacheConfigurationBuilder = CacheConfigurationBuilder
 				.newCacheConfigurationBuilder(String.class, ResourceObject.class, resourceBuilder)
-				.withExpiry(Expirations.timeToLiveExpiration(duration)).withSizeOfMaxObjectGraph(lCache_max_object);
-
-		CacheManagerBuilder<CacheManager> cacheManagerBuilder = CacheManagerBuilder.newCacheManagerBuilder();
-		cacheManagerBuilder = cacheManagerBuilder.withCache(ITEM_CACHE_NAME, itemCacheConfigurationBuilder);
-		itemCacheManager = cacheManagerBuilder.build(true);
+				.withExpiry(Expirations.timeToLiveExpiration(duration)).withSizeOfMaxObjectGraph(lCache_max_object)
+				.withValueSerializer(serializer);
 
-		itemObjectCache = itemCacheManager.getCache(ITEM_CACHE_NAME, String.class, ResourceObject.class);
+		itemCacheManager = tiers.newCacheManager(ITEM_CACHE_NAME);
 		
 		// Program Cache region	
-		CacheConfigurationBuilder<String, ResourceObject> progCacheConfigurationBuilder = CacheConfigurationBuilder
+		progCacheConfigurationBuilder = CacheConfigurationBuilder
 				.newCacheConfigurationBuilder(String.class, ResourceObject.class, resourceBuilder)
-				.withExpiry(Expirations.timeToLiveExpiration(duration)).withSizeOfMaxObjectGraph(lCache_max_object);
+				.withExpiry(Expirations.timeToLiveExpiration(duration)).withSizeOfMaxObjectGraph(lCache_max_object)
+				.withValueSerializer(serializer);
+
+		progCacheManager = tiers.newCacheManager(PROGRAM_CACHE_NAME);
+
+		// other key values of an item or a program to the key value the object is stored under
+		aliasCacheConfigurationBuilder = CacheConfigurationBuilder
+				.newCacheConfigurationBuilder(String.class, String.class, resourceBuilder)
+				.withExpiry(Expirations.timeToLiveExpiration(duration));
+
+		// ids not found in the DB are remembered for a shorter time than the objects
+		Duration negativeDuration = getTimeToLive(props.getProperty("negative_cache_time_to_live", "5_MINS"));
+		itemMisses = new MissCache(props, itemCacheManager, ITEM_CACHE_NAME + "_Miss", negativeDuration,
+				itemIdentifierExtractor);
+		progMisses = new MissCache(props, progCacheManager, PROGRAM_CACHE_NAME + "_Miss", negativeDuration,
+				progIdentifierExtractor);
+
+		// numeric program ids are looked up in a primitive index before the program region
+		indexPrograms = Boolean.parseBoolean(props.getProperty("program_index", "true").trim());
+		progIndexTimeToLive = duration;
+		LOG.info(String.format("program_index will be set to [%s]", indexPrograms));
+
+		tiers.closeOnShutdown(itemCacheManager, progCacheManager);
+
+		itemMetrics = MetricsRegistry.register("CacheRegion", "Item",
+				new CacheRegionMetrics(new CacheRegionMetrics.EntryCounter() {
+					@Override
+					public long countEntries() {
+						ResourceCacheGeneration generation = currentGeneration.get();
+						return (generation == null) ? 0 : countCacheEntries(generation.getItemObjectCache());
+					}
+				}));
+
+		progMetrics = MetricsRegistry.register("CacheRegion", "Program",
+				new CacheRegionMetrics(new CacheRegionMetrics.EntryCounter() {
+					@Override
+					public long countEntries() {
+						ResourceCacheGeneration generation = currentGeneration.get();
+						return (generation == null) ? 0 : countCacheEntries(generation.getProgObjectCache());
+					}
+				}));
+
+		// reopen the generation persisted before the restart, its objects are already stored under their key values
+		Long activeGeneration = tiers.readActiveGeneration();
+
+		if (activeGeneration != null) {
+			generationSequence.set(activeGeneration);
+			currentGeneration.set(createGeneration(generationSequence.getAndIncrement(), false));
+			reopened = true;
+			LOG.info(String.format("Reopened persisted resource cache generation [%d]", activeGeneration));
+		} else {
+			currentGeneration.set(newGeneration());
+			tiers.writeActiveGeneration(currentGeneration.get().getNumber());
+		}
+	}
 
-		CacheManagerBuilder<CacheManager> progCacheManagerBuilder = CacheManagerBuilder.newCacheManagerBuilder();
-		progCacheManagerBuilder = progCacheManagerBuilder.withCache(PROGRAM_CACHE_NAME, progCacheConfigurationBuilder);
-		progCacheManager = progCacheManagerBuilder.build(true);
+	/**
+	 * Set the attribute schema of the profiles, attribute names are encoded as their id in the off-heap and disk
+	 * tiers. A reopened generation encoded with a different schema is dropped
+	 * @param schema Attribute schema of the resource profiles
+	 */
+	public void setAttributeSchema(AttributeSchema schema) {
 
-		progObjectCache = progCacheManager.getCache(PROGRAM_CACHE_NAME, String.class, ResourceObject.class);
-		
-		// identifierMap can be modified concurrently by different requests
-		itemIdentifierMap = new ConcurrentHashMap<String, String>();
-		progIdentifierMap = new ConcurrentHashMap<String, String>();
+		serializer.setSchema(schema);
+		this.schema = schema;
+
+		if (!tiers.isPersistent()) {
+			return;
+		}
+
+		Long persistedFingerprint = tiers.readSchemaFingerprint();
+
+		if (reopened && (persistedFingerprint == null || persistedFingerprint != schema.getFingerprint())) {
+			LOG.warn(String.format("Attribute configuration has changed, dropping resource cache generation [%d]",
+					currentGeneration.get().getNumber()));
+			publishGeneration(newGeneration());
+		}
+
+		reopened = false;
+		tiers.writeSchemaFingerprint(schema.getFingerprint());
+	}
+
+	/**
+	 * Set the key attribute values an item and a program object are stored under, before any object is written
+	 * @param itemIdentifiers Key attribute values of an item object
+	 * @param progIdentifiers Key attribute values of a program object
+	 */
+	public void setIdentifierExtractors(IdentifierExtractor<ResourceObject> itemIdentifiers,
+			IdentifierExtractor<ResourceObject> progIdentifiers) {
+		itemIdentifierExtractor.set(itemIdentifiers);
+		progIdentifierExtractor.set(progIdentifiers);
+	}
+
+	/**
+	 * Load the snapshot written by the last successful refresh into the current generation, so the PDP serves warm
+	 * data right after a restart. Skipped when a disk tier reopens its own persisted generation
+	 * @return Number of objects loaded
+	 */
+	public int loadSnapshot() {
+
+		ResourceCacheGeneration generation = currentGeneration.get();
+		if (snapshot == null || schema == null || generation == null || tiers.isPersistent()) {
+			return 0;
+		}
+
+		long startTime = System.currentTimeMillis();
+
+		int count = snapshot.read(schema.getFingerprint(),
+				Arrays.asList(generation.getItemObjectCache(), generation.getProgObjectCache()));
+
+		if (count < 0) {
+			// drop whatever a failed read left behind
+			publishGeneration(newGeneration());
+			return 0;
+		}
+
+		// the snapshot holds each object once, under its first key value
+		generation.writeAliases();
+
+		LOG.info(String.format("Loaded [%d] objects into resource cache generation [%d] from snapshot in %dms", count,
+				generation.getNumber(), (System.currentTimeMillis() - startTime)));
+
+		return count;
+	}
+
+	/**
+	 * Write the current generation to the snapshot file, called after a successful refresh
+	 */
+	public void saveSnapshot() {
+
+		ResourceCacheGeneration generation = currentGeneration.get();
+		if (snapshot == null || schema == null || generation == null) {
+			return;
+		}
+
+		long startTime = System.currentTimeMillis();
+
+		try {
+			int count = snapshot.write(schema.getFingerprint(),
+					Arrays.asList(generation.getItemObjectCache(), generation.getProgObjectCache()));
+
+			LOG.info(String.format("Wrote [%d] objects of resource cache generation [%d] to snapshot in %dms", count,
+					generation.getNumber(), (System.currentTimeMillis() - startTime)));
+		} catch (IOException e) {
+			LOG.warn("Unable to write the resource cache snapshot, the previous snapshot is kept", e);
+		}
+	}
+
+	/**
+	 * Create a new, empty generation of the item and program cache. The generation is not visible to readers until
+	 * it is published with publishGeneration
+	 * @return New cache generation
+	 */
+	public ResourceCacheGeneration newGeneration() {
+		return createGeneration(generationSequence.getAndIncrement(), true);
+	}
+
+	/**
+	 * Create the cache regions of a generation
+	 * @param number Number of the generation
+	 * @param empty true to drop any data persisted under the same name, false to reopen it
+	 * @return Cache generation
+	 */
+	private ResourceCacheGeneration createGeneration(long number, boolean empty) {
+
+		AliasedRegion<ResourceObject> itemRegion = createRegion(itemCacheManager, ITEM_CACHE_NAME + "_" + number,
+				itemCacheConfigurationBuilder, itemIdentifierExtractor, empty);
+		AliasedRegion<ResourceObject> progRegion = createRegion(progCacheManager, PROGRAM_CACHE_NAME + "_" + number,
+				progCacheConfigurationBuilder, progIdentifierExtractor, empty);
+
+		RegionMetricsListener.register(itemRegion.getObjectCache(), itemMetrics);
+		RegionMetricsListener.register(progRegion.getObjectCache(), progMetrics);
+
+		LOG.debug(String.format("Created resource cache generation [%d]", number));
+
+		ProgramIndex progIndex = null;
+		if (indexPrograms) {
+			progIndex = new ProgramIndex(progIndexTimeToLive);
+			progIndex.register(progRegion.getObjectCache(), progIdentifierExtractor);
+		}
+
+		return new ResourceCacheGeneration(number, itemRegion, progRegion, progIndex);
+	}
+
+	/**
+	 * Create the object region of a generation and its alias region
+	 * @param manager Cache manager of the regions
+	 * @param name Name of the object region
+	 * @param configurationBuilder Configuration of the object region
+	 * @param identifiers Key attribute values of an object
+	 * @param empty true to drop any data persisted under the same name, false to reopen it
+	 * @return Cache region
+	 */
+	private AliasedRegion<ResourceObject> createRegion(CacheManager manager, String name,
+			CacheConfigurationBuilder<String, ResourceObject> configurationBuilder,
+			AtomicReference<IdentifierExtractor<ResourceObject>> identifiers, boolean empty) {
+
+		String aliasName = name + "_Alias";
+
+		if (empty && tiers.isPersistent()) {
+			// left over by a run which stopped before publishing this generation
+			tiers.destroyCache(manager, name);
+			tiers.destroyCache(manager, aliasName);
+		}
+
+		return new AliasedRegion<ResourceObject>(name, manager.createCache(name, configurationBuilder), aliasName,
+				manager.createCache(aliasName, aliasCacheConfigurationBuilder), identifiers);
+	}
+
+	/**
+	 * Make the given generation the one serving readers and release the previous one
+	 * @param generation Generation filled by the refresh
+	 */
+	public void publishGeneration(ResourceCacheGeneration generation) {
+
+		ResourceCacheGeneration previous = currentGeneration.getAndSet(generation);
+
+		LOG.info(String.format("Resource cache generation [%d] is now active", generation.getNumber()));
+
+		tiers.writeActiveGeneration(generation.getNumber());
+
+		// the refresh loaded the whole tables, an id still missing will be queried once more
+		itemMisses.clear();
+		progMisses.clear();
+
+		if (previous != null && previous != generation) {
+			discardGeneration(previous);
+		}
+	}
+
+	/**
+	 * Release the cache regions of a generation which is not or no longer serving readers
+	 * @param generation Generation to release
+	 */
+	public void discardGeneration(ResourceCacheGeneration generation) {
+
+		if (generation == currentGeneration.get()) {
+			LOG.error(String.format("Cannot discard active resource cache generation [%d]", generation.getNumber()));
+			return;
+		}
+
+		tiers.destroyCache(itemCacheManager, generation.getItemRegion().getName());
+		tiers.destroyCache(itemCacheManager, generation.getItemRegion().getAliasName());
+		tiers.destroyCache(progCacheManager, generation.getProgRegion().getName());
+		tiers.destroyCache(progCacheManager, generation.getProgRegion().getAliasName());
+
+		LOG.debug(String.format("Discarded resource cache generation [%d]", generation.getNumber()));
 	}
 	
 	
+	/**
+	 * Retrieve the metrics of the Item Cache region
+	 * @return Metrics of the region
+	 */
+	public CacheRegionMetrics getItemMetrics() {
+		return itemMetrics;
+	}
+
+	/**
+	 * Retrieve the metrics of the Program cache region
+	 * @return Metrics of the region
+	 */
+	public CacheRegionMetrics getProgMetrics() {
+		return progMetrics;
+	}
+
+	/**
+	 * Count the entries of a cache region, iterating the whole region
+	 * @param cache Cache region
+	 * @return Number of entries, 0 if the region was discarded meanwhile
+	 */
+	private static long countCacheEntries(Cache<String, ResourceObject> cache) {
+
+		long count = 0;
+
+		try {
+			Iterator<Entry<String, ResourceObject>> it = cache.iterator();
+			while (it.hasNext()) {
+				it.next();
+				count++;
+			}
+		} catch (IllegalStateException e) {
+			return 0;
+		}
+
+		return count;
+	}
+
 	/**
 	 * Parsing the setting and convert it to Duration
 	 * @param timeToLive
@@ -205,28 +539,57 @@ public class ResourceCacheEngine {
 	 * @return Object of ResourceObject
 	 */
 	public ResourceObject getItemObjectFromCache(String id) {
-		if (itemObjectCache == null) {
-			LOG.error("Item Cache has not been initialized");
-			return null;
-		}
+		while (true) {
+			ResourceCacheGeneration generation = currentGeneration.get();
+			if (generation == null) {
+				LOG.error("Item Cache has not been initialized");
+				return null;
+			}
 
-		return (itemIdentifierMap.get(id) == null) ? null : itemObjectCache.get(itemIdentifierMap.get(id));
+			try {
+				return generation.getItemObject(id);
+			} catch (IllegalStateException e) {
+				// generation was discarded by a refresh while we were reading, retry on the new one
+				if (generation == currentGeneration.get()) {
+					throw e;
+				}
+			}
+		}
 	}
 	
 	
 	/**
-	 * Retrieve Item object from cache
-	 * @param id Identifier of the item object
+	 * Retrieve Program object from cache, numeric ids are looked up in the program index of the generation first
+	 * @param id Identifier of the program object
 	 * @return Object of ResourceObject
 	 */
 	public ResourceObject getProgObjectFromCache(String id) {
-		
-		if (progObjectCache == null) {
-			LOG.error("Prog Cache has not been initialized");
-			return null;
-		}
+		return getProgObjectFromCache(id, Util.parseInteger(id));
+	}
+
+	/**
+	 * Retrieve Program object from cache, with the id already parsed by the caller
+	 * @param id Identifier of the program object
+	 * @param progId The id parsed by Util.parseInteger, Util.NOT_AN_INTEGER if it is not numeric
+	 * @return Object of ResourceObject
+	 */
+	public ResourceObject getProgObjectFromCache(String id, long progId) {
+		while (true) {
+			ResourceCacheGeneration generation = currentGeneration.get();
+			if (generation == null) {
+				LOG.error("Prog Cache has not been initialized");
+				return null;
+			}
 
-		return (progIdentifierMap.get(id) == null) ? null : progObjectCache.get(progIdentifierMap.get(id));
+			try {
+				return generation.getProgObject(id, progId);
+			} catch (IllegalStateException e) {
+				// generation was discarded by a refresh while we were reading, retry on the new one
+				if (generation == currentGeneration.get()) {
+					throw e;
+				}
+			}
+		}
 	}
 	
 	
@@ -237,14 +600,15 @@ public class ResourceCacheEngine {
 	public void printItemCache() {
 		
 		//Item Cache
-		if (itemObjectCache == null) {
+		ResourceCacheGeneration generation = currentGeneration.get();
+		if (generation == null) {
 			LOG.error("Item Cache has not been initialized");
 			return;
 		}
 
 		int size = 0;
 
-		Iterator<Entry<String, ResourceObject>> it = itemObjectCache.iterator();
+		Iterator<Entry<String, ResourceObject>> it = generation.getItemObjectCache().iterator();
 		while (it.hasNext()) {
 			Entry<String, ResourceObject> entry = it.next();
 			size++;
@@ -262,14 +626,15 @@ public class ResourceCacheEngine {
 	public void printProgCache() {
 		
 		//Item Cache
-		if (progObjectCache == null) {
+		ResourceCacheGeneration generation = currentGeneration.get();
+		if (generation == null) {
 			LOG.error("Program Cache has not been initialized");
 			return;
 		}
 
 		int size = 0;
 
-		Iterator<Entry<String, ResourceObject>> it = progObjectCache.iterator();
+		Iterator<Entry<String, ResourceObject>> it = generation.getProgObjectCache().iterator();
 		while (it.hasNext()) {
 			Entry<String, ResourceObject> entry = it.next();
 			size++;
@@ -282,48 +647,67 @@ public class ResourceCacheEngine {
 
 	
 	/**
-	 * Print out Item object identifier map
-	 * 
+	 * Remove an item from Item Cache region under each of its key values, the item was deleted from the database
+	 * @param id Key attribute value of the item
 	 */
-	public void printItemIdentifierMap() {
-		for (Map.Entry<String, String> entry : itemIdentifierMap.entrySet()) {
-			LOG.info(String.format("Item Identifier map now contains [%s - %s]", entry.getKey(), entry.getValue()));
+	public void removeItemObject(String id) {
+		ResourceCacheGeneration generation = currentGeneration.get();
+		if (generation == null) {
+			LOG.error("Cache has not been initialized");
+			return;
 		}
+		generation.removeItemObject(id);
 	}
-	
+
 	/**
-	 * Printout Program object identifier map
+	 * Remove a program from Program cache region under each of its key values, the program was deleted from the
+	 * database
+	 * @param id Key attribute value of the program
 	 */
-	public void printProgIdentifierMap() {
-		for (Map.Entry<String, String> entry : progIdentifierMap.entrySet()) {
-			LOG.info(String.format("Prog Identifier map now contains [%s - %s]", entry.getKey(), entry.getValue()));
+	public void removeProgObject(String id) {
+		ResourceCacheGeneration generation = currentGeneration.get();
+		if (generation == null) {
+			LOG.error("Cache has not been initialized");
+			return;
 		}
+		generation.removeProgObject(id);
 	}
 
-	
 	/**
-	 * Writing identifier into Item identifier map
-	 * @param id Identifier ID
-	 * @param combinedId Combination of ID
+	 * Check if the item was recently not found in the database
+	 * @param id Identifier of the item object
+	 * @return true if the item is remembered as not found
 	 */
-	public void addItemIdentifier(String id, String combinedId) {
-		if (itemIdentifierMap == null) {
-			LOG.error("Cache has not been initialized");
-			return;
+	public boolean isMissingItem(String id) {
+		return itemMisses != null && itemMisses.contains(id);
+	}
+
+	/**
+	 * Remember the item as not found in the database
+	 * @param id Identifier of the item object
+	 */
+	public void addMissingItem(String id) {
+		if (itemMisses != null) {
+			itemMisses.add(id);
 		}
-		itemIdentifierMap.put(id, combinedId);
 	}
-	
+
 	/**
-	 * Writing identifier into Program identifier map
-	 * @param id Identifier ID
-	 * @param combinedId Combination of ID
+	 * Check if the program was recently not found in the database
+	 * @param id Identifier of the program object
+	 * @return true if the program is remembered as not found
 	 */
-	public void addProgIdentifier(String id, String combinedId) {
-		if (progIdentifierMap == null) {
-			LOG.error("Cache has not been initialized");
-			return;
+	public boolean isMissingProgram(String id) {
+		return progMisses != null && progMisses.contains(id);
+	}
+
+	/**
+	 * Remember the program as not found in the database
+	 * @param id Identifier of the program object
+	 */
+	public void addMissingProgram(String id) {
+		if (progMisses != null) {
+			progMisses.add(id);
 		}
-		progIdentifierMap.put(id, combinedId);
 	}
 }
@@ -0,0 +1,195 @@
+package com.nextlabs.cache;
+
+import java.util.List;
+
+import org.ehcache.Cache;
+
+import com.nextlabs.common.ResourceObject;
+import com.nextlabs.common.Util;
+
+/**
+ * One generation of the item and program cache.
+ * A refresh fills a new generation off to the side and publishes it through ResourceCacheEngine in one swap.
+ *
+ * Objects are stored once under their first key attribute value, their other key values are aliases of it, so a
+ * lookup by any of them is one or two gets on the regions. Case insensitive key values are stored in lower case.
+ */
+public class ResourceCacheGeneration {
+
+	private final long number;
+	private final AliasedRegion<ResourceObject> itemRegion;
+	private final AliasedRegion<ResourceObject> progRegion;
+	// numeric program ids of this generation, null if program_index is disabled
+	private final ProgramIndex progIndex;
+
+	/**
+	 * @param number Sequence number of the generation
+	 * @param itemRegion Item cache region and its aliases
+	 * @param progRegion Program cache region and its aliases
+	 * @param progIndex Index of the programs of this generation by numeric id, null if disabled
+	 */
+	ResourceCacheGeneration(long number, AliasedRegion<ResourceObject> itemRegion,
+			AliasedRegion<ResourceObject> progRegion, ProgramIndex progIndex) {
+		this.number = number;
+		this.itemRegion = itemRegion;
+		this.progRegion = progRegion;
+		this.progIndex = progIndex;
+	}
+
+	/**
+	 * Storing ResourceObject into Item Cache region of this generation, under each of its key attribute values
+	 * @param obj ResourceObject to put into cache
+	 * @return Key attribute values the object is stored under
+	 */
+	public List<String> writeObjectToItemCache(ResourceObject obj) {
+		return itemRegion.write(obj);
+	}
+
+	/**
+	 * Storing ResourceObject into Program cache region of this generation, under each of its key attribute values
+	 * @param obj ResourceObject to put into cache
+	 * @return Key attribute values the object is stored under
+	 */
+	public List<String> writeObjectToProgramCache(ResourceObject obj) {
+
+		List<String> ids = progRegion.write(obj);
+
+		if (progIndex != null) {
+			for (String id : ids) {
+				long progId = Util.parseInteger(id);
+				if (progId != Util.NOT_AN_INTEGER) {
+					progIndex.put(progId, obj);
+				}
+			}
+		}
+
+		return ids;
+	}
+
+	/**
+	 * Replace an item of this generation, the key values the previous object had and the new one doesn't have stop
+	 * resolving
+	 * @param obj ResourceObject to put into cache
+	 * @return Key attribute values the object is stored under
+	 */
+	public List<String> replaceObjectInItemCache(ResourceObject obj) {
+		itemRegion.removePrevious(obj);
+		return writeObjectToItemCache(obj);
+	}
+
+	/**
+	 * Replace a program of this generation, the key values the previous object had and the new one doesn't have stop
+	 * resolving
+	 * @param obj ResourceObject to put into cache
+	 * @return Key attribute values the object is stored under
+	 */
+	public List<String> replaceObjectInProgramCache(ResourceObject obj) {
+		unindex(progRegion.removePrevious(obj));
+		return writeObjectToProgramCache(obj);
+	}
+
+	/**
+	 * Remove an item from Item Cache region of this generation, under each of its key attribute values
+	 * @param id Key attribute value of the item, in any case if the key is case insensitive
+	 */
+	public void removeItemObject(String id) {
+		itemRegion.remove(id);
+	}
+
+	/**
+	 * Remove a program from Program cache region of this generation, under each of its key attribute values
+	 * @param id Key attribute value of the program, in any case if the key is case insensitive
+	 */
+	public void removeProgObject(String id) {
+		unindex(progRegion.remove(id));
+	}
+
+	/**
+	 * Alias the other key values of the objects read from a snapshot into the regions of this generation
+	 * @return Number of aliases written
+	 */
+	int writeAliases() {
+		return itemRegion.writeAliases() + progRegion.writeAliases();
+	}
+
+	private void unindex(List<String> ids) {
+
+		if (progIndex == null) {
+			return;
+		}
+
+		for (String id : ids) {
+			long progId = Util.parseInteger(id);
+			if (progId != Util.NOT_AN_INTEGER) {
+				progIndex.remove(progId);
+			}
+		}
+	}
+
+	/**
+	 * Retrieve Item object from this generation
+	 * @param id Identifier of the item object
+	 * @return Object of ResourceObject, null if not found
+	 */
+	public ResourceObject getItemObject(String id) {
+		return itemRegion.read(id);
+	}
+
+	/**
+	 * Retrieve Program object from this generation, numeric ids are looked up in the program index first
+	 * @param id Identifier of the program object
+	 * @return Object of ResourceObject, null if not found
+	 */
+	public ResourceObject getProgObject(String id) {
+		return getProgObject(id, (progIndex == null) ? Util.NOT_AN_INTEGER : Util.parseInteger(id));
+	}
+
+	/**
+	 * Retrieve Program object from this generation, numeric ids are looked up in the program index first
+	 * @param id Identifier of the program object
+	 * @param progId The id parsed by Util.parseInteger, Util.NOT_AN_INTEGER if it is not numeric
+	 * @return Object of ResourceObject, null if not found
+	 */
+	public ResourceObject getProgObject(String id, long progId) {
+
+		if (progIndex == null) {
+			return progRegion.read(id);
+		}
+
+		if (progId != Util.NOT_AN_INTEGER) {
+			ResourceObject obj = progIndex.get(progId);
+			if (obj != null) {
+				return obj;
+			}
+		}
+
+		ResourceObject obj = progRegion.read(id);
+
+		// loaded from a snapshot or a reopened generation, or expired from the index only
+		if (obj != null && progId != Util.NOT_AN_INTEGER) {
+			progIndex.put(progId, obj);
+		}
+
+		return obj;
+	}
+
+	public long getNumber() {
+		return number;
+	}
+
+	AliasedRegion<ResourceObject> getItemRegion() {
+		return itemRegion;
+	}
+
+	AliasedRegion<ResourceObject> getProgRegion() {
+		return progRegion;
+	}
+
+	Cache<String, ResourceObject> getItemObjectCache() {
+		return itemRegion.getObjectCache();
+	}
+
+	Cache<String, ResourceObject> getProgObjectCache() {
+		return progRegion.getObjectCache();
+	}
+}
@@ -1,10 +1,12 @@
 package com.nextlabs.cache;
 
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.Map;
 import java.util.Properties;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -12,13 +14,15 @@ import org.ehcache.Cache;
 import org.ehcache.Cache.Entry;
 import org.ehcache.CacheManager;
 import org.ehcache.config.builders.CacheConfigurationBuilder;
-import org.ehcache.config.builders.CacheManagerBuilder;
 import org.ehcache.config.builders.ResourcePoolsBuilder;
 import org.ehcache.config.units.MemoryUnit;
 import org.ehcache.expiry.Duration;
 import org.ehcache.expiry.Expirations;
 
+import com.nextlabs.common.AttributeSchema;
 import com.nextlabs.common.UserObject;
+import com.nextlabs.metrics.CacheRegionMetrics;
+import com.nextlabs.metrics.MetricsRegistry;
 
 /**
  * This class implement the CacheEngine for storing and retrieving user object.
@@ -31,11 +35,26 @@ public class UserCacheEngine {
 	private static final Log LOG = LogFactory.getLog(UserCacheEngine.class);
 	private static UserCacheEngine engine;
 	private CacheManager userCacheManager;
-	private Cache<String, UserObject> userObjectCache;
+	private CacheConfigurationBuilder<String, UserObject> userCacheConfigurationBuilder;
+	private CacheConfigurationBuilder<String, String> aliasCacheConfigurationBuilder;
+	private CacheTiers tiers;
+	private UserObjectSerializer serializer;
+	private boolean reopened;
+	private CacheSnapshot<UserObject> snapshot;
+	private AttributeSchema schema;
+	private MissCache userMisses;
+	private CacheRegionMetrics userMetrics;
 
-	private Map<String, String> identifierMap;
+	// readers always go through the current generation, refresh publishes a new one in a single swap
+	private final AtomicReference<UserCacheGeneration> currentGeneration;
+	private final AtomicLong generationSequence;
+	// key attribute values a user is stored under, shared by every generation
+	private final AtomicReference<IdentifierExtractor<UserObject>> identifierExtractor;
 
 	public UserCacheEngine() {
+		currentGeneration = new AtomicReference<UserCacheGeneration>();
+		generationSequence = new AtomicLong();
+		identifierExtractor = new AtomicReference<IdentifierExtractor<UserObject>>();
 	}
 
 	/**
@@ -50,17 +69,49 @@ public class UserCacheEngine {
 	}
 
 	/**
-	 * Writing UserObject into user cache
+	 * Writing UserObject into user cache, under each of its key attribute values. The key values of the previous
+	 * object which are not key values of the new one stop resolving
 	 * @param obj UserObject
 	 */
 	public void writeObjectToUserCache(UserObject obj) {
-		if (userObjectCache == null) {
+		while (true) {
+			UserCacheGeneration generation = currentGeneration.get();
+			if (generation == null) {
+				LOG.error("Cache has not been initialized");
+				return;
+			}
+
+			try {
+				for (String id : generation.replaceObjectInUserCache(obj)) {
+					// the user was just found in the database
+					userMisses.remove(id);
+				}
+				return;
+			} catch (IllegalStateException e) {
+				// generation was discarded by a refresh while we were writing, retry on the new one
+				if (generation == currentGeneration.get()) {
+					throw e;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Remove a user from the user cache under each of its key values, the user was deleted from the database
+	 * @param domain Profile or domain name of the user
+	 * @param rowId USRPD ID of the user
+	 */
+	public void removeUserObject(String domain, String rowId) {
+		UserCacheGeneration generation = currentGeneration.get();
+		if (generation == null) {
 			LOG.error("Cache has not been initialized");
 			return;
 		}
-		userObjectCache.put(obj.getId(), obj);
+		if (!generation.removeUserObjectByRowId(domain, rowId)) {
+			LOG.debug(String.format("Deleted user [%s] of domain [%s] is not in the cache", rowId, domain));
+		}
 	}
-	
+
 	/**
 	 * Initialize the cache with the properties parameter such as cache_heap_in_mb, cache_max_object and etc
 	 * @param props Properties contain parameter for cache setting
@@ -80,6 +131,12 @@ public class UserCacheEngine {
 		resourceBuilder = resourceBuilder.heap(iHeapMem, MemoryUnit.MB);
 		LOG.info(String.format("cache_heap_in_mb will be set to [%s] MB", iHeapMem));
 		
+		// hot entries stay on heap, the bulk can go off-heap and to disk
+		tiers = new CacheTiers(props, "UserReferentialPluginCache");
+		resourceBuilder = tiers.addTiers(resourceBuilder);
+		serializer = new UserObjectSerializer();
+		snapshot = CacheSnapshot.create(props, "UserReferentialPluginCache", "user_cache.snapshot", serializer);
+		
 		
 		String cache_max_object = props.getProperty("cache_max_object","5000");
 		long lCache_max_object = 5000;
@@ -96,20 +153,238 @@ public class UserCacheEngine {
 		Duration duration = getTimeToLive(timeToLive);
 		
 		//User Cache region
-		CacheConfigurationBuilder<String, UserObject> userCacheConfigurationBuilder = CacheConfigurationBuilder
+		userCacheConfigurationBuilder = CacheConfigurationBuilder
 				.newCacheConfigurationBuilder(String.class, UserObject.class, resourceBuilder)
-				.withExpiry(Expirations.timeToLiveExpiration(duration)).withSizeOfMaxObjectGraph(lCache_max_object);
+				.withExpiry(Expirations.timeToLiveExpiration(duration)).withSizeOfMaxObjectGraph(lCache_max_object)
+				.withValueSerializer(serializer);
+
+		userCacheManager = tiers.newCacheManager(USER_CACHE_NAME);
+
+		// other key values of a user to the key value the user is stored under
+		aliasCacheConfigurationBuilder = CacheConfigurationBuilder
+				.newCacheConfigurationBuilder(String.class, String.class, resourceBuilder)
+				.withExpiry(Expirations.timeToLiveExpiration(duration));
+
+		// ids not found in the DB are remembered for a shorter time than the objects
+		userMisses = new MissCache(props, userCacheManager, USER_CACHE_NAME + "_Miss",
+				getTimeToLive(props.getProperty("negative_cache_time_to_live", "5_MINS")), identifierExtractor);
+
+		tiers.closeOnShutdown(userCacheManager);
+
+		userMetrics = MetricsRegistry.register("CacheRegion", "User",
+				new CacheRegionMetrics(new CacheRegionMetrics.EntryCounter() {
+					@Override
+					public long countEntries() {
+						UserCacheGeneration generation = currentGeneration.get();
+						return (generation == null) ? 0 : countCacheEntries(generation.getUserObjectCache());
+					}
+				}));
+
+		// reopen the generation persisted before the restart, its users are already stored under their key values
+		Long activeGeneration = tiers.readActiveGeneration();
+
+		if (activeGeneration != null) {
+			generationSequence.set(activeGeneration);
+			currentGeneration.set(createGeneration(generationSequence.getAndIncrement(), false));
+			reopened = true;
+			LOG.info(String.format("Reopened persisted user cache generation [%d]", activeGeneration));
+		} else {
+			currentGeneration.set(newGeneration());
+			tiers.writeActiveGeneration(currentGeneration.get().getNumber());
+		}
+	}
+
+	/**
+	 * Set the attribute schema of the profiles, attribute names are encoded as their id in the off-heap and disk
+	 * tiers. A reopened generation encoded with a different schema is dropped
+	 * @param schema Attribute schema of the user profiles
+	 */
+	public void setAttributeSchema(AttributeSchema schema) {
+
+		serializer.setSchema(schema);
+		this.schema = schema;
+
+		if (!tiers.isPersistent()) {
+			return;
+		}
+
+		Long persistedFingerprint = tiers.readSchemaFingerprint();
 
-		CacheManagerBuilder<CacheManager> cacheManagerBuilder = CacheManagerBuilder.newCacheManagerBuilder();
-		cacheManagerBuilder = cacheManagerBuilder.withCache(USER_CACHE_NAME, userCacheConfigurationBuilder);
-		userCacheManager = cacheManagerBuilder.build(true);
+		if (reopened && (persistedFingerprint == null || persistedFingerprint != schema.getFingerprint())) {
+			LOG.warn(String.format("Attribute configuration has changed, dropping user cache generation [%d]",
+					currentGeneration.get().getNumber()));
+			publishGeneration(newGeneration());
+		}
 
-		userObjectCache = userCacheManager.getCache(USER_CACHE_NAME, String.class, UserObject.class);
+		reopened = false;
+		tiers.writeSchemaFingerprint(schema.getFingerprint());
+	}
 
-		// identifierMap can be modified concurrently by different requests
-		identifierMap = new ConcurrentHashMap<String, String>();
+	/**
+	 * Set the key attribute values a user object is stored under, before any user is written
+	 * @param identifiers Key attribute values of a user object
+	 */
+	public void setIdentifierExtractor(IdentifierExtractor<UserObject> identifiers) {
+		identifierExtractor.set(identifiers);
+	}
+
+	/**
+	 * Load the snapshot written by the last successful refresh into the current generation, so the PDP serves warm
+	 * data right after a restart. Skipped when a disk tier reopens its own persisted generation
+	 * @return Number of objects loaded
+	 */
+	public int loadSnapshot() {
+
+		UserCacheGeneration generation = currentGeneration.get();
+		if (snapshot == null || schema == null || generation == null || tiers.isPersistent()) {
+			return 0;
+		}
+
+		long startTime = System.currentTimeMillis();
+
+		int count = snapshot.read(schema.getFingerprint(), Arrays.asList(generation.getUserObjectCache()));
+
+		if (count < 0) {
+			// drop whatever a failed read left behind
+			publishGeneration(newGeneration());
+			return 0;
+		}
+
+		// the snapshot holds each user once, under its first key value
+		generation.writeAliases();
+
+		LOG.info(String.format("Loaded [%d] objects into user cache generation [%d] from snapshot in %dms", count,
+				generation.getNumber(), (System.currentTimeMillis() - startTime)));
+
+		return count;
+	}
+
+	/**
+	 * Write the current generation to the snapshot file, called after a successful refresh
+	 */
+	public void saveSnapshot() {
+
+		UserCacheGeneration generation = currentGeneration.get();
+		if (snapshot == null || schema == null || generation == null) {
+			return;
+		}
+
+		long startTime = System.currentTimeMillis();
+
+		try {
+			int count = snapshot.write(schema.getFingerprint(), Arrays.asList(generation.getUserObjectCache()));
+
+			LOG.info(String.format("Wrote [%d] objects of user cache generation [%d] to snapshot in %dms", count,
+					generation.getNumber(), (System.currentTimeMillis() - startTime)));
+		} catch (IOException e) {
+			LOG.warn("Unable to write the user cache snapshot, the previous snapshot is kept", e);
+		}
+	}
+
+	/**
+	 * Create a new, empty generation of the user cache. The generation is not visible to readers until
+	 * it is published with publishGeneration
+	 * @return New cache generation
+	 */
+	public UserCacheGeneration newGeneration() {
+		return createGeneration(generationSequence.getAndIncrement(), true);
+	}
+
+	/**
+	 * Create the cache region of a generation
+	 * @param number Number of the generation
+	 * @param empty true to drop any data persisted under the same name, false to reopen it
+	 * @return Cache generation
+	 */
+	private UserCacheGeneration createGeneration(long number, boolean empty) {
+
+		String userCacheName = USER_CACHE_NAME + "_" + number;
+		String aliasCacheName = userCacheName + "_Alias";
+
+		if (empty && tiers.isPersistent()) {
+			// left over by a run which stopped before publishing this generation
+			tiers.destroyCache(userCacheManager, userCacheName);
+			tiers.destroyCache(userCacheManager, aliasCacheName);
+		}
+
+		Cache<String, UserObject> userCache = userCacheManager.createCache(userCacheName, userCacheConfigurationBuilder);
+		Cache<String, String> aliasCache = userCacheManager.createCache(aliasCacheName, aliasCacheConfigurationBuilder);
+
+		RegionMetricsListener.register(userCache, userMetrics);
+
+		LOG.debug(String.format("Created user cache generation [%d]", number));
+
+		return new UserCacheGeneration(number,
+				new AliasedRegion<UserObject>(userCacheName, userCache, aliasCacheName, aliasCache, identifierExtractor));
+	}
+
+	/**
+	 * Make the given generation the one serving readers and release the previous one
+	 * @param generation Generation filled by the refresh
+	 */
+	public void publishGeneration(UserCacheGeneration generation) {
+
+		UserCacheGeneration previous = currentGeneration.getAndSet(generation);
+
+		LOG.info(String.format("User cache generation [%d] is now active", generation.getNumber()));
+
+		tiers.writeActiveGeneration(generation.getNumber());
+
+		// the refresh loaded the whole table, an id still missing will be queried once more
+		userMisses.clear();
+
+		if (previous != null && previous != generation) {
+			discardGeneration(previous);
+		}
+	}
+
+	/**
+	 * Release the cache region of a generation which is not or no longer serving readers
+	 * @param generation Generation to release
+	 */
+	public void discardGeneration(UserCacheGeneration generation) {
+
+		if (generation == currentGeneration.get()) {
+			LOG.error(String.format("Cannot discard active user cache generation [%d]", generation.getNumber()));
+			return;
+		}
+
+		tiers.destroyCache(userCacheManager, generation.getUserRegion().getName());
+		tiers.destroyCache(userCacheManager, generation.getUserRegion().getAliasName());
+
+		LOG.debug(String.format("Discarded user cache generation [%d]", generation.getNumber()));
 	}
 	
+	/**
+	 * Retrieve the metrics of the user cache region
+	 * @return Metrics of the region
+	 */
+	public CacheRegionMetrics getUserMetrics() {
+		return userMetrics;
+	}
+
+	/**
+	 * Count the entries of a cache region, iterating the whole region
+	 * @param cache Cache region
+	 * @return Number of entries, 0 if the region was discarded meanwhile
+	 */
+	private static long countCacheEntries(Cache<String, UserObject> cache) {
+
+		long count = 0;
+
+		try {
+			Iterator<Entry<String, UserObject>> it = cache.iterator();
+			while (it.hasNext()) {
+				it.next();
+				count++;
+			}
+		} catch (IllegalStateException e) {
+			return 0;
+		}
+
+		return count;
+	}
+
 	/**
 	 * Parsing the setting and convert it to Duration
 	 * @param timeToLive
@@ -171,12 +446,22 @@ public class UserCacheEngine {
 	 * @return Object of UserObject
 	 */
 	public UserObject getUserObjectFromCache(String id) {
-		if (userObjectCache == null) {
-			LOG.error("User Cache has not been initialized");
-			return null;
-		}
+		while (true) {
+			UserCacheGeneration generation = currentGeneration.get();
+			if (generation == null) {
+				LOG.error("User Cache has not been initialized");
+				return null;
+			}
 
-		return (identifierMap.get(id) == null) ? null : userObjectCache.get(identifierMap.get(id));
+			try {
+				return generation.getUserObject(id);
+			} catch (IllegalStateException e) {
+				// generation was discarded by a refresh while we were reading, retry on the new one
+				if (generation == currentGeneration.get()) {
+					throw e;
+				}
+			}
+		}
 	}
 	
 	
@@ -187,14 +472,15 @@ public class UserCacheEngine {
 	public void printCache() {
 		
 		//User Cache
-		if (userObjectCache == null) {
+		UserCacheGeneration generation = currentGeneration.get();
+		if (generation == null) {
 			LOG.error("User Cache has not been initialized");
 			return;
 		}
 
 		int size = 0;
 
-		Iterator<Entry<String, UserObject>> it = userObjectCache.iterator();
+		Iterator<Entry<String, UserObject>> it = generation.getUserObjectCache().iterator();
 		while (it.hasNext()) {
 			Entry<String, UserObject> entry = (Entry<String, UserObject>) it.next();
 			size++;
@@ -206,25 +492,21 @@ public class UserCacheEngine {
 	}
 	
 	/**
-	 * Print out User object identifier map
-	 * 
+	 * Check if the user was recently not found in the database
+	 * @param id Identifier of the user object
+	 * @return true if the user is remembered as not found
 	 */
-	public void printIdentifierMap() {
-		for (Map.Entry<String, String> entry : identifierMap.entrySet()) {
-			LOG.info(String.format("Identifier map now contains [%s - %s]", entry.getKey(), entry.getValue()));
-		}
+	public boolean isMissingUser(String id) {
+		return userMisses != null && userMisses.contains(id);
 	}
-	
+
 	/**
-	 * Writing identifier into identifier map
-	 * @param id Identifier ID
-	 * @param combinedId Combination of ID
+	 * Remember the user as not found in the database
+	 * @param id Identifier of the user object
 	 */
-	public void addIdentifier(String id, String combinedId) {
-		if (identifierMap == null) {
-			LOG.error("Cache has not been initialized");
-			return;
+	public void addMissingUser(String id) {
+		if (userMisses != null) {
+			userMisses.add(id);
 		}
-		identifierMap.put(id, combinedId);
 	}
 }
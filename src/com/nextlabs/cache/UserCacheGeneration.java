@@ -0,0 +1,128 @@
+package com.nextlabs.cache;
+
+import java.util.List;
+
+import org.ehcache.Cache;
+
+import com.nextlabs.common.UserObject;
+
+/**
+ * One generation of the user cache.
+ * A refresh fills a new generation off to the side and publishes it through UserCacheEngine in one swap.
+ *
+ * Users are stored once under their first key attribute value, their other key values are aliases of it, so a lookup
+ * by any of them is one or two gets on the regions. Case insensitive key values are stored in lower case.
+ *
+ * The delta refresh only knows the USRPD ID of a changed user, so the users read from the database also have their
+ * domain and USRPD ID aliased to their first key value. The alias lives in the alias region, it expires and is
+ * evicted like the user. A user restored from a snapshot has no USRPD ID, and a user whose USRPD ID alias was evicted
+ * before it, only have their deletion applied by the next full refresh.
+ */
+public class UserCacheGeneration {
+
+	// a key attribute value never starts with a NUL character
+	private static final String ROW_ID_PREFIX = "\u0000";
+
+	private final long number;
+	private final AliasedRegion<UserObject> userRegion;
+
+	/**
+	 * @param number Sequence number of the generation
+	 * @param userRegion User cache region and its aliases
+	 */
+	UserCacheGeneration(long number, AliasedRegion<UserObject> userRegion) {
+		this.number = number;
+		this.userRegion = userRegion;
+	}
+
+	/**
+	 * Writing UserObject into user cache of this generation, under each of its key attribute values
+	 * @param obj UserObject
+	 * @return Key attribute values the user is stored under
+	 */
+	public List<String> writeObjectToUserCache(UserObject obj) {
+		List<String> ids = userRegion.write(obj);
+		if (obj.getRowId() != null && !ids.isEmpty()) {
+			userRegion.putAlias(rowKey(obj.getDomain(), obj.getRowId()), ids.get(0));
+		}
+		return ids;
+	}
+
+	/**
+	 * Replace a user of this generation, the key values the previous object had and the new one doesn't have stop
+	 * resolving
+	 * @param obj UserObject
+	 * @return Key attribute values the user is stored under
+	 */
+	public List<String> replaceObjectInUserCache(UserObject obj) {
+
+		// the key values can all change, the USRPD ID still finds the previous object
+		if (obj.getRowId() != null) {
+			String previousId = userRegion.getCanonicalKey(rowKey(obj.getDomain(), obj.getRowId()));
+			UserObject previous = (previousId == null) ? null : userRegion.read(previousId);
+			if (previous != null && previous != obj) {
+				userRegion.remove(previousId);
+			}
+		}
+
+		userRegion.removePrevious(obj);
+
+		return writeObjectToUserCache(obj);
+	}
+
+	/**
+	 * Remove a user deleted from the database, under each of its key attribute values
+	 * @param domain Profile or domain name of the user
+	 * @param rowId USRPD ID of the user
+	 * @return true if the user was found
+	 */
+	public boolean removeUserObjectByRowId(String domain, String rowId) {
+
+		String rowKey = rowKey(domain, rowId);
+		String id = userRegion.getCanonicalKey(rowKey);
+
+		userRegion.removeAlias(rowKey);
+
+		// the object is only stored under its first key value, without it no other key value resolves
+		if (id == null || userRegion.read(id) == null) {
+			return false;
+		}
+
+		userRegion.remove(id);
+
+		return true;
+	}
+
+	private static String rowKey(String domain, String rowId) {
+		return ROW_ID_PREFIX + domain + "#" + rowId;
+	}
+
+	/**
+	 * Alias the other key values of the users read from a snapshot into the region of this generation
+	 * @return Number of aliases written
+	 */
+	int writeAliases() {
+		return userRegion.writeAliases();
+	}
+
+	/**
+	 * Retrieve User object from this generation
+	 * @param id Identifier of the user object
+	 * @return Object of UserObject, null if not found
+	 */
+	public UserObject getUserObject(String id) {
+		return userRegion.read(id);
+	}
+
+	public long getNumber() {
+		return number;
+	}
+
+	AliasedRegion<UserObject> getUserRegion() {
+		return userRegion;
+	}
+
+	Cache<String, UserObject> getUserObjectCache() {
+		return userRegion.getObjectCache();
+	}
+}
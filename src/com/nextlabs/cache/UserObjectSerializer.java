@@ -0,0 +1,70 @@
+package com.nextlabs.cache;
+
+import java.nio.ByteBuffer;
+
+import org.ehcache.spi.serialization.Serializer;
+import org.ehcache.spi.serialization.SerializerException;
+
+import com.nextlabs.common.AttributeSchema;
+import com.nextlabs.common.UserObject;
+
+/**
+ * Serializer used by the off-heap and disk tiers to store UserObject with EvalValueCodec.
+ */
+public class UserObjectSerializer implements Serializer<UserObject> {
+
+	// set once the profiles are loaded, until then attribute names are written in full
+	private volatile AttributeSchema schema;
+
+	/**
+	 * Set the attribute schema of the profiles used to encode the attribute names
+	 * @param schema Attribute schema
+	 */
+	void setSchema(AttributeSchema schema) {
+		this.schema = schema;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ehcache.spi.serialization.Serializer#serialize(java.lang.Object)
+	 */
+	@Override
+	public ByteBuffer serialize(UserObject obj) throws SerializerException {
+
+		EvalValueCodec.Writer writer = new EvalValueCodec.Writer();
+
+		writer.writeString(obj.getDomain());
+		writer.writeString(obj.getId());
+		writer.writeString(obj.getType());
+		writer.writeAttributes(schema, obj.getAttributeValues());
+
+		return writer.toByteBuffer();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ehcache.spi.serialization.Serializer#read(java.nio.ByteBuffer)
+	 */
+	@Override
+	public UserObject read(ByteBuffer binary) throws SerializerException {
+
+		EvalValueCodec.Reader reader = new EvalValueCodec.Reader(binary.duplicate());
+
+		String domain = reader.readString();
+		String id = reader.readString();
+		String type = reader.readString();
+
+		// read the schema once, it is the one the attribute ids refer to
+		AttributeSchema readSchema = schema;
+		UserObject obj = new UserObject(readSchema, domain, id, type);
+		reader.readAttributes(readSchema, obj.getAttributeValues());
+
+		return obj;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.ehcache.spi.serialization.Serializer#equals(java.lang.Object, java.nio.ByteBuffer)
+	 */
+	@Override
+	public boolean equals(UserObject obj, ByteBuffer binary) throws SerializerException {
+		return serialize(obj).equals(binary);
+	}
+}
@@ -0,0 +1,113 @@
+package com.nextlabs.common;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Fixed set of attribute names configured by the profiles, each attribute gets an id. The ids only depend on the
+ * attribute names so the same configuration always produce the same ids. The fingerprint also covers the key
+ * attributes of the profiles and their case sensitivity, which decide the key values the objects are stored under.
+ */
+public final class AttributeSchema {
+
+	private final String[] names;
+	private final Map<String, Integer> ids;
+	private final long fingerprint;
+
+	/**
+	 * @param attributeNames Attribute names, duplicate are ignored and names are lower cased
+	 */
+	public AttributeSchema(Collection<String> attributeNames) {
+		this(attributeNames, Collections.<String> emptyList());
+	}
+
+	/**
+	 * @param attributeNames Attribute names, duplicate are ignored and names are lower cased
+	 * @param keyDescriptions Key attributes of the profiles, such as DB_1:item:ci:id:obid, part of the fingerprint only
+	 */
+	public AttributeSchema(Collection<String> attributeNames, Collection<String> keyDescriptions) {
+
+		TreeSet<String> sortedNames = new TreeSet<String>();
+		for (String name : attributeNames) {
+			sortedNames.add(name.toLowerCase());
+		}
+
+		names = sortedNames.toArray(new String[sortedNames.size()]);
+		ids = new HashMap<String, Integer>();
+
+		for (int i = 0; i < names.length; i++) {
+			ids.put(names[i], i);
+		}
+
+		// the order the profiles are loaded in doesn't matter
+		fingerprint = digest(names, new TreeSet<String>(keyDescriptions));
+	}
+
+	/**
+	 * First 64 bits of the SHA-1 of the attribute names and key descriptions, one per line, the two lists separated by
+	 * an empty line
+	 */
+	private static long digest(String[] names, Collection<String> keyDescriptions) {
+
+		StringBuilder description = new StringBuilder();
+		for (String name : names) {
+			description.append(name).append('\n');
+		}
+		description.append('\n');
+		for (String key : keyDescriptions) {
+			description.append(key).append('\n');
+		}
+
+		try {
+			byte[] hash = MessageDigest.getInstance("SHA-1")
+					.digest(description.toString().getBytes(StandardCharsets.UTF_8));
+			return ByteBuffer.wrap(hash).getLong();
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform supports SHA-1
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Retrieve the id of an attribute
+	 * @param name Attribute name in lower case
+	 * @return Id of the attribute, -1 if the attribute is not part of the schema
+	 */
+	public int getId(String name) {
+		Integer id = ids.get(name);
+		return (id == null) ? -1 : id;
+	}
+
+	/**
+	 * Retrieve the name of an attribute
+	 * @param id Id of the attribute
+	 * @return Attribute name in lower case
+	 */
+	public String getName(int id) {
+		return names[id];
+	}
+
+	/**
+	 * Number of attributes in the schema
+	 * @return Number of attributes
+	 */
+	public int size() {
+		return names.length;
+	}
+
+	/**
+	 * Value identifying the attribute names and the key attributes of the schema, used to detect a configuration
+	 * change
+	 * @return Fingerprint of the schema
+	 */
+	public long getFingerprint() {
+		return fingerprint;
+	}
+}
@@ -0,0 +1,138 @@
+package com.nextlabs.common;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.bluejungle.framework.expressions.IEvalValue;
+
+/**
+ * Attribute values of a cached object. Attributes of the AttributeSchema are kept in an array indexed by their id,
+ * attributes outside of the schema are kept in a map which is only created when such an attribute is added.
+ */
+public final class AttributeValues {
+
+	private final AttributeSchema schema;
+	private final IEvalValue[] values;
+	private Map<String, IEvalValue> extraValues;
+
+	/**
+	 * @param schema Attribute schema of the profiles, null to keep every attribute in the map
+	 */
+	public AttributeValues(AttributeSchema schema) {
+		this.schema = schema;
+		this.values = (schema == null) ? new IEvalValue[0] : new IEvalValue[schema.size()];
+	}
+
+	/**
+	 * Retrieve the attribute schema the values are indexed with
+	 * @return Attribute schema, may be null
+	 */
+	public AttributeSchema getSchema() {
+		return schema;
+	}
+
+	/**
+	 * Retrieve the value of an attribute
+	 * @param name Attribute name in lower case
+	 * @return Value of the attribute, null if not set
+	 */
+	public IEvalValue get(String name) {
+		int id = getId(name);
+		if (id >= 0) {
+			return values[id];
+		}
+		return (extraValues == null) ? null : extraValues.get(name);
+	}
+
+	/**
+	 * Retrieve the value of an attribute of the schema
+	 * @param id Id of the attribute in the schema
+	 * @return Value of the attribute, null if not set
+	 */
+	public IEvalValue get(int id) {
+		return values[id];
+	}
+
+	/**
+	 * Set the value of an attribute
+	 * @param name Attribute name in lower case
+	 * @param value Value of the attribute
+	 */
+	public void put(String name, IEvalValue value) {
+		int id = getId(name);
+		if (id >= 0) {
+			values[id] = value;
+		} else {
+			if (extraValues == null) {
+				extraValues = new HashMap<String, IEvalValue>(4);
+			}
+			extraValues.put(name, value);
+		}
+	}
+
+	/**
+	 * Set the value of an attribute of the schema
+	 * @param id Id of the attribute in the schema
+	 * @param value Value of the attribute
+	 */
+	public void put(int id, IEvalValue value) {
+		values[id] = value;
+	}
+
+	/**
+	 * Set the values of all the given attributes
+	 * @param attributes Attribute name to value
+	 */
+	public void putAll(Map<String, IEvalValue> attributes) {
+		for (Map.Entry<String, IEvalValue> entry : attributes.entrySet()) {
+			put(entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**
+	 * Remove the values of all the attributes
+	 */
+	public void clear() {
+		for (int i = 0; i < values.length; i++) {
+			values[i] = null;
+		}
+		extraValues = null;
+	}
+
+	/**
+	 * Number of slots indexed by the schema
+	 * @return Number of slots, values of empty slots are null
+	 */
+	public int slotCount() {
+		return values.length;
+	}
+
+	/**
+	 * Retrieve the attributes outside of the schema
+	 * @return Attribute name to value, null if there is none
+	 */
+	public Map<String, IEvalValue> getExtraValues() {
+		return extraValues;
+	}
+
+	/**
+	 * Copy all the attributes into a map
+	 * @return Attribute name to value
+	 */
+	public Map<String, IEvalValue> toMap() {
+		Map<String, IEvalValue> attributes = new HashMap<String, IEvalValue>();
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] != null) {
+				attributes.put(schema.getName(i), values[i]);
+			}
+		}
+		if (extraValues != null) {
+			attributes.putAll(extraValues);
+		}
+		return attributes;
+	}
+
+	private int getId(String name) {
+		return (schema == null) ? -1 : schema.getId(name);
+	}
+}
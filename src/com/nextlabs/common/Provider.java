@@ -70,6 +70,12 @@ public interface Provider {
 	 * @return true if the cache store is refreshing
 	 */
 	public Boolean isRefreshing();
+
+	/**
+	 * Progress of the cache refreshing
+	 * @return Number of objects loaded so far by the running or the last refresh
+	 */
+	public long getRefreshedObjectCount();
 	
 }
 	
\ No newline at end of file
@@ -0,0 +1,197 @@
+package com.nextlabs.common;
+
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.bluejungle.framework.expressions.IEvalValue;
+import com.bluejungle.framework.expressions.IMultivalue;
+import com.nextlabs.metrics.LatencyHistogram;
+
+/**
+ * Per request logging of the attribute providers.
+ *
+ * The trace of a request is written at request_log_level, and a message is only formatted once the level is known
+ * to be enabled. The fixed arity methods don't allocate a varargs array when it is not. Independently of the trace,
+ * an access line is written at INFO for 1 in access_log_sample_rate requests and for every request slower than
+ * access_log_slow_threshold_ms. The time taken by every request is recorded in a latency histogram.
+ */
+public class RequestLog {
+
+	private static final Log CONFIG_LOG = LogFactory.getLog(RequestLog.class);
+	private static final String LOG_TIME_TAKEN = "Time Taken: %sms";
+	private static final String LOG_ACCESS = "Access %s [%s] attribute [%s] in %sms";
+
+	private final Log log;
+	private final String idLabel;
+	private final boolean debug;
+	private final LatencyHistogram latency;
+	private int sampleRate;
+	private long slowThreshold;
+
+	/**
+	 * Read request_log_level, access_log_sample_rate and access_log_slow_threshold_ms
+	 * @param props Properties of the plugin
+	 * @param log Log of the provider
+	 * @param idLabel Name of the requested id in the messages, such as "user"
+	 * @param latency Latency histogram of the requests
+	 */
+	public RequestLog(Properties props, Log log, String idLabel, LatencyHistogram latency) {
+
+		this.log = log;
+		this.idLabel = idLabel;
+		this.latency = latency;
+
+		debug = "debug".equalsIgnoreCase(props.getProperty("request_log_level", "info").trim());
+
+		try {
+			sampleRate = Integer.parseInt(props.getProperty("access_log_sample_rate", "0").trim());
+		} catch (Exception ex) {
+			CONFIG_LOG.error("Not able to read access_log_sample_rate, hard set to 0");
+			sampleRate = 0;
+		}
+
+		long slowThresholdMillis;
+		try {
+			slowThresholdMillis = Long.parseLong(props.getProperty("access_log_slow_threshold_ms", "0").trim());
+		} catch (Exception ex) {
+			CONFIG_LOG.error("Not able to read access_log_slow_threshold_ms, hard set to 0");
+			slowThresholdMillis = 0;
+		}
+		slowThreshold = TimeUnit.MILLISECONDS.toNanos(slowThresholdMillis);
+
+		CONFIG_LOG.info(String.format("request_log_level will be set to [%s]", debug ? "debug" : "info"));
+		CONFIG_LOG.info(String.format("access_log_sample_rate will be set to [%d]", sampleRate));
+		CONFIG_LOG.info(String.format("access_log_slow_threshold_ms will be set to [%d]", slowThresholdMillis));
+	}
+
+	/**
+	 * Check if the trace of the requests is written
+	 * @return true if request_log_level is enabled on the log of the provider
+	 */
+	public boolean isEnabled() {
+		return debug ? log.isDebugEnabled() : log.isInfoEnabled();
+	}
+
+	/**
+	 * Write a message of the trace
+	 * @param message Message
+	 */
+	public void log(String message) {
+		if (isEnabled()) {
+			write(message);
+		}
+	}
+
+	/**
+	 * Write a message of the trace, formatted only if the trace is enabled
+	 * @param format Format of the message
+	 * @param arg Argument of the format
+	 */
+	public void log(String format, Object arg) {
+		if (isEnabled()) {
+			write(String.format(format, arg));
+		}
+	}
+
+	/**
+	 * Write a message of the trace, formatted only if the trace is enabled
+	 * @param format Format of the message
+	 * @param arg1 First argument of the format
+	 * @param arg2 Second argument of the format
+	 */
+	public void log(String format, Object arg1, Object arg2) {
+		if (isEnabled()) {
+			write(String.format(format, arg1, arg2));
+		}
+	}
+
+	/**
+	 * Write a message of the trace, formatted only if the trace is enabled
+	 * @param format Format of the message
+	 * @param arg1 First argument of the format
+	 * @param arg2 Second argument of the format
+	 * @param arg3 Third argument of the format
+	 */
+	public void log(String format, Object arg1, Object arg2, Object arg3) {
+		if (isEnabled()) {
+			write(String.format(format, arg1, arg2, arg3));
+		}
+	}
+
+	/**
+	 * Write the value returned for an attribute, each value of a multi-value
+	 * @param id Requested id
+	 * @param attribute Requested attribute
+	 * @param val Value of the attribute
+	 */
+	public void logValue(String id, String attribute, IEvalValue val) {
+
+		if (!isEnabled()) {
+			return;
+		}
+
+		if (!(val.getValue() instanceof IMultivalue)) {
+			write(String.format("%s [%s] has attribute [%s] with value = [%s]", idLabel, id, attribute, val.getValue()));
+			return;
+		}
+
+		StringBuilder sb = new StringBuilder("[").append(id).append("] has attribute [").append(attribute)
+				.append("] with value = ");
+
+		boolean first = true;
+		for (IEvalValue v : (IMultivalue) val.getValue()) {
+			if (!first) {
+				sb.append(", ");
+			}
+			first = false;
+			if (v == null) {
+				sb.append("null");
+			} else {
+				sb.append(v.getValue());
+			}
+		}
+
+		if (first) {
+			sb.append("[MULTI_EMPTY]");
+		}
+
+		write(sb.toString());
+	}
+
+	/**
+	 * Record the time taken by the request, write it and the access line if the request is sampled or slow
+	 * @param startTime System.nanoTime() when the request came in
+	 * @param id Requested id
+	 * @param attribute Requested attribute
+	 */
+	public void done(long startTime, String id, String attribute) {
+
+		long elapsed = System.nanoTime() - startTime;
+		latency.record(elapsed);
+
+		if (isEnabled()) {
+			write(String.format(LOG_TIME_TAKEN, toMillis(elapsed)));
+		}
+
+		if ((slowThreshold > 0 && elapsed >= slowThreshold)
+				|| (sampleRate > 0 && ThreadLocalRandom.current().nextInt(sampleRate) == 0)) {
+			log.info(String.format(LOG_ACCESS, idLabel, id, attribute, toMillis(elapsed)));
+		}
+	}
+
+	private void write(String message) {
+		if (debug) {
+			log.debug(message);
+		} else {
+			log.info(message);
+		}
+	}
+
+	private static String toMillis(long nanos) {
+		return Double.toString(nanos / 1000000.00);
+	}
+}
@@ -1,6 +1,5 @@
 package com.nextlabs.common;
 
-import java.util.HashMap;
 import java.util.Map;
 
 import com.bluejungle.framework.expressions.IEvalValue;
@@ -13,7 +12,7 @@ import com.bluejungle.framework.expressions.IEvalValue;
  */
 public class ResourceObject {
 	private String id;
-	private Map<String, IEvalValue> attributes;
+	private final AttributeValues attributes;
 	private String domain;
 	private String type;
 
@@ -23,9 +22,19 @@ public class ResourceObject {
 	 * @param type Type of object
 	 */
 	public ResourceObject(String domain, String id, String type) {
+		this(null, domain, id, type);
+	}
+
+	/**
+	 * @param schema Attribute schema of the profiles, its attributes are stored by id
+	 * @param domain Profile or domain name
+	 * @param id ID of the resource
+	 * @param type Type of object
+	 */
+	public ResourceObject(AttributeSchema schema, String domain, String id, String type) {
 		this.id = id;
 		this.domain = domain;
-		attributes = new HashMap<String, IEvalValue>();
+		attributes = new AttributeValues(schema);
 		this.type = type;
 	}
 
@@ -38,6 +47,14 @@ public class ResourceObject {
 		attributes.put(key, value);
 	}
 
+	/**
+	 * Add all the attribute names and values to the object
+	 * @param values Attribute name to Attribute Value
+	 */
+	public void addAttributes(Map<String, IEvalValue> values) {
+		attributes.putAll(values);
+	}
+
 	/**
 	 * Retrieve the object for given attribute name
 	 * @param key Attribute name
@@ -65,9 +82,17 @@ public class ResourceObject {
 
 	/**
 	 * Retrieve all the attributes for the object
-	 * @return Map contain attribute name and IEvalValue object
+	 * @return Copy of the attributes, map contain attribute name and IEvalValue object
 	 */
 	public Map<String, IEvalValue> getAttributes() {
+		return attributes.toMap();
+	}
+
+	/**
+	 * Retrieve the attribute values indexed by the attribute schema
+	 * @return Attribute values of the object
+	 */
+	public AttributeValues getAttributeValues() {
 		return attributes;
 	}
 
@@ -76,7 +101,8 @@ public class ResourceObject {
 	 * @param attributes Map contain attribute name and IEvalValue object
 	 */
 	public void setAttributes(Map<String, IEvalValue> attributes) {
-		this.attributes = attributes;
+		this.attributes.clear();
+		this.attributes.putAll(attributes);
 	}
 
 	/**
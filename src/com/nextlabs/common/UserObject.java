@@ -1,6 +1,5 @@
 package com.nextlabs.common;
 
-import java.util.HashMap;
 import java.util.Map;
 
 import com.bluejungle.framework.expressions.IEvalValue;
@@ -12,9 +11,11 @@ import com.bluejungle.framework.expressions.IEvalValue;
  */
 public class UserObject {
 	private String id;
-	private Map<String, IEvalValue> attributes;
+	private final AttributeValues attributes;
 	private String domain;
 	private String type;
+	// USRPD ID, only known to the objects read from the database in this run, UserObjectSerializer doesn't write it
+	private String rowId;
 
 	/**
 	 * @param domain Profile or domain name
@@ -22,9 +23,19 @@ public class UserObject {
 	 * @param type Type of object
 	 */
 	public UserObject(String domain, String id, String type) {
+		this(null, domain, id, type);
+	}
+
+	/**
+	 * @param schema Attribute schema of the profiles, its attributes are stored by id
+	 * @param domain Profile or domain name
+	 * @param id ID of the user
+	 * @param type Type of object
+	 */
+	public UserObject(AttributeSchema schema, String domain, String id, String type) {
 		this.id = id;
 		this.domain = domain;
-		attributes = new HashMap<String, IEvalValue>();
+		attributes = new AttributeValues(schema);
 		this.type = type;
 	}
 	
@@ -36,6 +47,14 @@ public class UserObject {
 	public void addAttribute(String key, IEvalValue value) {
 		attributes.put(key, value);
 	}
+
+	/**
+	 * Add all the attribute names and values to the object
+	 * @param values Attribute name to Attribute Value
+	 */
+	public void addAttributes(Map<String, IEvalValue> values) {
+		attributes.putAll(values);
+	}
 	
 	/**
 	 * Retrieve the object for given attribute name
@@ -64,9 +83,17 @@ public class UserObject {
 
 	/**
 	 * Retrieve all the attributes for the object
-	 * @return Map contain attribute name and IEvalValue object
+	 * @return Copy of the attributes, map contain attribute name and IEvalValue object
 	 */
 	public Map<String, IEvalValue> getAttributes() {
+		return attributes.toMap();
+	}
+
+	/**
+	 * Retrieve the attribute values indexed by the attribute schema
+	 * @return Attribute values of the object
+	 */
+	public AttributeValues getAttributeValues() {
 		return attributes;
 	}
 
@@ -75,7 +102,8 @@ public class UserObject {
 	 * @param attributes Map contain attribute name and IEvalValue object
 	 */
 	public void setAttributes(Map<String, IEvalValue> attributes) {
-		this.attributes = attributes;
+		this.attributes.clear();
+		this.attributes.putAll(attributes);
 	}
 
 	/**
@@ -110,4 +138,20 @@ public class UserObject {
 		this.type = type;
 	}
 
+	/**
+	 * Retrieve the ID of the user row in its domain database
+	 * @return USRPD ID, null if the object was read from a snapshot or a disk tier
+	 */
+	public String getRowId() {
+		return rowId;
+	}
+
+	/**
+	 * Set the ID of the user row in its domain database
+	 * @param rowId USRPD ID
+	 */
+	public void setRowId(String rowId) {
+		this.rowId = rowId;
+	}
+
 }
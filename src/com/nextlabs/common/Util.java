@@ -15,6 +15,11 @@ import org.apache.commons.logging.LogFactory;
  */
 public class Util {
 
+	/**
+	 * Returned by parseInteger for a value which is not an integer
+	 */
+	public static final long NOT_AN_INTEGER = Long.MIN_VALUE;
+
 	private static String OS = null;
 	private static Log LOG = LogFactory.getLog(Util.class);
 
@@ -119,4 +124,62 @@ public class Util {
 
 		return sb.toString();
 	}
+
+	/**
+	 * Parse an integer written the way Long.toString writes it, as matched by isInteger
+	 * @param value Value to parse
+	 * @return The value as a long, NOT_AN_INTEGER if it is not an integer or longer than 18 digits
+	 */
+	public static long parseInteger(String value) {
+
+		int length = value.length();
+		boolean negative = length > 0 && value.charAt(0) == '-';
+		int start = negative ? 1 : 0;
+		int digits = length - start;
+
+		// 18 digits always fit in a long
+		if (digits == 0 || digits > 18 || (value.charAt(start) == '0' && (digits > 1 || negative))) {
+			return NOT_AN_INTEGER;
+		}
+
+		long result = 0;
+		for (int i = start; i < length; i++) {
+			char c = value.charAt(i);
+			if (c < '0' || c > '9') {
+				return NOT_AN_INTEGER;
+			}
+			result = result * 10 + (c - '0');
+		}
+
+		return negative ? -result : result;
+	}
+
+	/**
+	 * Check if the value is an integer without sign or leading zero, as matched by -?(0|[1-9]\d*) but without
+	 * compiling the regex on every call
+	 * @param value Value to check
+	 * @return true if the value is an integer
+	 */
+	public static boolean isInteger(String value) {
+
+		int length = value.length();
+		int start = (length > 0 && value.charAt(0) == '-') ? 1 : 0;
+
+		if (start == length) {
+			return false;
+		}
+
+		if (value.charAt(start) == '0') {
+			return length == start + 1;
+		}
+
+		for (int i = start; i < length; i++) {
+			char c = value.charAt(i);
+			if (c < '0' || c > '9') {
+				return false;
+			}
+		}
+
+		return true;
+	}
 }
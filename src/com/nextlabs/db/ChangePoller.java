@@ -0,0 +1,248 @@
+package com.nextlabs.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Poll the tables feeding the cache for the rows changed since the last poll, with SQL Server Change Tracking or a
+ * rowversion column present on every tracked table. Each tracked table has a query returning the keys of the cached
+ * objects affected by its changes, so only those objects are queried again.
+ *
+ * The version is database wide, one baseline is kept per profile database. The full refresh sets the baseline to the
+ * version read before it started loading so the rows changed during the load are applied by the next poll.
+ */
+class ChangePoller {
+
+	private static final Log LOG = LogFactory.getLog(ChangePoller.class);
+	private static final String MODE_NONE = "none";
+	private static final String MODE_CHANGE_TRACKING = "change_tracking";
+	private static final String MODE_ROWVERSION = "rowversion";
+	private static final int DEFAULT_INTERVAL = 10;
+	private static final String CHANGE_TRACKING_VERSION_QUERY = "SELECT CHANGE_TRACKING_CURRENT_VERSION()";
+	private static final String CHANGE_TRACKING_MIN_VERSION_QUERY = "SELECT CHANGE_TRACKING_MIN_VALID_VERSION(OBJECT_ID(?))";
+	// rows under the oldest active rowversion are committed, newer rows are read by the next poll
+	private static final String ROWVERSION_VERSION_QUERY = "SELECT CAST(MIN_ACTIVE_ROWVERSION() AS BIGINT) - 1";
+
+	/**
+	 * Table tracked for changes and the queries returning the keys of the affected objects. The queries take the last
+	 * version as their only parameter, the rowversion query has ## in place of the rowversion column
+	 */
+	static final class TrackedTable {
+
+		private final String group;
+		private final String table;
+		private final String changeTrackingQuery;
+		private final String rowVersionQuery;
+
+		/**
+		 * @param group Group of the affected keys, such as the item or program keys
+		 * @param table Name of the tracked table
+		 * @param changeTrackingQuery Query over CHANGETABLE(CHANGES table, ?) returning the affected keys
+		 * @param rowVersionQuery Query over the rows with a rowversion greater than CAST(? AS BINARY(8))
+		 */
+		TrackedTable(String group, String table, String changeTrackingQuery, String rowVersionQuery) {
+			this.group = group;
+			this.table = table;
+			this.changeTrackingQuery = changeTrackingQuery;
+			this.rowVersionQuery = rowVersionQuery;
+		}
+	}
+
+	private final String mode;
+	private final String versionColumn;
+	private final int interval;
+	private final List<TrackedTable> tables;
+	private final int fetchSize;
+
+	// profile name to last version, absent until the first poll or full refresh, guarded by the synchronized refresh
+	// of the provider
+	private final Map<String, Long> lastVersions;
+
+	/**
+	 * Read delta_refresh_mode, delta_refresh_interval_in_secs and delta_version_column
+	 * @param props Properties contain the plugin settings
+	 * @param tables Tables to track
+	 * @param fetchSize Rows fetched per round trip, the fetch_size of the plugin
+	 */
+	ChangePoller(Properties props, List<TrackedTable> tables, int fetchSize) {
+
+		this.tables = tables;
+		this.fetchSize = fetchSize;
+		lastVersions = new HashMap<String, Long>();
+
+		String sMode = props.getProperty("delta_refresh_mode", MODE_NONE).trim().toLowerCase();
+		versionColumn = props.getProperty("delta_version_column", "").trim();
+
+		if (sMode.equals(MODE_ROWVERSION) && versionColumn.length() == 0) {
+			LOG.error("delta_version_column is not set, delta refresh is disabled");
+			sMode = MODE_NONE;
+		} else if (!sMode.equals(MODE_CHANGE_TRACKING) && !sMode.equals(MODE_ROWVERSION)
+				&& !sMode.equals(MODE_NONE)) {
+			LOG.error(String.format("Invalid delta_refresh_mode [%s], delta refresh is disabled", sMode));
+			sMode = MODE_NONE;
+		}
+
+		mode = sMode;
+
+		int iInterval = DEFAULT_INTERVAL;
+		try {
+			iInterval = Integer.parseInt(
+					props.getProperty("delta_refresh_interval_in_secs", String.valueOf(DEFAULT_INTERVAL)).trim());
+		} catch (NumberFormatException ex) {
+			LOG.error(String.format("Not able to read delta_refresh_interval_in_secs, hard set to %d", DEFAULT_INTERVAL));
+		}
+		interval = Math.max(1, iInterval);
+
+		LOG.info(String.format("delta_refresh_mode will be set to [%s]", mode));
+		if (isEnabled()) {
+			LOG.info(String.format("delta_refresh_interval_in_secs will be set to [%d]", interval));
+		}
+	}
+
+	/**
+	 * Check if the delta refresh is configured
+	 * @return true if the tables are polled for changes
+	 */
+	boolean isEnabled() {
+		return !mode.equals(MODE_NONE);
+	}
+
+	/**
+	 * Interval between two polls
+	 * @return Interval in seconds
+	 */
+	int getInterval() {
+		return interval;
+	}
+
+	/**
+	 * Read the current version of the database
+	 * @param conn Database connection
+	 * @return Current version
+	 * @throws SQLException Database Exception
+	 */
+	long readCurrentVersion(Connection conn) throws SQLException {
+		try (PreparedStatement pst = conn.prepareStatement(
+				mode.equals(MODE_CHANGE_TRACKING) ? CHANGE_TRACKING_VERSION_QUERY : ROWVERSION_VERSION_QUERY);
+				ResultSet rs = pst.executeQuery()) {
+			if (!rs.next() || rs.getObject(1) == null) {
+				throw new SQLException("Change tracking is not enabled on the database");
+			}
+			return rs.getLong(1);
+		}
+	}
+
+	/**
+	 * Set the version the next poll of the profile database reads the changes from
+	 * @param database Name of the profile
+	 * @param version Version read before the tables were loaded
+	 */
+	void setBaseline(String database, long version) {
+		lastVersions.put(database, version);
+	}
+
+	/**
+	 * Retrieve the keys of the objects affected by the changes of the profile database since its last poll. The first
+	 * poll only sets the baseline
+	 * @param database Name of the profile
+	 * @param conn Database connection of the profile
+	 * @return Group to affected keys, null if the changes are no longer available and a full refresh is needed
+	 * @throws SQLException Database Exception
+	 */
+	Map<String, Set<String>> poll(String database, Connection conn) throws SQLException {
+
+		Map<String, Set<String>> changes = new HashMap<String, Set<String>>();
+		for (TrackedTable table : tables) {
+			if (!changes.containsKey(table.group)) {
+				changes.put(table.group, new TreeSet<String>(String.CASE_INSENSITIVE_ORDER));
+			}
+		}
+
+		long currentVersion = readCurrentVersion(conn);
+		Long lastVersion = lastVersions.get(database);
+
+		if (lastVersion == null) {
+			LOG.info(String.format("Delta refresh baseline of domain [%s] set to version [%d]", database, currentVersion));
+			lastVersions.put(database, currentVersion);
+			return changes;
+		}
+
+		if (currentVersion == lastVersion) {
+			return changes;
+		}
+
+		if (mode.equals(MODE_CHANGE_TRACKING) && !isChangeTrackingValid(conn, lastVersion)) {
+			return null;
+		}
+
+		for (TrackedTable table : tables) {
+			String sql = mode.equals(MODE_CHANGE_TRACKING) ? table.changeTrackingQuery
+					: table.rowVersionQuery.replaceAll("##", versionColumn);
+
+			try (PreparedStatement pst = HikariCPDataSource.prepareStreamingStatement(conn, sql, fetchSize)) {
+				pst.setLong(1, lastVersion);
+				try (ResultSet rs = pst.executeQuery()) {
+					Set<String> keys = changes.get(table.group);
+					while (rs.next()) {
+						String key = rs.getString(1);
+						if (key != null) {
+							keys.add(key);
+						}
+					}
+				}
+			}
+		}
+
+		LOG.debug(String.format("Polled changes of domain [%s] from version [%d] to [%d]", database, lastVersion,
+				currentVersion));
+
+		lastVersions.put(database, currentVersion);
+
+		return changes;
+	}
+
+	/**
+	 * Check the changes since the last version are still retained for every tracked table
+	 * @param conn Database connection
+	 * @param lastVersion Version of the last poll
+	 * @return true if the changes can be read
+	 * @throws SQLException Database Exception
+	 */
+	private boolean isChangeTrackingValid(Connection conn, long lastVersion) throws SQLException {
+
+		Set<String> checked = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+
+		try (PreparedStatement pst = conn.prepareStatement(CHANGE_TRACKING_MIN_VERSION_QUERY)) {
+			for (TrackedTable table : tables) {
+				if (!checked.add(table.table)) {
+					continue;
+				}
+
+				pst.setString(1, table.table);
+				try (ResultSet rs = pst.executeQuery()) {
+					if (!rs.next() || rs.getObject(1) == null) {
+						throw new SQLException(String.format("Change tracking is not enabled on table [%s]", table.table));
+					}
+					if (rs.getLong(1) > lastVersion) {
+						LOG.warn(String.format("Changes of table [%s] since version [%d] are no longer retained",
+								table.table, lastVersion));
+						return false;
+					}
+				}
+			}
+		}
+
+		return true;
+	}
+}
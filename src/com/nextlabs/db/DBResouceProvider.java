@@ -5,13 +5,21 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.TreeMap;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.naming.NamingException;
 
@@ -19,13 +27,22 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import com.bluejungle.framework.expressions.EvalValue;
-import com.bluejungle.framework.expressions.Multivalue;
+import com.nextlabs.cache.IdentifierExtractor;
+import com.nextlabs.cache.MissBatcher;
+import com.nextlabs.cache.QueryCoalescer;
 import com.nextlabs.cache.ResourceCacheEngine;
+import com.nextlabs.cache.ResourceCacheGeneration;
+import com.nextlabs.common.AttributeSchema;
 import com.nextlabs.common.Provider;
 import com.nextlabs.common.ResourceObject;
 import com.nextlabs.common.UserObject;
 import com.nextlabs.common.Util;
 import com.nextlabs.exception.InvalidProfileException;
+import com.nextlabs.metrics.LatencyHistogram;
+import com.nextlabs.metrics.MetricsRegistry;
+import com.nextlabs.metrics.RefreshHistory;
+import com.nextlabs.metrics.RefreshMetrics;
+import com.nextlabs.metrics.RefreshReport;
 	
 /**
  * Class the implement the detail for fetching data from resource database
@@ -39,37 +56,91 @@ public class DBResouceProvider implements Provider {
 	private Map<String, ResourceDBProfile> profiles;
 	private ResourceDBProfile singleProfile;
 	private Map<String, List<String>> resAttributeToProfileMap;
+	private Map<String, List<String>> progAttributeToProfileMap;
 	private boolean isSingleProfile;
-	private Map<String, String> idToObjectTypeMap;
+	private AttributeSchema attributeSchema;
 	private final String RESOURCE_TYPE = "res";
 	private int numberOfRetries;
 	private int intervalBetweenRetries;
-	private Boolean isRefreshing;
+	private volatile Boolean isRefreshing;
+	private final AtomicLong refreshedObjects;
 	private static Properties commonProp;
-	private static HikariCPDataSource ds;
-	private static String ITEM_SQL_QUERY = "SELECT [ID], [OBID], ## FROM DARIT";
-	private static String ITEM_SQL_QUERY_WITH_CONDITION = "SELECT [ID], [OBID], ## FROM DARIT WHERE OBID = ?";
+	private final ParallelProfileLookup profileLookup;
+	private final QueryCoalescer<ResourceObject> itemQueries;
+	private final QueryCoalescer<ResourceObject> progQueries;
+	private static final int DEFAULT_MISS_BATCH_WINDOW = 2;
+	private static final int DEFAULT_MISS_BATCH_MAX_KEYS = 50;
+	private static final int DEFAULT_REFRESH_PARALLELISM = 1;
+	// SQL Server accepts up to 2100 parameters in one statement
+	private static final int MAX_MISS_BATCH_KEYS = 2000;
+	private final ConcurrentMap<String, MissBatcher<ResourceObject>> itemBatchers;
+	private final ConcurrentMap<String, MissBatcher<ResourceObject>> progBatchers;
+	private int missBatchWindow;
+	private int missBatchMaxKeys;
+	private final LatencyHistogram itemQueryLatency;
+	private final LatencyHistogram progQueryLatency;
+	private final ConcurrentMap<String, RefreshMetrics> refreshMetrics;
+	private final RefreshHistory refreshHistory;
+	private ChangePoller changes;
+	private int refreshParallelism;
+	private int fetchSize;
+	private static final String ITEM_SQL_QUERY_WITH_IN_CONDITION = "SELECT [ID], [OBID], ## FROM DARIT WHERE OBID IN ";
 	private static final StringBuffer PROGRAM_SQL_QUERY = new StringBuffer("SELECT [ID_HD]").append(",[ID_INDCT]")
 			.append(",[ID_MILCT]").append(",[ID_EXCC1T]").append(" FROM PROGIT");
-	private static final StringBuffer PROGRAM_SQL_QUERY_WITH_CONDITION = new StringBuffer("SELECT [ID_HD]").append(",[ID_INDCT]")
-			.append(",[ID_MILCT]").append(",[ID_EXCC1T]").append(" FROM PROGIT").append(" WHERE ID_HD = ?");
-	private static final String PROGHD_SQL_QUERY = new StringBuffer()
-			.append("SELECT A.OBID, C.PROGK, C.PROVS FROM DARIT A LEFT JOIN DAR_PROGT B")
-			.append("	ON A.ID = B.ID_DARIT LEFT JOIN PROGHD C").append("	ON B.ID_HD = C.ID_HD WHERE A.OBID = ?")
-			.toString();
-	private static final StringBuffer PROGIT_SQL_QUERY = new StringBuffer()
-			.append("SELECT A.OBID, C.ID_INDCT, C.ID_MILCT, C.ID_EXCC1T FROM DARIT A LEFT JOIN DAR_PROGT B")
-			.append("	ON A.ID = B.ID_DARIT LEFT JOIN PROGIT C").append("	ON B.ID_HD = C.ID_HD WHERE A.OBID = ?");
-	private static final String EXCC2T_SQL_QUERY = "SELECT ID_DARIT, EXCC2 FROM EXCC2T WHERE ID_DARIT = ?";
-	private static final String MAEX_SQL_QUERY = "SELECT MATNR, EMBGR FROM MAEX WHERE MATNR = ?";
+	private static final String PROGRAM_PARTITION_COLUMN = "ID_HD";
+	private static final String PROGRAM_PARTITION_SQL_QUERY = "SELECT [ID_HD] FROM PROGIT";
+	private static final StringBuffer PROGRAM_SQL_QUERY_WITH_IN_CONDITION = new StringBuffer("SELECT [ID_HD]").append(",[ID_INDCT]")
+			.append(",[ID_MILCT]").append(",[ID_EXCC1T]").append(" FROM PROGIT").append(" WHERE ID_HD IN ");
+	private static final String ITEM_CHANGES = "item";
+	private static final String PROGRAM_CHANGES = "program";
+	// Change Tracking only keeps the primary key of the changed rows: ID of DARIT, ID_DARIT of DAR_PROGT and EXCC2T,
+	// ID_HD of PROGHD and PROGIT and MATNR of MAEX. Items are queried again by OBID and programs by ID_HD
+	private static final List<ChangePoller.TrackedTable> TRACKED_TABLES = Arrays.asList(
+			new ChangePoller.TrackedTable(ITEM_CHANGES, "DARIT",
+					"SELECT A.OBID FROM CHANGETABLE(CHANGES DARIT, ?) CT INNER JOIN DARIT A ON A.ID = CT.ID",
+					"SELECT A.OBID FROM DARIT A WHERE A.## > CAST(? AS BINARY(8))"),
+			new ChangePoller.TrackedTable(ITEM_CHANGES, "DAR_PROGT",
+					"SELECT A.OBID FROM CHANGETABLE(CHANGES DAR_PROGT, ?) CT INNER JOIN DARIT A ON A.ID = CT.ID_DARIT",
+					"SELECT A.OBID FROM DAR_PROGT B INNER JOIN DARIT A ON A.ID = B.ID_DARIT WHERE B.## > CAST(? AS BINARY(8))"),
+			new ChangePoller.TrackedTable(ITEM_CHANGES, "PROGHD", new StringBuffer()
+					.append("SELECT A.OBID FROM CHANGETABLE(CHANGES PROGHD, ?) CT INNER JOIN DAR_PROGT B")
+					.append("	ON B.ID_HD = CT.ID_HD INNER JOIN DARIT A ON A.ID = B.ID_DARIT").toString(),
+					new StringBuffer().append("SELECT A.OBID FROM PROGHD C INNER JOIN DAR_PROGT B ON B.ID_HD = C.ID_HD")
+					.append("	INNER JOIN DARIT A ON A.ID = B.ID_DARIT WHERE C.## > CAST(? AS BINARY(8))").toString()),
+			new ChangePoller.TrackedTable(ITEM_CHANGES, "PROGIT", new StringBuffer()
+					.append("SELECT A.OBID FROM CHANGETABLE(CHANGES PROGIT, ?) CT INNER JOIN DAR_PROGT B")
+					.append("	ON B.ID_HD = CT.ID_HD INNER JOIN DARIT A ON A.ID = B.ID_DARIT").toString(),
+					new StringBuffer().append("SELECT A.OBID FROM PROGIT C INNER JOIN DAR_PROGT B ON B.ID_HD = C.ID_HD")
+					.append("	INNER JOIN DARIT A ON A.ID = B.ID_DARIT WHERE C.## > CAST(? AS BINARY(8))").toString()),
+			new ChangePoller.TrackedTable(ITEM_CHANGES, "EXCC2T",
+					"SELECT A.OBID FROM CHANGETABLE(CHANGES EXCC2T, ?) CT INNER JOIN DARIT A ON A.ID = CT.ID_DARIT",
+					"SELECT A.OBID FROM EXCC2T E INNER JOIN DARIT A ON A.ID = E.ID_DARIT WHERE E.## > CAST(? AS BINARY(8))"),
+			new ChangePoller.TrackedTable(ITEM_CHANGES, "MAEX",
+					"SELECT CT.MATNR FROM CHANGETABLE(CHANGES MAEX, ?) CT",
+					"SELECT M.MATNR FROM MAEX M WHERE M.## > CAST(? AS BINARY(8))"),
+			new ChangePoller.TrackedTable(PROGRAM_CHANGES, "PROGIT",
+					"SELECT CT.ID_HD FROM CHANGETABLE(CHANGES PROGIT, ?) CT",
+					"SELECT C.ID_HD FROM PROGIT C WHERE C.## > CAST(? AS BINARY(8))"));
 
 	/**
 	 * Constructor for DBResourceProvider
 	 */
 	public DBResouceProvider() {
 		resAttributeToProfileMap = new HashMap<String, List<String>>();
-		idToObjectTypeMap = new ConcurrentHashMap<String, String>();
+		progAttributeToProfileMap = new HashMap<String, List<String>>();
+		profileLookup = new ParallelProfileLookup("ResourceLookup");
+		itemQueries = new QueryCoalescer<ResourceObject>();
+		progQueries = new QueryCoalescer<ResourceObject>();
+		itemBatchers = new ConcurrentHashMap<String, MissBatcher<ResourceObject>>();
+		progBatchers = new ConcurrentHashMap<String, MissBatcher<ResourceObject>>();
+		itemQueryLatency = MetricsRegistry.register("Latency", "QueryForItem", new LatencyHistogram());
+		progQueryLatency = MetricsRegistry.register("Latency", "QueryForProgram", new LatencyHistogram());
+		refreshMetrics = new ConcurrentHashMap<String, RefreshMetrics>();
+		refreshHistory = MetricsRegistry.register("RefreshHistory", "Resource", new RefreshHistory());
+		missBatchWindow = DEFAULT_MISS_BATCH_WINDOW;
+		missBatchMaxKeys = DEFAULT_MISS_BATCH_MAX_KEYS;
 		isRefreshing = false;
+		refreshedObjects = new AtomicLong();
 	}
 
 	
@@ -109,51 +180,151 @@ public class DBResouceProvider implements Provider {
 	}
 	
 	/**
-	 * Retrieve profile from the provider
-	 * @return ResourceDBProfile object
+	 * Retrieve the loaded profiles
+	 * @return ResourceDBProfile objects, the single profile or every profile of profile_names
 	 */
-	public ResourceDBProfile getProfile() {	
-		
-		if(isSingleProfile) {
-			return singleProfile;
-		}
-		else {
-			//TODO return matching profile
-			return null;
+	public List<ResourceDBProfile> getProfiles() {
+
+		if (isSingleProfile) {
+			return (singleProfile == null) ? Collections.<ResourceDBProfile> emptyList()
+					: Collections.singletonList(singleProfile);
 		}
-		
+
+		return new ArrayList<ResourceDBProfile>(profiles.values());
+	}
+
+	/**
+	 * Check if an item attribute is provided by a profile
+	 * @param attribute Attribute name
+	 * @return true if a profile pulls the attribute from DARIT, PROGHD, PROGIT or EXCC2T
+	 */
+	public boolean providesItemAttribute(String attribute) {
+		return resAttributeToProfileMap.containsKey(attribute.toLowerCase());
+	}
+
+	/**
+	 * Check if a program attribute is provided by a profile
+	 * @param attribute Attribute name
+	 * @return true if a profile pulls the attribute from PROGIT
+	 */
+	public boolean providesProgramAttribute(String attribute) {
+		return progAttributeToProfileMap.containsKey(attribute.toLowerCase());
 	}
 	
-	
 	/**
-	 * Initialize of the Database connection pool
+	 * Initialize the Database connection pool of every valid profile
+	 */
+	public void initDBConnetionPools() {
+
+		for (ResourceDBProfile profile : getProfiles()) {
+
+			if (!profile.getIsValid()) {
+				continue;
+			}
+
+			// a range of the item refresh holds one connection per bulk query until it is loaded
+			int refreshConnections = refreshParallelism * ItemBulkLoader.CONNECTIONS;
+			if (profile.getPoolSize() < refreshConnections) {
+				LOG.error(String.format(
+						"database_pool_size [%d] of domain [%s] is below the [%d] connections of a full refresh with refresh_parallelism [%d], the ranges wait on the pool and may time out",
+						profile.getPoolSize(), profile.getName(), refreshConnections, refreshParallelism));
+			}
+
+			if (profile.getDataSource() != null) {
+				profile.getDataSource().close();
+			}
+
+			profile.setDataSource(new HikariCPDataSource(profile));
+
+			LOG.debug(String.format("Item Query of domain [%s] is %s", profile.getName(), getItemSQLQuery(profile)));
+		}
+	}
+
+	/**
+	 * Build the item query of a profile
 	 * @param profile ResourceDBProfile
+	 * @return Item query pulling the attribute columns of the profile, ended by the IN keyword
 	 */
-	public void initDBConnetionPool(ResourceDBProfile profile) {
-		
-		ds = new HikariCPDataSource(profile);
-		
-		String sQueryColumn = getQueryColumn(profile);
-		
-		ITEM_SQL_QUERY = ITEM_SQL_QUERY.replaceAll("##", sQueryColumn);
-		
-		LOG.debug("Item Query is " + ITEM_SQL_QUERY);
-		
-		ITEM_SQL_QUERY_WITH_CONDITION = ITEM_SQL_QUERY_WITH_CONDITION.replaceAll("##", sQueryColumn);
-				
+	private String getItemSQLQuery(ResourceDBProfile profile) {
+		return ITEM_SQL_QUERY_WITH_IN_CONDITION.replace("##", getQueryColumn(profile));
 	}
 	
 	/**
-	 * Retrieve connection from DB connection pool
+	 * Set the key attribute values an item and a program are stored under in the cache, using the key attributes of
+	 * the profile of each object
+	 */
+	public void registerIdentifiers() {
+
+		boolean itemCaseSensitive = false;
+		boolean progCaseSensitive = false;
+		for (ResourceDBProfile dbProfile : getProfiles()) {
+			itemCaseSensitive |= dbProfile.getAttributesKeyCaseSensitiveMap().containsValue(true);
+			progCaseSensitive |= dbProfile.getProgAttributesKeyCaseSensitiveMap().containsValue(true);
+		}
+
+		final boolean isItemCaseSensitive = itemCaseSensitive;
+		final boolean isProgCaseSensitive = progCaseSensitive;
+
+		ResourceCacheEngine.getInstance().setIdentifierExtractors(new IdentifierExtractor<ResourceObject>() {
+			@Override
+			public List<String> getIdentifiers(ResourceObject obj) {
+				ResourceDBProfile dbProfile = isSingleProfile ? singleProfile : profiles.get(obj.getDomain());
+				return (dbProfile == null) ? new ArrayList<String>()
+						: getKeyAttributeValues(obj, dbProfile.getKeyAttributes());
+			}
+
+			@Override
+			public boolean isCaseSensitive() {
+				return isItemCaseSensitive;
+			}
+		}, new IdentifierExtractor<ResourceObject>() {
+			@Override
+			public List<String> getIdentifiers(ResourceObject obj) {
+				ResourceDBProfile dbProfile = isSingleProfile ? singleProfile : profiles.get(obj.getDomain());
+				return (dbProfile == null) ? new ArrayList<String>()
+						: getKeyAttributeValues(obj, dbProfile.getProgKeyAttributes());
+			}
+
+			@Override
+			public boolean isCaseSensitive() {
+				return isProgCaseSensitive;
+			}
+		});
+	}
+
+	/**
+	 * Retrieve the key attribute values of a resource, the keys it is stored under in the cache
+	 * @param obj ResourceObject
+	 * @param keyAttributes Key attribute names
+	 * @return Key attribute values
+	 */
+	private List<String> getKeyAttributeValues(ResourceObject obj, List<String> keyAttributes) {
+
+		List<String> ids = new ArrayList<String>();
+
+		for (String key : keyAttributes) {
+			if (obj.getAttribute(key.toLowerCase()) != null && obj.getAttribute(key.toLowerCase()).getValue() != null) {
+				String id = (String) obj.getAttribute(key.toLowerCase()).getValue();
+				ids.add(id);
+			}
+		}
+
+		return ids;
+	}
+	
+	/**
+	 * Retrieve connection from the DB connection pool of a profile. Not synchronized, the pool hands out connections
+	 * to concurrent callers on its own
+	 * @param profile ResourceDBProfile owning the pool
 	 * @return A DB connection from the pool, null if the pool is not initialized.
 	 * @throws SQLException Database SQL Exception
 	 */
-	public synchronized Connection getConnectionFromPool() throws SQLException {
+	public Connection getConnectionFromPool(ResourceDBProfile profile) throws SQLException {
 		
-		if (ds!=null)
-			return ds.getConnection();
+		if (profile.getDataSource() != null)
+			return profile.getDataSource().getConnection();
 		
-		LOG.error("Datasource is null and not initialized");
+		LOG.error(String.format("Datasource of domain [%s] is null and not initialized", profile.getName()));
 		
 		return null;
 	}
@@ -162,98 +333,190 @@ public class DBResouceProvider implements Provider {
 	 * @see com.nextlabs.common.Provider#getItemObject(java.lang.String, java.lang.String)
 	 */
 	@Override
-	public ResourceObject getItemObject(String id, String attributeToSearch) throws SQLException, NamingException {
+	public ResourceObject getItemObject(final String id, final String attributeToSearch) throws Exception {
+
+		// concurrent misses for the same id share one query
+		return itemQueries.query(id, new Callable<ResourceObject>() {
+			@Override
+			public ResourceObject call() throws Exception {
+				// another caller may have loaded the item while we were waiting
+				ResourceObject cached = ResourceCacheEngine.getInstance().getItemObjectFromCache(id);
+				return (cached != null) ? cached : lookupItemObject(id, attributeToSearch);
+			}
+		});
+	}
+
+	/**
+	 * Query the item from the profile(s) providing the attribute
+	 * @param id ID of the resource
+	 * @param attributeToSearch Attribute name to search for
+	 * @return ResourceObject for the matched resource, null if not found
+	 * @throws Exception
+	 */
+	private ResourceObject lookupItemObject(final String id, String attributeToSearch) throws Exception {
 
 		ResourceObject object = null;
 
-		if (idToObjectTypeMap.get(id) == null
-				|| (idToObjectTypeMap.get(id) != null && idToObjectTypeMap.get(id).equals(RESOURCE_TYPE))) {
+		if (isSingleProfile) {
+			
+			object = queryForItem(singleProfile, id);
 
-			if (isSingleProfile) {
-				
-				object = queryForItem(singleProfile, id);
+		} else {
 
-			} else {
+			List<ResourceDBProfile> profilesToLook = getProfilesToLook(resAttributeToProfileMap, attributeToSearch);
+			if (profilesToLook.isEmpty()) {
+				LOG.error(String.format("Attribute [%s] isn't provided by any domain", attributeToSearch));
+				return null;
+			}
 
-				List<String> profilesToLook = resAttributeToProfileMap.get(attributeToSearch.toLowerCase());
-				if (profilesToLook == null) {
-					LOG.error(String.format("Attribute [%s] isn't provided by any domain", attributeToSearch));
-					return null;
-				}
+			// the domains are queried at the same time, the first domain in order having the item wins
+			object = profileLookup.queryFirst(profilesToLook,
+					new ParallelProfileLookup.Query<ResourceDBProfile, ResourceObject>() {
+						@Override
+						public ResourceObject query(ResourceDBProfile dbProfile) throws Exception {
+							return queryForItem(dbProfile, id);
+						}
+					});
+		}
 
-				for (String profileName : profilesToLook) {
-					ResourceDBProfile dbProfile = profiles.get(profileName);
+		if (object == null) {
+			LOG.error(String.format("Object [%s] cannot be queried from Resources DB", id));
+		}
 
-					LOG.info(String.format("Attribute [%s] should be found in domain [%s]. Attemp to query...",
-							attributeToSearch, dbProfile.getName()));
+		return object;
+	}
 
-					object = queryForItem(dbProfile, id);
+	/**
+	 * Retrieve the valid profiles providing an attribute, in the order of profile_names
+	 * @param attributeToProfileMap Attribute name to profile names
+	 * @param attributeToSearch Attribute name to search for
+	 * @return ResourceDBProfile objects, empty if no profile provides the attribute
+	 */
+	private List<ResourceDBProfile> getProfilesToLook(Map<String, List<String>> attributeToProfileMap,
+			String attributeToSearch) {
 
-					if (object != null) {
-						break;
-					}
+		List<ResourceDBProfile> profilesToLook = new ArrayList<ResourceDBProfile>();
+		List<String> profileNames = attributeToProfileMap.get(attributeToSearch.toLowerCase());
+
+		if (profileNames != null) {
+			for (String profileName : profileNames) {
+				ResourceDBProfile dbProfile = profiles.get(profileName);
+
+				if (dbProfile != null && dbProfile.getIsValid()) {
+					LOG.info(String.format("Attribute [%s] should be found in domain [%s]. Attemp to query...",
+							attributeToSearch, dbProfile.getName()));
+					profilesToLook.add(dbProfile);
 				}
 			}
-		} else {
-			LOG.error(String.format("Type cannot be found for ID [%s]", id));
-		}
-
-		if (object == null) {
-			LOG.error(String.format("Object [%s] cannot be queried from Resources DB", id));
 		}
 
-		return object;
+		return profilesToLook;
 	}
 
 	/**
-	 * Query for a resource with resource ID and store in into the cache store
+	 * Query for a resource with resource ID and store in into the cache store. Concurrent misses of the same profile
+	 * are resolved together by one query
 	 * @param dbProfile DBProfile
 	 * @param resId Resource ID
 	 * @return ResourceObject which matched the given resource ID
+	 * @throws Exception
+	 */
+	private ResourceObject queryForItem(ResourceDBProfile dbProfile, String resId) throws Exception {
+
+		long startTime = System.nanoTime();
+
+		try {
+			return getItemBatcher(dbProfile).get(resId);
+		} finally {
+			itemQueryLatency.record(System.nanoTime() - startTime);
+		}
+	}
+
+	/**
+	 * Retrieve the item miss batcher of the profile
+	 * @param dbProfile DBProfile
+	 * @return MissBatcher querying the items of the profile
+	 */
+	private MissBatcher<ResourceObject> getItemBatcher(final ResourceDBProfile dbProfile) {
+
+		MissBatcher<ResourceObject> batcher = itemBatchers.get(dbProfile.getName());
+
+		if (batcher == null) {
+			batcher = new MissBatcher<ResourceObject>(new MissBatcher.BatchQuery<ResourceObject>() {
+				@Override
+				public Map<String, ResourceObject> query(List<String> keys) throws Exception {
+					return queryForItems(dbProfile, keys);
+				}
+			}, missBatchWindow, missBatchMaxKeys);
+
+			MissBatcher<ResourceObject> existing = itemBatchers.putIfAbsent(dbProfile.getName(), batcher);
+			if (existing != null) {
+				batcher = existing;
+			}
+		}
+
+		return batcher;
+	}
+
+	/**
+	 * Query for resources with a list of resource ID in one IN query, add the attributes of their secondary tables
+	 * with one IN query per table on the same connection and store them into the cache store
+	 * @param dbProfile DBProfile
+	 * @param resIds Resource IDs
+	 * @return OBID to ResourceObject, OBID compared case insensitively like the database does
 	 * @throws NamingException
 	 * @throws SQLException
 	 */
-	private ResourceObject queryForItem(ResourceDBProfile dbProfile, String resId)
+	private Map<String, ResourceObject> queryForItems(ResourceDBProfile dbProfile, List<String> resIds)
 			throws NamingException, SQLException {
 
-		ResourceObject resObj = null;
+		Map<String, ResourceObject> resObjs = new TreeMap<String, ResourceObject>(String.CASE_INSENSITIVE_ORDER);
+		Map<String, ResourceObject> items = new LinkedHashMap<String, ResourceObject>();
 		long startTime = System.currentTimeMillis();
 
-		try (Connection con = getConnectionFromPool();
-				PreparedStatement pst = con.prepareStatement(ITEM_SQL_QUERY_WITH_CONDITION,ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);) {
-			pst.setString(1, resId);
-			try (ResultSet rs = pst.executeQuery()) {
-				while (rs.next()) {
+		try (Connection con = getConnectionFromPool(dbProfile)) {
 
-					resObj = produceItem(rs, dbProfile);
+			// the DARIT rows of the batch are read and closed before the secondary tables are queried
+			try (PreparedStatement pst = HikariCPDataSource.prepareStreamingStatement(con,
+					getItemSQLQuery(dbProfile) + HikariCPDataSource.inList(missBatchMaxKeys)
+							+ GroupedResultSetReader.orderBy(dbProfile.getKeyColumns()), fetchSize);) {
+				HikariCPDataSource.setInListParameters(pst, resIds, missBatchMaxKeys);
+				try (ResultSet rs = pst.executeQuery()) {
+					GroupedResultSetReader reader = new GroupedResultSetReader(rs, dbProfile.getKeyColumns());
+					while (reader.hasGroup()) {
 
-					// write user to cache
-					ResourceCacheEngine.getInstance().writeObjectToItemCache(resObj);
+						String obid = reader.getString("OBID");
+						String darid = reader.getString("ID");
 
-					// update identifier map
-					for (String key : dbProfile.getKeyAttributes()) {
-						if (resObj.getAttribute(key.toLowerCase()) != null
-								&& resObj.getAttribute(key.toLowerCase()).getValue() != null) {
-							ResourceCacheEngine.getInstance().addItemIdentifier(
-									(String) resObj.getAttribute(key.toLowerCase()).getValue(), resObj.getId());
-							idToObjectTypeMap.put((String) resObj.getAttribute(key.toLowerCase()).getValue(),
-									RESOURCE_TYPE);
+						ResourceObject resObj = produceItem(reader, dbProfile);
+						items.put(darid, resObj);
+
+						if (obid != null) {
+							resObjs.put(obid, resObj);
 						}
 					}
 				}
 			}
-			con.close();
+
+			ItemBulkLoader.addLinkedAttributes(con, dbProfile, items, missBatchMaxKeys, fetchSize);
+		}
+
+		for (ResourceObject resObj : items.values()) {
+			// write item to cache, under each of its key values
+			ResourceCacheEngine.getInstance().writeObjectToItemCache(resObj);
 		}
 
 		long endTime = System.currentTimeMillis();
 
-		LOG.info(String.format("Query for Item [%s] took %dms", resId, (endTime - startTime)));
+		// a batch carries up to miss_batch_max_keys ids, they are only listed at debug
+		LOG.info(String.format("Query for [%d] Item(s) took %dms", resIds.size(), (endTime - startTime)));
+		if (LOG.isDebugEnabled()) {
+			LOG.debug(String.format("Item(s) queried %s", resIds));
+		}
 
-		return resObj;
+		return resObjs;
 	}
-	
 
-	
 	/* (non-Javadoc)
 	 * @see com.nextlabs.common.Provider#refreshCache()
 	 */
@@ -263,26 +526,53 @@ public class DBResouceProvider implements Provider {
 		if (!commonProp.getProperty("refresh","false").equalsIgnoreCase("false")) {
 
 			isRefreshing = true;
+			refreshedObjects.set(0);
 
 			long startTime = System.currentTimeMillis();
 
 			int count = 0;
 
+			// rows changed while the tables are loaded are applied again by the next delta refresh
+			Map<String, Long> changeVersions = readChangeVersions();
+			RefreshReport report;
+			boolean succeeded = false;
+
 			while (true) {
+				// build the new generation off to the side, readers keep using the current one until it is published
+				ResourceCacheGeneration generation = ResourceCacheEngine.getInstance().newGeneration();
+
+				// the stages of a failed attempt are not kept, the report covers the last attempt
+				report = new RefreshReport("Resource");
+
 				try {
 					if (isSingleProfile) {
-						refreshProfile(singleProfile);
+						refreshProfile(singleProfile, generation, report);
 					} else {
 						for (ResourceDBProfile dbProfile : profiles.values()) {
-							refreshProfile(dbProfile);
+							refreshProfile(dbProfile, generation, report);
 						}
 					}
+
+					long publishTime = System.nanoTime();
+					ResourceCacheEngine.getInstance().publishGeneration(generation);
+					report.getStage("Publish").record(refreshedObjects.get(), System.nanoTime() - publishTime, 0);
+					succeeded = true;
+
+					for (Map.Entry<String, Long> changeVersion : changeVersions.entrySet()) {
+						changes.setBaseline(changeVersion.getKey(), changeVersion.getValue());
+					}
+
+					long snapshotTime = System.nanoTime();
+					ResourceCacheEngine.getInstance().saveSnapshot();
+					report.getStage("Snapshot").record(refreshedObjects.get(), System.nanoTime() - snapshotTime, 0);
 					break;
 
 				} catch (Exception e) {
 
 					LOG.error("Cache refresh encountered an exception.", e);
 
+					ResourceCacheEngine.getInstance().discardGeneration(generation);
+
 					if (count++ == numberOfRetries) {
 						LOG.error(String.format("Attempted [%d] retries without success.", numberOfRetries));
 						break;
@@ -301,8 +591,12 @@ public class DBResouceProvider implements Provider {
 
 			isRefreshing = false;
 
+			report.finish(refreshedObjects.get(), count + 1, succeeded);
+			refreshHistory.add(report);
+
 			LOG.info("Cache refresh completed");
 			LOG.info("Time Taken: " + Long.toString((endTime - startTime)) + "ms");
+			LOG.info(report);
 
 		}
 		else{
@@ -311,482 +605,407 @@ public class DBResouceProvider implements Provider {
 	}
 
 	/**
-	 * Reload the cache store which contain Item and Program
-	 * @param dbProfile ResourceDBProfile
-	 * @throws NamingException
+	 * Check if the resource tables are polled for changes between two full refresh
+	 * @return true if delta_refresh_mode is set
 	 */
-	private void refreshProfile(ResourceDBProfile dbProfile) throws NamingException {
-		LOG.info(String.format("Started refreshing domain [%s]", dbProfile.getName()));
-
-		if (!dbProfile.getIsValid()) {
-			LOG.error(String.format("Profile [%s] is invalid. Skip refreshing.", dbProfile.getName()));
-			return;
-		}
-
-		try (Connection conn = getConnectionFromPool()) {
-			refreshItem(dbProfile, conn);
-			refreshProgram(dbProfile, conn);
-		} catch (SQLException e) {
-			e.printStackTrace();
-			LOG.error(e);
-		}
+	public boolean isDeltaRefreshEnabled() {
+		return changes != null && changes.isEnabled();
 	}
 
 	/**
-	 * Reload the Item object in cache store
-	 * @param dbProfile ResourceDBProfile
-	 * @param conn DB Connection
-	 * @throws NamingException
-	 * @throws SQLException
+	 * Interval between two delta refresh
+	 * @return Interval in seconds
 	 */
-	private void refreshItem(ResourceDBProfile dbProfile, Connection conn) throws NamingException, SQLException {
-
-		ResourceObject item = null;
-
-		try (Connection con = getConnectionFromPool();
-				PreparedStatement pst = con.prepareStatement(ITEM_SQL_QUERY, ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
-				ResultSet rs = pst.executeQuery();) {
-			while (rs.next()) {
-				item = produceItem(rs, dbProfile);
-				
-				// write item to cache
-				ResourceCacheEngine.getInstance().writeObjectToItemCache(item);
-				
-				// update identifier map
-				for (String key : dbProfile.getKeyAttributes()) {
-					if (item.getAttribute(key.toLowerCase()) != null
-							&& item.getAttribute(key.toLowerCase()).getValue() != null) {
-						ResourceCacheEngine.getInstance().addItemIdentifier((String) item.getAttribute(key.toLowerCase()).getValue(), item.getId());
-						idToObjectTypeMap.put((String) item.getAttribute(key.toLowerCase()).getValue(), RESOURCE_TYPE);
-					}
-				}
-			}
-		}
+	public int getDeltaRefreshInterval() {
+		return changes.getInterval();
 	}
-	
+
 	/**
-	 * Reload the Program object in cache store
-	 * @param dbProfile ResourceDBProfile
-	 * @param conn Database Connection
-	 * @throws NamingException
-	 * @throws SQLException
+	 * Query again the items and programs changed since the last poll and write them into the current generation. Runs
+	 * a full refresh if the changes are no longer available
 	 */
-	private void refreshProgram(ResourceDBProfile dbProfile, Connection conn) throws NamingException, SQLException {
+	public synchronized void refreshDelta() {
 
-		ResourceObject prog = null;
-		
-		try (Connection con = getConnectionFromPool();
-				PreparedStatement pst = con.prepareStatement(PROGRAM_SQL_QUERY.toString(), ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
-				ResultSet rs = pst.executeQuery();) {
-			while (rs.next()) {
-				prog = produceProgram(rs, dbProfile);
-				
-				// write program to cache
-				ResourceCacheEngine.getInstance().writeObjectToProgramCache(prog);
-				
-				// update identifier map
-				for (String key : dbProfile.getProgKeyAttributes()) {
-					if (prog.getAttribute(key.toLowerCase()) != null
-							&& prog.getAttribute(key.toLowerCase()).getValue() != null) {
-						ResourceCacheEngine.getInstance().addProgIdentifier((String) prog.getAttribute(key.toLowerCase()).getValue(), prog.getId());
-						idToObjectTypeMap.put((String) prog.getAttribute(key.toLowerCase()).getValue(), RESOURCE_TYPE);
-					}
-				}
-			}
+		if (!isDeltaRefreshEnabled()) {
+			return;
 		}
-	}
-
-	/**
-	 * Produce a ResourceObject from multiple table
-	 * @param rs Resultset contain the main entry
-	 * @param profile  ResourceDBProfile for the profile
-	 * @return A ResourceObject 
-	 * @throws NamingException
-	 * @throws SQLException
-	 */
-	private ResourceObject produceItem(ResultSet rs, ResourceDBProfile profile) throws NamingException, SQLException {
 
-		ResourceObject resObj = null;
+		long startTime = System.currentTimeMillis();
+		Set<String> obids = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+		Set<String> idHds = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
 
-		String[] ids = new String[profile.getKeyAttributes().size()];
+		// each domain has its own database and version, a key changed in one domain is queried again in every domain
+		for (ResourceDBProfile dbProfile : getProfiles()) {
 
-		for (int i = 0; i < profile.getKeyAttributes().size(); i++) {
+			if (!dbProfile.getIsValid()) {
+				continue;
+			}
 
-			String keyAttributeName = profile.getKeyAttributes().get(i);
+			Map<String, Set<String>> changedKeys;
 
-			String temp = rs.getString(profile.getKeyAtttributeDBColumnName(profile.getKeyAttributes().get(i)));
-			if (temp == null) {
-				ids[i] = "UNDEFINED";
-			} else {
-					ids[i] = temp;
+			try (Connection conn = getConnectionFromPool(dbProfile)) {
+				changedKeys = changes.poll(dbProfile.getName(), conn);
+			} catch (Exception e) {
+				LOG.error(String.format("Delta refresh is unable to poll the changes of domain [%s].", dbProfile.getName()), e);
+				continue;
+			}
 
-					if (!profile.isKeyCaseSensitive(keyAttributeName)) {
-						ids[i] = ids[i].toLowerCase();
-					}
+			if (changedKeys == null) {
+				LOG.warn("Changes since the last delta refresh are lost, running a full refresh");
+				refreshCache();
+				return;
 			}
-		}
 
-		String resId = Util.makeCombinedID(profile.getName(), ids);
+			obids.addAll(changedKeys.get(ITEM_CHANGES));
+			idHds.addAll(changedKeys.get(PROGRAM_CHANGES));
+		}
 
-		resObj = new ResourceObject(profile.getName(), resId, RESOURCE_TYPE);
+		if (obids.isEmpty() && idHds.isEmpty()) {
+			return;
+		}
 
-		Set<String> sValues = new TreeSet<>();
+		try {
+			Set<String> foundObids = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+			Set<String> foundIdHds = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
 
-		// process attributes to pull
-		for (String attributeName: profile.getAttributesToPull()) {
+			for (ResourceDBProfile dbProfile : getProfiles()) {
 
-			String temp = rs.getString(profile.getAttributeDBColumnName(attributeName));
+				if (!dbProfile.getIsValid()) {
+					continue;
+				}
 
-			if (!profile.isMultiAttribute(attributeName)) {
-				resObj.addAttribute(attributeName.toLowerCase(),(temp == null) ? EvalValue.NULL : EvalValue.build(temp));
-			} else {
+				for (List<String> batch : partition(obids, missBatchMaxKeys)) {
+					foundObids.addAll(queryForItems(dbProfile, batch).keySet());
+				}
 
-				if (temp == null && rs.isLast()) {
-					resObj.addAttribute(attributeName.toLowerCase(), EvalValue.build(Multivalue.EMPTY));
-				} else {
-					
-					int iCurrentRow = rs.getRow();
-
-					sValues.clear();
-					
-					temp = rs.getString(profile.getAttributeDBColumnName(attributeName));
-					
-					if (temp != null && temp.length() > 0) {
-						sValues.add(temp.trim());
-					}
+				for (List<String> batch : partition(idHds, missBatchMaxKeys)) {
+					foundIdHds.addAll(queryForPrograms(dbProfile, batch).keySet());
+				}
+			}
 
-					while (rs.next()) {
-						temp = rs.getString(profile.getAttributeDBColumnName(attributeName));
-						if (temp != null && temp.length() > 0) {
-							sValues.add(temp.trim());
-						}
-					}
-					
-					rs.absolute(iCurrentRow);
-					
-					if (sValues.size() > 0) {
-						resObj.addAttribute(attributeName.toLowerCase(), EvalValue.build(Multivalue.create(sValues)));
-					} else {
-						resObj.addAttribute(attributeName.toLowerCase(), EvalValue.build(Multivalue.EMPTY));
-					}
+			// deleted from the database, stop resolving them
+			for (String obid : obids) {
+				if (!foundObids.contains(obid)) {
+					ResourceCacheEngine.getInstance().removeItemObject(obid);
 				}
 			}
 
-		}
-		
-		//Append attribute from another table
-		produceProgHDAttribute(profile, rs.getString("OBID"), resObj);
-		
-		produceProgITAttribute(profile, rs.getString("OBID"), resObj);
-		
-		produceEXCC2TAttribute(profile, rs.getString("ID"), resObj);
-		
-		produceMAEXAttribute(profile, rs.getString("OBID"), resObj);
+			for (String idHd : idHds) {
+				if (!foundIdHds.contains(idHd)) {
+					ResourceCacheEngine.getInstance().removeProgObject(idHd);
+				}
+			}
 
-		// process key attributes
-		for (int i = 0; i < profile.getKeyAttributes().size(); i++) {
-			String attributeName = profile.getKeyAttributes().get(i);
+			LOG.info(String.format("Delta refresh updated [%d] items and [%d] programs in %dms", obids.size(),
+					idHds.size(), (System.currentTimeMillis() - startTime)));
 
-			String temp = rs.getString(profile.getKeyAtttributeDBColumnName(attributeName));
-			
-			if (temp != null) {
-				
-				resObj.addAttribute(attributeName.toLowerCase(),
-						EvalValue.build((profile.isKeyCaseSensitive(attributeName)) ? temp.toString()
-								: temp.toString().toLowerCase()));
-			}
+		} catch (Exception e) {
+			LOG.error("Delta refresh encountered an exception, the changes are applied by the next full refresh.", e);
 		}
-				
-		return resObj;
 	}
-	
+
 	/**
-	 * Query the attribute value from ProgHD table
-	 * @param profile ResourceDBProfile profile
-	 * @param id Resource ID
-	 * @param resObj ResourceObject for storing attribute value
-	 * @throws SQLException
+	 * Read the current change version of the profile databases before a full refresh
+	 * @return Profile name to current version, empty if the delta refresh is disabled. A profile whose version cannot
+	 *         be read keeps its previous baseline
 	 */
-	private void produceProgHDAttribute(ResourceDBProfile profile, String id, ResourceObject resObj)
-			throws SQLException {
-
-		try (Connection con = getConnectionFromPool();
-				PreparedStatement pst = con.prepareStatement(PROGHD_SQL_QUERY, ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);) {
-			pst.setString(1, id);
-			try (ResultSet rs = pst.executeQuery()) {
-				if (rs.next()) {
-
-					Set<String> sValues = new TreeSet<>();
-
-					// process attributes to pull
-					for (String attributeName : profile.getTableProgHDAttributesToPull()) {
-
-						String temp = rs.getString(profile.getTableProgHDAttributeDBColumnName(attributeName));
+	private Map<String, Long> readChangeVersions() {
 
-						if (!profile.isTableProgHDMultiAttribute(attributeName)) {
-							resObj.addAttribute(attributeName.toLowerCase(),
-									(temp == null) ? EvalValue.NULL : EvalValue.build(temp));
-						} else {
+		Map<String, Long> versions = new HashMap<String, Long>();
 
-							if (temp == null && rs.isLast()) {
-								resObj.addAttribute(attributeName.toLowerCase(), EvalValue.build(Multivalue.EMPTY));
-							} else {
-
-								int iCurrentRow = rs.getRow();
-
-								sValues.clear();
-
-								temp = rs.getString(profile.getTableProgHDAttributeDBColumnName(attributeName));
-
-								if (temp != null && temp.length() > 0) {
-									sValues.add(temp.trim());
-								}
-
-								while (rs.next()) {
-									temp = rs.getString(profile.getTableProgHDAttributeDBColumnName(attributeName));
-									if (temp != null && temp.length() > 0) {
-										sValues.add(temp.trim());
-									}
-								}
-
-								rs.absolute(iCurrentRow);
-								
-								if (sValues.size() > 0) {
-									resObj.addAttribute(attributeName.toLowerCase(),
-											EvalValue.build(Multivalue.create(sValues)));
-								} else {
-									resObj.addAttribute(attributeName.toLowerCase(), EvalValue.build(Multivalue.EMPTY));
-								}
-							}
-						}
+		if (!isDeltaRefreshEnabled()) {
+			return versions;
+		}
 
-					}
+		for (ResourceDBProfile dbProfile : getProfiles()) {
 
-				}
+			if (!dbProfile.getIsValid()) {
+				continue;
 			}
 
+			try (Connection conn = getConnectionFromPool(dbProfile)) {
+				versions.put(dbProfile.getName(), changes.readCurrentVersion(conn));
+			} catch (Exception e) {
+				LOG.error(String.format(
+						"Unable to read the change version of domain [%s], the delta refresh keeps its previous baseline",
+						dbProfile.getName()), e);
+			}
 		}
 
+		return versions;
 	}
-	
-	
+
 	/**
-	 * Query the attribute value from ProgIT table
-	 * @param profile ResourceDBProfile profile
-	 * @param id Resource ID
-	 * @param resObj ResourceObject for storing attribute value
-	 * @throws SQLException
+	 * Split the keys into lists of at most size keys
+	 * @param keys Keys to split
+	 * @param size Maximum number of keys in a list
+	 * @return Lists of keys
 	 */
-	private void produceProgITAttribute(ResourceDBProfile profile, String id, ResourceObject resObj)
-			throws SQLException {
-
-		try (Connection con = getConnectionFromPool();
-				PreparedStatement pst = con.prepareStatement(PROGIT_SQL_QUERY.toString(),ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);) {
-			pst.setString(1, id);
-			try (ResultSet rs = pst.executeQuery()) {
-				if (rs.next()) {
-
-					Set<String> sValues = new TreeSet<>();
-
-					// process attributes to pull
-					for (String attributeName : profile.getTableProgITAttributesToPull()) {
+	private static List<List<String>> partition(Set<String> keys, int size) {
+		List<List<String>> batches = new ArrayList<List<String>>();
+		List<String> batch = null;
+		for (String key : keys) {
+			if (batch == null || batch.size() == size) {
+				batch = new ArrayList<String>(size);
+				batches.add(batch);
+			}
+			batch.add(key);
+		}
+		return batches;
+	}
 
-						String temp = rs.getString(profile.getTableProgITAttributeDBColumnName(attributeName));
+	/**
+	 * Reload the cache store which contain Item and Program
+	 * @param dbProfile ResourceDBProfile
+	 * @param generation Cache generation being built by the refresh
+	 * @param report Report of the refresh
+	 * @throws Exception
+	 */
+	private void refreshProfile(ResourceDBProfile dbProfile, ResourceCacheGeneration generation, RefreshReport report)
+			throws Exception {
+		LOG.info(String.format("Started refreshing domain [%s]", dbProfile.getName()));
 
-						if (!profile.isTableProgITMultiAttribute(attributeName)) {
-							resObj.addAttribute(attributeName.toLowerCase(),
-									(temp == null) ? EvalValue.NULL : EvalValue.build(temp));
-						} else {
+		if (!dbProfile.getIsValid()) {
+			LOG.error(String.format("Profile [%s] is invalid. Skip refreshing.", dbProfile.getName()));
+			return;
+		}
 
-							if (temp == null && rs.isLast()) {
-								resObj.addAttribute(attributeName.toLowerCase(), EvalValue.build(Multivalue.EMPTY));
-							} else {
+		// a failure is propagated so the partial generation is discarded instead of published
+		refreshItem(dbProfile, generation, report);
+		refreshProgram(dbProfile, generation, report);
+	}
 
-								int iCurrentRow = rs.getRow();
+	/**
+	 * Reload the Item object in cache store, the DARIT ID ranges are loaded concurrently
+	 * @param dbProfile ResourceDBProfile
+	 * @param generation Cache generation being built by the refresh
+	 * @param report Report of the refresh
+	 * @throws Exception
+	 */
+	private void refreshItem(final ResourceDBProfile dbProfile, final ResourceCacheGeneration generation,
+			final RefreshReport report) throws Exception {
 
-								sValues.clear();
+		long startTime = System.currentTimeMillis();
+		List<KeyRange> ranges;
 
-								temp = rs.getString(profile.getTableProgITAttributeDBColumnName(attributeName));
+		// the sampling connection goes back to the pool before the ranges take theirs
+		try (Connection conn = getConnectionFromPool(dbProfile)) {
+			ranges = ItemBulkLoader.partition(conn, refreshParallelism);
+		}
 
-								if (temp != null && temp.length() > 0) {
-									sValues.add(temp.trim());
-								}
+		int count = PartitionedLoader.loadAll(String.format("items of domain [%s]", dbProfile.getName()), ranges,
+				new PartitionedLoader.Partition() {
+					@Override
+					public int load(KeyRange range) throws Exception {
+						return refreshItem(dbProfile, range, generation, report);
+					}
+				});
 
-								while (rs.next()) {
-									temp = rs.getString(profile.getTableProgITAttributeDBColumnName(attributeName));
-									if (temp != null && temp.length() > 0) {
-										sValues.add(temp.trim());
-									}
-								}
+		long duration = System.currentTimeMillis() - startTime;
+		getRefreshMetrics("DARIT", dbProfile).record(count, duration);
 
-								rs.absolute(iCurrentRow);
+		LOG.info(String.format("Refreshed [%d] items for domain [%s] in [%d] partition(s) in %dms", count,
+				dbProfile.getName(), ranges.size(), duration));
+	}
 
-								if (sValues.size() > 0) {
-									resObj.addAttribute(attributeName.toLowerCase(),
-											EvalValue.build(Multivalue.create(sValues)));
-								} else {
-									resObj.addAttribute(attributeName.toLowerCase(), EvalValue.build(Multivalue.EMPTY));
-								}
-							}
-						}
+	/**
+	 * Reload the Item object of a DARIT ID range
+	 * @param dbProfile ResourceDBProfile
+	 * @param range Range of DARIT ID
+	 * @param generation Cache generation being built by the refresh
+	 * @param report Report of the refresh
+	 * @return Number of items loaded
+	 * @throws SQLException
+	 */
+	private int refreshItem(ResourceDBProfile dbProfile, KeyRange range, ResourceCacheGeneration generation,
+			RefreshReport report) throws SQLException {
 
-					}
+		ResourceObject item = null;
+		long startTime = System.nanoTime();
+		long startCpuTime = RefreshReport.currentThreadCpuTime();
+		long writeNanos = 0;
 
-				}
+		// DARIT and its secondary tables are streamed once each and merge joined, instead of 4 queries per item
+		try (ItemBulkLoader loader = new ItemBulkLoader(this, dbProfile, RESOURCE_TYPE, range, report)) {
+			while ((item = loader.nextItem()) != null) {
+				
+				// write item to cache, under each of its key values
+				long writeTime = System.nanoTime();
+				generation.writeObjectToItemCache(item);
+				writeNanos += System.nanoTime() - writeTime;
+				refreshedObjects.incrementAndGet();
 			}
 
-		}
+			report.getStage("ItemCache-" + dbProfile.getName()).record(loader.getCount(), writeNanos, 0);
 
+			return loader.getCount();
+		} finally {
+			report.recordThread(System.nanoTime() - startTime, RefreshReport.currentThreadCpuTime() - startCpuTime);
+		}
 	}
 	
-	
 	/**
-	 * Query the attribute value from MAEX table
-	 * @param profile ResourceDBProfile profile
-	 * @param id Resource ID
-	 * @param resObj ResourceObject for storing attribute value
-	 * @throws SQLException
+	 * Reload the Program object in cache store, the program key ranges are loaded concurrently
+	 * @param dbProfile ResourceDBProfile
+	 * @param generation Cache generation being built by the refresh
+	 * @param report Report of the refresh
+	 * @throws Exception
 	 */
-	private void produceMAEXAttribute(ResourceDBProfile profile, String id, ResourceObject resObj) throws SQLException {
-
-		try (Connection con = getConnectionFromPool();
-				PreparedStatement pst = con.prepareStatement(MAEX_SQL_QUERY, ResultSet.TYPE_SCROLL_INSENSITIVE,
-						ResultSet.CONCUR_READ_ONLY);) {
-			pst.setString(1, id);
-			try (ResultSet rs = pst.executeQuery()) {
-				if (rs.next()) {
-
-					Set<String> sValues = new TreeSet<>();
-
-					// process attributes to pull
-					for (String attributeName : profile.getTableMAEXAttributesToPull()) {
-
-						String temp = rs.getString(profile.getTableMAEXAttributeDBColumnName(attributeName));
-
-						if (!profile.isTableMAEXMultiAttribute(attributeName)) {
-							resObj.addAttribute(attributeName.toLowerCase(),
-									(temp == null) ? EvalValue.NULL : EvalValue.build(temp));
-						} else {
+	private void refreshProgram(final ResourceDBProfile dbProfile, final ResourceCacheGeneration generation,
+			final RefreshReport report) throws Exception {
 
-							if (temp == null && rs.isLast()) {
-								resObj.addAttribute(attributeName.toLowerCase(), EvalValue.build(Multivalue.EMPTY));
-							} else {
-
-								int iCurrentRow = rs.getRow();
-
-								sValues.clear();
+		long startTime = System.currentTimeMillis();
+		List<KeyRange> ranges;
 
-								temp = rs.getString(profile.getTableMAEXAttributeDBColumnName(attributeName));
+		// the ranges are split on ID_HD so the rows of a program never span two ranges
+		try (Connection conn = getConnectionFromPool(dbProfile)) {
+			ranges = KeyRange.sample(conn, PROGRAM_PARTITION_SQL_QUERY, PROGRAM_PARTITION_COLUMN, refreshParallelism);
+		}
 
-								if (temp != null && temp.length() > 0) {
-									sValues.add(temp.trim());
-								}
+		int count = PartitionedLoader.loadAll(String.format("programs of domain [%s]", dbProfile.getName()), ranges,
+				new PartitionedLoader.Partition() {
+					@Override
+					public int load(KeyRange range) throws Exception {
+						return refreshProgram(dbProfile, range, generation, report);
+					}
+				});
 
-								while (rs.next()) {
-									temp = rs.getString(profile.getTableMAEXAttributeDBColumnName(attributeName));
-									if (temp != null && temp.length() > 0) {
-										sValues.add(temp.trim());
-									}
-								}
+		long duration = System.currentTimeMillis() - startTime;
+		getRefreshMetrics("PROGIT", dbProfile).record(count, duration);
 
-								rs.absolute(iCurrentRow);
+		LOG.info(String.format("Refreshed [%d] programs for domain [%s] in [%d] partition(s) in %dms", count,
+				dbProfile.getName(), ranges.size(), duration));
+	}
 
-								if (sValues.size() > 0) {
-									resObj.addAttribute(attributeName.toLowerCase(),
-											EvalValue.build(Multivalue.create(sValues)));
-								} else {
-									resObj.addAttribute(attributeName.toLowerCase(), EvalValue.build(Multivalue.EMPTY));
-								}
-							}
-						}
+	/**
+	 * Retrieve the refresh metrics of a table of a domain, registered the first time the table is refreshed
+	 * @param table Main table of the refreshed objects
+	 * @param dbProfile ResourceDBProfile
+	 * @return Refresh metrics of the table
+	 */
+	private RefreshMetrics getRefreshMetrics(String table, ResourceDBProfile dbProfile) {
 
-					}
+		String name = table + "-" + dbProfile.getName();
+		RefreshMetrics metrics = refreshMetrics.get(name);
 
-				}
+		if (metrics == null) {
+			RefreshMetrics created = new RefreshMetrics();
+			metrics = refreshMetrics.putIfAbsent(name, created);
+			if (metrics == null) {
+				metrics = MetricsRegistry.register("Refresh", name, created);
 			}
-
 		}
 
+		return metrics;
 	}
-	
-	
+
 	/**
-	 * Query the attribute value from EXCC2T table
-	 * @param profile ResourceDBProfile profile
-	 * @param id Resource ID
-	 * @param resObj ResourceObject for storing attribute value
+	 * Reload the Program object of a program key range
+	 * @param dbProfile ResourceDBProfile
+	 * @param range Range of ID_HD
+	 * @param generation Cache generation being built by the refresh
+	 * @param report Report of the refresh
+	 * @return Number of programs loaded
+	 * @throws NamingException
 	 * @throws SQLException
 	 */
-	private void produceEXCC2TAttribute(ResourceDBProfile profile, String id, ResourceObject resObj)
-			throws SQLException {
+	private int refreshProgram(ResourceDBProfile dbProfile, KeyRange range, ResourceCacheGeneration generation,
+			RefreshReport report) throws NamingException, SQLException {
 
-		try (Connection con = getConnectionFromPool();
-				PreparedStatement pst = con.prepareStatement(EXCC2T_SQL_QUERY, ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);) {
-			pst.setString(1, id);
+		ResourceObject prog = null;
+		int count = 0;
+		long startTime = System.nanoTime();
+		long startCpuTime = RefreshReport.currentThreadCpuTime();
+		long writeNanos = 0;
+		
+		try (Connection con = getConnectionFromPool(dbProfile);
+				PreparedStatement pst = HikariCPDataSource.prepareStreamingStatement(con,
+						range.restrict(PROGRAM_SQL_QUERY.toString(), "[" + PROGRAM_PARTITION_COLUMN + "]")
+								+ GroupedResultSetReader.orderBy(dbProfile.getProgKeyColumns()), fetchSize);) {
+			range.bind(pst, 1);
 			try (ResultSet rs = pst.executeQuery()) {
-				if (rs.next()) {
+				long queryNanos = System.nanoTime() - startTime;
+				GroupedResultSetReader reader = new GroupedResultSetReader(rs, dbProfile.getProgKeyColumns());
+				while (reader.hasGroup()) {
+					prog = produceProgram(reader, dbProfile);
+					count++;
+
+					// write program to cache, under each of its key values
+					long writeTime = System.nanoTime();
+					generation.writeObjectToProgramCache(prog);
+					writeNanos += System.nanoTime() - writeTime;
+					refreshedObjects.incrementAndGet();
+				}
 
-					Set<String> sValues = new TreeSet<>();
+				report.getStage("PROGIT-" + dbProfile.getName()).record(reader.getRowCount(),
+						System.nanoTime() - startTime - writeNanos, queryNanos + reader.getFetchNanos());
+				report.getStage("ProgramCache-" + dbProfile.getName()).record(count, writeNanos, 0);
+			}
+		} finally {
+			report.recordThread(System.nanoTime() - startTime, RefreshReport.currentThreadCpuTime() - startCpuTime);
+		}
 
-					// process attributes to pull
-					for (String attributeName : profile.getTableEXCC2TAttributesToPull()) {
+		return count;
+	}
 
-						String temp = rs.getString(profile.getTableEXCC2TAttributeDBColumnName(attributeName));
+	/**
+	 * Produce a ResourceObject from its DARIT rows, the attributes of the secondary tables are added to a batch of
+	 * items by ItemBulkLoader.addLinkedAttributes
+	 * @param reader Reader positioned on the group of rows of the main entry, moved to the next group on return
+	 * @param profile  ResourceDBProfile for the profile
+	 * @return A ResourceObject 
+	 * @throws SQLException
+	 */
+	ResourceObject produceItem(GroupedResultSetReader reader, ResourceDBProfile profile) throws SQLException {
 
-						if (!profile.isTableEXCC2TMultiAttribute(attributeName)) {
-							resObj.addAttribute(attributeName.toLowerCase(),
-									(temp == null) ? EvalValue.NULL : EvalValue.build(temp));
-						} else {
+		ResourceObject resObj = null;
 
-							if (temp == null && rs.isLast()) {
-								resObj.addAttribute(attributeName.toLowerCase(), EvalValue.build(Multivalue.EMPTY));
-							} else {
+		String[] ids = new String[profile.getKeyAttributes().size()];
+		String[] keyValues = new String[profile.getKeyAttributes().size()];
 
-								int iCurrentRow = rs.getRow();
+		for (int i = 0; i < profile.getKeyAttributes().size(); i++) {
 
-								sValues.clear();
+			String keyAttributeName = profile.getKeyAttributes().get(i);
 
-								temp = rs.getString(profile.getTableEXCC2TAttributeDBColumnName(attributeName));
+			keyValues[i] = reader.getString(profile.getKeyAtttributeDBColumnName(keyAttributeName));
+			if (keyValues[i] == null) {
+				ids[i] = "UNDEFINED";
+			} else {
+				ids[i] = (profile.isKeyCaseSensitive(keyAttributeName)) ? keyValues[i] : keyValues[i].toLowerCase();
+			}
+		}
 
-								if (temp != null && temp.length() > 0) {
-									sValues.add(temp.trim());
-								}
+		String resId = Util.makeCombinedID(profile.getName(), ids);
 
-								while (rs.next()) {
-									temp = rs.getString(profile.getTableEXCC2TAttributeDBColumnName(attributeName));
-									if (temp != null && temp.length() > 0) {
-										sValues.add(temp.trim());
-									}
-								}
+		resObj = new ResourceObject(attributeSchema, profile.getName(), resId, RESOURCE_TYPE);
 
-								rs.absolute(iCurrentRow);
-								
-								if (sValues.size() > 0) {
-									resObj.addAttribute(attributeName.toLowerCase(),
-											EvalValue.build(Multivalue.create(sValues)));
-								} else {
-									resObj.addAttribute(attributeName.toLowerCase(), EvalValue.build(Multivalue.EMPTY));
-								}
-							}
-						}
+		// process attributes to pull
+		resObj.addAttributes(reader.readGroup(profile.getAttributesToPull(), profile.getAttributesColumnNameMap(),
+				profile.getAttributesCardinalityMap()));
 
-					}
+		// process key attributes
+		for (int i = 0; i < profile.getKeyAttributes().size(); i++) {
+			String attributeName = profile.getKeyAttributes().get(i);
 
-				}
+			if (keyValues[i] != null) {
+				
+				resObj.addAttribute(attributeName.toLowerCase(),
+						EvalValue.build((profile.isKeyCaseSensitive(attributeName)) ? keyValues[i]
+								: keyValues[i].toLowerCase()));
 			}
-
 		}
-
+				
+		return resObj;
 	}
 	
-
 	/* (non-Javadoc)
 	 * @see com.nextlabs.common.Provider#loadProfiles(java.util.Properties, java.lang.String)
 	 */
 	@Override
 	public void loadProfiles(Properties props, String propsFilePath) {
 
-		profiles = new HashMap<String, ResourceDBProfile>();
+		// routing follows the order of profile_names
+		profiles = new LinkedHashMap<String, ResourceDBProfile>();
 
 		String sProfileNames = props.getProperty("profile_names");
 
@@ -803,16 +1022,7 @@ public class DBResouceProvider implements Provider {
 					profile.parseProfile(props, propsFilePath);
 					profiles.put(profile.getName(), profile);
 
-					for (String attr : profile.getAttributesToPull()) {
-						if (resAttributeToProfileMap.containsKey(attr.toLowerCase())) {
-							resAttributeToProfileMap.get(attr.toLowerCase()).add(profile.getName());
-						} else {
-							List<String> newIndex = new ArrayList<String>();
-							newIndex.add(profile.getName());
-							resAttributeToProfileMap.put(attr.toLowerCase(), newIndex);
-						}
-					}
-
+					indexAttributes(profile);
 
 				} catch (InvalidProfileException ipe) {
 					LOG.error(String.format("Invalid profile for domain [%s]", name), ipe);
@@ -823,6 +1033,7 @@ public class DBResouceProvider implements Provider {
 			LOG.warn("Profile names are undefined");
 		}
 
+		buildAttributeSchema(profiles.values());
 	}
 
 	/* (non-Javadoc)
@@ -837,10 +1048,88 @@ public class DBResouceProvider implements Provider {
 		try {
 			profile.parseProfile(props, propsFilePath);
 			singleProfile = profile;
+
+			indexAttributes(profile);
 		} catch (InvalidProfileException ipe) {
 			LOG.error(String.format("Invalid profile for domain [%s]", name), ipe);
 		}
 
+		buildAttributeSchema((singleProfile == null) ? Collections.<ResourceDBProfile> emptyList() : Collections.singletonList(singleProfile));
+	}
+
+	/**
+	 * Index the attributes pulled by a profile, lookups are routed to the profiles providing the attribute
+	 * @param profile ResourceDBProfile loaded
+	 */
+	private void indexAttributes(ResourceDBProfile profile) {
+
+		Set<String> itemAttributes = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+		itemAttributes.addAll(profile.getAttributesToPull());
+		itemAttributes.addAll(profile.getTableProgHDAttributesToPull());
+		itemAttributes.addAll(profile.getTableProgITAttributesToPull());
+		itemAttributes.addAll(profile.getTableEXCC2TAttributesToPull());
+
+		for (String attr : itemAttributes) {
+			indexAttribute(resAttributeToProfileMap, attr, profile.getName());
+		}
+
+		for (String attr : profile.getProgAttributesToPull()) {
+			indexAttribute(progAttributeToProfileMap, attr, profile.getName());
+		}
+	}
+
+	/**
+	 * Add a profile to the profiles providing an attribute
+	 * @param attributeToProfileMap Attribute name to profile names
+	 * @param attr Attribute name
+	 * @param profileName Profile name
+	 */
+	private static void indexAttribute(Map<String, List<String>> attributeToProfileMap, String attr,
+			String profileName) {
+		if (attributeToProfileMap.containsKey(attr.toLowerCase())) {
+			attributeToProfileMap.get(attr.toLowerCase()).add(profileName);
+		} else {
+			List<String> newIndex = new ArrayList<String>();
+			newIndex.add(profileName);
+			attributeToProfileMap.put(attr.toLowerCase(), newIndex);
+		}
+	}
+
+	/**
+	 * Build the attribute schema of the loaded profiles, the cached objects are encoded with it
+	 * @param loadedProfiles Profiles loaded
+	 */
+	private void buildAttributeSchema(Collection<ResourceDBProfile> loadedProfiles) {
+
+		Set<String> names = new TreeSet<String>();
+		List<String> keys = new ArrayList<String>();
+		for (ResourceDBProfile profile : loadedProfiles) {
+			names.addAll(profile.getAllAttributeNames());
+			// as configured in key_attributes, such as DB_1:item:ci:id:obid
+			for (String key : profile.getKeyAttributes()) {
+				keys.add(String.format("%s:item:%s:%s:%s", profile.getName(),
+						Boolean.TRUE.equals(profile.isKeyCaseSensitive(key)) ? "cs" : "ci", key,
+						profile.getKeyAtttributeDBColumnName(key)));
+			}
+			for (String key : profile.getProgKeyAttributes()) {
+				keys.add(String.format("%s:program:%s:%s:%s", profile.getName(),
+						Boolean.TRUE.equals(profile.isProgKeyCaseSensitive(key)) ? "cs" : "ci", key,
+						profile.getProgKeyAtttributeDBColumnName(key)));
+			}
+		}
+
+		attributeSchema = new AttributeSchema(names, keys);
+		LOG.info(String.format("Attribute schema has [%d] attributes", attributeSchema.size()));
+
+		ResourceCacheEngine.getInstance().setAttributeSchema(attributeSchema);
+	}
+
+	/**
+	 * Retrieve the attribute schema of the loaded profiles
+	 * @return Attribute schema
+	 */
+	public AttributeSchema getAttributeSchema() {
+		return attributeSchema;
 	}
 
 	/* (non-Javadoc)
@@ -859,12 +1148,80 @@ public class DBResouceProvider implements Provider {
 		return isRefreshing;
 	}
 
+	/* (non-Javadoc)
+	 * @see com.nextlabs.common.Provider#getRefreshedObjectCount()
+	 */
+	@Override
+	public long getRefreshedObjectCount() {
+		return refreshedObjects.get();
+	}
+
+	/**
+	 * Rows fetched per round trip by the streaming queries of the plugin
+	 * @return fetch_size of the plugin
+	 */
+	int getFetchSize() {
+		return fetchSize;
+	}
+
+	/**
+	 * Retrieve the report of the last full refresh
+	 * @return Report of the last refresh, null if the cache has not been refreshed yet
+	 */
+	public RefreshReport getLastRefreshReport() {
+		return refreshHistory.getLastReport();
+	}
+
 	/* (non-Javadoc)
 	 * @see com.nextlabs.common.Provider#setCommonProperties(java.util.Properties)
 	 */
 	@Override
 	public void setCommonProperties(Properties props) {
 		commonProp = props;
+		fetchSize = HikariCPDataSource.readFetchSize(props);
+
+		try {
+			missBatchWindow = Integer.parseInt(
+					props.getProperty("miss_batch_window_ms", String.valueOf(DEFAULT_MISS_BATCH_WINDOW)).trim());
+		} catch (Exception ex) {
+			LOG.error(String.format("Not able to read miss_batch_window_ms, hard set to %d", DEFAULT_MISS_BATCH_WINDOW));
+			missBatchWindow = DEFAULT_MISS_BATCH_WINDOW;
+		}
+
+		try {
+			missBatchMaxKeys = Integer.parseInt(
+					props.getProperty("miss_batch_max_keys", String.valueOf(DEFAULT_MISS_BATCH_MAX_KEYS)).trim());
+		} catch (Exception ex) {
+			LOG.error(String.format("Not able to read miss_batch_max_keys, hard set to %d", DEFAULT_MISS_BATCH_MAX_KEYS));
+			missBatchMaxKeys = DEFAULT_MISS_BATCH_MAX_KEYS;
+		}
+
+		missBatchMaxKeys = Math.max(1, Math.min(missBatchMaxKeys, MAX_MISS_BATCH_KEYS));
+
+		LOG.info(String.format("Cache misses will be batched for [%d] ms, up to [%d] keys", missBatchWindow,
+				missBatchMaxKeys));
+
+		try {
+			refreshParallelism = Integer.parseInt(
+					props.getProperty("refresh_parallelism", String.valueOf(DEFAULT_REFRESH_PARALLELISM)).trim());
+		} catch (Exception ex) {
+			LOG.error(String.format("Not able to read refresh_parallelism, hard set to %d", DEFAULT_REFRESH_PARALLELISM));
+			refreshParallelism = DEFAULT_REFRESH_PARALLELISM;
+		}
+
+		refreshParallelism = Math.max(1, refreshParallelism);
+
+		LOG.info(String.format("refresh_parallelism will be set to [%d]", refreshParallelism));
+
+		try {
+			refreshHistory.setSize(Integer.parseInt(
+					props.getProperty("refresh_history_size", String.valueOf(RefreshHistory.DEFAULT_SIZE)).trim()));
+		} catch (Exception ex) {
+			LOG.error(String.format("Not able to read refresh_history_size, hard set to %d", RefreshHistory.DEFAULT_SIZE));
+			refreshHistory.setSize(RefreshHistory.DEFAULT_SIZE);
+		}
+
+		changes = new ChangePoller(props, TRACKED_TABLES, fetchSize);
 		
 	}
 
@@ -880,39 +1237,50 @@ public class DBResouceProvider implements Provider {
 	 * @see com.nextlabs.common.Provider#getProgramObject(java.lang.String, java.lang.String)
 	 */
 	@Override
-	public ResourceObject getProgramObject(String id, String attributeToSearch) throws Exception {
+	public ResourceObject getProgramObject(final String id, final String attributeToSearch) throws Exception {
+
+		// concurrent misses for the same ID_HD share one query
+		return progQueries.query(id, new Callable<ResourceObject>() {
+			@Override
+			public ResourceObject call() throws Exception {
+				// another caller may have loaded the program while we were waiting
+				ResourceObject cached = ResourceCacheEngine.getInstance().getProgObjectFromCache(id);
+				return (cached != null) ? cached : lookupProgramObject(id, attributeToSearch);
+			}
+		});
+	}
+
+	/**
+	 * Query the program from the profile(s) providing the attribute
+	 * @param id ID_HD of the program
+	 * @param attributeToSearch Attribute name to search for
+	 * @return ResourceObject for the matched program, null if not found
+	 * @throws Exception
+	 */
+	private ResourceObject lookupProgramObject(final String id, String attributeToSearch) throws Exception {
 		
 		ResourceObject object = null;
 
-		if (idToObjectTypeMap.get(id) == null
-				|| (idToObjectTypeMap.get(id) != null && idToObjectTypeMap.get(id).equals(RESOURCE_TYPE))) {
-
-			if (isSingleProfile) {
-				
-				object = queryForProgram(singleProfile, id);
-
-			} else {
-
-				List<String> profilesToLook = resAttributeToProfileMap.get(attributeToSearch.toLowerCase());
-				if (profilesToLook == null) {
-					LOG.error(String.format("Attribute [%s] isn't provided by any domain", attributeToSearch));
-					return null;
-				}
-
-				for (String profileName : profilesToLook) {
-					ResourceDBProfile dbProfile = profiles.get(profileName);
-
-					LOG.info(String.format("Attribute [%s] should be found in domain [%s]. Attemp to query...",attributeToSearch, dbProfile.getName()));
+		if (isSingleProfile) {
+			
+			object = queryForProgram(singleProfile, id);
 
-					object = queryForProgram(dbProfile, id);
+		} else {
 
-					if (object != null) {
-						break;
-					}
-				}
+			List<ResourceDBProfile> profilesToLook = getProfilesToLook(progAttributeToProfileMap, attributeToSearch);
+			if (profilesToLook.isEmpty()) {
+				LOG.error(String.format("Attribute [%s] isn't provided by any domain", attributeToSearch));
+				return null;
 			}
-		} else {
-			LOG.error(String.format("Type cannot be found for ID [%s]", id));
+
+			// the domains are queried at the same time, the first domain in order having the program wins
+			object = profileLookup.queryFirst(profilesToLook,
+					new ParallelProfileLookup.Query<ResourceDBProfile, ResourceObject>() {
+						@Override
+						public ResourceObject query(ResourceDBProfile dbProfile) throws Exception {
+							return queryForProgram(dbProfile, id);
+						}
+					});
 		}
 
 		if (object == null) {
@@ -923,40 +1291,83 @@ public class DBResouceProvider implements Provider {
 	}
 	
 	/**
-	 * Query for a program with HD_ID and store in into the cache store
+	 * Query for a program with HD_ID and store in into the cache store. Concurrent misses of the same profile are
+	 * resolved together by one query
 	 * @param dbProfile DBProfile
 	 * @param resId Program HD_ID
 	 * @return ResourceObject which matched the given resource ID
+	 * @throws Exception
+	 */
+	private ResourceObject queryForProgram(ResourceDBProfile dbProfile, String resId) throws Exception {
+
+		long startTime = System.nanoTime();
+
+		try {
+			return getProgramBatcher(dbProfile).get(resId);
+		} finally {
+			progQueryLatency.record(System.nanoTime() - startTime);
+		}
+	}
+
+	/**
+	 * Retrieve the program miss batcher of the profile
+	 * @param dbProfile DBProfile
+	 * @return MissBatcher querying the programs of the profile
+	 */
+	private MissBatcher<ResourceObject> getProgramBatcher(final ResourceDBProfile dbProfile) {
+
+		MissBatcher<ResourceObject> batcher = progBatchers.get(dbProfile.getName());
+
+		if (batcher == null) {
+			batcher = new MissBatcher<ResourceObject>(new MissBatcher.BatchQuery<ResourceObject>() {
+				@Override
+				public Map<String, ResourceObject> query(List<String> keys) throws Exception {
+					return queryForPrograms(dbProfile, keys);
+				}
+			}, missBatchWindow, missBatchMaxKeys);
+
+			MissBatcher<ResourceObject> existing = progBatchers.putIfAbsent(dbProfile.getName(), batcher);
+			if (existing != null) {
+				batcher = existing;
+			}
+		}
+
+		return batcher;
+	}
+
+	/**
+	 * Query for programs with a list of HD_ID in one IN query and store them into the cache store
+	 * @param dbProfile DBProfile
+	 * @param resIds Program HD_IDs
+	 * @return HD_ID to ResourceObject
 	 * @throws NamingException
 	 * @throws SQLException
 	 */
-	private ResourceObject queryForProgram(ResourceDBProfile dbProfile, String resId)
+	private Map<String, ResourceObject> queryForPrograms(ResourceDBProfile dbProfile, List<String> resIds)
 			throws NamingException, SQLException {
 
-		ResourceObject resObj = null;
+		Map<String, ResourceObject> resObjs = new TreeMap<String, ResourceObject>(String.CASE_INSENSITIVE_ORDER);
 		
 		long startTime = System.currentTimeMillis();
 
-		try (Connection con = getConnectionFromPool();
-				PreparedStatement pst = con.prepareStatement(PROGRAM_SQL_QUERY_WITH_CONDITION.toString(), ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);) {
-			pst.setString(1, resId);
+		try (Connection con = getConnectionFromPool(dbProfile);
+				PreparedStatement pst = HikariCPDataSource.prepareStreamingStatement(con,
+						PROGRAM_SQL_QUERY_WITH_IN_CONDITION + HikariCPDataSource.inList(missBatchMaxKeys)
+								+ GroupedResultSetReader.orderBy(dbProfile.getProgKeyColumns()), fetchSize);) {
+			HikariCPDataSource.setInListParameters(pst, resIds, missBatchMaxKeys);
 			try (ResultSet rs = pst.executeQuery()) {
-				while (rs.next()) {
+				GroupedResultSetReader reader = new GroupedResultSetReader(rs, dbProfile.getProgKeyColumns());
+				while (reader.hasGroup()) {
+
+					String idHd = reader.getString("ID_HD");
 
-					resObj = produceProgram(rs, dbProfile);
+					ResourceObject resObj = produceProgram(reader, dbProfile);
 
-					// write user to cache
+					// write program to cache, under each of its key values
 					ResourceCacheEngine.getInstance().writeObjectToProgramCache(resObj);
 
-					// update identifier map
-					for (String key : dbProfile.getKeyAttributes()) {
-						if (resObj.getAttribute(key.toLowerCase()) != null
-								&& resObj.getAttribute(key.toLowerCase()).getValue() != null) {
-							ResourceCacheEngine.getInstance().addProgIdentifier(
-									(String) resObj.getAttribute(key.toLowerCase()).getValue(), resObj.getId());
-							idToObjectTypeMap.put((String) resObj.getAttribute(key.toLowerCase()).getValue(),
-									RESOURCE_TYPE);
-						}
+					if (idHd != null) {
+						resObjs.put(idHd, resObj);
 					}
 				}
 			}
@@ -965,100 +1376,59 @@ public class DBResouceProvider implements Provider {
 
 		long endTime = System.currentTimeMillis();
 
-		LOG.info(String.format("Query for Item [%s] took %dms", resId, (endTime - startTime)));
+		// a batch carries up to miss_batch_max_keys ids, they are only listed at debug
+		LOG.info(String.format("Query for [%d] Program(s) took %dms", resIds.size(), (endTime - startTime)));
+		if (LOG.isDebugEnabled()) {
+			LOG.debug(String.format("Program(s) queried %s", resIds));
+		}
 
-		return resObj;
+		return resObjs;
 	}
 	
 	/**
 	 * Produce a ResourceObject from PROGHD table
-	 * @param rs Resultset contain the main entry
+	 * @param reader Reader positioned on the group of rows of the main entry, moved to the next group on return
 	 * @param profile  ResourceDBProfile for the profile
 	 * @return A ResourceObject 
 	 * @throws NamingException
 	 * @throws SQLException
 	 */
-	private ResourceObject produceProgram(ResultSet rs, ResourceDBProfile profile) throws NamingException, SQLException {
+	private ResourceObject produceProgram(GroupedResultSetReader reader, ResourceDBProfile profile) throws NamingException, SQLException {
 
 		ResourceObject resObj = null;
 
 		String[] ids = new String[profile.getProgKeyAttributes().size()];
+		String[] keyValues = new String[profile.getProgKeyAttributes().size()];
 
 		for (int i = 0; i < profile.getProgKeyAttributes().size(); i++) {
 
 			String keyAttributeName = profile.getProgKeyAttributes().get(i);
 
-			String temp = rs.getString(profile.getProgKeyAtttributeDBColumnName(profile.getProgKeyAttributes().get(i)));
-			if (temp == null) {
+			keyValues[i] = reader.getString(profile.getProgKeyAtttributeDBColumnName(keyAttributeName));
+			if (keyValues[i] == null) {
 				ids[i] = "UNDEFINED";
 			} else {
-					ids[i] = temp;
-
-					if (!profile.isProgKeyCaseSensitive(keyAttributeName)) {
-						ids[i] = ids[i].toLowerCase();
-					}
+				ids[i] = (profile.isProgKeyCaseSensitive(keyAttributeName)) ? keyValues[i] : keyValues[i].toLowerCase();
 			}
 		}
 
 		String resId = Util.makeCombinedID(profile.getName(), ids);
 
-		resObj = new ResourceObject(profile.getName(), resId, RESOURCE_TYPE);
-
-		Set<String> sValues = new TreeSet<>();
+		resObj = new ResourceObject(attributeSchema, profile.getName(), resId, RESOURCE_TYPE);
 
 		// process attributes to pull
-		for (String attributeName: profile.getProgAttributesToPull()) {
-
-			String temp = rs.getString(profile.getProgAttributeDBColumnName(attributeName));
-
-			if (!profile.isProgMultiAttribute(attributeName)) {
-				resObj.addAttribute(attributeName.toLowerCase(),(temp == null) ? EvalValue.NULL : EvalValue.build(temp));
-			} else {
-
-				if (temp == null && rs.isLast()) {
-					resObj.addAttribute(attributeName.toLowerCase(), EvalValue.build(Multivalue.EMPTY));
-				} else {
-					
-					int iCurrentRow = rs.getRow();
-
-					sValues.clear();
-					
-					temp = rs.getString(profile.getProgAttributeDBColumnName(attributeName));
-					
-					if (temp != null && temp.length() > 0) {
-						sValues.add(temp.trim());
-					}
-
-					while (rs.next()) {
-						temp = rs.getString(profile.getProgAttributeDBColumnName(attributeName));
-						if (temp != null && temp.length() > 0) {
-							sValues.add(temp.trim());
-						}
-					}
-					
-					rs.absolute(iCurrentRow);
-
-					if (sValues.size() > 0) {
-						resObj.addAttribute(attributeName.toLowerCase(), EvalValue.build(Multivalue.create(sValues)));
-					} else {
-						resObj.addAttribute(attributeName.toLowerCase(), EvalValue.build(Multivalue.EMPTY));
-					}
-				}
-			}
-
-		}
+		resObj.addAttributes(reader.readGroup(profile.getProgAttributesToPull(), profile.getProgAttributesColumnNameMap(),
+				profile.getProgAttributesCardinalityMap()));
 
 		// process key attributes
 		for (int i = 0; i < profile.getProgKeyAttributes().size(); i++) {
-			String attributeName = profile.getKeyAttributes().get(i);
+			String attributeName = profile.getProgKeyAttributes().get(i);
 
-			String temp = rs.getString(profile.getProgKeyAtttributeDBColumnName(attributeName));
-			
-			if (temp != null) {
+			if (keyValues[i] != null) {
 				
 				resObj.addAttribute(attributeName.toLowerCase(),
-						EvalValue.build((profile.isKeyCaseSensitive(attributeName)) ? temp.toString()
-								: temp.toString().toLowerCase()));
+						EvalValue.build((profile.isProgKeyCaseSensitive(attributeName)) ? keyValues[i]
+								: keyValues[i].toLowerCase()));
 			}
 		}
 		
@@ -5,13 +5,22 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.naming.NamingException;
 
@@ -19,13 +28,22 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import com.bluejungle.framework.expressions.EvalValue;
-import com.bluejungle.framework.expressions.Multivalue;
+import com.nextlabs.cache.IdentifierExtractor;
+import com.nextlabs.cache.QueryCoalescer;
 import com.nextlabs.cache.UserCacheEngine;
+import com.nextlabs.cache.UserCacheGeneration;
+import com.nextlabs.common.AttributeSchema;
 import com.nextlabs.common.Provider;
 import com.nextlabs.common.ResourceObject;
 import com.nextlabs.common.UserObject;
 import com.nextlabs.common.Util;
 import com.nextlabs.exception.InvalidProfileException;
+import com.nextlabs.metrics.LatencyHistogram;
+import com.nextlabs.metrics.MetricsRegistry;
+import com.nextlabs.metrics.RefreshHistory;
+import com.nextlabs.metrics.RefreshMetrics;
+import com.nextlabs.metrics.RefreshReport;
+import com.nextlabs.metrics.RefreshStage;
 	
 /**
  * Class the implement the detail for fetching data from user database
@@ -39,25 +57,62 @@ public class DBUserProvider implements Provider {
 	private Map<String, UserDBProfile> profiles;
 	private UserDBProfile singleProfile;
 	private Map<String, List<String>> userAttributeToProfileMap;
+	private Map<String, List<String>> linkAttributeToProfileMap;
 	private boolean isSingleProfile;
-	private Map<String, String> idToObjectTypeMap;
+	private AttributeSchema attributeSchema;
 	private final String USER_TYPE = "user";
 	private int numberOfRetries;
 	private int intervalBetweenRetries;
-	private Boolean isRefreshing;
+	private volatile Boolean isRefreshing;
+	private final AtomicLong refreshedObjects;
 	private static Properties commonProp;
-	private static HikariCPDataSource ds;
-	private static String mainSQLQuery = "SELECT A.ID , B.LOGID, ## FROM USRPD A LEFT join USRAT_APLO B ON A.ID = B.ID_USRPD";
-	private static String singleUserSQLQuery = "SELECT A.ID, B.LOGID, ## FROM USRPD A LEFT join USRAT_APLO B ON A.ID = B.ID_USRPD  WHERE LogonID = ? OR LogID = ?";
-	private static final String SQL_LINK_QUERY = "SELECT PROGK, PROGN, PROVS FROM PROGHD A INNER JOIN USRAT_PROGT B ON A.ID_HD = B.ID_HD WHERE B.ID = ?";
+	private final ParallelProfileLookup profileLookup;
+	private final QueryCoalescer<UserObject> userQueries;
+	private ChangePoller changes;
+	private int refreshParallelism;
+	private int fetchSize;
+	private final LatencyHistogram userQueryLatency;
+	private final ConcurrentMap<String, RefreshMetrics> refreshMetrics;
+	private final RefreshHistory refreshHistory;
+	private static final String MAIN_SQL_QUERY = "SELECT A.ID , B.LOGID, ## FROM USRPD A LEFT join USRAT_APLO B ON A.ID = B.ID_USRPD";
+	private static final String SINGLE_USER_SQL_QUERY = "SELECT A.ID, B.LOGID, ## FROM USRPD A LEFT join USRAT_APLO B ON A.ID = B.ID_USRPD  WHERE LogonID = ? OR LogID = ?";
+	private static final String USERS_BY_ID_SQL_QUERY = "SELECT A.ID, B.LOGID, ## FROM USRPD A LEFT join USRAT_APLO B ON A.ID = B.ID_USRPD WHERE A.ID IN ";
+	private static final String SQL_LINK_QUERY = "SELECT B.ID AS ID_USRPD, PROGK, PROGN, PROVS FROM PROGHD A INNER JOIN USRAT_PROGT B ON A.ID_HD = B.ID_HD WHERE B.ID = ?";
+	private static final String USER_CHANGES = "user";
+	private static final String USER_PARTITION_SQL_QUERY = "SELECT [ID] FROM USRPD";
+	private static final int DEFAULT_REFRESH_PARALLELISM = 1;
+	private static final int CONNECTIONS_PER_RANGE = 2;
+	// number of users queried again in one IN query by the delta refresh
+	private static final int DELTA_BATCH_KEYS = 500;
+	// Change Tracking only keeps the primary key of the changed rows: ID of USRPD and USRAT_PROGT, ID_USRPD of
+	// USRAT_APLO and ID_HD of PROGHD. Users are queried again by USRPD ID
+	private static final List<ChangePoller.TrackedTable> TRACKED_TABLES = Arrays.asList(
+			new ChangePoller.TrackedTable(USER_CHANGES, "USRPD",
+					"SELECT CT.ID FROM CHANGETABLE(CHANGES USRPD, ?) CT",
+					"SELECT A.ID FROM USRPD A WHERE A.## > CAST(? AS BINARY(8))"),
+			new ChangePoller.TrackedTable(USER_CHANGES, "USRAT_APLO",
+					"SELECT CT.ID_USRPD FROM CHANGETABLE(CHANGES USRAT_APLO, ?) CT",
+					"SELECT B.ID_USRPD FROM USRAT_APLO B WHERE B.## > CAST(? AS BINARY(8))"),
+			new ChangePoller.TrackedTable(USER_CHANGES, "USRAT_PROGT",
+					"SELECT CT.ID FROM CHANGETABLE(CHANGES USRAT_PROGT, ?) CT",
+					"SELECT B.ID FROM USRAT_PROGT B WHERE B.## > CAST(? AS BINARY(8))"),
+			new ChangePoller.TrackedTable(USER_CHANGES, "PROGHD",
+					"SELECT B.ID FROM CHANGETABLE(CHANGES PROGHD, ?) CT INNER JOIN USRAT_PROGT B ON B.ID_HD = CT.ID_HD",
+					"SELECT B.ID FROM PROGHD A INNER JOIN USRAT_PROGT B ON B.ID_HD = A.ID_HD WHERE A.## > CAST(? AS BINARY(8))"));
 
 	/**
 	 * Constructor for DBUserProvider
 	 */
 	public DBUserProvider() {
 		userAttributeToProfileMap = new HashMap<String, List<String>>();
-		idToObjectTypeMap = new ConcurrentHashMap<String, String>();
+		linkAttributeToProfileMap = new HashMap<String, List<String>>();
+		profileLookup = new ParallelProfileLookup("UserLookup");
+		userQueries = new QueryCoalescer<UserObject>();
+		userQueryLatency = MetricsRegistry.register("Latency", "QueryForUser", new LatencyHistogram());
+		refreshMetrics = new ConcurrentHashMap<String, RefreshMetrics>();
+		refreshHistory = MetricsRegistry.register("RefreshHistory", "User", new RefreshHistory());
 		isRefreshing = false;
+		refreshedObjects = new AtomicLong();
 	}
 
 	/**
@@ -97,49 +152,130 @@ public class DBUserProvider implements Provider {
 	}
 
 	/**
-	 * Retrieve profile from the provider
-	 * @return UserDBProfile object
+	 * Retrieve the loaded profiles
+	 * @return UserDBProfile objects, the single profile or every profile of profile_names
 	 */
-	public UserDBProfile getProfile() {	
-		
-		if(isSingleProfile) {
-			return singleProfile;
-		}
-		else {
-			//TODO return matching profile
-			return null;
+	public List<UserDBProfile> getProfiles() {
+
+		if (isSingleProfile) {
+			return (singleProfile == null) ? Collections.<UserDBProfile> emptyList()
+					: Collections.singletonList(singleProfile);
 		}
-		
+
+		return new ArrayList<UserDBProfile>(profiles.values());
+	}
+
+	/**
+	 * Check if a user attribute is provided by a profile
+	 * @param attribute Attribute name
+	 * @return true if a profile pulls the attribute from USRPD or from the linked programs
+	 */
+	public boolean providesAttribute(String attribute) {
+		return userAttributeToProfileMap.containsKey(attribute.toLowerCase()) || isLinkAttribute(attribute);
+	}
+
+	/**
+	 * Check if a user attribute comes from the linked programs
+	 * @param attribute Attribute name
+	 * @return true if a profile pulls the attribute from PROGHD
+	 */
+	public boolean isLinkAttribute(String attribute) {
+		return linkAttributeToProfileMap.containsKey(attribute.toLowerCase());
 	}
 	
 	/**
-	 * Initialize of the Database connection pool
+	 * Initialize the Database connection pool of every valid profile
+	 */
+	public void initDBConnetionPools() {
+
+		for (UserDBProfile profile : getProfiles()) {
+
+			if (!profile.getIsValid()) {
+				continue;
+			}
+
+			// a range of the refresh holds the user query and the link query of the current user
+			int refreshConnections = refreshParallelism * CONNECTIONS_PER_RANGE;
+			if (profile.getPoolSize() < refreshConnections) {
+				LOG.error(String.format(
+						"database_pool_size [%d] of domain [%s] is below the [%d] connections of a full refresh with refresh_parallelism [%d], the ranges wait on the pool and may time out",
+						profile.getPoolSize(), profile.getName(), refreshConnections, refreshParallelism));
+			}
+
+			if (profile.getDataSource() != null) {
+				profile.getDataSource().close();
+			}
+
+			profile.setDataSource(new HikariCPDataSource(profile));
+
+			LOG.debug(String.format("Main SQL Query of domain [%s] is %s", profile.getName(),
+					getSQLQuery(MAIN_SQL_QUERY, profile)));
+		}
+	}
+
+	/**
+	 * Build a user query of a profile
+	 * @param sql User query with ## in place of the attribute columns
 	 * @param profile UserDBProfile
+	 * @return User query pulling the attribute columns of the profile
 	 */
-	public void initDBConnetionPool(UserDBProfile profile) {
-		
-		ds = new HikariCPDataSource(profile);
-		
-		String sQueryColumn = getQueryColumn(profile);
-		
-		mainSQLQuery = mainSQLQuery.replaceAll("##", sQueryColumn);
-		
-		LOG.debug("Main SQL Query is " + mainSQLQuery);
-		
-		singleUserSQLQuery = singleUserSQLQuery.replaceAll("##", sQueryColumn);
+	private String getSQLQuery(String sql, UserDBProfile profile) {
+		return sql.replace("##", getQueryColumn(profile));
 	}
 	
 	/**
-	 * Retrieve connection from DB connection pool
+	 * Set the key attribute values a user is stored under in the cache, using the key attributes of the profile of
+	 * each user
+	 */
+	public void registerIdentifiers() {
+
+		boolean anyCaseSensitive = false;
+		for (UserDBProfile dbProfile : getProfiles()) {
+			anyCaseSensitive |= dbProfile.getAttributesKeyCaseSensitiveMap().containsValue(true);
+		}
+
+		final boolean caseSensitive = anyCaseSensitive;
+
+		UserCacheEngine.getInstance().setIdentifierExtractor(new IdentifierExtractor<UserObject>() {
+			@Override
+			public List<String> getIdentifiers(UserObject user) {
+
+				List<String> ids = new ArrayList<String>();
+				UserDBProfile dbProfile = isSingleProfile ? singleProfile : profiles.get(user.getDomain());
+
+				if (dbProfile != null) {
+					for (String key : dbProfile.getKeyAttributes()) {
+						if (user.getAttribute(key.toLowerCase()) != null
+								&& user.getAttribute(key.toLowerCase()).getValue() != null) {
+							String id = (String) user.getAttribute(key.toLowerCase()).getValue();
+							ids.add(id);
+						}
+					}
+				}
+
+				return ids;
+			}
+
+			@Override
+			public boolean isCaseSensitive() {
+				return caseSensitive;
+			}
+		});
+	}
+	
+	/**
+	 * Retrieve connection from the DB connection pool of a profile. Not synchronized, the pool hands out connections
+	 * to concurrent callers on its own
+	 * @param profile UserDBProfile owning the pool
 	 * @return A DB connection from the pool, null if the pool is not initialized.
 	 * @throws SQLException Database Exception
 	 */
-	public synchronized Connection getConnectionFromPool() throws SQLException {
+	public Connection getConnectionFromPool(UserDBProfile profile) throws SQLException {
 		
-		if (ds!=null)
-			return ds.getConnection();
+		if (profile.getDataSource() != null)
+			return profile.getDataSource().getConnection();
 		
-		LOG.error("Datasource is null and not initliazed");
+		LOG.error(String.format("Datasource of domain [%s] is null and not initliazed", profile.getName()));
 		
 		return null;
 	}
@@ -148,47 +284,86 @@ public class DBUserProvider implements Provider {
 	 * @see com.nextlabs.common.Provider#getUserObject(java.lang.String, java.lang.String)
 	 */
 	@Override
-	public UserObject getUserObject(String id, String attributeToSearch) throws SQLException, NamingException {
+	public UserObject getUserObject(final String id, final String attributeToSearch) throws Exception {
+
+		// concurrent misses for the same uid share one query
+		return userQueries.query(id, new Callable<UserObject>() {
+			@Override
+			public UserObject call() throws Exception {
+				// another caller may have loaded the user while we were waiting
+				UserObject cached = UserCacheEngine.getInstance().getUserObjectFromCache(id);
+				return (cached != null) ? cached : lookupUserObject(id, attributeToSearch);
+			}
+		});
+	}
+
+	/**
+	 * Query the user from the profile(s) providing the attribute
+	 * @param id ID of the user
+	 * @param attributeToSearch Attribute name to search for
+	 * @return UserObject for the matched user, null if not found
+	 * @throws Exception
+	 */
+	private UserObject lookupUserObject(final String id, String attributeToSearch) throws Exception {
 
 		UserObject object = null;
 
-		if (idToObjectTypeMap.get(id) == null
-				|| (idToObjectTypeMap.get(id) != null && idToObjectTypeMap.get(id).equals(USER_TYPE))) {
+		if (isSingleProfile) {
+			
+			object = queryForUser(singleProfile, id);
 
-			if (isSingleProfile) {
-				
-				object = queryForUser(singleProfile, id);
+		} else {
 
-			} else {
+			List<UserDBProfile> profilesToLook = getProfilesToLook(attributeToSearch);
+			if (profilesToLook.isEmpty()) {
+				LOG.error(String.format("Attribute [%s] isn't provided by any domain", attributeToSearch));
+				return null;
+			}
 
-				List<String> profilesToLook = userAttributeToProfileMap.get(attributeToSearch.toLowerCase());
-				if (profilesToLook == null) {
-					LOG.error(String.format("Attribute [%s] isn't provided by any domain", attributeToSearch));
-					return null;
-				}
+			// the domains are queried at the same time, the first domain in order having the user wins
+			object = profileLookup.queryFirst(profilesToLook,
+					new ParallelProfileLookup.Query<UserDBProfile, UserObject>() {
+						@Override
+						public UserObject query(UserDBProfile dbProfile) throws Exception {
+							return queryForUser(dbProfile, id);
+						}
+					});
+		}
 
-				for (String profileName : profilesToLook) {
-					UserDBProfile dbProfile = profiles.get(profileName);
+		if (object == null) {
+			LOG.error(String.format("Object [%s] cannot be queried from DB", id));
+		}
 
-					LOG.info(String.format("Attribute [%s] should be found in domain [%s]. Attemp to query...",
-							attributeToSearch, dbProfile.getName()));
+		return object;
+	}
 
-					object = queryForUser(dbProfile, id);
+	/**
+	 * Retrieve the valid profiles providing an attribute, in the order of profile_names
+	 * @param attributeToSearch Attribute name to search for
+	 * @return UserDBProfile objects, empty if no profile provides the attribute
+	 */
+	private List<UserDBProfile> getProfilesToLook(String attributeToSearch) {
 
-					if (object != null) {
-						break;
-					}
-				}
-			}
-		} else {
-			LOG.error(String.format("Type cannot be found for ID [%s]", id));
+		List<UserDBProfile> profilesToLook = new ArrayList<UserDBProfile>();
+		List<String> profileNames = userAttributeToProfileMap.get(attributeToSearch.toLowerCase());
+
+		if (profileNames == null) {
+			profileNames = linkAttributeToProfileMap.get(attributeToSearch.toLowerCase());
 		}
 
-		if (object == null) {
-			LOG.error(String.format("Object [%s] cannot be queried from DB", id));
+		if (profileNames != null) {
+			for (String profileName : profileNames) {
+				UserDBProfile dbProfile = profiles.get(profileName);
+
+				if (dbProfile != null && dbProfile.getIsValid()) {
+					LOG.info(String.format("Attribute [%s] should be found in domain [%s]. Attemp to query...",
+							attributeToSearch, dbProfile.getName()));
+					profilesToLook.add(dbProfile);
+				}
+			}
 		}
 
-		return object;
+		return profilesToLook;
 	}
 
 	/**
@@ -203,37 +378,30 @@ public class DBUserProvider implements Provider {
 
 		UserObject user = null;
 		
-		long startTime = System.currentTimeMillis();
+		long startTime = System.nanoTime();
 
-		try (Connection con = getConnectionFromPool();
-				PreparedStatement pst = con.prepareStatement(singleUserSQLQuery, ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);) {
+		try (Connection con = getConnectionFromPool(dbProfile);
+				PreparedStatement pst = HikariCPDataSource.prepareStreamingStatement(con,
+						getSQLQuery(SINGLE_USER_SQL_QUERY, dbProfile) + GroupedResultSetReader.orderBy(dbProfile.getKeyColumns()), fetchSize);) {
 			pst.setString(1, userId);
 			pst.setString(2, userId);
 			try (ResultSet rs = pst.executeQuery()) {
-				while (rs.next()) {
+				GroupedResultSetReader reader = new GroupedResultSetReader(rs, dbProfile.getKeyColumns());
+				while (reader.hasGroup()) {
 
-					user = produceUser(rs, dbProfile);
+					user = produceUser(reader, dbProfile);
 
-					// write user to cache
+					// write user to cache, under each of its key values
 					UserCacheEngine.getInstance().writeObjectToUserCache(user);
-
-					// update identifier map
-					for (String key : dbProfile.getKeyAttributes()) {
-						if (user.getAttribute(key.toLowerCase()) != null
-								&& user.getAttribute(key.toLowerCase()).getValue() != null) {
-							UserCacheEngine.getInstance().addIdentifier(
-									(String) user.getAttribute(key.toLowerCase()).getValue(), user.getId());
-							idToObjectTypeMap.put((String) user.getAttribute(key.toLowerCase()).getValue(), USER_TYPE);
-						}
-					}
 				}
 			}
 
+		} finally {
+			userQueryLatency.record(System.nanoTime() - startTime);
 		}
 
-		long endTime = System.currentTimeMillis();
-
-		LOG.info(String.format("Query for user [%s] took %dms", userId, (endTime - startTime)));
+		LOG.info(String.format("Query for user [%s] took %dms", userId,
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime)));
 
 		return user;
 	}
@@ -249,25 +417,52 @@ public class DBUserProvider implements Provider {
 		if (!commonProp.getProperty("refresh","false").equalsIgnoreCase("false")) {
 
 			isRefreshing = true;
+			refreshedObjects.set(0);
 
 			long startTime = System.currentTimeMillis();
 			int count = 0;
 
+			// rows changed while the tables are loaded are applied again by the next delta refresh
+			Map<String, Long> changeVersions = readChangeVersions();
+			RefreshReport report;
+			boolean succeeded = false;
+
 			while (true) {
+				// build the new generation off to the side, readers keep using the current one until it is published
+				UserCacheGeneration generation = UserCacheEngine.getInstance().newGeneration();
+
+				// the stages of a failed attempt are not kept, the report covers the last attempt
+				report = new RefreshReport("User");
+
 				try {
 					if (isSingleProfile) {
-						refreshProfile(singleProfile);
+						refreshProfile(singleProfile, generation, report);
 					} else {
 						for (UserDBProfile dbProfile : profiles.values()) {
-							refreshProfile(dbProfile);
+							refreshProfile(dbProfile, generation, report);
 						}
 					}
+
+					long publishTime = System.nanoTime();
+					UserCacheEngine.getInstance().publishGeneration(generation);
+					report.getStage("Publish").record(refreshedObjects.get(), System.nanoTime() - publishTime, 0);
+					succeeded = true;
+
+					for (Map.Entry<String, Long> changeVersion : changeVersions.entrySet()) {
+						changes.setBaseline(changeVersion.getKey(), changeVersion.getValue());
+					}
+
+					long snapshotTime = System.nanoTime();
+					UserCacheEngine.getInstance().saveSnapshot();
+					report.getStage("Snapshot").record(refreshedObjects.get(), System.nanoTime() - snapshotTime, 0);
 					break;
 
 				} catch (Exception e) {
 
 					LOG.error("Cache refresh encountered an exception.", e);
 
+					UserCacheEngine.getInstance().discardGeneration(generation);
+
 					if (count++ == numberOfRetries) {
 						LOG.error(String.format("Attempted [%d] retries without success.", numberOfRetries));
 						break;
@@ -286,8 +481,12 @@ public class DBUserProvider implements Provider {
 
 			isRefreshing = false;
 
+			report.finish(refreshedObjects.get(), count + 1, succeeded);
+			refreshHistory.add(report);
+
 			LOG.info("Cache refresh completed");
 			LOG.info("Time Taken: " + Long.toString((endTime - startTime)) + "ms");
+			LOG.info(report);
 
 		}
 		else{
@@ -295,12 +494,177 @@ public class DBUserProvider implements Provider {
 		}
 	}
 	
+	/**
+	 * Check if the user tables are polled for changes between two full refresh
+	 * @return true if delta_refresh_mode is set
+	 */
+	public boolean isDeltaRefreshEnabled() {
+		return changes != null && changes.isEnabled();
+	}
+
+	/**
+	 * Interval between two delta refresh
+	 * @return Interval in seconds
+	 */
+	public int getDeltaRefreshInterval() {
+		return changes.getInterval();
+	}
+
+	/**
+	 * Query again the users changed since the last poll and write them into the current generation. Runs a full
+	 * refresh if the changes are no longer available
+	 */
+	public synchronized void refreshDelta() {
+
+		if (!isDeltaRefreshEnabled()) {
+			return;
+		}
+
+		long startTime = System.currentTimeMillis();
+		int count = 0;
+
+		// USRPD IDs are local to the database of a domain, the changed users are queried again in their own domain
+		for (UserDBProfile dbProfile : getProfiles()) {
+
+			if (!dbProfile.getIsValid()) {
+				continue;
+			}
+
+			Map<String, Set<String>> changedKeys;
+
+			try (Connection conn = getConnectionFromPool(dbProfile)) {
+				changedKeys = changes.poll(dbProfile.getName(), conn);
+			} catch (Exception e) {
+				LOG.error(String.format("Delta refresh is unable to poll the changes of domain [%s].", dbProfile.getName()), e);
+				continue;
+			}
+
+			if (changedKeys == null) {
+				LOG.warn("Changes since the last delta refresh are lost, running a full refresh");
+				refreshCache();
+				return;
+			}
+
+			Set<String> ids = changedKeys.get(USER_CHANGES);
+
+			try {
+				List<String> batch = new ArrayList<String>(DELTA_BATCH_KEYS);
+				for (String id : ids) {
+					batch.add(id);
+					if (batch.size() == DELTA_BATCH_KEYS) {
+						refreshUsers(dbProfile, batch);
+						batch.clear();
+					}
+				}
+				if (!batch.isEmpty()) {
+					refreshUsers(dbProfile, batch);
+				}
+
+				count += ids.size();
+
+			} catch (Exception e) {
+				LOG.error("Delta refresh encountered an exception, the changes are applied by the next full refresh.", e);
+			}
+		}
+
+		if (count > 0) {
+			LOG.info(String.format("Delta refresh updated [%d] users in %dms", count,
+					(System.currentTimeMillis() - startTime)));
+		}
+	}
+
+	/**
+	 * Read the current change version of the profile databases before a full refresh
+	 * @return Profile name to current version, empty if the delta refresh is disabled. A profile whose version cannot
+	 *         be read keeps its previous baseline
+	 */
+	private Map<String, Long> readChangeVersions() {
+
+		Map<String, Long> versions = new HashMap<String, Long>();
+
+		if (!isDeltaRefreshEnabled()) {
+			return versions;
+		}
+
+		for (UserDBProfile dbProfile : getProfiles()) {
+
+			if (!dbProfile.getIsValid()) {
+				continue;
+			}
+
+			try (Connection conn = getConnectionFromPool(dbProfile)) {
+				versions.put(dbProfile.getName(), changes.readCurrentVersion(conn));
+			} catch (Exception e) {
+				LOG.error(String.format(
+						"Unable to read the change version of domain [%s], the delta refresh keeps its previous baseline",
+						dbProfile.getName()), e);
+			}
+		}
+
+		return versions;
+	}
+
+	/**
+	 * Query again a batch of changed users, the users no longer found have been deleted and are removed from the cache
+	 * store under each of their key values
+	 * @param dbProfile DBProfile
+	 * @param ids USRPD IDs, at most DELTA_BATCH_KEYS
+	 * @throws NamingException
+	 * @throws SQLException
+	 */
+	private void refreshUsers(UserDBProfile dbProfile, List<String> ids) throws NamingException, SQLException {
+
+		Set<String> found = queryForUsers(dbProfile, ids);
+
+		for (String id : ids) {
+			if (!found.contains(id)) {
+				UserCacheEngine.getInstance().removeUserObject(dbProfile.getName(), id);
+			}
+		}
+	}
+
+	/**
+	 * Query for users with a list of USRPD ID in one IN query and store them into the cache store
+	 * @param dbProfile DBProfile
+	 * @param ids USRPD IDs, at most DELTA_BATCH_KEYS
+	 * @return USRPD IDs of the users found
+	 * @throws NamingException
+	 * @throws SQLException
+	 */
+	private Set<String> queryForUsers(UserDBProfile dbProfile, List<String> ids) throws NamingException, SQLException {
+
+		Set<String> found = new HashSet<String>();
+
+		try (Connection con = getConnectionFromPool(dbProfile);
+				PreparedStatement pst = HikariCPDataSource.prepareStreamingStatement(con,
+						getSQLQuery(USERS_BY_ID_SQL_QUERY, dbProfile) + HikariCPDataSource.inList(DELTA_BATCH_KEYS)
+								+ GroupedResultSetReader.orderBy(dbProfile.getKeyColumns()), fetchSize);) {
+			HikariCPDataSource.setInListParameters(pst, ids, DELTA_BATCH_KEYS);
+			try (ResultSet rs = pst.executeQuery()) {
+				GroupedResultSetReader reader = new GroupedResultSetReader(rs, dbProfile.getKeyColumns());
+				while (reader.hasGroup()) {
+
+					UserObject user = produceUser(reader, dbProfile);
+					found.add(user.getRowId());
+
+					// write user to cache, under each of its key values
+					UserCacheEngine.getInstance().writeObjectToUserCache(user);
+				}
+			}
+		}
+
+		return found;
+	}
+
 	/**
 	 * Reload the cache store which contain User 
 	 * @param dbProfile UserDBProfile
-	 * @throws NamingException
+	 * @param generation Cache generation being built by the refresh
+	 * @param report Report of the refresh
+	 * @throws Exception
 	 */
-	private void refreshProfile(UserDBProfile dbProfile) throws NamingException {
+	private void refreshProfile(UserDBProfile dbProfile, UserCacheGeneration generation, RefreshReport report)
+			throws Exception {
 		LOG.info(String.format("Started refreshing domain [%s]", dbProfile.getName()));
 
 		if (!dbProfile.getIsValid()) {
@@ -308,142 +672,184 @@ public class DBUserProvider implements Provider {
 			return;
 		}
 
-		try (Connection conn = getConnectionFromPool()) {
-			refreshUser(dbProfile, conn);
-		} catch (SQLException e) {
-			e.printStackTrace();
-			LOG.error(e);
-		}
+		// a failure is propagated so the partial generation is discarded instead of published
+		refreshUser(dbProfile, generation, report);
 	}
 	
 	/**
-	 * Reload the user object in cache store
+	 * Reload the user object in cache store, the USRPD ID ranges are loaded concurrently
+	 * @param dbProfile UserDBProfile
+	 * @param generation Cache generation being built by the refresh
+	 * @param report Report of the refresh
+	 * @throws Exception
+	 */
+	private void refreshUser(final UserDBProfile dbProfile, final UserCacheGeneration generation,
+			final RefreshReport report) throws Exception {
+
+		long startTime = System.currentTimeMillis();
+		List<KeyRange> ranges;
+
+		// the rows of a user share the same USRPD ID so a user never spans two ranges. The sampling connection goes
+		// back to the pool before the ranges take theirs
+		try (Connection conn = getConnectionFromPool(dbProfile)) {
+			ranges = KeyRange.sample(conn, USER_PARTITION_SQL_QUERY, "ID", refreshParallelism);
+		}
+
+		int count = PartitionedLoader.loadAll(String.format("users of domain [%s]", dbProfile.getName()), ranges,
+				new PartitionedLoader.Partition() {
+					@Override
+					public int load(KeyRange range) throws Exception {
+						return refreshUser(dbProfile, range, generation, report);
+					}
+				});
+
+		long duration = System.currentTimeMillis() - startTime;
+		getRefreshMetrics("USRPD", dbProfile).record(count, duration);
+
+		LOG.info(String.format("Refreshed [%d] users for domain [%s] in [%d] partition(s) in %dms", count,
+				dbProfile.getName(), ranges.size(), duration));
+	}
+
+	/**
+	 * Retrieve the refresh metrics of a table of a domain, registered the first time the table is refreshed
+	 * @param table Main table of the refreshed objects
 	 * @param dbProfile UserDBProfile
-	 * @param conn DB Connection
+	 * @return Refresh metrics of the table
+	 */
+	private RefreshMetrics getRefreshMetrics(String table, UserDBProfile dbProfile) {
+
+		String name = table + "-" + dbProfile.getName();
+		RefreshMetrics metrics = refreshMetrics.get(name);
+
+		if (metrics == null) {
+			RefreshMetrics created = new RefreshMetrics();
+			metrics = refreshMetrics.putIfAbsent(name, created);
+			if (metrics == null) {
+				metrics = MetricsRegistry.register("Refresh", name, created);
+			}
+		}
+
+		return metrics;
+	}
+
+	/**
+	 * Reload the user object of a USRPD ID range
+	 * @param dbProfile UserDBProfile
+	 * @param range Range of USRPD ID
+	 * @param generation Cache generation being built by the refresh
+	 * @param report Report of the refresh
+	 * @return Number of users loaded
 	 * @throws NamingException
 	 * @throws SQLException
 	 */
-	private void refreshUser(UserDBProfile dbProfile, Connection conn) throws NamingException, SQLException {
+	private int refreshUser(UserDBProfile dbProfile, KeyRange range, UserCacheGeneration generation,
+			RefreshReport report) throws NamingException, SQLException {
 
 		UserObject user = null;
+		int count = 0;
+		long startTime = System.nanoTime();
+		long startCpuTime = RefreshReport.currentThreadCpuTime();
+		long writeNanos = 0;
+		// the link query runs once per user, its time is added to the report once the range is loaded
+		RefreshStage links = new RefreshStage("USRAT_PROGT/PROGHD-" + dbProfile.getName());
 		
-		try (Connection con = getConnectionFromPool();
-				PreparedStatement pst = con.prepareStatement(mainSQLQuery.toString(), ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
-				ResultSet rs = pst.executeQuery();) {
-			while (rs.next()) {
+		try (Connection con = getConnectionFromPool(dbProfile);
+				PreparedStatement pst = HikariCPDataSource.prepareStreamingStatement(con,
+						range.restrict(getSQLQuery(MAIN_SQL_QUERY, dbProfile), "A.ID") + GroupedResultSetReader.orderBy(dbProfile.getKeyColumns()), fetchSize);) {
+			range.bind(pst, 1);
+			try (ResultSet rs = pst.executeQuery()) {
+				long queryNanos = System.nanoTime() - startTime;
+				GroupedResultSetReader reader = new GroupedResultSetReader(rs, dbProfile.getKeyColumns());
+				while (reader.hasGroup()) {
 
-				
-				user = produceUser(rs, dbProfile);
-				
-				// write user to cache
-				UserCacheEngine.getInstance().writeObjectToUserCache(user);
-				
-				// update identifier map
-				for (String key : dbProfile.getKeyAttributes()) {
-					if (user.getAttribute(key.toLowerCase()) != null
-							&& user.getAttribute(key.toLowerCase()).getValue() != null) {
-						UserCacheEngine.getInstance().addIdentifier(
-								(String) user.getAttribute(key.toLowerCase()).getValue(), user.getId());
-						idToObjectTypeMap.put((String) user.getAttribute(key.toLowerCase()).getValue(), USER_TYPE);
-					}
+					user = produceUser(reader, dbProfile, links);
+					count++;
+					
+					// write user to cache, under each of its key values
+					long writeTime = System.nanoTime();
+					generation.writeObjectToUserCache(user);
+					writeNanos += System.nanoTime() - writeTime;
+					refreshedObjects.incrementAndGet();
 				}
+
+				report.getStage("USRPD-" + dbProfile.getName()).record(reader.getRowCount(),
+						System.nanoTime() - startTime - writeNanos - links.getNanos(), queryNanos + reader.getFetchNanos());
+				report.getStage(links.getName()).record(links.getRows(), links.getNanos(), links.getWaitNanos());
+				report.getStage("UserCache-" + dbProfile.getName()).record(count, writeNanos, 0);
 			}
+		} finally {
+			report.recordThread(System.nanoTime() - startTime, RefreshReport.currentThreadCpuTime() - startCpuTime);
 		}
+
+		return count;
 	}
 
 	
 	/**
 	 * Produce a UserObject from multiple table
-	 * @param rs Resultset contain the main entry
+	 * @param reader Reader positioned on the group of rows of the main entry, moved to the next group on return
 	 * @param profile  UserDBProfile for the profile
 	 * @return A UserObject 
 	 * @throws NamingException
 	 * @throws SQLException
 	 */
-	private UserObject produceUser(ResultSet rs, UserDBProfile profile) throws NamingException, SQLException {
+	UserObject produceUser(GroupedResultSetReader reader, UserDBProfile profile) throws NamingException, SQLException {
+		return produceUser(reader, profile, null);
+	}
+
+	/**
+	 * Produce a UserObject from multiple table
+	 * @param reader Reader positioned on the group of rows of the main entry, moved to the next group on return
+	 * @param profile  UserDBProfile for the profile
+	 * @param links Refresh stage timing the link query, null outside a full refresh
+	 * @return A UserObject 
+	 * @throws NamingException
+	 * @throws SQLException
+	 */
+	private UserObject produceUser(GroupedResultSetReader reader, UserDBProfile profile, RefreshStage links)
+			throws NamingException, SQLException {
 
 		UserObject user = null;
 
 		String[] ids = new String[profile.getKeyAttributes().size()];
+		String[] keyValues = new String[profile.getKeyAttributes().size()];
 
 		for (int i = 0; i < profile.getKeyAttributes().size(); i++) {
 
 			String keyAttributeName = profile.getKeyAttributes().get(i);
 
-			String temp = rs.getString(profile.getKeyAtttributeDBColumnName(profile.getKeyAttributes().get(i)));
-			if (temp == null) {
+			keyValues[i] = reader.getString(profile.getKeyAtttributeDBColumnName(keyAttributeName));
+			if (keyValues[i] == null) {
 				ids[i] = "UNDEFINED";
 			} else {
-					ids[i] = temp;
-
-					if (!profile.isKeyCaseSensitive(keyAttributeName)) {
-						ids[i] = ids[i].toLowerCase();
-					}
+				ids[i] = (profile.isKeyCaseSensitive(keyAttributeName)) ? keyValues[i] : keyValues[i].toLowerCase();
 			}
 		}
 
 		String userId = Util.makeCombinedID(profile.getName(), ids);
 
-		user = new UserObject(profile.getName(), userId, USER_TYPE);
+		user = new UserObject(attributeSchema, profile.getName(), userId, USER_TYPE);
 
-		Set<String> sValues = new TreeSet<>();
+		// read the link value before the reader moves to the next group
+		String id = reader.getString("ID");
+		user.setRowId(id);
 
 		// process attributes to pull
-		for (String attributeName: profile.getAttributesToPull()) {
-
-			String temp = rs.getString(profile.getAttributeDBColumnName(attributeName));
-
-			if (!profile.isMultiAttribute(attributeName)) {
-				user.addAttribute(attributeName.toLowerCase(),(temp == null) ? EvalValue.NULL : EvalValue.build(temp));
-			} else {
-
-				if (temp == null && rs.isLast()) {
-					user.addAttribute(attributeName.toLowerCase(), EvalValue.build(Multivalue.EMPTY));
-				} else {
-					
-					int iCurrentRow = rs.getRow();
-
-					sValues.clear();
-					
-					temp = rs.getString(profile.getAttributeDBColumnName(attributeName));
-					
-					if (temp != null && temp.length() > 0) {
-						sValues.add(temp.trim());
-					}
-
-					while (rs.next()) {
-						temp = rs.getString(profile.getAttributeDBColumnName(attributeName));
-						if (temp != null && temp.length() > 0) {
-							sValues.add(temp.trim());
-						}
-					}
-					
-					rs.absolute(iCurrentRow);
-
-					if (sValues.size() > 0) {
-						user.addAttribute(attributeName.toLowerCase(), EvalValue.build(Multivalue.create(sValues)));
-					} else {
-						user.addAttribute(attributeName.toLowerCase(), EvalValue.build(Multivalue.EMPTY));
-					}
-				}
-			}
-
-		}
+		user.addAttributes(reader.readGroup(profile.getAttributesToPull(), profile.getAttributesColumnNameMap(),
+				profile.getAttributesCardinalityMap()));
 		
 		//Append attribute from another table
-		produceLinkAttribute(profile, rs.getString("ID"),user);
+		produceLinkAttribute(profile, id, user, links);
 
 		// process key attributes
 		for (int i = 0; i < profile.getKeyAttributes().size(); i++) {
 			String attributeName = profile.getKeyAttributes().get(i);
 
-			String temp = rs.getString(profile.getKeyAtttributeDBColumnName(attributeName));
-			
-			if (temp != null) {
+			if (keyValues[i] != null) {
 				
 				user.addAttribute(attributeName.toLowerCase(),
-						EvalValue.build((profile.isKeyCaseSensitive(attributeName)) ? temp.toString()
-								: temp.toString().toLowerCase()));
+						EvalValue.build((profile.isKeyCaseSensitive(attributeName)) ? keyValues[i]
+								: keyValues[i].toLowerCase()));
 			}
 		}		
 		return user;
@@ -454,63 +860,29 @@ public class DBUserProvider implements Provider {
 	 * @param profile UserDBProfile profile
 	 * @param id User ID
 	 * @param user UserObject for storing attribute value
+	 * @param links Refresh stage timing the query, null outside a full refresh
 	 * @throws SQLException
 	 */
-	private void produceLinkAttribute(UserDBProfile profile, String id, UserObject user) throws SQLException {
+	private void produceLinkAttribute(UserDBProfile profile, String id, UserObject user, RefreshStage links)
+			throws SQLException {
 
+		long startTime = System.nanoTime();
 
-		try (Connection con = getConnectionFromPool();
-				PreparedStatement pst = con.prepareStatement(SQL_LINK_QUERY, ResultSet.TYPE_SCROLL_INSENSITIVE,ResultSet.CONCUR_READ_ONLY);) {
+		try (Connection con = getConnectionFromPool(profile);
+				PreparedStatement pst = HikariCPDataSource.prepareStreamingStatement(con, SQL_LINK_QUERY, fetchSize);) {
 				pst.setString(1, id);
 			try (ResultSet rs = pst.executeQuery()) {
-				if (rs.next()) {
-
-					Set<String> sValues = new TreeSet<>();
-
-					// process attributes to pull
-					for (String attributeName : profile.getLinkAttributesToPull()) {
-
-						String temp = rs.getString(profile.getLinkAttributeDBColumnName(attributeName));
-
-						if (!profile.isLinkMultiAttribute(attributeName)) {
-							user.addAttribute(attributeName.toLowerCase(),
-									(temp == null) ? EvalValue.NULL : EvalValue.build(temp));
-						} else {
-
-							if (temp == null && rs.isLast()) {
-								user.addAttribute(attributeName.toLowerCase(), EvalValue.build(Multivalue.EMPTY));
-							} else {
-
-								int iCurrentRow = rs.getRow();
-
-								sValues.clear();
-
-								temp = rs.getString(profile.getLinkAttributeDBColumnName(attributeName));
-
-								if (temp != null && temp.length() > 0) {
-									sValues.add(temp.trim());
-								}
+				long queryNanos = System.nanoTime() - startTime;
+				GroupedResultSetReader reader = new GroupedResultSetReader(rs, "ID_USRPD");
 
-								while (rs.next()) {
-									temp = rs.getString(profile.getLinkAttributeDBColumnName(attributeName));
-									if (temp != null && temp.length() > 0) {
-										sValues.add(temp.trim());
-									}
-								}
-
-								rs.absolute(iCurrentRow);
-
-								if (sValues.size() > 0) {
-									user.addAttribute(attributeName.toLowerCase(),
-											EvalValue.build(Multivalue.create(sValues)));
-								} else {
-									user.addAttribute(attributeName.toLowerCase(), EvalValue.build(Multivalue.EMPTY));
-								}
-							}
-						}
-
-					}
+				// every row belongs to the same user, they form a single group
+				if (reader.hasGroup()) {
+					user.addAttributes(reader.readGroup(profile.getLinkAttributesToPull(),
+							profile.getLinkAttributesColumnNameMap(), profile.getLinkAttributesCardinalityMap()));
+				}
 
+				if (links != null) {
+					links.record(reader.getRowCount(), System.nanoTime() - startTime, queryNanos + reader.getFetchNanos());
 				}
 			}
 
@@ -525,7 +897,8 @@ public class DBUserProvider implements Provider {
 	@Override
 	public void loadProfiles(Properties props, String propsFilePath) {
 		
-		profiles = new HashMap<String, UserDBProfile>();
+		// routing follows the order of profile_names
+		profiles = new LinkedHashMap<String, UserDBProfile>();
 
 		String sProfileNames = props.getProperty("profile_names");
 
@@ -542,16 +915,7 @@ public class DBUserProvider implements Provider {
 					profile.parseProfile(props, propsFilePath);
 					profiles.put(profile.getName(), profile);
 
-					for (String attr : profile.getAttributesToPull()) {
-						if (userAttributeToProfileMap.containsKey(attr.toLowerCase())) {
-							userAttributeToProfileMap.get(attr.toLowerCase()).add(profile.getName());
-						} else {
-							List<String> newIndex = new ArrayList<String>();
-							newIndex.add(profile.getName());
-							userAttributeToProfileMap.put(attr.toLowerCase(), newIndex);
-						}
-					}
-
+					indexAttributes(profile);
 
 				} catch (InvalidProfileException ipe) {
 					LOG.error(String.format("Invalid profile for domain [%s]", name), ipe);
@@ -562,6 +926,7 @@ public class DBUserProvider implements Provider {
 			LOG.warn("Profile names are undefined");
 		}
 
+		buildAttributeSchema(profiles.values());
 	}
 
 	/* (non-Javadoc)
@@ -576,10 +941,77 @@ public class DBUserProvider implements Provider {
 		try {
 			profile.parseProfile(props, propsFilePath);
 			singleProfile = profile;
+
+			indexAttributes(profile);
 		} catch (InvalidProfileException ipe) {
 			LOG.error(String.format("Invalid profile for domain [%s]", name), ipe);
 		}
 
+		buildAttributeSchema((singleProfile == null) ? Collections.<UserDBProfile> emptyList() : Collections.singletonList(singleProfile));
+	}
+
+	/**
+	 * Index the attributes pulled by a profile, lookups are routed to the profiles providing the attribute
+	 * @param profile UserDBProfile loaded
+	 */
+	private void indexAttributes(UserDBProfile profile) {
+
+		for (String attr : profile.getAttributesToPull()) {
+			indexAttribute(userAttributeToProfileMap, attr, profile.getName());
+		}
+
+		for (String attr : profile.getLinkAttributesToPull()) {
+			indexAttribute(linkAttributeToProfileMap, attr, profile.getName());
+		}
+	}
+
+	/**
+	 * Add a profile to the profiles providing an attribute
+	 * @param attributeToProfileMap Attribute name to profile names
+	 * @param attr Attribute name
+	 * @param profileName Profile name
+	 */
+	private static void indexAttribute(Map<String, List<String>> attributeToProfileMap, String attr,
+			String profileName) {
+		if (attributeToProfileMap.containsKey(attr.toLowerCase())) {
+			attributeToProfileMap.get(attr.toLowerCase()).add(profileName);
+		} else {
+			List<String> newIndex = new ArrayList<String>();
+			newIndex.add(profileName);
+			attributeToProfileMap.put(attr.toLowerCase(), newIndex);
+		}
+	}
+
+	/**
+	 * Build the attribute schema of the loaded profiles, the cached objects are encoded with it
+	 * @param loadedProfiles Profiles loaded
+	 */
+	private void buildAttributeSchema(Collection<UserDBProfile> loadedProfiles) {
+
+		Set<String> names = new TreeSet<String>();
+		List<String> keys = new ArrayList<String>();
+		for (UserDBProfile profile : loadedProfiles) {
+			names.addAll(profile.getAllAttributeNames());
+			// as configured in key_attributes, such as DB_1:ci:logonid:logonid
+			for (String key : profile.getKeyAttributes()) {
+				keys.add(String.format("%s:%s:%s:%s", profile.getName(),
+						Boolean.TRUE.equals(profile.isKeyCaseSensitive(key)) ? "cs" : "ci", key,
+						profile.getKeyAtttributeDBColumnName(key)));
+			}
+		}
+
+		attributeSchema = new AttributeSchema(names, keys);
+		LOG.info(String.format("Attribute schema has [%d] attributes", attributeSchema.size()));
+
+		UserCacheEngine.getInstance().setAttributeSchema(attributeSchema);
+	}
+
+	/**
+	 * Retrieve the attribute schema of the loaded profiles
+	 * @return Attribute schema
+	 */
+	public AttributeSchema getAttributeSchema() {
+		return attributeSchema;
 	}
 
 	/* (non-Javadoc)
@@ -598,13 +1030,59 @@ public class DBUserProvider implements Provider {
 		return isRefreshing;
 	}
 
+	/* (non-Javadoc)
+	 * @see com.nextlabs.common.Provider#getRefreshedObjectCount()
+	 */
+	@Override
+	public long getRefreshedObjectCount() {
+		return refreshedObjects.get();
+	}
+
+	/**
+	 * Rows fetched per round trip by the streaming queries of the plugin
+	 * @return fetch_size of the plugin
+	 */
+	int getFetchSize() {
+		return fetchSize;
+	}
+
+	/**
+	 * Retrieve the report of the last full refresh
+	 * @return Report of the last refresh, null if the cache has not been refreshed yet
+	 */
+	public RefreshReport getLastRefreshReport() {
+		return refreshHistory.getLastReport();
+	}
+
 	/* (non-Javadoc)
 	 * @see com.nextlabs.common.Provider#setCommonProperties(java.util.Properties)
 	 */
 	@Override
 	public void setCommonProperties(Properties props) {
 		commonProp = props;
-		
+		fetchSize = HikariCPDataSource.readFetchSize(props);
+
+		try {
+			refreshParallelism = Integer.parseInt(
+					props.getProperty("refresh_parallelism", String.valueOf(DEFAULT_REFRESH_PARALLELISM)).trim());
+		} catch (Exception ex) {
+			LOG.error(String.format("Not able to read refresh_parallelism, hard set to %d", DEFAULT_REFRESH_PARALLELISM));
+			refreshParallelism = DEFAULT_REFRESH_PARALLELISM;
+		}
+
+		refreshParallelism = Math.max(1, refreshParallelism);
+
+		LOG.info(String.format("refresh_parallelism will be set to [%d]", refreshParallelism));
+
+		try {
+			refreshHistory.setSize(Integer.parseInt(
+					props.getProperty("refresh_history_size", String.valueOf(RefreshHistory.DEFAULT_SIZE)).trim()));
+		} catch (Exception ex) {
+			LOG.error(String.format("Not able to read refresh_history_size, hard set to %d", RefreshHistory.DEFAULT_SIZE));
+			refreshHistory.setSize(RefreshHistory.DEFAULT_SIZE);
+		}
+
+		changes = new ChangePoller(props, TRACKED_TABLES, fetchSize);
 	}
 
 	/* (non-Javadoc)
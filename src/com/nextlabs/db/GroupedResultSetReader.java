@@ -0,0 +1,346 @@
+package com.nextlabs.db;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.bluejungle.framework.expressions.EvalValue;
+import com.bluejungle.framework.expressions.IEvalValue;
+import com.bluejungle.framework.expressions.Multivalue;
+
+/**
+ * Read a forward only ResultSet ordered by key column(s) one group of rows at a time. All the rows sharing the same key
+ * form one group, single value attributes are taken from the first row of the group and multi value attributes gather
+ * the values of every row of the group. Only the rows of the current group are looked at, so the work is linear and
+ * the memory used is bounded by one entity.
+ *
+ * Several readers ordered by the same numeric key can be merge joined with seek. String keys are only grouped, never
+ * merge joined, since the collation of the database doesn't order them the way Java compares them. hasNumericKey tells
+ * from the metadata of the result set if a reader can be merge joined before any key is compared.
+ */
+public class GroupedResultSetReader {
+
+	private static final Log LOG = LogFactory.getLog(GroupedResultSetReader.class);
+	private final ResultSet rs;
+	private final String[] keyColumns;
+	private boolean hasRow;
+	private Object currentKey;
+	private boolean orderWarningLogged;
+	private long rowCount;
+	private long fetchNanos;
+
+	/**
+	 * Position the reader on the first row of the result set
+	 * @param rs ResultSet ordered by the key column(s)
+	 * @param keyColumns Name of the key column(s), in the ORDER BY order
+	 * @throws SQLException Database Exception
+	 */
+	public GroupedResultSetReader(ResultSet rs, String... keyColumns) throws SQLException {
+		this.rs = rs;
+		this.keyColumns = keyColumns;
+		advance();
+	}
+
+	/**
+	 * Check if the reader is positioned on a group
+	 * @return true if there is a group left to read
+	 */
+	public boolean hasGroup() {
+		return hasRow;
+	}
+
+	/**
+	 * Retrieve the key of the current group
+	 * @return Key of the current group, a List for composite keys, null if all the groups have been read
+	 */
+	public Object getKey() {
+		return currentKey;
+	}
+
+	/**
+	 * Number of rows read so far, used by the refresh report
+	 * @return Number of rows
+	 */
+	public long getRowCount() {
+		return rowCount;
+	}
+
+	/**
+	 * Time spent fetching the rows from the driver so far, used by the refresh report
+	 * @return Time in nanoseconds
+	 */
+	public long getFetchNanos() {
+		return fetchNanos;
+	}
+
+	/**
+	 * Check from the metadata of the result set if every key column is numeric, as seek needs
+	 * @return true if the reader can be merge joined
+	 * @throws SQLException Database Exception
+	 */
+	public boolean hasNumericKey() throws SQLException {
+
+		ResultSetMetaData metaData = rs.getMetaData();
+
+		for (String keyColumn : keyColumns) {
+			switch (metaData.getColumnType(rs.findColumn(keyColumn))) {
+			case Types.TINYINT:
+			case Types.SMALLINT:
+			case Types.INTEGER:
+			case Types.BIGINT:
+			case Types.DECIMAL:
+			case Types.NUMERIC:
+			case Types.REAL:
+			case Types.FLOAT:
+			case Types.DOUBLE:
+				break;
+			default:
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Retrieve a column value of the current row, which is the first row of the group until readGroup is called
+	 * @param column Column name
+	 * @return Value of the column
+	 * @throws SQLException Database Exception
+	 */
+	public String getString(String column) throws SQLException {
+		return rs.getString(column);
+	}
+
+	/**
+	 * Skip the groups with a key lower than the given key
+	 * @param key Numeric key to look for
+	 * @return true if the reader is now positioned on the group of the given key
+	 * @throws SQLException Database Exception, or a key of the merge join is not numeric
+	 */
+	public boolean seek(Object key) throws SQLException {
+
+		if (!isNumericKey(key) || (hasRow && !isNumericKey(currentKey))) {
+			throw new SQLException(String.format(
+					"Merge join on %s needs numeric keys, key [%s] is compared to [%s]", Arrays.toString(keyColumns),
+					key, currentKey));
+		}
+
+		while (hasRow && compareKeys(currentKey, key) < 0) {
+			Object previousKey = currentKey;
+			advance();
+
+			if (hasRow && compareKeys(currentKey, previousKey) < 0 && !orderWarningLogged) {
+				LOG.error(String.format("Result set is not ordered by %s, key [%s] comes after [%s]",
+						Arrays.toString(keyColumns), currentKey, previousKey));
+				orderWarningLogged = true;
+			}
+		}
+		return hasRow && compareKeys(currentKey, key) == 0;
+	}
+
+	/**
+	 * Read every row of the current group and position the reader on the first row of the next group
+	 * @param attributesToPull Attribute names to read
+	 * @param columnNameMap Attribute name to column name
+	 * @param cardinalityMap Attribute name to true if the attribute is multi value
+	 * @return Attribute name in lower case to value
+	 * @throws SQLException Database Exception
+	 */
+	public Map<String, IEvalValue> readGroup(Set<String> attributesToPull, Map<String, String> columnNameMap,
+			Map<String, Boolean> cardinalityMap) throws SQLException {
+
+		Map<String, String> singleValues = new HashMap<String, String>();
+		Map<String, Set<String>> multiValues = new HashMap<String, Set<String>>();
+
+		// single value attributes come from the first row of the group
+		for (String attributeName : attributesToPull) {
+			if (!isMulti(cardinalityMap, attributeName)) {
+				singleValues.put(attributeName, rs.getString(columnNameMap.get(attributeName)));
+			} else {
+				multiValues.put(attributeName, new TreeSet<String>());
+			}
+		}
+
+		Object groupKey = currentKey;
+
+		do {
+			for (Map.Entry<String, Set<String>> entry : multiValues.entrySet()) {
+				String temp = rs.getString(columnNameMap.get(entry.getKey()));
+				if (temp != null && temp.length() > 0) {
+					entry.getValue().add(temp.trim());
+				}
+			}
+			advance();
+		} while (hasRow && isSameKey(currentKey, groupKey));
+
+		Map<String, IEvalValue> values = new HashMap<String, IEvalValue>();
+
+		for (Map.Entry<String, String> entry : singleValues.entrySet()) {
+			values.put(entry.getKey().toLowerCase(),
+					(entry.getValue() == null) ? EvalValue.NULL : EvalValue.build(entry.getValue()));
+		}
+
+		for (Map.Entry<String, Set<String>> entry : multiValues.entrySet()) {
+			values.put(entry.getKey().toLowerCase(), (entry.getValue().size() > 0)
+					? EvalValue.build(Multivalue.create(entry.getValue())) : EvalValue.build(Multivalue.EMPTY));
+		}
+
+		return values;
+	}
+
+	/**
+	 * Build the values of an entity which has no row in the result set, NULL for single value attribute and EMPTY
+	 * for multi value attribute
+	 * @param attributesToPull Attribute names
+	 * @param cardinalityMap Attribute name to true if the attribute is multi value
+	 * @return Attribute name in lower case to value
+	 */
+	public static Map<String, IEvalValue> emptyGroup(Set<String> attributesToPull, Map<String, Boolean> cardinalityMap) {
+
+		Map<String, IEvalValue> values = new HashMap<String, IEvalValue>();
+
+		for (String attributeName : attributesToPull) {
+			values.put(attributeName.toLowerCase(),
+					isMulti(cardinalityMap, attributeName) ? EvalValue.build(Multivalue.EMPTY) : EvalValue.NULL);
+		}
+
+		return values;
+	}
+
+	/**
+	 * Move to the next row and keep the key of the row
+	 * @throws SQLException Database Exception
+	 */
+	private void advance() throws SQLException {
+
+		long startTime = System.nanoTime();
+		hasRow = rs.next();
+		fetchNanos += System.nanoTime() - startTime;
+
+		if (!hasRow) {
+			currentKey = null;
+		} else if (keyColumns.length == 1) {
+			rowCount++;
+			currentKey = rs.getObject(keyColumns[0]);
+		} else {
+			rowCount++;
+			Object[] key = new Object[keyColumns.length];
+			for (int i = 0; i < keyColumns.length; i++) {
+				key[i] = rs.getObject(keyColumns[i]);
+			}
+			currentKey = Arrays.asList(key);
+		}
+	}
+
+	/**
+	 * Build the ORDER BY clause grouping the rows of the same key together
+	 * @param keyColumns Name of the key column(s)
+	 * @return ORDER BY clause, starting with a space
+	 */
+	public static String orderBy(String... keyColumns) {
+		StringBuilder clause = new StringBuilder(" ORDER BY ");
+		for (int i = 0; i < keyColumns.length; i++) {
+			clause.append((i == 0) ? "" : ", ").append('[').append(keyColumns[i]).append(']');
+		}
+		return clause.toString();
+	}
+
+	private static boolean isMulti(Map<String, Boolean> cardinalityMap, String attributeName) {
+		return Boolean.TRUE.equals(cardinalityMap.get(attributeName));
+	}
+
+	/**
+	 * Compare two numeric keys the same way the database order them, by value, and composite keys column by column.
+	 * String keys are not compared since their order depends on the collation of the database
+	 * @param a First key
+	 * @param b Second key
+	 * @return Negative, zero or positive as a is lower, equal or greater than b
+	 * @throws IllegalArgumentException A key is not numeric
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public static int compareKeys(Object a, Object b) {
+
+		if (a == null || b == null) {
+			return (a == null) ? ((b == null) ? 0 : -1) : 1;
+		}
+
+		if (a instanceof List && b instanceof List) {
+			List<Object> la = (List<Object>) a;
+			List<Object> lb = (List<Object>) b;
+			for (int i = 0; i < Math.min(la.size(), lb.size()); i++) {
+				int result = compareKeys(la.get(i), lb.get(i));
+				if (result != 0) {
+					return result;
+				}
+			}
+			return la.size() - lb.size();
+		}
+
+		if (a instanceof Number && b instanceof Number) {
+			if (a instanceof Comparable && a.getClass() == b.getClass()) {
+				return ((Comparable) a).compareTo(b);
+			}
+			return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+		}
+
+		throw new IllegalArgumentException(String.format("Key [%s] or [%s] is not numeric", a, b));
+	}
+
+	/**
+	 * Check if two keys are the same, used to group the rows. Numeric keys are compared by value, other keys by their
+	 * string form
+	 */
+	@SuppressWarnings("unchecked")
+	private static boolean isSameKey(Object a, Object b) {
+
+		if (a == null || b == null) {
+			return a == b;
+		}
+
+		if (a instanceof List && b instanceof List) {
+			List<Object> la = (List<Object>) a;
+			List<Object> lb = (List<Object>) b;
+			if (la.size() != lb.size()) {
+				return false;
+			}
+			for (int i = 0; i < la.size(); i++) {
+				if (!isSameKey(la.get(i), lb.get(i))) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		if (a instanceof Number && b instanceof Number) {
+			return compareKeys(a, b) == 0;
+		}
+
+		return a.toString().equals(b.toString());
+	}
+
+	@SuppressWarnings("unchecked")
+	private static boolean isNumericKey(Object key) {
+
+		if (key instanceof List) {
+			for (Object column : (List<Object>) key) {
+				if (column != null && !(column instanceof Number)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		return key == null || key instanceof Number;
+	}
+}
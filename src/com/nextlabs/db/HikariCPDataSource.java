@@ -1,21 +1,30 @@
 package com.nextlabs.db;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
 
 /**
- * A high performance database connection datasource
+ * A high performance database connection datasource, one named pool per profile
  * 
  * @author klee
  *
  */
 public class HikariCPDataSource {
     
-    private static HikariConfig config = new HikariConfig();
-    private static HikariDataSource ds;
+    private static final Log LOG = LogFactory.getLog(HikariCPDataSource.class);
+    private static final int DEFAULT_FETCH_SIZE = 1000;
+    private final HikariConfig config = new HikariConfig();
+    private final HikariDataSource ds;
           
     /**
      * Retrieve the database connection from data source
@@ -25,14 +34,101 @@ public class HikariCPDataSource {
     public Connection getConnection() throws SQLException {
         return ds.getConnection();
     }
-     
-    public HikariCPDataSource(){}
+    
+    /**
+     * Close the pool and its connections
+     */
+    public void close() {
+        ds.close();
+    }
+    
+    /**
+     * Read the fetch_size of the streaming queries of a plugin, the resource and user plugins each keep their own
+     * @param props Properties contain the plugin settings
+     * @return Rows fetched per round trip
+     */
+    public static int readFetchSize(Properties props) {
+    	
+    	String sFetchSize = props.getProperty("fetch_size", String.valueOf(DEFAULT_FETCH_SIZE));
+    	int fetchSize;
+    	
+    	try {
+    		fetchSize = Integer.parseInt(sFetchSize.trim());
+    	} catch (Exception ex) {
+    		LOG.error(String.format("Not able to read fetch_size, hard set to %d", DEFAULT_FETCH_SIZE));
+    		fetchSize = DEFAULT_FETCH_SIZE;
+    	}
+    	
+    	LOG.info(String.format("fetch_size will be set to [%d]", fetchSize));
+    	
+    	return fetchSize;
+    }
+    
+    /**
+     * Prepare a forward only, read only statement fetching fetch_size rows per round trip, so the rows are streamed
+     * from the database instead of being held by a server side cursor or buffered by the driver
+     * @param con Database connection
+     * @param sql SQL query
+     * @param fetchSize Rows fetched per round trip, the fetch_size of the plugin
+     * @return Prepared statement
+     * @throws SQLException Database Exception
+     */
+    public static PreparedStatement prepareStreamingStatement(Connection con, String sql, int fetchSize)
+    		throws SQLException {
+    	PreparedStatement pst = con.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+    	pst.setFetchSize(fetchSize);
+    	return pst;
+    }
+    
+    /**
+     * Build the placeholders of an IN list
+     * @param size Number of placeholders
+     * @return IN list such as "(?, ?, ?)"
+     */
+    public static String inList(int size) {
+    	StringBuilder list = new StringBuilder("(");
+    	for (int i = 0; i < size; i++) {
+    		list.append((i == 0) ? "?" : ", ?");
+    	}
+    	return list.append(")").toString();
+    }
+    
+    /**
+     * Bind the keys to an IN list. The list is padded with the last key so every batch share the same statement
+     * @param pst Prepared statement
+     * @param keys Keys to bind, at most size keys
+     * @param size Number of placeholders of the IN list
+     * @throws SQLException Database Exception
+     */
+    public static void setInListParameters(PreparedStatement pst, List<String> keys, int size) throws SQLException {
+    	for (int i = 0; i < size; i++) {
+    		pst.setString(i + 1, keys.get(Math.min(i, keys.size() - 1)));
+    	}
+    }
+    
+    /**
+     * Let the SQL Server driver read the rows as they are consumed instead of buffering the whole result
+     * @param jdbcUrl JDBC URL of the database
+     */
+    private void addStreamingDataSourceProperties(String jdbcUrl) {
+    	if (jdbcUrl != null && jdbcUrl.startsWith("jdbc:sqlserver:")) {
+    		config.addDataSourceProperty("responseBuffering", "adaptive");
+    		config.addDataSourceProperty("selectMethod", "direct");
+    	}
+    }
     
     /**
      * Initialize the datasource with UserDBProfile information
      * @param profile UserDBProfile which contain database information
      */
     public HikariCPDataSource(UserDBProfile profile) {
+    	config.setPoolName("UserDB-" + profile.getName());
+    	// pool statistics under com.zaxxer.hikari:type=Pool (UserDB-<profile>)
+    	config.setRegisterMbeans(true);
+    	config.setMaximumPoolSize(profile.getPoolSize());
+    	config.setMinimumIdle(profile.getPoolMinIdle());
+    	config.setConnectionTimeout(profile.getConnectionTimeout());
+    	config.setLeakDetectionThreshold(profile.getLeakDetectionThreshold());
     	config.setDriverClassName(profile.getDatabaseDriverName());
     	config.setJdbcUrl(profile.getConnectionUrl());
         config.setUsername(profile.getUserName());
@@ -41,6 +137,7 @@ public class HikariCPDataSource {
         config.addDataSourceProperty("cachePrepStmts", "true");
         config.addDataSourceProperty("prepStmtCacheSize", "250");
         config.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+        addStreamingDataSourceProperties(profile.getConnectionUrl());
         ds = new HikariDataSource(config);
     }
     
@@ -49,6 +146,13 @@ public class HikariCPDataSource {
      * @param profile ResourceDBProfile which contain database information
      */
     public HikariCPDataSource(ResourceDBProfile profile) {
+    	config.setPoolName("ResourceDB-" + profile.getName());
+    	// pool statistics under com.zaxxer.hikari:type=Pool (ResourceDB-<profile>)
+    	config.setRegisterMbeans(true);
+    	config.setMaximumPoolSize(profile.getPoolSize());
+    	config.setMinimumIdle(profile.getPoolMinIdle());
+    	config.setConnectionTimeout(profile.getConnectionTimeout());
+    	config.setLeakDetectionThreshold(profile.getLeakDetectionThreshold());
     	config.setDriverClassName(profile.getDatabaseDriverName());
     	config.setJdbcUrl(profile.getConnectionUrl());
         config.setUsername(profile.getUserName());
@@ -57,6 +161,7 @@ public class HikariCPDataSource {
         config.addDataSourceProperty("cachePrepStmts", "true");
         config.addDataSourceProperty("prepStmtCacheSize", "250");
         config.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+        addStreamingDataSourceProperties(profile.getConnectionUrl());
         ds = new HikariDataSource(config);
     }
 }
\ No newline at end of file
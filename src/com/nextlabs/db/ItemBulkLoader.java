@@ -0,0 +1,471 @@
+package com.nextlabs.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.bluejungle.framework.expressions.EvalValue;
+import com.bluejungle.framework.expressions.IEvalValue;
+import com.nextlabs.common.AttributeSchema;
+import com.nextlabs.common.ResourceObject;
+import com.nextlabs.common.Util;
+import com.nextlabs.metrics.RefreshReport;
+
+/**
+ * Load every DARIT item of a profile with a fixed number of queries. DARIT, DAR_PROGT/PROGHD, DAR_PROGT/PROGIT, EXCC2T
+ * and MAEX are each streamed once, ordered by the DARIT ID, and merge joined in memory into ResourceObject. The merge
+ * join needs a numeric DARIT ID, which is checked from the metadata of the DARIT query. When it is not numeric, the
+ * secondary tables are queried by batches of DARIT ID on one more connection instead, see addLinkedAttributes.
+ *
+ * Each query runs on its own pooled connection since the result sets are read at the same time. A full refresh can
+ * run several loaders at once, each on its own range of DARIT ID.
+ *
+ * The same queries, restricted to a batch of DARIT ID, also add the attributes of the secondary tables to the items of
+ * a miss batch or a delta refresh, see addLinkedAttributes.
+ *
+ * The time spent on each table, waiting for the database or merging its rows, is added to the refresh report when
+ * the loader is closed.
+ */
+public class ItemBulkLoader implements AutoCloseable {
+
+	private static final Log LOG = LogFactory.getLog(ItemBulkLoader.class);
+	private static final String ITEM_KEY_COLUMN = "ID";
+	private static final String JOIN_KEY_COLUMN = "ID_DARIT";
+	private static final String ITEM_BULK_SQL_QUERY = "SELECT [ID], [OBID], ## FROM DARIT";
+	private static final String ITEM_PARTITION_SQL_QUERY = "SELECT [ID] FROM DARIT";
+	private static final String PROGHD_BULK_SQL_QUERY = new StringBuffer()
+			.append("SELECT B.ID_DARIT, C.PROGK, C.PROVS FROM DAR_PROGT B INNER JOIN PROGHD C")
+			.append("	ON B.ID_HD = C.ID_HD").toString();
+	private static final String PROGIT_BULK_SQL_QUERY = new StringBuffer()
+			.append("SELECT B.ID_DARIT, C.ID_INDCT, C.ID_MILCT, C.ID_EXCC1T FROM DAR_PROGT B INNER JOIN PROGIT C")
+			.append("	ON B.ID_HD = C.ID_HD").toString();
+	private static final String EXCC2T_BULK_SQL_QUERY = "SELECT ID_DARIT, EXCC2 FROM EXCC2T";
+	private static final String MAEX_BULK_SQL_QUERY = new StringBuffer()
+			.append("SELECT A.ID AS ID_DARIT, B.MATNR, B.EMBGR FROM DARIT A INNER JOIN MAEX B")
+			.append("	ON B.MATNR = A.OBID").toString();
+	// stages of the refresh report, in the order of the readers
+	private static final String[] STAGES = { "DARIT", "DAR_PROGT/PROGHD", "DAR_PROGT/PROGIT", "EXCC2T", "MAEX" };
+	private static final int ITEMS = 0;
+	private static final int PROGHD = 1;
+	private static final int PROGIT = 2;
+	private static final int EXCC2T = 3;
+	private static final int MAEX = 4;
+	// each reader streams on its own connection for the whole load of the range
+	static final int CONNECTIONS = STAGES.length;
+	// DARIT ID per IN query when the secondary tables are not merge joined
+	private static final int LINK_BATCH_KEYS = 500;
+
+	private final ResourceDBProfile profile;
+	private final KeyRange range;
+	private final AttributeSchema attributeSchema;
+	private final String resourceType;
+	private final RefreshReport report;
+	private final List<AutoCloseable> resources;
+	private final GroupedResultSetReader[] readers;
+	private final long[] stageNanos;
+	private final long[] queryNanos;
+	private final GroupedResultSetReader items;
+	private final GroupedResultSetReader progHD;
+	private final GroupedResultSetReader progIT;
+	private final GroupedResultSetReader excc2t;
+	private final GroupedResultSetReader maex;
+	// connection of the secondary table queries, null if they are merge joined
+	private final Connection linkConnection;
+	private final Deque<ResourceObject> linkedItems;
+	private final int fetchSize;
+	private int count;
+
+	/**
+	 * Run the bulk queries for the profile
+	 * @param provider DBResouceProvider owning the connection pool
+	 * @param profile ResourceDBProfile for the profile
+	 * @param resourceType Type of the produced object
+	 * @param range Range of DARIT ID to load
+	 * @throws SQLException Database Exception
+	 */
+	public ItemBulkLoader(DBResouceProvider provider, ResourceDBProfile profile, String resourceType, KeyRange range)
+			throws SQLException {
+		this(provider, profile, resourceType, range, null);
+	}
+
+	/**
+	 * Run the bulk queries for the profile
+	 * @param provider DBResouceProvider owning the connection pool
+	 * @param profile ResourceDBProfile for the profile
+	 * @param resourceType Type of the produced object
+	 * @param range Range of DARIT ID to load
+	 * @param report Report of the running refresh, null if the stages are not reported
+	 * @throws SQLException Database Exception
+	 */
+	public ItemBulkLoader(DBResouceProvider provider, ResourceDBProfile profile, String resourceType, KeyRange range,
+			RefreshReport report) throws SQLException {
+
+		this.profile = profile;
+		this.range = range;
+		this.attributeSchema = provider.getAttributeSchema();
+		this.resourceType = resourceType;
+		this.report = report;
+		resources = new ArrayList<AutoCloseable>();
+		readers = new GroupedResultSetReader[STAGES.length];
+		stageNanos = new long[STAGES.length];
+		queryNanos = new long[STAGES.length];
+		linkedItems = new ArrayDeque<ResourceObject>();
+		fetchSize = provider.getFetchSize();
+
+		try {
+			items = open(ITEMS, provider, ITEM_BULK_SQL_QUERY.replaceAll("##", provider.getQueryColumn(profile)),
+					ITEM_KEY_COLUMN, "[ID]");
+
+			if (items.hasNumericKey()) {
+				progHD = open(PROGHD, provider, PROGHD_BULK_SQL_QUERY, JOIN_KEY_COLUMN, "B.ID_DARIT");
+				progIT = open(PROGIT, provider, PROGIT_BULK_SQL_QUERY, JOIN_KEY_COLUMN, "B.ID_DARIT");
+				excc2t = open(EXCC2T, provider, EXCC2T_BULK_SQL_QUERY, JOIN_KEY_COLUMN, "[ID_DARIT]");
+				maex = open(MAEX, provider, MAEX_BULK_SQL_QUERY, JOIN_KEY_COLUMN, "A.ID");
+				linkConnection = null;
+			} else {
+				LOG.warn(String.format(
+						"DARIT ID of domain [%s] is not numeric, the secondary tables are queried by batches of [%d] items",
+						profile.getName(), LINK_BATCH_KEYS));
+				progHD = progIT = excc2t = maex = null;
+				linkConnection = provider.getConnectionFromPool(profile);
+				resources.add(linkConnection);
+			}
+		} catch (SQLException e) {
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Add the DAR_PROGT/PROGHD, DAR_PROGT/PROGIT, EXCC2T and MAEX attributes to a batch of items, with one IN query per
+	 * table and per batchKeys items, run one after the other on the given connection. The rows of each table are
+	 * grouped by DARIT ID and matched to the items by value, so unlike the merge join the DARIT ID doesn't have to be
+	 * numeric
+	 * @param con Connection held by the caller, without any open result set
+	 * @param profile ResourceDBProfile for the profile
+	 * @param items DARIT ID, as read by ResultSet.getString, to item
+	 * @param batchKeys Number of placeholders of the IN lists
+	 * @param fetchSize Rows fetched per round trip
+	 * @throws SQLException Database Exception
+	 */
+	public static void addLinkedAttributes(Connection con, ResourceDBProfile profile, Map<String, ResourceObject> items,
+			int batchKeys, int fetchSize) throws SQLException {
+
+		List<String> ids = new ArrayList<String>(items.keySet());
+
+		for (int from = 0; from < ids.size(); from += batchKeys) {
+			List<String> batch = ids.subList(from, Math.min(ids.size(), from + batchKeys));
+
+			// PROGHD and PROGIT are left joined to DARIT, an item without program still get NULL or EMPTY values
+			addTableAttributes(con, PROGHD_BULK_SQL_QUERY, "B.ID_DARIT", batch, batchKeys, fetchSize, items,
+					profile.getTableProgHDAttributesToPull(), profile.getTableProgHDAttributesColumnNameMap(),
+					profile.getTableProgHDAttributesCardinalityMap(), true);
+			addTableAttributes(con, PROGIT_BULK_SQL_QUERY, "B.ID_DARIT", batch, batchKeys, fetchSize, items,
+					profile.getTableProgITAttributesToPull(), profile.getTableProgITAttributesColumnNameMap(),
+					profile.getTableProgITAttributesCardinalityMap(), true);
+
+			// EXCC2T and MAEX only contribute attributes when the item has rows there
+			addTableAttributes(con, EXCC2T_BULK_SQL_QUERY, "[ID_DARIT]", batch, batchKeys, fetchSize, items,
+					profile.getTableEXCC2TAttributesToPull(), profile.getTableEXCC2TAttributesColumnNameMap(),
+					profile.getTableEXCC2TAttributesCardinalityMap(), false);
+			addTableAttributes(con, MAEX_BULK_SQL_QUERY, "A.ID", batch, batchKeys, fetchSize, items,
+					profile.getTableMAEXAttributesToPull(), profile.getTableMAEXAttributesColumnNameMap(),
+					profile.getTableMAEXAttributesCardinalityMap(), false);
+		}
+	}
+
+	/**
+	 * Query one secondary table for a batch of DARIT ID and add the attributes of each group to its item
+	 * @param leftJoined true if the items without rows get NULL or EMPTY values
+	 */
+	private static void addTableAttributes(Connection con, String sql, String idColumn, List<String> batch,
+			int batchKeys, int fetchSize, Map<String, ResourceObject> items, Set<String> attributesToPull,
+			Map<String, String> columnNameMap, Map<String, Boolean> cardinalityMap, boolean leftJoined)
+			throws SQLException {
+
+		Set<String> withoutRows = new HashSet<String>(batch);
+
+		try (PreparedStatement pst = HikariCPDataSource.prepareStreamingStatement(con,
+				sql + " WHERE " + idColumn + " IN " + HikariCPDataSource.inList(batchKeys)
+						+ GroupedResultSetReader.orderBy(JOIN_KEY_COLUMN),
+				fetchSize)) {
+			HikariCPDataSource.setInListParameters(pst, batch, batchKeys);
+			try (ResultSet rs = pst.executeQuery()) {
+				GroupedResultSetReader reader = new GroupedResultSetReader(rs, JOIN_KEY_COLUMN);
+				while (reader.hasGroup()) {
+					String id = reader.getString(JOIN_KEY_COLUMN);
+					Map<String, IEvalValue> values = reader.readGroup(attributesToPull, columnNameMap, cardinalityMap);
+					ResourceObject item = items.get(id);
+					if (item != null) {
+						item.addAttributes(values);
+						withoutRows.remove(id);
+					}
+				}
+			}
+		}
+
+		if (leftJoined) {
+			for (String id : withoutRows) {
+				items.get(id).addAttributes(GroupedResultSetReader.emptyGroup(attributesToPull, cardinalityMap));
+			}
+		}
+	}
+
+	/**
+	 * Split the DARIT ID into ranges loaded by separate bulk loaders
+	 * @param conn Database connection
+	 * @param partitions Number of ranges wanted
+	 * @return Ranges covering every DARIT ID
+	 * @throws SQLException Database Exception
+	 */
+	public static List<KeyRange> partition(Connection conn, int partitions) throws SQLException {
+		return KeyRange.sample(conn, ITEM_PARTITION_SQL_QUERY, ITEM_KEY_COLUMN, partitions);
+	}
+
+	/**
+	 * Produce the next item
+	 * @return ResourceObject for the next DARIT ID, null when every item has been read
+	 * @throws SQLException Database Exception
+	 */
+	public ResourceObject nextItem() throws SQLException {
+
+		if (linkConnection != null) {
+			return nextLinkedItem();
+		}
+
+		if (!items.hasGroup()) {
+			return null;
+		}
+
+		long time = System.nanoTime();
+
+		Object key = items.getKey();
+
+		String[] keyValues = new String[profile.getKeyAttributes().size()];
+		ResourceObject resObj = readItem(keyValues);
+		time = lap(ITEMS, time);
+
+		// PROGHD and PROGIT are left joined to DARIT, an item without program still get NULL or EMPTY values
+		if (progHD.seek(key)) {
+			resObj.addAttributes(progHD.readGroup(profile.getTableProgHDAttributesToPull(),
+					profile.getTableProgHDAttributesColumnNameMap(), profile.getTableProgHDAttributesCardinalityMap()));
+		} else {
+			resObj.addAttributes(GroupedResultSetReader.emptyGroup(profile.getTableProgHDAttributesToPull(),
+					profile.getTableProgHDAttributesCardinalityMap()));
+		}
+		time = lap(PROGHD, time);
+
+		if (progIT.seek(key)) {
+			resObj.addAttributes(progIT.readGroup(profile.getTableProgITAttributesToPull(),
+					profile.getTableProgITAttributesColumnNameMap(), profile.getTableProgITAttributesCardinalityMap()));
+		} else {
+			resObj.addAttributes(GroupedResultSetReader.emptyGroup(profile.getTableProgITAttributesToPull(),
+					profile.getTableProgITAttributesCardinalityMap()));
+		}
+		time = lap(PROGIT, time);
+
+		// EXCC2T and MAEX only contribute attributes when the item has rows there
+		if (excc2t.seek(key)) {
+			resObj.addAttributes(excc2t.readGroup(profile.getTableEXCC2TAttributesToPull(),
+					profile.getTableEXCC2TAttributesColumnNameMap(), profile.getTableEXCC2TAttributesCardinalityMap()));
+		}
+		time = lap(EXCC2T, time);
+
+		if (maex.seek(key)) {
+			resObj.addAttributes(maex.readGroup(profile.getTableMAEXAttributesToPull(),
+					profile.getTableMAEXAttributesColumnNameMap(), profile.getTableMAEXAttributesCardinalityMap()));
+		}
+		time = lap(MAEX, time);
+
+		addKeyAttributes(resObj, keyValues);
+
+		lap(ITEMS, time);
+		count++;
+
+		return resObj;
+	}
+
+	/**
+	 * Produce the next item of a batch whose secondary tables were queried by DARIT ID, reading the next batch once
+	 * the previous one was produced. The time of the secondary table queries is reported with DARIT
+	 * @return ResourceObject for the next DARIT ID, null when every item has been read
+	 * @throws SQLException Database Exception
+	 */
+	private ResourceObject nextLinkedItem() throws SQLException {
+
+		if (linkedItems.isEmpty() && items.hasGroup()) {
+
+			long time = System.nanoTime();
+
+			Map<String, ResourceObject> batch = new LinkedHashMap<String, ResourceObject>();
+			List<String[]> batchKeyValues = new ArrayList<String[]>();
+
+			while (items.hasGroup() && batch.size() < LINK_BATCH_KEYS) {
+				String id = items.getString(ITEM_KEY_COLUMN);
+				String[] keyValues = new String[profile.getKeyAttributes().size()];
+				batch.put(id, readItem(keyValues));
+				batchKeyValues.add(keyValues);
+			}
+
+			addLinkedAttributes(linkConnection, profile, batch, LINK_BATCH_KEYS, fetchSize);
+
+			int i = 0;
+			for (ResourceObject resObj : batch.values()) {
+				addKeyAttributes(resObj, batchKeyValues.get(i++));
+				linkedItems.add(resObj);
+			}
+
+			lap(ITEMS, time);
+		}
+
+		ResourceObject resObj = linkedItems.poll();
+		if (resObj != null) {
+			count++;
+		}
+
+		return resObj;
+	}
+
+	/**
+	 * Produce an item from its DARIT rows and move the DARIT reader to the next item
+	 * @param keyValues Filled with the key attribute values as read from DARIT
+	 * @return ResourceObject with the DARIT attributes
+	 * @throws SQLException Database Exception
+	 */
+	private ResourceObject readItem(String[] keyValues) throws SQLException {
+
+		String[] ids = new String[keyValues.length];
+
+		for (int i = 0; i < profile.getKeyAttributes().size(); i++) {
+
+			String keyAttributeName = profile.getKeyAttributes().get(i);
+
+			keyValues[i] = items.getString(profile.getKeyAtttributeDBColumnName(keyAttributeName));
+			if (keyValues[i] == null) {
+				ids[i] = "UNDEFINED";
+			} else {
+				ids[i] = (profile.isKeyCaseSensitive(keyAttributeName)) ? keyValues[i] : keyValues[i].toLowerCase();
+			}
+		}
+
+		ResourceObject resObj = new ResourceObject(attributeSchema, profile.getName(),
+				Util.makeCombinedID(profile.getName(), ids), resourceType);
+
+		// attributes from DARIT
+		resObj.addAttributes(items.readGroup(profile.getAttributesToPull(), profile.getAttributesColumnNameMap(),
+				profile.getAttributesCardinalityMap()));
+
+		return resObj;
+	}
+
+	/**
+	 * Add the key attributes last, they take precedence over the attributes of the same name
+	 * @param resObj Item
+	 * @param keyValues Key attribute values as read from DARIT
+	 */
+	private void addKeyAttributes(ResourceObject resObj, String[] keyValues) {
+		for (int i = 0; i < profile.getKeyAttributes().size(); i++) {
+			String attributeName = profile.getKeyAttributes().get(i);
+
+			if (keyValues[i] != null) {
+				resObj.addAttribute(attributeName.toLowerCase(), EvalValue
+						.build((profile.isKeyCaseSensitive(attributeName)) ? keyValues[i] : keyValues[i].toLowerCase()));
+			}
+		}
+	}
+
+	/**
+	 * Add the time since the last lap to a stage
+	 * @param stage Index of the stage
+	 * @param startTime Time of the last lap
+	 * @return Time of this lap
+	 */
+	private long lap(int stage, long startTime) {
+		long now = System.nanoTime();
+		stageNanos[stage] += now - startTime;
+		return now;
+	}
+
+	/**
+	 * Number of items produced so far
+	 * @return Number of items
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.AutoCloseable#close()
+	 */
+	@Override
+	public void close() {
+
+		if (report != null) {
+			for (int i = 0; i < STAGES.length; i++) {
+				if (readers[i] != null) {
+					report.getStage(STAGES[i] + "-" + profile.getName()).record(readers[i].getRowCount(), stageNanos[i],
+							queryNanos[i] + readers[i].getFetchNanos());
+				}
+			}
+		}
+
+		for (int i = resources.size() - 1; i >= 0; i--) {
+			try {
+				resources.get(i).close();
+			} catch (Exception e) {
+				LOG.warn("Unable to close bulk loader resource", e);
+			}
+		}
+		resources.clear();
+	}
+
+	/**
+	 * Execute one bulk query on its own connection, restricted to the range and ordered by the key column
+	 * @param stage Index of the stage of the query
+	 * @param provider DBResouceProvider owning the connection pool
+	 * @param sql SQL query without WHERE nor ORDER BY
+	 * @param keyColumn Key column returned by the query
+	 * @param rangeColumn Key column as qualified in the query, compared to the range
+	 * @return Reader on the result set
+	 * @throws SQLException Database Exception
+	 */
+	private GroupedResultSetReader open(int stage, DBResouceProvider provider, String sql, String keyColumn,
+			String rangeColumn) throws SQLException {
+
+		sql = range.restrict(sql, rangeColumn) + GroupedResultSetReader.orderBy(keyColumn);
+
+		LOG.debug("Bulk query is " + sql);
+
+		long startTime = System.nanoTime();
+
+		Connection con = provider.getConnectionFromPool(profile);
+		resources.add(con);
+
+		PreparedStatement pst = HikariCPDataSource.prepareStreamingStatement(con, sql, provider.getFetchSize());
+		resources.add(pst);
+
+		range.bind(pst, 1);
+
+		ResultSet rs = pst.executeQuery();
+		resources.add(rs);
+
+		queryNanos[stage] = System.nanoTime() - startTime;
+
+		readers[stage] = new GroupedResultSetReader(rs, keyColumn);
+		stageNanos[stage] = System.nanoTime() - startTime;
+
+		return readers[stage];
+	}
+}
@@ -0,0 +1,138 @@
+package com.nextlabs.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Range of key values loaded by one partition of a full refresh. The bounds are sampled with NTILE over the key so
+ * the partitions hold about the same number of rows whatever the type and the distribution of the key. The first
+ * partition has no lower bound and also holds the NULL keys, the last one has no upper bound.
+ */
+public class KeyRange {
+
+	private static final String SAMPLE_SQL_QUERY_PREFIX = "SELECT MIN(Q.[##]) AS LOWER_BOUND FROM (SELECT S.[##], NTILE(?) OVER (ORDER BY S.[##]) AS PARTITION_NO FROM (";
+	private static final String SAMPLE_SQL_QUERY_SUFFIX = ") S) Q GROUP BY Q.PARTITION_NO ORDER BY LOWER_BOUND";
+
+	private final int number;
+	private final int count;
+	private final Object lower;
+	private final Object upper;
+
+	private KeyRange(int number, int count, Object lower, Object upper) {
+		this.number = number;
+		this.count = count;
+		this.lower = lower;
+		this.upper = upper;
+	}
+
+	/**
+	 * Range holding every key
+	 * @return Unbounded range
+	 */
+	public static KeyRange all() {
+		return new KeyRange(1, 1, null, null);
+	}
+
+	/**
+	 * Split the keys returned by a query into ranges of about the same number of rows
+	 * @param conn Database connection
+	 * @param sql Query returning the key column, without ORDER BY
+	 * @param keyColumn Key column returned by the query
+	 * @param partitions Number of ranges wanted
+	 * @return Ranges covering every key, a single unbounded range if partitions is 1 or the query returns no row
+	 * @throws SQLException Database Exception
+	 */
+	public static List<KeyRange> sample(Connection conn, String sql, String keyColumn, int partitions)
+			throws SQLException {
+
+		List<KeyRange> ranges = new ArrayList<KeyRange>();
+
+		if (partitions <= 1) {
+			ranges.add(all());
+			return ranges;
+		}
+
+		List<Object> bounds = new ArrayList<Object>();
+
+		try (PreparedStatement pst = conn.prepareStatement(
+				SAMPLE_SQL_QUERY_PREFIX.replaceAll("##", keyColumn) + sql + SAMPLE_SQL_QUERY_SUFFIX)) {
+			pst.setInt(1, partitions);
+			try (ResultSet rs = pst.executeQuery()) {
+				while (rs.next()) {
+					Object bound = rs.getObject(1);
+					// the first range has no lower bound, duplicate bounds would give empty ranges
+					if (bound != null && !(bounds.size() > 0 && bound.equals(bounds.get(bounds.size() - 1)))) {
+						bounds.add(bound);
+					}
+				}
+			}
+		}
+
+		if (bounds.size() <= 1) {
+			ranges.add(all());
+			return ranges;
+		}
+
+		// the smallest key is the lower bound of the first range, which is left unbounded
+		for (int i = 0; i < bounds.size(); i++) {
+			ranges.add(new KeyRange(i + 1, bounds.size(), (i == 0) ? null : bounds.get(i),
+					(i == bounds.size() - 1) ? null : bounds.get(i + 1)));
+		}
+
+		return ranges;
+	}
+
+	/**
+	 * Restrict a query to the keys of this range
+	 * @param sql Query without WHERE nor ORDER BY
+	 * @param column Key column qualified as needed by the joins of the query, such as B.ID_DARIT
+	 * @return Query returning the rows of this range
+	 */
+	public String restrict(String sql, String column) {
+
+		if (lower == null && upper == null) {
+			return sql;
+		}
+
+		StringBuilder restricted = new StringBuilder(sql).append(" WHERE ");
+
+		if (lower == null) {
+			restricted.append("(").append(column).append(" < ? OR ").append(column).append(" IS NULL)");
+		} else if (upper == null) {
+			restricted.append(column).append(" >= ?");
+		} else {
+			restricted.append(column).append(" >= ? AND ").append(column).append(" < ?");
+		}
+
+		return restricted.toString();
+	}
+
+	/**
+	 * Bind the bounds of this range to a query restricted by restrict
+	 * @param pst Prepared statement
+	 * @param index Index of the first parameter of the range
+	 * @return Index of the parameter following the range
+	 * @throws SQLException Database Exception
+	 */
+	public int bind(PreparedStatement pst, int index) throws SQLException {
+		if (lower != null) {
+			pst.setObject(index++, lower);
+		}
+		if (upper != null) {
+			pst.setObject(index++, upper);
+		}
+		return index;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return String.format("%d/%d", number, count);
+	}
+}
@@ -0,0 +1,110 @@
+package com.nextlabs.db;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Query an object from several profiles at once, each profile on its own database. The object of the first profile in
+ * routing order which has it is returned, so the result does not depend on which database answers first.
+ */
+class ParallelProfileLookup {
+
+	private static final Log LOG = LogFactory.getLog(ParallelProfileLookup.class);
+	private final ExecutorService executor;
+
+	/**
+	 * Query of one profile
+	 * @param <P> Profile type
+	 * @param <T> Object type
+	 */
+	interface Query<P, T> {
+
+		/**
+		 * Query the object from the profile
+		 * @param profile Profile to query
+		 * @return Object, null if the profile doesn't have it
+		 * @throws Exception Exception thrown by the query
+		 */
+		T query(P profile) throws Exception;
+	}
+
+	/**
+	 * @param threadName Prefix of the lookup thread names
+	 */
+	ParallelProfileLookup(final String threadName) {
+		final AtomicInteger threadNumber = new AtomicInteger();
+		executor = Executors.newCachedThreadPool(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, threadName + "-" + threadNumber.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Query every profile concurrently and return the object of the first profile having it
+	 * @param profiles Profiles in routing order
+	 * @param query Query of one profile
+	 * @return Object, null if no profile has it
+	 * @throws Exception Exception of a failed profile when no other profile has the object
+	 */
+	<P, T> T queryFirst(List<P> profiles, final Query<P, T> query) throws Exception {
+
+		if (profiles.size() == 1) {
+			return query.query(profiles.get(0));
+		}
+
+		List<Future<T>> results = new ArrayList<Future<T>>();
+
+		for (final P profile : profiles) {
+			results.add(executor.submit(new Callable<T>() {
+				@Override
+				public T call() throws Exception {
+					return query.query(profile);
+				}
+			}));
+		}
+
+		Exception failure = null;
+
+		try {
+			for (Future<T> result : results) {
+				try {
+					T object = result.get();
+					if (object != null) {
+						return object;
+					}
+				} catch (ExecutionException e) {
+					// another profile may still have the object
+					LOG.error("Profile lookup encountered an exception.", e.getCause());
+					if (failure == null) {
+						failure = (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+					}
+				}
+			}
+		} finally {
+			// a running query may lead a miss batch other callers wait on, it is left to finish instead of interrupted
+			for (Future<T> result : results) {
+				result.cancel(false);
+			}
+		}
+
+		if (failure != null) {
+			throw failure;
+		}
+
+		return null;
+	}
+}
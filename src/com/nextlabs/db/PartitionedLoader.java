@@ -0,0 +1,110 @@
+package com.nextlabs.db;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Load the key ranges of a full refresh concurrently, one thread per range. Each range reads on its own pooled
+ * connections and writes into the generation being built, which accepts concurrent writers.
+ */
+public class PartitionedLoader {
+
+	private static final Log LOG = LogFactory.getLog(PartitionedLoader.class);
+
+	/**
+	 * Load of one key range
+	 */
+	public interface Partition {
+
+		/**
+		 * Load the objects of the range into the generation being built
+		 * @param range Key range to load
+		 * @return Number of objects loaded
+		 * @throws Exception Exception thrown by the load
+		 */
+		int load(KeyRange range) throws Exception;
+	}
+
+	private PartitionedLoader() {
+	}
+
+	/**
+	 * Load every range and wait for all of them. The first failure cancels the ranges still running
+	 * @param name Name of the loaded objects used in the logs, such as "items of domain [DB_1]"
+	 * @param ranges Key ranges covering the table
+	 * @param partition Load of one range
+	 * @return Number of objects loaded
+	 * @throws Exception First exception thrown by a range
+	 */
+	public static int loadAll(final String name, List<KeyRange> ranges, final Partition partition) throws Exception {
+
+		if (ranges.size() == 1) {
+			return loadRange(name, ranges.get(0), partition);
+		}
+
+		final AtomicInteger threadNumber = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(ranges.size(), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "RefreshPartition-" + threadNumber.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		try {
+			List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+
+			for (final KeyRange range : ranges) {
+				results.add(executor.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() throws Exception {
+						return loadRange(name, range, partition);
+					}
+				}));
+			}
+
+			int count = 0;
+
+			for (Future<Integer> result : results) {
+				try {
+					count += result.get();
+				} catch (ExecutionException e) {
+					// the partial generation is discarded, don't wait for the other ranges
+					executor.shutdownNow();
+					if (e.getCause() instanceof Exception) {
+						throw (Exception) e.getCause();
+					}
+					throw e;
+				}
+			}
+
+			return count;
+
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static int loadRange(String name, KeyRange range, Partition partition) throws Exception {
+
+		long startTime = System.currentTimeMillis();
+
+		int count = partition.load(range);
+
+		LOG.info(String.format("Loaded [%d] %s of partition [%s] in %dms", count, name, range,
+				(System.currentTimeMillis() - startTime)));
+
+		return count;
+	}
+}
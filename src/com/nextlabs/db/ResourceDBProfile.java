@@ -1,6 +1,7 @@
 package com.nextlabs.db;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -29,6 +30,12 @@ public class ResourceDBProfile extends ResourceProfile {
 	private String connectionUrl;
 	private String schema;
 	private String databaseDriverName;
+	private int poolSize;
+	private int poolMinIdle;
+	private long connectionTimeout;
+	private long leakDetectionThreshold;
+	// read by the lookup threads without lock
+	private volatile HikariCPDataSource dataSource;
 	private List<String> keyAttributes;
 	private List<String> progKeyAttributes;
 	private Set<String> attributesToPull;
@@ -56,6 +63,8 @@ public class ResourceDBProfile extends ResourceProfile {
 	private Map<String, String> tableProgHDAttributesColumnNameMap;
 	private Boolean isValid;
 	
+	private static final int DEFAULT_POOL_SIZE = 10;
+	private static final long DEFAULT_CONNECTION_TIMEOUT = 30000;
 	private static final Log LOG = LogFactory.getLog(ResourceDBProfile.class);
 	
 	/**
@@ -157,6 +166,16 @@ public class ResourceDBProfile extends ResourceProfile {
 		
 		LOG.info(String.format("Database schema is [%s]", schema));
 
+		poolSize = (int) Math.max(1, getLongProperty("database_pool_size", DEFAULT_POOL_SIZE, props));
+		// the pool is kept full by default
+		poolMinIdle = (int) Math.min(poolSize, Math.max(0, getLongProperty("database_pool_min_idle", poolSize, props)));
+		connectionTimeout = getLongProperty("database_connection_timeout_ms", DEFAULT_CONNECTION_TIMEOUT, props);
+		leakDetectionThreshold = getLongProperty("database_leak_detection_threshold_ms", 0, props);
+
+		LOG.info(String.format(
+				"Database pool size is [%d], minimum idle [%d], connection timeout [%d] ms, leak detection threshold [%d] ms",
+				poolSize, poolMinIdle, connectionTimeout, leakDetectionThreshold));
+
 		String key_attributes = getProperty("key_attributes", props);
 
 		if (key_attributes == null || key_attributes.length() == 0) {
@@ -447,6 +466,29 @@ public class ResourceDBProfile extends ResourceProfile {
 		return props.getProperty(this.name + "_" + name);
 	}
 
+	/**
+	 * Getting numeric property value from given properties list and the profile name e.g DB_1_database_pool_size
+	 * @param name Property name
+	 * @param defaultValue Value used when the property is not set or not a number
+	 * @param props Properties list from properties file
+	 * @return Value of the property
+	 */
+	private long getLongProperty(String name, long defaultValue, Properties props) {
+
+		String value = getProperty(name, props);
+
+		if (value == null || value.trim().length() == 0) {
+			return defaultValue;
+		}
+
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException ex) {
+			LOG.error(String.format("Not able to read %s, hard set to %d", name, defaultValue));
+			return defaultValue;
+		}
+	}
+
 	/**
 	 * Getter method for cardinality for list of attributes
 	 * @return Cardinality for the list of attributes
@@ -516,6 +558,46 @@ public class ResourceDBProfile extends ResourceProfile {
 		
 	}
 
+	/**
+	 * Retrieve every attribute name an item or a program of this profile can hold
+	 * @return Attribute names in lower case
+	 */
+	public Set<String> getAllAttributeNames() {
+
+		Set<String> names = new TreeSet<String>();
+
+		addLowerCase(names, attributesToPull);
+		addLowerCase(names, tableProgHDAttributesToPull);
+		addLowerCase(names, tableProgITAttributesToPull);
+		addLowerCase(names, tableEXCC2TAttributesToPull);
+		addLowerCase(names, tableMAEXAttributesToPull);
+		addLowerCase(names, progAttributesToPull);
+		addLowerCase(names, keyAttributes);
+		addLowerCase(names, progKeyAttributes);
+
+		return names;
+	}
+
+	private static void addLowerCase(Set<String> names, Collection<String> attributes) {
+		if (attributes != null) {
+			for (String attribute : attributes) {
+				names.add(attribute.toLowerCase());
+			}
+		}
+	}
+
+	/**
+	 * Retrieve the item key column names, in the order of the key attributes
+	 * @return Item key column names
+	 */
+	public String[] getKeyColumns() {
+		String[] columns = new String[keyAttributes.size()];
+		for (int i = 0; i < keyAttributes.size(); i++) {
+			columns[i] = getKeyAtttributeDBColumnName(keyAttributes.get(i));
+		}
+		return columns;
+	}
+
 	public Set<String> getTableProgHDAttributesToPull() {
 		return tableProgHDAttributesToPull;
 	}
@@ -618,6 +700,18 @@ public class ResourceDBProfile extends ResourceProfile {
 		
 	}
 
+	/**
+	 * Retrieve the program key column names, in the order of the program key attributes
+	 * @return Program key column names
+	 */
+	public String[] getProgKeyColumns() {
+		String[] columns = new String[progKeyAttributes.size()];
+		for (int i = 0; i < progKeyAttributes.size(); i++) {
+			columns[i] = getProgKeyAtttributeDBColumnName(progKeyAttributes.get(i));
+		}
+		return columns;
+	}
+
 	public Map<String, Boolean> getProgAttributesCardinalityMap() {
 		return progAttributesCardinalityMap;
 	}
@@ -729,5 +823,33 @@ public class ResourceDBProfile extends ResourceProfile {
 	public void setDecryptedPassword(String decryptedPassword) {
 		this.decryptedPassword = decryptedPassword;
 	}
+
+	public int getPoolSize() {
+		return poolSize;
+	}
+
+	public int getPoolMinIdle() {
+		return poolMinIdle;
+	}
+
+	public long getConnectionTimeout() {
+		return connectionTimeout;
+	}
+
+	public long getLeakDetectionThreshold() {
+		return leakDetectionThreshold;
+	}
+
+	/**
+	 * Connection pool of the profile database, created by the provider
+	 * @return Datasource, null if the pool is not initialized
+	 */
+	public HikariCPDataSource getDataSource() {
+		return dataSource;
+	}
+
+	public void setDataSource(HikariCPDataSource dataSource) {
+		this.dataSource = dataSource;
+	}
 	
 }
@@ -0,0 +1,114 @@
+package com.nextlabs.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lookups and entries of a cache region, the item, program or user region.
+ *
+ * A hit is a lookup answered by the cache, a negative hit a lookup answered by the cache of the ids not found in the
+ * database, a miss a lookup which went to the database. Counting the entries iterates the region, so the count is
+ * kept for ENTRY_COUNT_INTERVAL before it is counted again.
+ */
+public class CacheRegionMetrics implements CacheRegionMetricsMBean {
+
+	private static final long ENTRY_COUNT_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+	/**
+	 * Count of the entries of the region
+	 */
+	public interface EntryCounter {
+
+		/**
+		 * @return Number of entries of the region serving the readers
+		 */
+		long countEntries();
+	}
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder negativeHits = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder expirations = new LongAdder();
+	private final EntryCounter entryCounter;
+	private long entries;
+	private long entriesCountedAt;
+
+	/**
+	 * @param entryCounter Count of the entries of the region
+	 */
+	public CacheRegionMetrics(EntryCounter entryCounter) {
+		this.entryCounter = entryCounter;
+	}
+
+	public void hit() {
+		hits.increment();
+	}
+
+	public void miss() {
+		misses.increment();
+	}
+
+	public void negativeHit() {
+		negativeHits.increment();
+	}
+
+	public void evicted() {
+		evictions.increment();
+	}
+
+	public void expired() {
+		expirations.increment();
+	}
+
+	@Override
+	public long getHits() {
+		return hits.sum();
+	}
+
+	@Override
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	@Override
+	public long getNegativeHits() {
+		return negativeHits.sum();
+	}
+
+	@Override
+	public double getHitRatio() {
+		long hitCount = hits.sum() + negativeHits.sum();
+		long total = hitCount + misses.sum();
+		return (total == 0) ? 0 : (double) hitCount / total;
+	}
+
+	@Override
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	@Override
+	public long getExpirations() {
+		return expirations.sum();
+	}
+
+	@Override
+	public synchronized long getEntries() {
+		long now = System.currentTimeMillis();
+		if (entriesCountedAt == 0 || now - entriesCountedAt >= ENTRY_COUNT_INTERVAL) {
+			entries = entryCounter.countEntries();
+			entriesCountedAt = now;
+		}
+		return entries;
+	}
+
+	@Override
+	public void reset() {
+		hits.reset();
+		misses.reset();
+		negativeHits.reset();
+		evictions.reset();
+		expirations.reset();
+	}
+}
@@ -0,0 +1,23 @@
+package com.nextlabs.metrics;
+
+/**
+ * Lookups and entries of a cache region
+ */
+public interface CacheRegionMetricsMBean {
+
+	long getHits();
+
+	long getMisses();
+
+	long getNegativeHits();
+
+	double getHitRatio();
+
+	long getEvictions();
+
+	long getExpirations();
+
+	long getEntries();
+
+	void reset();
+}
@@ -0,0 +1,127 @@
+package com.nextlabs.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram of an operation. The buckets double from 1 microsecond up to about 35 minutes, a percentile is
+ * reported as the upper bound of the bucket holding it, so it is at most twice the actual latency.
+ */
+public class LatencyHistogram implements LatencyHistogramMBean {
+
+	private static final int BUCKETS = 32;
+	private static final long NANOS_PER_MICRO = 1000;
+	private static final double NANOS_PER_MILLI = 1000000.00;
+
+	private final LongAdder[] buckets;
+	private final LongAdder count = new LongAdder();
+	private final LongAdder total = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	public LatencyHistogram() {
+		buckets = new LongAdder[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Record the latency of one operation
+	 * @param nanos Latency in nanoseconds
+	 */
+	public void record(long nanos) {
+
+		long micros = Math.max(nanos, 0) / NANOS_PER_MICRO;
+		// bucket i holds the latencies up to 2^i microseconds
+		int bucket = (micros <= 1) ? 0 : Math.min(64 - Long.numberOfLeadingZeros(micros - 1), BUCKETS - 1);
+
+		buckets[bucket].increment();
+		count.increment();
+		total.add(nanos);
+
+		long current = max.get();
+		while (nanos > current && !max.compareAndSet(current, nanos)) {
+			current = max.get();
+		}
+	}
+
+	@Override
+	public long getCount() {
+		return count.sum();
+	}
+
+	@Override
+	public double getMeanMillis() {
+		long n = count.sum();
+		return (n == 0) ? 0 : total.sum() / NANOS_PER_MILLI / n;
+	}
+
+	@Override
+	public double getMaxMillis() {
+		return max.get() / NANOS_PER_MILLI;
+	}
+
+	@Override
+	public double get50thPercentileMillis() {
+		return getPercentileMillis(0.50);
+	}
+
+	@Override
+	public double get95thPercentileMillis() {
+		return getPercentileMillis(0.95);
+	}
+
+	@Override
+	public double get99thPercentileMillis() {
+		return getPercentileMillis(0.99);
+	}
+
+	@Override
+	public String[] getBuckets() {
+
+		String[] lines = new String[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			lines[i] = String.format("<= %sms: %d", upperBoundMillis(i), buckets[i].sum());
+		}
+		return lines;
+	}
+
+	@Override
+	public void reset() {
+		for (LongAdder bucket : buckets) {
+			bucket.reset();
+		}
+		count.reset();
+		total.reset();
+		max.set(0);
+	}
+
+	private double getPercentileMillis(double percentile) {
+
+		long[] counts = new long[BUCKETS];
+		long n = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = buckets[i].sum();
+			n += counts[i];
+		}
+
+		if (n == 0) {
+			return 0;
+		}
+
+		long rank = (long) Math.ceil(percentile * n);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return upperBoundMillis(i);
+			}
+		}
+
+		return upperBoundMillis(BUCKETS - 1);
+	}
+
+	private static double upperBoundMillis(int bucket) {
+		return (1L << bucket) * NANOS_PER_MICRO / NANOS_PER_MILLI;
+	}
+}
@@ -0,0 +1,23 @@
+package com.nextlabs.metrics;
+
+/**
+ * Latency of an operation, in milliseconds
+ */
+public interface LatencyHistogramMBean {
+
+	long getCount();
+
+	double getMeanMillis();
+
+	double getMaxMillis();
+
+	double get50thPercentileMillis();
+
+	double get95thPercentileMillis();
+
+	double get99thPercentileMillis();
+
+	String[] getBuckets();
+
+	void reset();
+}
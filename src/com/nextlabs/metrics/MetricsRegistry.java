@@ -0,0 +1,52 @@
+package com.nextlabs.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Hashtable;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Registration of the plugin metrics in the platform MBean server, under com.nextlabs.referential:type=...,name=...
+ * The connection pools register their own MBeans under com.zaxxer.hikari:type=Pool (pool name).
+ */
+public final class MetricsRegistry {
+
+	public static final String DOMAIN = "com.nextlabs.referential";
+	private static final Log LOG = LogFactory.getLog(MetricsRegistry.class);
+
+	private MetricsRegistry() {
+	}
+
+	/**
+	 * Register an MBean, replacing the one registered under the same name by a previous load of the plugin
+	 * @param type Type of the metrics, such as CacheRegion
+	 * @param name Name of the metrics, such as Item
+	 * @param mbean MBean to register
+	 * @return The registered MBean
+	 */
+	public static <T> T register(String type, String name, T mbean) {
+
+		try {
+			Hashtable<String, String> properties = new Hashtable<String, String>();
+			properties.put("type", type);
+			properties.put("name", name);
+			ObjectName objectName = new ObjectName(DOMAIN, properties);
+
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (server.isRegistered(objectName)) {
+				server.unregisterMBean(objectName);
+			}
+			server.registerMBean(mbean, objectName);
+
+			LOG.debug(String.format("Registered metrics [%s]", objectName));
+		} catch (Exception e) {
+			LOG.warn(String.format("Unable to register metrics [%s] of type [%s]", name, type), e);
+		}
+
+		return mbean;
+	}
+}
@@ -0,0 +1,126 @@
+package com.nextlabs.metrics;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Reports of the last full refreshes of a cache, the oldest report is dropped when the history is full
+ */
+public class RefreshHistory implements RefreshHistoryMBean {
+
+	public static final int DEFAULT_SIZE = 10;
+
+	private final Deque<RefreshReport> reports = new ArrayDeque<RefreshReport>();
+	private int size = DEFAULT_SIZE;
+	private long refreshCount;
+
+	/**
+	 * Set the number of reports kept
+	 * @param size Number of reports, at least 1
+	 */
+	public synchronized void setSize(int size) {
+		this.size = Math.max(1, size);
+		while (reports.size() > this.size) {
+			reports.removeLast();
+		}
+	}
+
+	/**
+	 * Add the report of a finished refresh
+	 * @param report Report of the refresh
+	 */
+	public synchronized void add(RefreshReport report) {
+		refreshCount++;
+		reports.addFirst(report);
+		while (reports.size() > size) {
+			reports.removeLast();
+		}
+	}
+
+	/**
+	 * @return Report of the last refresh, null if the cache has not been refreshed yet
+	 */
+	public synchronized RefreshReport getLastReport() {
+		return reports.peekFirst();
+	}
+
+	@Override
+	public synchronized int getSize() {
+		return size;
+	}
+
+	@Override
+	public synchronized long getRefreshCount() {
+		return refreshCount;
+	}
+
+	@Override
+	public long getLastDurationMillis() {
+		RefreshReport last = getLastReport();
+		return (last == null) ? 0 : last.getDurationMillis();
+	}
+
+	@Override
+	public long getLastObjectCount() {
+		RefreshReport last = getLastReport();
+		return (last == null) ? 0 : last.getObjectCount();
+	}
+
+	@Override
+	public double getLastObjectsPerSecond() {
+		RefreshReport last = getLastReport();
+		return (last == null) ? 0 : last.getObjectsPerSecond();
+	}
+
+	@Override
+	public long getLastThreadCpuMillis() {
+		RefreshReport last = getLastReport();
+		return (last == null) ? 0 : last.getThreadCpuMillis();
+	}
+
+	@Override
+	public long getLastThreadMillis() {
+		RefreshReport last = getLastReport();
+		return (last == null) ? 0 : last.getThreadMillis();
+	}
+
+	@Override
+	public boolean isLastSucceeded() {
+		RefreshReport last = getLastReport();
+		return last != null && last.isSucceeded();
+	}
+
+	@Override
+	public String[] getLastStages() {
+
+		RefreshReport last = getLastReport();
+
+		if (last == null) {
+			return new String[0];
+		}
+
+		List<RefreshStage> stages = last.getStages();
+		String[] lines = new String[stages.size()];
+
+		for (int i = 0; i < lines.length; i++) {
+			lines[i] = stages.get(i).toString();
+		}
+
+		return lines;
+	}
+
+	@Override
+	public synchronized String[] getReports() {
+
+		String[] lines = new String[reports.size()];
+		int i = 0;
+
+		// newest first
+		for (RefreshReport report : reports) {
+			lines[i++] = report.getSummary();
+		}
+
+		return lines;
+	}
+}
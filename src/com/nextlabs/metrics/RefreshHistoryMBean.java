@@ -0,0 +1,27 @@
+package com.nextlabs.metrics;
+
+/**
+ * Reports of the last full refreshes of a cache
+ */
+public interface RefreshHistoryMBean {
+
+	int getSize();
+
+	long getRefreshCount();
+
+	long getLastDurationMillis();
+
+	long getLastObjectCount();
+
+	double getLastObjectsPerSecond();
+
+	long getLastThreadCpuMillis();
+
+	long getLastThreadMillis();
+
+	boolean isLastSucceeded();
+
+	String[] getLastStages();
+
+	String[] getReports();
+}
@@ -0,0 +1,65 @@
+package com.nextlabs.metrics;
+
+import java.util.Date;
+
+/**
+ * Loads of a table by the full refresh, the rows are the objects produced from the table and its secondary tables
+ */
+public class RefreshMetrics implements RefreshMetricsMBean {
+
+	private long refreshCount;
+	private long lastRowCount;
+	private long lastDuration;
+	private long totalRowCount;
+	private long totalDuration;
+	private long lastRefreshTime;
+
+	/**
+	 * Record one load of the table
+	 * @param rows Number of objects loaded
+	 * @param durationMillis Time taken in ms
+	 */
+	public synchronized void record(long rows, long durationMillis) {
+		refreshCount++;
+		lastRowCount = rows;
+		lastDuration = durationMillis;
+		totalRowCount += rows;
+		totalDuration += durationMillis;
+		lastRefreshTime = System.currentTimeMillis();
+	}
+
+	@Override
+	public synchronized long getRefreshCount() {
+		return refreshCount;
+	}
+
+	@Override
+	public synchronized long getLastRowCount() {
+		return lastRowCount;
+	}
+
+	@Override
+	public synchronized long getLastDurationMillis() {
+		return lastDuration;
+	}
+
+	@Override
+	public synchronized double getLastRowsPerSecond() {
+		return (lastDuration == 0) ? lastRowCount : lastRowCount * 1000.0 / lastDuration;
+	}
+
+	@Override
+	public synchronized long getTotalRowCount() {
+		return totalRowCount;
+	}
+
+	@Override
+	public synchronized long getTotalDurationMillis() {
+		return totalDuration;
+	}
+
+	@Override
+	public synchronized String getLastRefreshTime() {
+		return (lastRefreshTime == 0) ? null : new Date(lastRefreshTime).toString();
+	}
+}
@@ -0,0 +1,21 @@
+package com.nextlabs.metrics;
+
+/**
+ * Loads of a table by the full refresh
+ */
+public interface RefreshMetricsMBean {
+
+	long getRefreshCount();
+
+	long getLastRowCount();
+
+	long getLastDurationMillis();
+
+	double getLastRowsPerSecond();
+
+	long getTotalRowCount();
+
+	long getTotalDurationMillis();
+
+	String getLastRefreshTime();
+}
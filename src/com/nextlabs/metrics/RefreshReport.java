@@ -0,0 +1,165 @@
+package com.nextlabs.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Report of one full refresh of a cache: the stages in the order they started, and the wall and CPU time of the
+ * threads loading the partitions. The stages are recorded concurrently by the partitions, the report is complete once
+ * finish is called.
+ */
+public class RefreshReport {
+
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+	private static final double NANOS_PER_MILLI = 1000000.00;
+
+	private final String cache;
+	private final long startTime;
+	private final Map<String, RefreshStage> stages;
+	private final LongAdder threadNanos = new LongAdder();
+	private final LongAdder threadCpuNanos = new LongAdder();
+	private volatile long durationMillis;
+	private volatile long objectCount;
+	private volatile int attempts;
+	private volatile boolean succeeded;
+
+	/**
+	 * Start the report of a refresh
+	 * @param cache Name of the refreshed cache, such as Resource
+	 */
+	public RefreshReport(String cache) {
+		this.cache = cache;
+		startTime = System.currentTimeMillis();
+		stages = new LinkedHashMap<String, RefreshStage>();
+	}
+
+	/**
+	 * Retrieve a stage, created the first time a partition records it
+	 * @param name Name of the stage, such as DARIT-DB_1
+	 * @return Stage of the refresh
+	 */
+	public synchronized RefreshStage getStage(String name) {
+
+		RefreshStage stage = stages.get(name);
+
+		if (stage == null) {
+			stage = new RefreshStage(name);
+			stages.put(name, stage);
+		}
+
+		return stage;
+	}
+
+	/**
+	 * @return Stages in the order they started
+	 */
+	public synchronized List<RefreshStage> getStages() {
+		return new ArrayList<RefreshStage>(stages.values());
+	}
+
+	/**
+	 * CPU time of the calling thread, compared by a partition before and after its load
+	 * @return CPU time in nanoseconds, 0 if the JVM doesn't measure the thread CPU time
+	 */
+	public static long currentThreadCpuTime() {
+		return (THREADS.isCurrentThreadCpuTimeSupported() && THREADS.isThreadCpuTimeEnabled())
+				? THREADS.getCurrentThreadCpuTime() : 0;
+	}
+
+	/**
+	 * Record the load of one partition
+	 * @param nanos Wall time of the partition thread in nanoseconds
+	 * @param cpuNanos CPU time of the partition thread in nanoseconds
+	 */
+	public void recordThread(long nanos, long cpuNanos) {
+		threadNanos.add(nanos);
+		threadCpuNanos.add(cpuNanos);
+	}
+
+	/**
+	 * Complete the report once the new generation is published or the refresh has given up
+	 * @param objects Number of objects loaded
+	 * @param attemptCount Number of attempts, retries included
+	 * @param success true if the new generation has been published
+	 */
+	public void finish(long objects, int attemptCount, boolean success) {
+		durationMillis = System.currentTimeMillis() - startTime;
+		objectCount = objects;
+		attempts = attemptCount;
+		succeeded = success;
+	}
+
+	public String getCache() {
+		return cache;
+	}
+
+	public String getStartTime() {
+		return new Date(startTime).toString();
+	}
+
+	public long getDurationMillis() {
+		return durationMillis;
+	}
+
+	public long getObjectCount() {
+		return objectCount;
+	}
+
+	public double getObjectsPerSecond() {
+		return (durationMillis == 0) ? objectCount : objectCount * 1000.0 / durationMillis;
+	}
+
+	public int getAttempts() {
+		return attempts;
+	}
+
+	public boolean isSucceeded() {
+		return succeeded;
+	}
+
+	/**
+	 * @return Wall time of the partition threads in ms, summed over the partitions
+	 */
+	public long getThreadMillis() {
+		return Math.round(threadNanos.sum() / NANOS_PER_MILLI);
+	}
+
+	/**
+	 * @return CPU time of the partition threads in ms, the rest of their wall time is spent waiting, mostly on the
+	 *         database
+	 */
+	public long getThreadCpuMillis() {
+		return Math.round(threadCpuNanos.sum() / NANOS_PER_MILLI);
+	}
+
+	/**
+	 * @return One line summary of the refresh, without the stages
+	 */
+	public String getSummary() {
+		return String.format(
+				"%s refresh started %s %s in %dms after [%d] attempt(s), [%d] objects, [%.0f] objects per second, partition threads used %dms of CPU out of %dms",
+				cache, getStartTime(), succeeded ? "succeeded" : "failed", durationMillis, attempts, objectCount,
+				getObjectsPerSecond(), getThreadCpuMillis(), getThreadMillis());
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+
+		StringBuilder report = new StringBuilder(getSummary());
+
+		for (RefreshStage stage : getStages()) {
+			report.append(System.lineSeparator()).append("\t").append(stage);
+		}
+
+		return report.toString();
+	}
+}
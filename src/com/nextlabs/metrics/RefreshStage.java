@@ -0,0 +1,82 @@
+package com.nextlabs.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Time spent by a full refresh in one stage, such as the stream of a table or the cache writes, summed over the
+ * partitions loading it. The wait is the time blocked in the connection pool and the JDBC driver, executing the query
+ * and fetching the rows, the rest of the stage is spent in the plugin building or writing the objects.
+ */
+public class RefreshStage {
+
+	private static final double NANOS_PER_MILLI = 1000000.00;
+
+	private final String name;
+	private final LongAdder rows = new LongAdder();
+	private final LongAdder nanos = new LongAdder();
+	private final LongAdder waitNanos = new LongAdder();
+
+	/**
+	 * @param name Name of the stage, such as DARIT-DB_1
+	 */
+	public RefreshStage(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Record the work of one partition on the stage
+	 * @param rowCount Number of rows read or objects written
+	 * @param stageNanos Time spent in the stage in nanoseconds
+	 * @param stageWaitNanos Part of the time blocked in the database access
+	 */
+	public void record(long rowCount, long stageNanos, long stageWaitNanos) {
+		rows.add(rowCount);
+		nanos.add(stageNanos);
+		waitNanos.add(stageWaitNanos);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getRows() {
+		return rows.sum();
+	}
+
+	public long getNanos() {
+		return nanos.sum();
+	}
+
+	public long getWaitNanos() {
+		return waitNanos.sum();
+	}
+
+	public long getMillis() {
+		return Math.round(nanos.sum() / NANOS_PER_MILLI);
+	}
+
+	public long getWaitMillis() {
+		return Math.round(waitNanos.sum() / NANOS_PER_MILLI);
+	}
+
+	public long getWorkMillis() {
+		return Math.round(Math.max(0, nanos.sum() - waitNanos.sum()) / NANOS_PER_MILLI);
+	}
+
+	/**
+	 * @return Rows per second of time spent in the stage, the partitions loading the stage at the same time add up
+	 */
+	public double getRowsPerSecond() {
+		long stageNanos = nanos.sum();
+		return (stageNanos == 0) ? 0 : rows.sum() * 1000.0 * NANOS_PER_MILLI / stageNanos;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return String.format("%s [%d] rows in %dms, [%.0f] rows per second, %dms waiting on the database, %dms in the plugin",
+				name, getRows(), getMillis(), getRowsPerSecond(), getWaitMillis(), getWorkMillis());
+	}
+}
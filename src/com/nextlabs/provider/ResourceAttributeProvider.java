@@ -16,16 +16,20 @@ import org.apache.commons.logging.LogFactory;
 
 import com.bluejungle.framework.expressions.EvalValue;
 import com.bluejungle.framework.expressions.IEvalValue;
-import com.bluejungle.framework.expressions.IMultivalue;
 import com.bluejungle.pf.domain.destiny.serviceprovider.IResourceAttributeProvider;
 import com.bluejungle.pf.domain.destiny.serviceprovider.ServiceProviderException;
 import com.bluejungle.pf.domain.epicenter.resource.IResource;
 import com.nextlabs.cache.ResourceCacheEngine;
 import com.nextlabs.common.Constants;
 import com.nextlabs.common.PropertyLoader;
+import com.nextlabs.common.RequestLog;
 import com.nextlabs.common.ResourceObject;
 import com.nextlabs.common.Util;
 import com.nextlabs.db.DBResouceProvider;
+import com.nextlabs.metrics.LatencyHistogram;
+import com.nextlabs.metrics.MetricsRegistry;
+import com.nextlabs.task.CachePreload;
+import com.nextlabs.task.ResourcesDeltaRefreshTask;
 import com.nextlabs.task.ResourcesRefreshTask;
 
 /**
@@ -41,8 +45,11 @@ public class ResourceAttributeProvider implements IResourceAttributeProvider {
 	private IEvalValue nullReturn;
 	ResourceCacheEngine engine;
 	DBResouceProvider dbProvider;
+	CachePreload preload;
+	RequestLog requestLog;
 	private static String LOG_INCOMING_REUQEST = "Incoming request from PEP with resource ID [%s] and request attribute name [%s] with RTYPE [%s]";
 	private static String LOG_RES_CACHE_MISSED = "Cache missed for resource id  [%s]. Attempt to query...";
+	private static String LOG_RES_KNOWN_MISSING = "Resource id [%s] was recently not found in Resources DB, skip query";
 	private static String LOG_RES_ATTRIBUTE_NEEDED = "Attribute [%s] is needed from Resources DB table";
 	private static String LOG_TIME_TAKEN = "Time Taken: %sms";
 
@@ -52,9 +59,18 @@ public class ResourceAttributeProvider implements IResourceAttributeProvider {
 	 * Initialize all the needed resources for the plugin
 	 */
 	public void init() {
+		init(PropertyLoader.loadPropertiesInPDP(CLIENT_PROPS_FILE), PropertyLoader.getPropertiesFilePath(CLIENT_PROPS_FILE));
+	}
+
+	/**
+	 * Initialize the plugin with the given properties instead of the ones of the PDP install folder
+	 * @param props Properties of the plugin
+	 * @param propsFilePath Path of the properties file, the database password gets encrypted in it
+	 */
+	public void init(Properties props, String propsFilePath) {
 		long startTime = System.nanoTime();
 		LOG.debug("init() started");
-		PLUGIN_PROPS = PropertyLoader.loadPropertiesInPDP(CLIENT_PROPS_FILE);
+		PLUGIN_PROPS = props;
 
 		// Set null return
 		String nullString = PLUGIN_PROPS.getProperty("null_string");
@@ -64,6 +80,10 @@ public class ResourceAttributeProvider implements IResourceAttributeProvider {
 			nullReturn = EvalValue.build(nullString);
 		}
 
+		// trace and sampled access log of the requests
+		requestLog = new RequestLog(PLUGIN_PROPS, LOG, "resource id",
+				MetricsRegistry.register("Latency", "ResourceGetAttribute", new LatencyHistogram()));
+
 		// Initialize Cache
 		engine = ResourceCacheEngine.getInstance();
 		engine.initializeCache(PLUGIN_PROPS);
@@ -74,20 +94,38 @@ public class ResourceAttributeProvider implements IResourceAttributeProvider {
 		if (PLUGIN_PROPS.getProperty("profile_names") == null
 				|| PLUGIN_PROPS.getProperty("profile_names").length() == 0) {
 			dbProvider.setIsSingleProfile(true);
-			dbProvider.loadSingleProfile(PLUGIN_PROPS, PropertyLoader.getPropertiesFilePath(CLIENT_PROPS_FILE));
+			dbProvider.loadSingleProfile(PLUGIN_PROPS, propsFilePath);
 		} else {
 			dbProvider.setIsSingleProfile(false);
-			dbProvider.loadProfiles(PLUGIN_PROPS, PropertyLoader.getPropertiesFilePath(CLIENT_PROPS_FILE));
+			dbProvider.loadProfiles(PLUGIN_PROPS, propsFilePath);
 		}
 
+		preload = new CachePreload(PLUGIN_PROPS, "resource", dbProvider, ResourcesRefreshTask.getInstance());
+
 		try {	
-			dbProvider.initDBConnetionPool(dbProvider.getProfile());
+			dbProvider.initDBConnetionPools();
+
+			dbProvider.registerIdentifiers();
+
+			// serve the snapshot of the last refresh right away and reconcile it with the tables in the background,
+			// lookups don't wait for a cache which is already warm
+			boolean warm = engine.loadSnapshot() > 0;
+
+			if (preload.isEnabled() || warm) {
+				preload.start(!warm);
+			}
 
 			if (PLUGIN_PROPS.getProperty("expired_mode", "purge").equals("purge")) {
 				LOG.info("Schedule timer for purging resources cache");
 
 				scheduleTimer();
 			}
+
+			if (dbProvider.isDeltaRefreshEnabled()) {
+				LOG.info("Schedule delta refresh of resources cache");
+
+				scheduleDeltaRefresh();
+			}
 		} catch (Exception e) {
 			LOG.error(e.getMessage(), e);
 		}
@@ -96,6 +134,18 @@ public class ResourceAttributeProvider implements IResourceAttributeProvider {
 		LOG.info(String.format(LOG_TIME_TAKEN, computeTimeTaken(startTime, System.nanoTime())));
 	}
 
+	/**
+	 * Schedule the delta refresh applying the table changes to the cache between two reload
+	 */
+	private void scheduleDeltaRefresh() {
+
+		int interval = dbProvider.getDeltaRefreshInterval();
+
+		ScheduledExecutorService service = Executors.newSingleThreadScheduledExecutor();
+		service.scheduleWithFixedDelay(ResourcesDeltaRefreshTask.getInstance(), interval, interval, TimeUnit.SECONDS);
+		LOG.info(String.format("Delta refresh has been scheduled every [%d] seconds", interval));
+	}
+
 	/**
 	 * Schedule the timer for reload the cache
 	 */
@@ -186,44 +236,51 @@ public class ResourceAttributeProvider implements IResourceAttributeProvider {
 	/* (non-Javadoc)
 	 * @see com.bluejungle.pf.domain.destiny.serviceprovider.IResourceAttributeProvider#getAttribute(com.bluejungle.pf.domain.epicenter.resource.IResource, java.lang.String)
 	 * Main entry where the PDP will call in to get the attribute needed for a resource
+	 * Not synchronized, cache hits run in parallel and misses only wait for callers asking for the same resource ID
 	 */
-	public synchronized IEvalValue getAttribute(IResource resource, String attribute) throws ServiceProviderException {
+	public IEvalValue getAttribute(IResource resource, String attribute) throws ServiceProviderException {
+
+		// the latency and the access line are recorded whichever way the request ends
+		long startTime = System.nanoTime();
+		String resID = null;
 
 		try {
-			long startTime = System.nanoTime();
-			String resID = (String) resource.getAttribute(Constants.RESOURCE_ID).getValue();
+			resID = (String) resource.getAttribute(Constants.RESOURCE_ID).getValue();
 			String rType = (String) resource.getAttribute(Constants.RTYPE).getValue();
-			LOG.info(String.format(LOG_INCOMING_REUQEST, resID, attribute, rType));
+			requestLog.log(LOG_INCOMING_REUQEST, resID, attribute, rType);
 
-			LOG.debug(String.format("Getting attribute [%s] for [%s]", attribute.toLowerCase(), resID));
+			if (LOG.isDebugEnabled()) {
+				LOG.debug(String.format("Getting attribute [%s] for [%s]", attribute.toLowerCase(), resID));
+			}
 
 			if (rType == null) {
-				// Handling for Provider refreshing cache.
-				while (dbProvider.isRefreshing()) {
-					LOG.info("Resource Provider is flusing cache, sleep for 20ms then re-try");
-					try {
-						Thread.sleep(20);
-					} catch (InterruptedException e) {
-						LOG.error(e.getMessage(), e);
-					}
-				}
+				// No need to wait for a running refresh, it builds a new cache generation while we keep reading the current one
 
 				// Determine attribute from where
-				if (dbProvider.getProfile().getAttributesToPull().contains(attribute)
-						|| dbProvider.getProfile().getTableProgHDAttributesToPull().contains(attribute)
-						|| dbProvider.getProfile().getTableProgITAttributesToPull().contains(attribute)
-						|| dbProvider.getProfile().getTableEXCC2TAttributesToPull().contains(attribute)) {
+				if (dbProvider.providesItemAttribute(attribute)) {
 
 					ResourceObject resObj = engine.getItemObjectFromCache(resID);
 
-					// try again with case insensitive
-					if (resObj == null) {
-						resObj = engine.getItemObjectFromCache(resID.toLowerCase());
+					// the preload may still be loading it, wait a bounded time for it before querying the DB
+					if (resObj == null && preload.isLoading() && preload.awaitLoaded()) {
+						resObj = engine.getItemObjectFromCache(resID);
+					}
+
+					if (resObj != null) {
+						engine.getItemMetrics().hit();
 					}
 
 					// cache doesn't contain the user, query from DB
+					// id recently not found in the DB, don't query it again
+					if (resObj == null && engine.isMissingItem(resID)) {
+						engine.getItemMetrics().negativeHit();
+						requestLog.log(LOG_RES_KNOWN_MISSING, resID);
+						return nullReturn;
+					}
+
 					if (resObj == null) {
-						LOG.info(String.format(LOG_RES_CACHE_MISSED, resID));
+						requestLog.log(LOG_RES_CACHE_MISSED, resID);
+						engine.getItemMetrics().miss();
 
 						try {
 							resObj = dbProvider.getItemObject(resID, attribute.toLowerCase());
@@ -232,16 +289,19 @@ public class ResourceAttributeProvider implements IResourceAttributeProvider {
 							LOG.error(e.getMessage(), e);
 							return nullReturn;
 						}
+
+						if (resObj == null) {
+							engine.addMissingItem(resID);
+						}
 					}
 
 					if (resObj == null) {
 						LOG.warn(String.format("Cannot resolve attribute [%s] for [%s] after query resource DB",
 								attribute, resID));
-						LOG.info(String.format(LOG_TIME_TAKEN, computeTimeTaken(startTime, System.nanoTime())));
 						return nullReturn;
 					}
 
-					LOG.info(String.format(LOG_RES_ATTRIBUTE_NEEDED, attribute));
+					requestLog.log(LOG_RES_ATTRIBUTE_NEEDED, attribute);
 					
 					// If attribute request is ecc2 and ectype = part then switch the attribute to
 					// ecc2_1
@@ -249,7 +309,7 @@ public class ResourceAttributeProvider implements IResourceAttributeProvider {
 						IEvalValue ecTypeEval = resource.getAttribute(Constants.ATTRIBUTE_ECTYPE);
 
 						if (ecTypeEval != IEvalValue.NULL && ecTypeEval.getValue().toString().equalsIgnoreCase(Constants.ATTRIBUTE_ECTYPE_PART)) {
-							LOG.info("ECType is part, switching attribute to look from MAEX table");
+							requestLog.log("ECType is part, switching attribute to look from MAEX table");
 							attribute = Constants.ATTRIBUTE_EXCC2_1;
 						}
 					}
@@ -257,65 +317,55 @@ public class ResourceAttributeProvider implements IResourceAttributeProvider {
 					IEvalValue val = resObj.getAttribute(attribute.toLowerCase());
 
 					if (val == null || val.getValue() == null) {
-						LOG.info(String.format("Attribute [%s] is null for resource [%s]", attribute, resID));
+						requestLog.log("Attribute [%s] is null for resource [%s]", attribute, resID);
 						val = nullReturn;
 					}
 
-					if (val.getValue() instanceof IMultivalue) {
-						StringBuilder sb = new StringBuilder("[").append(resID).append("] has attribute [").append(attribute).append("] with value =");
-
-						boolean first = true;
-						for (IEvalValue v : (IMultivalue) val.getValue()) {
-							if (!first) {
-								sb.append(", ");
-							}
-							first = false;
-							if (v == null) {
-								sb.append("null");
-							} else {
-								sb.append(v.getValue());
-							}
-						}
-												
-						if (first) {
-							sb.append("[MULTI_EMPTY]");
-						}
-						
-						LOG.info(sb.toString());
-					} else {
-						LOG.info(String.format("resource id [%s] has attribute [%s] with value = [%s]", resID,attribute, val.getValue()));
-					}
-					LOG.info(String.format(LOG_TIME_TAKEN, computeTimeTaken(startTime, System.nanoTime())));
+					requestLog.logValue(resID, attribute, val);
 					
 					return val;
 
 				} else {
-					LOG.info(String.format("Unknow attribute [%s] request from PEP, will return Java null",attribute));
-					LOG.info(String.format(LOG_TIME_TAKEN, computeTimeTaken(startTime, System.nanoTime())));
+					requestLog.log("Unknow attribute [%s] request from PEP, will return Java null", attribute);
 					return null;
 				}
 
 			} else if (rType.equalsIgnoreCase(Constants.RTYPE_PROGRAM)) {
 
 				// Determine attribute from where
-				if (dbProvider.getProfile().getProgAttributesToPull().contains(attribute)) {
+				if (dbProvider.providesProgramAttribute(attribute)) {
 
-					if (!resID.matches("-?(0|[1-9]\\d*)")) {
+					// parsed once for the check and the program index, an integer longer than 18 digits is not parsed
+					long progId = Util.parseInteger(resID);
+
+					if (progId == Util.NOT_AN_INTEGER && !Util.isInteger(resID)) {
 						LOG.error(
 								"Resource ID is not integer value, skip getting attribute value and return empty value");
 						return null;
 					}
 
-					ResourceObject resObj = engine.getProgObjectFromCache(resID);
+					ResourceObject resObj = engine.getProgObjectFromCache(resID, progId);
 
-					// try again with case insensitive
-					if (resObj == null) {
-						resObj = engine.getProgObjectFromCache(resID.toLowerCase());
+					// the preload may still be loading it, wait a bounded time for it before querying the DB
+					if (resObj == null && preload.isLoading() && preload.awaitLoaded()) {
+						resObj = engine.getProgObjectFromCache(resID, progId);
+					}
+
+					if (resObj != null) {
+						engine.getProgMetrics().hit();
 					}
 
 					// cache doesn't contain the user, query from AD
+					// id recently not found in the DB, don't query it again
+					if (resObj == null && engine.isMissingProgram(resID)) {
+						engine.getProgMetrics().negativeHit();
+						requestLog.log(LOG_RES_KNOWN_MISSING, resID);
+						return nullReturn;
+					}
+
 					if (resObj == null) {
-						LOG.info(String.format(LOG_RES_CACHE_MISSED, resID));
+						requestLog.log(LOG_RES_CACHE_MISSED, resID);
+						engine.getProgMetrics().miss();
 
 						try {
 							resObj = dbProvider.getProgramObject(resID, attribute.toLowerCase());
@@ -324,63 +374,40 @@ public class ResourceAttributeProvider implements IResourceAttributeProvider {
 							LOG.error(e.getMessage(), e);
 							return nullReturn;
 						}
+
+						if (resObj == null) {
+							engine.addMissingProgram(resID);
+						}
 					}
 
 					if (resObj == null) {
 						LOG.warn(String.format("Cannot resolve attribute [%s] for [%s] after query resource DB",
 								attribute, resID));
-						LOG.info(String.format(LOG_TIME_TAKEN, computeTimeTaken(startTime, System.nanoTime())));
 						return nullReturn;
 					}
 
-					LOG.info(String.format(LOG_RES_ATTRIBUTE_NEEDED, attribute));
+					requestLog.log(LOG_RES_ATTRIBUTE_NEEDED, attribute);
 
 					IEvalValue val = resObj.getAttribute(attribute.toLowerCase());
 
 					if (val == null || val.getValue() == null) {
-						LOG.info(String.format("Attribute [%s] is null for resource [%s]", attribute, resID));
+						requestLog.log("Attribute [%s] is null for resource [%s]", attribute, resID);
 						val = nullReturn;
 					}
 
-					if (val.getValue() instanceof IMultivalue) {
-						StringBuilder sb = new StringBuilder("[").append(resID).append("] has attribute [").append(attribute).append("] with value = ");
-
-						boolean first = true;
-						for (IEvalValue v : (IMultivalue) val.getValue()) {
-							if (!first) {
-								sb.append(", ");
-							}
-							first = false;
-							if (v == null) {
-								sb.append("null");
-							} else {
-								sb.append(v.getValue());
-							}
-							
-							if (first) {
-								sb.append("[MULTI_EMPTY]");
-							}
-						}
-						LOG.info(sb.toString());
-					} else {
-						LOG.info(String.format("resource id [%s] has attribute [%s] with value = [%s]", resID,
-								attribute, val.getValue()));
-					}
-					LOG.info(String.format(LOG_TIME_TAKEN, computeTimeTaken(startTime, System.nanoTime())));
+					requestLog.logValue(resID, attribute, val);
 
 					return val;
 
 				} else {
 
-					LOG.info(String.format("Unknow attribute [%s] request from PEP, will return Java null", attribute));
-					LOG.info(String.format(LOG_TIME_TAKEN, computeTimeTaken(startTime, System.nanoTime())));
+					requestLog.log("Unknow attribute [%s] request from PEP, will return Java null", attribute);
 					return null;
 				}
 
 			} else {
 				
-				LOG.info(String.format("Unknow RTYPE [%s] request from PEP, will return Java null", rType));
-				LOG.info(String.format(LOG_TIME_TAKEN, computeTimeTaken(startTime, System.nanoTime())));
+				requestLog.log("Unknow RTYPE [%s] request from PEP, will return Java null", rType);
 				return null;
 			}
 
@@ -388,6 +415,8 @@ public class ResourceAttributeProvider implements IResourceAttributeProvider {
 			LOG.error("Fatal exception occured, returning IEValve null value");
 			LOG.error(e.getMessage(), e);
 			return nullReturn;
+		} finally {
+			requestLog.done(startTime, resID, attribute);
 		}
 		
 	}
@@ -16,15 +16,19 @@ import org.apache.commons.logging.LogFactory;
 
 import com.bluejungle.framework.expressions.EvalValue;
 import com.bluejungle.framework.expressions.IEvalValue;
-import com.bluejungle.framework.expressions.IMultivalue;
 import com.bluejungle.pf.domain.destiny.serviceprovider.ISubjectAttributeProvider;
 import com.bluejungle.pf.domain.destiny.serviceprovider.ServiceProviderException;
 import com.bluejungle.pf.domain.destiny.subject.IDSubject;
 import com.nextlabs.cache.UserCacheEngine;
 import com.nextlabs.common.PropertyLoader;
+import com.nextlabs.common.RequestLog;
 import com.nextlabs.common.UserObject;
 import com.nextlabs.common.Util;
 import com.nextlabs.db.DBUserProvider;
+import com.nextlabs.metrics.LatencyHistogram;
+import com.nextlabs.metrics.MetricsRegistry;
+import com.nextlabs.task.CachePreload;
+import com.nextlabs.task.SubjectDeltaRefreshTask;
 import com.nextlabs.task.SubjectRefreshTask;
 
 /**
@@ -40,8 +44,11 @@ public class UserAttributeProvider implements ISubjectAttributeProvider {
 	private IEvalValue nullReturn;
 	UserCacheEngine engine;
 	DBUserProvider dbUserProvider;
+	CachePreload preload;
+	RequestLog requestLog;
 	private static String LOG_INCOMING_REUQEST = "Incoming request from PEP with userId [%s]";
 	private static String LOG_USER_CACHE_MISSED = "Cache missed for USER [%s]. Attempt to query...";
+	private static String LOG_USER_KNOWN_MISSING = "USER [%s] was recently not found in DB, skip query";
 	private static String LOG_USER_ATTRIBUTE_NEEDED = "Attribute [%s] is needed from User DB";
 	private static String LOG_LINK_ATTRIBUTE_NEEDED = "Attribute [%s] is needed from link attribute";
 	private static String LOG_TIME_TAKEN = "Time Taken: %sms";
@@ -53,9 +60,18 @@ public class UserAttributeProvider implements ISubjectAttributeProvider {
 	 * Initialize all the needed resources for the plugin
 	 */
 	public void init() {
+		init(PropertyLoader.loadPropertiesInPDP(CLIENT_PROPS_FILE), PropertyLoader.getPropertiesFilePath(CLIENT_PROPS_FILE));
+	}
+
+	/**
+	 * Initialize the plugin with the given properties instead of the ones of the PDP install folder
+	 * @param props Properties of the plugin
+	 * @param propsFilePath Path of the properties file, the database password gets encrypted in it
+	 */
+	public void init(Properties props, String propsFilePath) {
 		long startTime = System.nanoTime();
 		LOG.debug("init() started");
-		PLUGIN_PROPS = PropertyLoader.loadPropertiesInPDP(CLIENT_PROPS_FILE);
+		PLUGIN_PROPS = props;
 	
 		// Set null return
 		String nullString = PLUGIN_PROPS.getProperty("null_string");
@@ -65,6 +81,10 @@ public class UserAttributeProvider implements ISubjectAttributeProvider {
 			nullReturn = EvalValue.build(nullString);
 		}
 
+		// trace and sampled access log of the requests
+		requestLog = new RequestLog(PLUGIN_PROPS, LOG, "user",
+				MetricsRegistry.register("Latency", "UserGetAttribute", new LatencyHistogram()));
+
 		// Initialize Cache
 		engine = UserCacheEngine.getInstance();
 		engine.initializeCache(PLUGIN_PROPS);
@@ -74,21 +94,39 @@ public class UserAttributeProvider implements ISubjectAttributeProvider {
 		
 		if (PLUGIN_PROPS.getProperty("profile_names") == null|| PLUGIN_PROPS.getProperty("profile_names").length() == 0) {
 			dbUserProvider.setIsSingleProfile(true);
-			dbUserProvider.loadSingleProfile(PLUGIN_PROPS, PropertyLoader.getPropertiesFilePath(CLIENT_PROPS_FILE));
+			dbUserProvider.loadSingleProfile(PLUGIN_PROPS, propsFilePath);
 		} else {
 			dbUserProvider.setIsSingleProfile(false);
-			dbUserProvider.loadProfiles(PLUGIN_PROPS, PropertyLoader.getPropertiesFilePath(CLIENT_PROPS_FILE));
+			dbUserProvider.loadProfiles(PLUGIN_PROPS, propsFilePath);
 		}
 		
+		preload = new CachePreload(PLUGIN_PROPS, "user", dbUserProvider, SubjectRefreshTask.getInstance());
+
 		try {
 			
-			dbUserProvider.initDBConnetionPool(dbUserProvider.getProfile());
+			dbUserProvider.initDBConnetionPools();
+
+			dbUserProvider.registerIdentifiers();
+
+			// serve the snapshot of the last refresh right away and reconcile it with the tables in the background,
+			// lookups don't wait for a cache which is already warm
+			boolean warm = engine.loadSnapshot() > 0;
+
+			if (preload.isEnabled() || warm) {
+				preload.start(!warm);
+			}
 			
 			if(PLUGIN_PROPS.getProperty("expired_mode","purge").equals("purge")) {
 				LOG.info("Schedule timer for purging user cache");
 				//dbUserProvider.refreshCache();
 				scheduleTimer();
 			}
+
+			if (dbUserProvider.isDeltaRefreshEnabled()) {
+				LOG.info("Schedule delta refresh of user cache");
+
+				scheduleDeltaRefresh();
+			}
 		} catch (Exception e) {
 			LOG.error(e.getMessage(), e);
 		}
@@ -97,6 +135,18 @@ public class UserAttributeProvider implements ISubjectAttributeProvider {
 		LOG.info(String.format(LOG_TIME_TAKEN,computeTimeTaken(startTime, System.nanoTime())));
 	}
 
+	/**
+	 * Schedule the delta refresh applying the table changes to the cache between two reload
+	 */
+	private void scheduleDeltaRefresh() {
+
+		int interval = dbUserProvider.getDeltaRefreshInterval();
+
+		ScheduledExecutorService service = Executors.newSingleThreadScheduledExecutor();
+		service.scheduleWithFixedDelay(SubjectDeltaRefreshTask.getInstance(), interval, interval, TimeUnit.SECONDS);
+		LOG.info(String.format("Delta refresh has been scheduled every [%d] seconds", interval));
+	}
+
 	/**
 	 * Schedule the timer for reload the cache
 	 */
@@ -180,41 +230,49 @@ public class UserAttributeProvider implements ISubjectAttributeProvider {
 	/* (non-Javadoc)
 	 * @see com.bluejungle.pf.domain.destiny.serviceprovider.ISubjectAttributeProvider#getAttribute(com.bluejungle.pf.domain.destiny.subject.IDSubject, java.lang.String)
 	 * Main entry where the PDP will call in to get the attribute needed for a subject
+	 * Not synchronized, lookups run in parallel and misses only wait for callers asking for the same uid
 	 */
-	public synchronized IEvalValue getAttribute(IDSubject subj, String attribute) throws ServiceProviderException {
+	public IEvalValue getAttribute(IDSubject subj, String attribute) throws ServiceProviderException {
+
+		// the latency and the access line are recorded whichever way the request ends
+		long startTime = System.nanoTime();
+		String userId = null;
 
 		try {
 
-			long startTime = System.nanoTime();
-			String userId = subj.getUid();
+			userId = subj.getUid();
 
-			LOG.info(String.format(LOG_INCOMING_REUQEST, userId));
+			requestLog.log(LOG_INCOMING_REUQEST, userId);
 
-			LOG.debug(String.format("Getting attribute [%s] for [%s]", attribute.toLowerCase(), userId));
+			if (LOG.isDebugEnabled()) {
+				LOG.debug(String.format("Getting attribute [%s] for [%s]", attribute.toLowerCase(), userId));
+			}
 
-			if (dbUserProvider.getProfile().getAttributesToPull().contains(attribute)
-					|| dbUserProvider.getProfile().getLinkAttributesToPull().contains(attribute)) {
+			if (dbUserProvider.providesAttribute(attribute)) {
 
-				// Handling for Provider refreshing cache.
-				while (dbUserProvider.isRefreshing()) {
-					LOG.info("DB User Provider is flusing user cache, sleep for 20ms then re-try");
-					try {
-						Thread.sleep(20);
-					} catch (InterruptedException e) {
-						LOG.error(e.getMessage(), e);
-					}
+				// No need to wait for a running refresh, it builds a new cache generation while we keep reading the current one
+				UserObject userObj = engine.getUserObjectFromCache(userId);
 
+				// the preload may still be loading it, wait a bounded time for it before querying the DB
+				if (userObj == null && preload.isLoading() && preload.awaitLoaded()) {
+					userObj = engine.getUserObjectFromCache(userId);
 				}
-				UserObject userObj = engine.getUserObjectFromCache(userId);
 
-				// try again with case insensitive
-				if (userObj == null) {
-					userObj = engine.getUserObjectFromCache(userId.toLowerCase());
+				if (userObj != null) {
+					engine.getUserMetrics().hit();
 				}
 
 				// cache doesn't contain the user, query from AD
+				// uid recently not found in the DB, don't query it again
+				if (userObj == null && engine.isMissingUser(userId)) {
+					engine.getUserMetrics().negativeHit();
+					requestLog.log(LOG_USER_KNOWN_MISSING, userId);
+					return nullReturn;
+				}
+
 				if (userObj == null) {
-					LOG.info(String.format(LOG_USER_CACHE_MISSED, userId));
+					requestLog.log(LOG_USER_CACHE_MISSED, userId);
+					engine.getUserMetrics().miss();
 
 					try {
 						userObj = dbUserProvider.getUserObject(userId, attribute.toLowerCase());
@@ -223,58 +281,36 @@ public class UserAttributeProvider implements ISubjectAttributeProvider {
 						LOG.error(e.getMessage(), e);
 						return nullReturn;
 					}
+
+					if (userObj == null) {
+						engine.addMissingUser(userId);
+					}
 				}
 				if (userObj == null) {
 					LOG.warn(String.format("Cannot resolve attribute [%s] for [%s] after query DB", attribute, userId));
-					LOG.info(String.format(LOG_TIME_TAKEN, computeTimeTaken(startTime, System.nanoTime())));
 					return nullReturn;
 				}
 
 				// Determine attribute from where
-				if (dbUserProvider.getProfile().getAttributesToPull().contains(attribute)) {
-					LOG.info(String.format(LOG_USER_ATTRIBUTE_NEEDED, attribute));
-				} else if (dbUserProvider.getProfile().getLinkAttributesToPull().contains(attribute)) {
-					LOG.info(String.format(LOG_LINK_ATTRIBUTE_NEEDED, attribute));
+				if (dbUserProvider.isLinkAttribute(attribute)) {
+					requestLog.log(LOG_LINK_ATTRIBUTE_NEEDED, attribute);
+				} else {
+					requestLog.log(LOG_USER_ATTRIBUTE_NEEDED, attribute);
 				}
 
 				IEvalValue val = userObj.getAttribute(attribute.toLowerCase());
 
 				if (val == null || val.getValue() == null) {
-					LOG.info(String.format("Attribute [%s] is null for user [%s]", attribute, userId));
+					requestLog.log("Attribute [%s] is null for user [%s]", attribute, userId);
 					val = nullReturn;
 				}
 
-				if (val.getValue() instanceof IMultivalue) {
-					StringBuilder sb = new StringBuilder("[").append(userId).append("] has attribute [")
-							.append(attribute).append("] with value = ");
-
-					boolean first = true;
-					for (IEvalValue v : (IMultivalue) val.getValue()) {
-						if (!first) {
-							sb.append(", ");
-						}
-						first = false;
-						if (v == null) {
-							sb.append("null");
-						} else {
-							sb.append(v.getValue());
-						}
-						
-						if (first) {
-							sb.append("[MULTI_EMPTY]");
-						}
-					}
-					LOG.debug(sb.toString());
-				} else {
-					LOG.info(String.format("user [%s] has attribute [%s] with value = [%s]", userId, attribute, val.getValue()));
-				}
-				LOG.info(String.format(LOG_TIME_TAKEN, computeTimeTaken(startTime, System.nanoTime())));
+				requestLog.logValue(userId, attribute, val);
 
 				return val;
 
 			} else {
-				LOG.info(String.format("Unknow attribute [%s] request from PEP, will return Java NULL", attribute));
-				LOG.info(String.format(LOG_TIME_TAKEN, computeTimeTaken(startTime, System.nanoTime())));
+				requestLog.log("Unknow attribute [%s] request from PEP, will return Java NULL", attribute);
 				return null;
 			}
 
@@ -282,6 +318,8 @@ public class UserAttributeProvider implements ISubjectAttributeProvider {
 			LOG.error("Fatal exception occured, returning PDP null value");
 			LOG.error(e.getMessage(), e);
 			return nullReturn;
+		} finally {
+			requestLog.done(startTime, userId, attribute);
 		}
 	}
 
@@ -0,0 +1,158 @@
+package com.nextlabs.task;
+
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.nextlabs.common.Provider;
+
+/**
+ * Load the cache once in the background when the plugin starts, instead of waiting for the first scheduled refresh.
+ * Until the preload is done a lookup missing the cache may wait a bounded time for it before querying the database.
+ */
+public class CachePreload {
+
+	private static final Log LOG = LogFactory.getLog(CachePreload.class);
+	private static final long DEFAULT_WAIT = 0;
+	private static final int DEFAULT_PROGRESS_INTERVAL = 30;
+
+	private final String name;
+	private final Provider provider;
+	private final Runnable refreshTask;
+	private final boolean enabled;
+	private final CountDownLatch loaded;
+	private volatile boolean started;
+	private volatile long waitMillis;
+	private int progressInterval;
+
+	/**
+	 * Read preload, preload_wait_ms and preload_progress_interval_in_secs
+	 * @param props Properties of the plugin
+	 * @param name Name of the cache used in the logs, such as "user"
+	 * @param provider Provider reporting the progress of the refresh
+	 * @param refreshTask Task running the full refresh
+	 */
+	public CachePreload(Properties props, String name, Provider provider, Runnable refreshTask) {
+
+		this.name = name;
+		this.provider = provider;
+		this.refreshTask = refreshTask;
+		loaded = new CountDownLatch(1);
+
+		enabled = Boolean.parseBoolean(props.getProperty("preload", "false").trim());
+
+		try {
+			waitMillis = Long.parseLong(props.getProperty("preload_wait_ms", String.valueOf(DEFAULT_WAIT)).trim());
+		} catch (Exception ex) {
+			LOG.error(String.format("Not able to read preload_wait_ms, hard set to %d", DEFAULT_WAIT));
+			waitMillis = DEFAULT_WAIT;
+		}
+
+		try {
+			progressInterval = Integer.parseInt(props
+					.getProperty("preload_progress_interval_in_secs", String.valueOf(DEFAULT_PROGRESS_INTERVAL)).trim());
+		} catch (Exception ex) {
+			LOG.error(String.format("Not able to read preload_progress_interval_in_secs, hard set to %d",
+					DEFAULT_PROGRESS_INTERVAL));
+			progressInterval = DEFAULT_PROGRESS_INTERVAL;
+		}
+
+		LOG.info(String.format("preload will be set to [%s]", enabled));
+		if (enabled) {
+			LOG.info(String.format("preload_wait_ms will be set to [%d]", waitMillis));
+			LOG.info(String.format("preload_progress_interval_in_secs will be set to [%d]", progressInterval));
+		}
+	}
+
+	/**
+	 * Check if the preload is configured
+	 * @return true if preload is true
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Run the full refresh on its own thread and log its progress until it is done
+	 * @param gateLookups false if the cache is already warm, lookups then never wait for the preload
+	 */
+	public void start(boolean gateLookups) {
+
+		if (!gateLookups) {
+			waitMillis = 0;
+		}
+
+		started = true;
+
+		final long startTime = System.currentTimeMillis();
+		final ScheduledExecutorService executor = Executors.newScheduledThreadPool(2, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "CachePreload-" + name);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		if (progressInterval > 0) {
+			executor.scheduleAtFixedRate(new Runnable() {
+				@Override
+				public void run() {
+					LOG.info(String.format("Preload of %s cache has loaded [%d] objects in %dms", name,
+							provider.getRefreshedObjectCount(), (System.currentTimeMillis() - startTime)));
+				}
+			}, progressInterval, progressInterval, TimeUnit.SECONDS);
+		}
+
+		executor.submit(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					refreshTask.run();
+				} catch (Exception e) {
+					LOG.error(String.format("Preload of %s cache encountered an exception.", name), e);
+				} finally {
+					// lookups waiting for the preload go on with whatever it has published
+					loaded.countDown();
+					executor.shutdownNow();
+					LOG.info(String.format("Preload of %s cache done with [%d] objects in %dms", name,
+							provider.getRefreshedObjectCount(), (System.currentTimeMillis() - startTime)));
+				}
+			}
+		});
+
+		LOG.info(String.format("Preload of %s cache started", name));
+	}
+
+	/**
+	 * Check if the preload is still running
+	 * @return true if the preload is started and not done yet
+	 */
+	public boolean isLoading() {
+		return started && loaded.getCount() > 0;
+	}
+
+	/**
+	 * Wait for the preload before querying the database on a cache miss
+	 * @return true if the preload is done, false if it is still running after preload_wait_ms
+	 */
+	public boolean awaitLoaded() {
+
+		if (waitMillis <= 0) {
+			return loaded.getCount() == 0;
+		}
+
+		try {
+			return loaded.await(waitMillis, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package com.nextlabs.task;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.nextlabs.db.DBResouceProvider;
+
+/**
+ * This class provide thread execution for applying the resource table changes between two reload
+ */
+public class ResourcesDeltaRefreshTask implements Runnable {
+
+	private static final Log LOG = LogFactory.getLog(ResourcesDeltaRefreshTask.class);
+
+	private static ResourcesDeltaRefreshTask task;
+
+	/**
+	 * Singleton control of the delta refresh task
+	 * @return Object of ResourcesDeltaRefreshTask
+	 */
+	public static ResourcesDeltaRefreshTask getInstance() {
+		if (task == null) {
+			task = new ResourcesDeltaRefreshTask();
+		}
+
+		return task;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override	
+	public void run() {
+		LOG.debug("Delta refresh started");
+
+		DBResouceProvider.getInstance().refreshDelta();
+
+		LOG.debug("Delta refresh finished");
+	}
+
+}
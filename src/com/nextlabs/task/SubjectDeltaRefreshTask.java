@@ -0,0 +1,41 @@
+package com.nextlabs.task;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.nextlabs.db.DBUserProvider;
+
+/**
+ * This class provide thread execution for applying the subject or user table changes between two reload
+ */
+public class SubjectDeltaRefreshTask implements Runnable {
+
+	private static final Log LOG = LogFactory.getLog(SubjectDeltaRefreshTask.class);
+
+	private static SubjectDeltaRefreshTask task;
+
+	/**
+	 * Singleton control of the delta refresh task
+	 * @return Object of SubjectDeltaRefreshTask
+	 */
+	public static SubjectDeltaRefreshTask getInstance() {
+		if (task == null) {
+			task = new SubjectDeltaRefreshTask();
+		}
+
+		return task;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override	
+	public void run() {
+		LOG.debug("Delta refresh started");
+
+		DBUserProvider.getInstance().refreshDelta();
+
+		LOG.debug("Delta refresh finished");
+	}
+
+}